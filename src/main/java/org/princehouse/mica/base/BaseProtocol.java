@@ -6,6 +6,7 @@ import java.io.Serializable;
 import org.princehouse.mica.base.model.MiCA;
 import org.princehouse.mica.base.model.Protocol;
 import org.princehouse.mica.base.model.RuntimeState;
+import org.princehouse.mica.base.model.ViewMemo;
 import org.princehouse.mica.base.net.model.Address;
 import org.princehouse.mica.base.sugar.Sugar;
 import org.princehouse.mica.base.sugar.annotations.GossipRate;
@@ -30,12 +31,24 @@ public abstract class BaseProtocol implements Protocol, Serializable {
   public BaseProtocol() {
   }
 
-  // Clunky mechanism to register "foreign" objects when they are deserialized
-  // at a remote node
+  // Identifies the message this instance was deserialized from, if any. The receiver of a gossip
+  // request uses it to tell the initiator's protocol instances from its own (see
+  // RuntimeContextManager.setReceivedRuntimeState)
+  private transient Object foreignMark = null;
+
+  public Object getForeignMark() {
+    return foreignMark;
+  }
+
+  public void setForeignMark(Object foreignMark) {
+    this.foreignMark = foreignMark;
+  }
+
+  // stamp "foreign" objects when they are deserialized at a remote node
   private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
     in.defaultReadObject();
     if (in instanceof MarkingObjectInputStream) {
-      ((MarkingObjectInputStream) in).getForeignObjectSet().add(this);
+      foreignMark = ((MarkingObjectInputStream) in).getMark();
     }
   }
 
@@ -58,20 +71,39 @@ public abstract class BaseProtocol implements Protocol, Serializable {
   }
 
   /**
-   * The view contains probability-weighted list of neighbors for gossip.
+   * The view contains probability-weighted list of neighbors for gossip. Memoized within a runtime
+   * evaluation (see ViewMemo).
    */
   @Override
   public Distribution<Address> getView() {
-    return Sugar.v().executeSugarView(this);
+    ViewMemo memo = ViewMemo.current();
+    if (memo == null) {
+      return Sugar.v().executeSugarView(this);
+    } else if (memo.hasView(this)) {
+      return memo.getView(this);
+    }
+    Distribution<Address> view = Sugar.v().executeSugarView(this);
+    memo.putView(this, view);
+    return view;
   }
 
   /**
    * Rate is a multiplier for how fast a node gossips. getRate() is called by the MiCA runtime to
-   * determine how long to wait between gossips.
+   * determine how long to wait between gossips. Memoized within a runtime evaluation (see
+   * ViewMemo).
    */
   @Override
   public double getRate() {
-    return Sugar.v().executeSugarRate(this);
+    ViewMemo memo = ViewMemo.current();
+    if (memo == null) {
+      return Sugar.v().executeSugarRate(this);
+    }
+    Double rate = memo.getRate(this);
+    if (rate == null) {
+      rate = Sugar.v().executeSugarRate(this);
+      memo.putRate(this, rate);
+    }
+    return rate;
   }
 
   /**
@@ -4,6 +4,7 @@ import java.util.Map;
 import java.util.Set;
 import org.princehouse.mica.base.model.Protocol;
 import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.util.AddressIntMap;
 import org.princehouse.mica.util.Functional;
 
 public abstract class FailureDetector extends BaseProtocol {
@@ -13,7 +14,9 @@ public abstract class FailureDetector extends BaseProtocol {
   // number of consecutive failures to tolerate
   private int failureThreshold = 3;
 
-  public Map<Address, Integer> consecutiveFailureMap = Functional.map();
+  // records are never 0: positive after a failed contact, negative after a successful one. An
+  // AddressIntMap, so records are not boxed, unless a subclass assigns some other map.
+  public Map<Address, Integer> consecutiveFailureMap = new AddressIntMap();
   public Set<Address> failed = Functional.set();
 
   @Override
@@ -21,18 +24,16 @@ public abstract class FailureDetector extends BaseProtocol {
     if (selected == null) {
       return;
     }
-    Integer record = consecutiveFailureMap.get(selected);
+    int record = getRecord(selected);
     if (failed.contains(selected)) {
       return;
     }
-    if (record == null) {
-      return;
-    } else if (record > 0) {
+    if (record > 0) {
       // our last contact with this node failed
-      consecutiveFailureMap.put(selected, -record);
+      putRecord(selected, -record);
     } else if (record < 0) {
       // our last contact with this node succeeded; remove it from the map
-      consecutiveFailureMap.remove(selected);
+      removeRecord(selected);
     }
   }
 
@@ -41,9 +42,9 @@ public abstract class FailureDetector extends BaseProtocol {
     if (failed.contains(peer)) {
       return;
     }
-    Integer consecutiveFailures = consecutiveFailureMap.get(peer);
-    if (consecutiveFailures == null) {
-      consecutiveFailureMap.put(peer, 1);
+    int consecutiveFailures = getRecord(peer);
+    if (consecutiveFailures == 0) {
+      putRecord(peer, 1);
       return;
     }
 
@@ -54,15 +55,39 @@ public abstract class FailureDetector extends BaseProtocol {
     // make positive and increment number of failures
     consecutiveFailures++;
     if (consecutiveFailures > failureThreshold) {
-      consecutiveFailureMap.remove(peer);
+      removeRecord(peer);
       System.err.printf("-------------> %s belives %s has failed\n", getAddress(), peer);
       failed.add(peer);
       failureDetected(peer);
       logJson(LogFlag.detectFailure, "detect-failure", peer);
     } else {
-      consecutiveFailureMap.put(peer, consecutiveFailures);
+      putRecord(peer, consecutiveFailures);
+    }
+
+  }
+
+  private int getRecord(Address peer) {
+    if (consecutiveFailureMap instanceof AddressIntMap) {
+      return ((AddressIntMap) consecutiveFailureMap).getInt(peer, 0);
+    }
+    Integer record = consecutiveFailureMap.get(peer);
+    return (record != null ? record : 0);
+  }
+
+  private void putRecord(Address peer, int record) {
+    if (consecutiveFailureMap instanceof AddressIntMap) {
+      ((AddressIntMap) consecutiveFailureMap).putInt(peer, record);
+    } else {
+      consecutiveFailureMap.put(peer, record);
     }
+  }
 
+  private void removeRecord(Address peer) {
+    if (consecutiveFailureMap instanceof AddressIntMap) {
+      ((AddressIntMap) consecutiveFailureMap).removeKey(peer);
+    } else {
+      consecutiveFailureMap.remove(peer);
+    }
   }
 
   public void failureDetected(Address peer) {
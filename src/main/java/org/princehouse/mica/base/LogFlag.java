@@ -1,11 +1,17 @@
 package org.princehouse.mica.base;
 
 import java.util.List;
+import org.princehouse.mica.base.model.MiCA;
+import org.princehouse.mica.base.model.MicaOptions;
 import org.princehouse.mica.util.Functional;
 
 /**
  * LogFlag's enums are passed as flags to Protocol.logJson.  Different log levels can be suppressed
  * with command line flags to Launcher and TestHarness to custom-tailor the level of verbosity.
+ * <p>
+ * The log mask in effect comes from the options in effect (MiCA.getOptions(), see
+ * MicaOptions.getLogMask()), so experiments running in one JVM with their own options each log
+ * what their own options ask for.
  *
  * @author lonnie
  */
@@ -52,7 +58,7 @@ public enum LogFlag {
   }
 
   public boolean test() {
-    return test(LogFlag.currentLogMask);
+    return test(getCurrentLogMask());
   }
 
   public static int set(int flags, List<Object> flagNames) {
@@ -112,14 +118,26 @@ public enum LogFlag {
     return mask;
   }
 
-  private static int currentLogMask = defaultMask();
+  // mask in effect when there are no options
+  private static int fallbackLogMask = defaultMask();
 
+  /**
+   * Set the mask used when no options are in effect. Options carry their own mask; see
+   * MicaOptions.getLogMask().
+   *
+   * @param mask
+   */
   public static void setCurrentLogMask(int mask) {
-    currentLogMask = mask;
+    fallbackLogMask = mask;
   }
 
+  /**
+   * @return Log mask of the options in effect on this thread, or the fallback mask if there are
+   * none
+   */
   public static int getCurrentLogMask() {
-    return currentLogMask;
+    MicaOptions options = MiCA.getOptions();
+    return (options != null ? options.getLogMask() : fallbackLogMask);
   }
 
   /**
@@ -0,0 +1,307 @@
+package org.princehouse.mica.base.dataflow;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.objenesis.ObjenesisException;
+import org.objenesis.instantiator.ObjectInstantiator;
+import org.princehouse.mica.base.RuntimeErrorCondition;
+import org.princehouse.mica.base.dataflow.UpdateAnalysis.AnalysisFailed;
+import org.princehouse.mica.base.exceptions.AbortRound;
+import org.princehouse.mica.base.exceptions.FatalErrorHalt;
+import org.princehouse.mica.base.model.CommunicationPatternAgent;
+import org.princehouse.mica.base.model.MiCA;
+import org.princehouse.mica.base.model.MicaRuntime;
+import org.princehouse.mica.base.model.Protocol;
+import org.princehouse.mica.base.model.RuntimeState;
+import org.princehouse.mica.base.simple.SimpleCommunicationPatternAgent;
+import org.princehouse.mica.base.simple.TaggedPayload;
+import org.princehouse.mica.util.MarkingObjectInputStream;
+import org.princehouse.mica.util.SerializableClasses;
+
+/**
+ * Communication pattern agent for one protocol class, generated by DataflowCompiler from the
+ * fields its update() reads and writes (see UpdateAnalysis).
+ * <p>
+ * m1 carries a "shell" of the initiator's protocol instance: an instance of the same class with
+ * only the fields update() may read or write copied in (the others keep their default values), plus
+ * the initiator's RuntimeState. The receiver runs update() on the shell. m2 carries only the
+ * written fields of the shell, and the RuntimeState; the initiator assigns them to its live
+ * instance.
+ * <p>
+ * Fields written but never read are sent in m1 too, as update() may leave them untouched on some
+ * paths, and the initiator must not receive the shell's default values for them.
+ * <p>
+ * If the fields sent in m1 refer back to the initiator's protocol instance, the analysis of the
+ * shell does not cover what update() can reach through them; that round is sent with
+ * SimpleCommunicationPatternAgent's messages instead. So is a round in which the returned fields
+ * share objects with other fields of the instance (see SharingCheck), as f3 assigns the returned
+ * fields fresh copies.
+ *
+ * @author lonnie
+ */
+public class DataflowCommunicationPatternAgent implements CommunicationPatternAgent {
+
+  private static final SimpleCommunicationPatternAgent fallback = new SimpleCommunicationPatternAgent();
+
+  // TaggedPayload tags. m1 is a REQUEST (serialized shell and RuntimeState), m2 a RESPONSE
+  // (serialized written fields and RuntimeState), and SIMPLE wraps the fallback's messages.
+  private static final byte SIMPLE = 0;
+  private static final byte REQUEST = 1;
+  private static final byte RESPONSE = 2;
+
+  /**
+   * Stands for the initiator's protocol instance in m2, where update() stored references to it
+   */
+  private static class RootReference implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+  }
+
+  private final Class<? extends Protocol> protocolClass;
+  // fields copied into the shell (m1)
+  private final Field[] sent;
+  // fields returned (m2)
+  private final Field[] returned;
+  private final ObjectInstantiator<?> shells;
+  // null if the returned fields can only hold values
+  private final SharingCheck sharing;
+
+  private DataflowCommunicationPatternAgent(Class<? extends Protocol> protocolClass,
+      List<Field> sent, List<Field> returned, ObjectInstantiator<?> shells) {
+    this.protocolClass = protocolClass;
+    this.sent = sent.toArray(new Field[0]);
+    this.returned = returned.toArray(new Field[0]);
+    this.shells = shells;
+    for (Field f : this.sent) {
+      f.setAccessible(true);
+    }
+    for (Field f : this.returned) {
+      f.setAccessible(true);
+    }
+    sharing = (SharingCheck.needed(this.returned) ? new SharingCheck(protocolClass, this.returned)
+        : null);
+  }
+
+  /**
+   * Analyze a protocol class and build its agent
+   *
+   * @param protocolClass
+   * @return
+   * @throws AnalysisFailed If update() cannot be analyzed, or the class's serialized form is custom
+   */
+  public static DataflowCommunicationPatternAgent create(Class<? extends Protocol> protocolClass)
+      throws AnalysisFailed {
+    if (SerializableClasses.customizesSerialization(protocolClass)) {
+      throw new AnalysisFailed(protocolClass.getName() + " customizes serialization");
+    }
+    UpdateAnalysis analysis = UpdateAnalysis.analyze(protocolClass);
+    Set<Field> sent = new LinkedHashSet<Field>(analysis.getReads());
+    sent.addAll(analysis.getWrites());
+    List<Field> sentList = new ArrayList<Field>(sent);
+    Collections.sort(sentList, UpdateAnalysis.FIELD_ORDER);
+    return new DataflowCommunicationPatternAgent(protocolClass, sentList, analysis.getWrites(),
+        shells(protocolClass));
+  }
+
+  private static ObjectInstantiator<?> shells(Class<?> k) throws AnalysisFailed {
+    try {
+      return SerializableClasses.instantiator(k);
+    } catch (ObjenesisException e) {
+      throw new AnalysisFailed("no constructor for shell instances", e);
+    }
+  }
+
+  /**
+   * @return Fields of the initiator sent in m1
+   */
+  public Field[] getSentFields() {
+    return sent.clone();
+  }
+
+  /**
+   * @return Fields of the initiator returned in m2
+   */
+  public Field[] getReturnedFields() {
+    return returned.clone();
+  }
+
+  @Override
+  public Serializable f1(MicaRuntime initiatorRuntime) {
+    try {
+      Protocol live = initiatorRuntime.getProtocolInstance();
+      if (live.getClass() != protocolClass) {
+        return fallback.f1(initiatorRuntime);
+      }
+      if (sharing != null && sharing.shares(live)) {
+        // f3 would give the returned fields copies no longer shared with the rest of the state
+        return fallback.f1(initiatorRuntime);
+      }
+      Object shell = shells.newInstance();
+      for (Field f : sent) {
+        f.set(shell, f.get(live));
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      RootOutputStream out = new RootOutputStream(bytes, live, shell);
+      out.writeObject(new Object[]{shell, initiatorRuntime.getRuntimeState()});
+      out.close();
+      if (out.replaced) {
+        // the sent state refers back to the protocol instance
+        return fallback.f1(initiatorRuntime);
+      }
+      return new TaggedPayload(REQUEST, bytes.toByteArray());
+    } catch (IOException | IllegalAccessException e) {
+      throw new RuntimeException(e);
+    } finally {
+      MiCA.getRuntimeInterface().getRuntimeContextManager().clear();
+    }
+  }
+
+  @Override
+  public Serializable f2(MicaRuntime receiverRuntime, Serializable o)
+      throws FatalErrorHalt, AbortRound {
+    if (!TaggedPayload.is(o, REQUEST)) {
+      return fallback.f2(receiverRuntime, o);
+    }
+    Object[] state = null;
+    try {
+      state = (Object[]) new MarkingObjectInputStream(
+          new ByteArrayInputStream(((TaggedPayload) o).getPayload())).readObject();
+    } catch (IOException | ClassNotFoundException e) {
+      receiverRuntime.handleError(RuntimeErrorCondition.MISC_INTERNAL_ERROR, e);
+    }
+    Protocol shell = (Protocol) state[0];
+    RuntimeState runtimeState = (RuntimeState) state[1];
+    // the initiator may run a different protocol class than this agent was compiled for
+    DataflowCommunicationPatternAgent agent = this;
+    if (shell.getClass() != protocolClass) {
+      CommunicationPatternAgent a = DataflowCompiler.getAgent(shell.getClass());
+      if (!(a instanceof DataflowCommunicationPatternAgent)) {
+        receiverRuntime.handleError(RuntimeErrorCondition.MISC_INTERNAL_ERROR,
+            new IllegalStateException("no dataflow agent for " + shell.getClass().getName()));
+      }
+      agent = (DataflowCommunicationPatternAgent) a;
+    }
+
+    MiCA.getRuntimeInterface().getRuntimeContextManager().setNativeRuntime(receiverRuntime);
+    try {
+      MiCA.getRuntimeInterface().getRuntimeContextManager()
+          .setReceivedRuntimeState(shell, runtimeState);
+      try {
+        shell.update(receiverRuntime.getProtocolInstance());
+      } catch (Throwable t) {
+        receiverRuntime.handleError(RuntimeErrorCondition.UPDATE_EXCEPTION, t);
+      }
+      Object[] values = new Object[agent.returned.length + 1];
+      for (int i = 0; i < agent.returned.length; i++) {
+        values[i] = agent.returned[i].get(shell);
+      }
+      values[agent.returned.length] = runtimeState;
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      ObjectOutputStream out = new RootOutputStream(bytes, shell, new RootReference());
+      out.writeObject(values);
+      out.close();
+      return new TaggedPayload(RESPONSE, bytes.toByteArray());
+    } catch (IOException | IllegalAccessException e) {
+      receiverRuntime.handleError(RuntimeErrorCondition.MISC_INTERNAL_ERROR, e);
+      return null;
+    } finally {
+      MiCA.getRuntimeInterface().getRuntimeContextManager().clear();
+    }
+  }
+
+  @Override
+  public void f3(MicaRuntime initiatorRuntime, Serializable o) throws FatalErrorHalt, AbortRound {
+    if (!TaggedPayload.is(o, RESPONSE)) {
+      fallback.f3(initiatorRuntime, o);
+      return;
+    }
+    Protocol live = initiatorRuntime.getProtocolInstance();
+    try {
+      Object[] values = (Object[]) new RootInputStream(
+          new ByteArrayInputStream(((TaggedPayload) o).getPayload()), live).readObject();
+      for (int i = 0; i < returned.length; i++) {
+        returned[i].set(live, values[i]);
+      }
+      initiatorRuntime.setRuntimeState((RuntimeState) values[returned.length]);
+    } catch (IOException | ClassNotFoundException | IllegalAccessException e) {
+      initiatorRuntime.handleError(RuntimeErrorCondition.MISC_INTERNAL_ERROR, e);
+    }
+  }
+
+  @Override
+  public byte[] serialize(Serializable obj) {
+    if (obj instanceof TaggedPayload) {
+      return ((TaggedPayload) obj).toBytes();
+    }
+    return new TaggedPayload(SIMPLE, fallback.serialize(obj)).toBytes();
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <T extends Serializable> T deserialize(byte[] data) {
+    TaggedPayload m = TaggedPayload.fromBytes(data);
+    switch (m.getTag()) {
+      case REQUEST:
+      case RESPONSE:
+        return (T) m;
+      case SIMPLE:
+        return fallback.deserialize(m.getPayload());
+      default:
+        throw new RuntimeException("unknown message tag " + m.getTag());
+    }
+  }
+
+  // writes replacement in place of root
+  private static class RootOutputStream extends ObjectOutputStream {
+
+    private final Object root;
+    private final Object replacement;
+    private boolean replaced = false;
+
+    private RootOutputStream(OutputStream out, Object root, Object replacement)
+        throws IOException {
+      super(out);
+      this.root = root;
+      this.replacement = replacement;
+      enableReplaceObject(true);
+    }
+
+    @Override
+    protected Object replaceObject(Object obj) {
+      if (obj == root) {
+        replaced = true;
+        return replacement;
+      }
+      return obj;
+    }
+  }
+
+  // reads RootReference as root
+  private static class RootInputStream extends ObjectInputStream {
+
+    private final Object root;
+
+    private RootInputStream(InputStream in, Object root) throws IOException {
+      super(in);
+      this.root = root;
+      enableResolveObject(true);
+    }
+
+    @Override
+    protected Object resolveObject(Object obj) {
+      return (obj instanceof RootReference ? root : obj);
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package org.princehouse.mica.base.dataflow;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.princehouse.mica.base.dataflow.UpdateAnalysis.AnalysisFailed;
+import org.princehouse.mica.base.model.CommunicationPatternAgent;
+import org.princehouse.mica.base.model.Compiler;
+import org.princehouse.mica.base.model.Protocol;
+import org.princehouse.mica.base.simple.SimpleCommunicationPatternAgent;
+
+/**
+ * Compiler that partitions state by data-flow analysis of the protocol's @GossipUpdate method: m1
+ * carries only the initiator's fields that update() reads or writes, and m2 only the fields it
+ * writes (see DataflowCommunicationPatternAgent).
+ * <p>
+ * Each protocol class is analyzed once. Classes that cannot be analyzed fall back to
+ * SimpleCommunicationPatternAgent, which sends the complete state.
+ *
+ * @author lonnie
+ */
+public class DataflowCompiler extends Compiler {
+
+  private static final CommunicationPatternAgent fallback = new SimpleCommunicationPatternAgent();
+
+  private static final ConcurrentMap<Class<?>, CommunicationPatternAgent> agents =
+      new ConcurrentHashMap<Class<?>, CommunicationPatternAgent>();
+
+  public DataflowCompiler() {
+  }
+
+  @Override
+  public CommunicationPatternAgent compile(Protocol pinstance) {
+    return getAgent(pinstance.getClass());
+  }
+
+  /**
+   * @param protocolClass
+   * @return The agent for a protocol class: a DataflowCommunicationPatternAgent, or
+   * SimpleCommunicationPatternAgent if the class cannot be analyzed
+   */
+  public static CommunicationPatternAgent getAgent(Class<?> protocolClass) {
+    CommunicationPatternAgent agent = agents.get(protocolClass);
+    if (agent != null) {
+      return agent;
+    }
+    // analysis takes a while; runtimes compiling the same class wait for the first one rather
+    // than all repeating it
+    synchronized (agents) {
+      agent = agents.get(protocolClass);
+      if (agent == null) {
+        agent = analyze(protocolClass);
+        agents.put(protocolClass, agent);
+      }
+      return agent;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static CommunicationPatternAgent analyze(Class<?> protocolClass) {
+    try {
+      return DataflowCommunicationPatternAgent.create((Class<? extends Protocol>) protocolClass);
+    } catch (AnalysisFailed e) {
+      System.err.printf("Dataflow compiler: cannot analyze %s (%s); sending its complete state%n",
+          protocolClass.getName(), e.getMessage());
+      return fallback;
+    }
+  }
+}
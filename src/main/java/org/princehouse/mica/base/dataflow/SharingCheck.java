@@ -0,0 +1,164 @@
+package org.princehouse.mica.base.dataflow;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.princehouse.mica.util.SerializableClasses;
+
+/**
+ * Finds out whether the fields DataflowCommunicationPatternAgent returns in m2 share objects with
+ * the other fields of the initiator's protocol instance. f3 replaces each returned field with a
+ * fresh copy, which would break that sharing, so such rounds are sent whole instead.
+ * <p>
+ * Objects are compared by identity. The walk follows the serialized fields of MiCA and user classes,
+ * the elements of arrays and collections, and the keys and values of maps; other JDK classes, and
+ * classes whose serialized form is custom, are not looked into. Strings, boxed primitives, enums
+ * and classes are immutable, so sharing them is harmless and they are ignored.
+ *
+ * @author lonnie
+ */
+class SharingCheck {
+
+  private static final Map<Class<?>, Field[]> fieldCache = new ConcurrentHashMap<Class<?>, Field[]>();
+
+  // fields returned in m2 / all other serialized fields
+  private final Field[] returned;
+  private final Field[] others;
+
+  SharingCheck(Class<?> protocolClass, Field[] returned) {
+    this.returned = returned;
+    List<Field> others = new ArrayList<Field>();
+    for (Field f : fields(protocolClass)) {
+      boolean isReturned = false;
+      for (Field r : returned) {
+        isReturned |= r.equals(f);
+      }
+      if (!isReturned) {
+        others.add(f);
+      }
+    }
+    this.others = others.toArray(new Field[others.size()]);
+  }
+
+  /**
+   * @param returned
+   * @return False if the returned fields can only hold values, so that nothing can be shared
+   */
+  static boolean needed(Field[] returned) {
+    for (Field f : returned) {
+      Class<?> t = f.getType();
+      if (!(t.isPrimitive() || t.isEnum() || t == String.class || t == Class.class
+          || t.getName().startsWith("java.lang.") && (Number.class.isAssignableFrom(t)
+          || t == Boolean.class || t == Character.class))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param live Initiator's protocol instance. References back to it are not followed.
+   * @return True if an object reachable from a returned field is also reachable from another field
+   */
+  boolean shares(Object live) {
+    IdentityHashMap<Object, Boolean> written = new IdentityHashMap<Object, Boolean>();
+    for (Field f : returned) {
+      reach(get(f, live), live, written, null);
+    }
+    if (written.isEmpty()) {
+      return false;
+    }
+    IdentityHashMap<Object, Boolean> seen = new IdentityHashMap<Object, Boolean>();
+    for (Field f : others) {
+      if (reach(get(f, live), live, seen, written)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // adds the objects reachable from o to seen; true as soon as it meets one of stop
+  private static boolean reach(Object o, Object root, IdentityHashMap<Object, Boolean> seen,
+      IdentityHashMap<Object, Boolean> stop) {
+    ArrayDeque<Object> queue = new ArrayDeque<Object>();
+    add(queue, o);
+    while (!queue.isEmpty()) {
+      Object x = queue.poll();
+      if (x == root || isValue(x) || seen.containsKey(x)) {
+        continue;
+      }
+      if (stop != null && stop.containsKey(x)) {
+        return true;
+      }
+      seen.put(x, true);
+      Class<?> c = x.getClass();
+      if (x instanceof Object[]) {
+        for (Object element : (Object[]) x) {
+          add(queue, element);
+        }
+      } else if (x instanceof Collection) {
+        for (Object element : (Collection<?>) x) {
+          add(queue, element);
+        }
+      } else if (x instanceof Map) {
+        for (Map.Entry<?, ?> e : ((Map<?, ?>) x).entrySet()) {
+          add(queue, e.getKey());
+          add(queue, e.getValue());
+        }
+      } else if (!c.isArray() && !SerializableClasses.isJdk(c)
+          && !SerializableClasses.customizesSerialization(c)) {
+        for (Field f : fields(c)) {
+          add(queue, get(f, x));
+        }
+      }
+    }
+    return false;
+  }
+
+  private static void add(ArrayDeque<Object> queue, Object o) {
+    if (o != null) {
+      queue.add(o);
+    }
+  }
+
+  private static boolean isValue(Object o) {
+    return o instanceof String || o instanceof Number && o.getClass().getName().startsWith(
+        "java.lang.") || o instanceof Boolean || o instanceof Character || o instanceof Enum
+        || o instanceof Class;
+  }
+
+  // serialized fields of c, declared by its classes outside the JDK
+  private static Field[] fields(Class<?> c) {
+    Field[] fields = fieldCache.get(c);
+    if (fields == null) {
+      List<Field> all = new ArrayList<Field>();
+      for (Class<?> k = c; k != null && !SerializableClasses.isJdk(k); k = k.getSuperclass()) {
+        for (Field f : k.getDeclaredFields()) {
+          int mod = f.getModifiers();
+          if (Modifier.isStatic(mod) || Modifier.isTransient(mod)) {
+            continue;
+          }
+          f.setAccessible(true);
+          all.add(f);
+        }
+      }
+      fields = all.toArray(new Field[all.size()]);
+      fieldCache.put(c, fields);
+    }
+    return fields;
+  }
+
+  private static Object get(Field f, Object o) {
+    try {
+      return f.get(o);
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
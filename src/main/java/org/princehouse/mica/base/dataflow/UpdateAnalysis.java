@@ -0,0 +1,729 @@
+package org.princehouse.mica.base.dataflow;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldInsnNode;
+import org.objectweb.asm.tree.InvokeDynamicInsnNode;
+import org.objectweb.asm.tree.LdcInsnNode;
+import org.objectweb.asm.tree.MethodInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.analysis.Analyzer;
+import org.objectweb.asm.tree.analysis.AnalyzerException;
+import org.objectweb.asm.tree.analysis.Interpreter;
+import org.objectweb.asm.tree.analysis.Value;
+import org.princehouse.mica.base.BaseProtocol;
+import org.princehouse.mica.base.model.Protocol;
+import org.princehouse.mica.util.ClassUtils;
+
+/**
+ * Static analysis of a protocol class's @GossipUpdate method: which instance fields of the
+ * initiator ("this") update() may read, and which it may write.
+ * <p>
+ * The analysis is a data-flow analysis over the bytecode of update() and of every method it calls
+ * with "this" as the receiver or an argument (resolved against the analyzed class, so overrides are
+ * followed). Each value is abstracted as "may be this" plus the set of this's fields whose object
+ * graph it may point into. Reading field f of this reads f; assigning f writes f; any store into,
+ * or call on, an object reached from f is assumed to modify f's object graph, and so also writes f,
+ * except for a few side-effect-free library methods.
+ * <p>
+ * Analysis fails (and the caller should fall back to sending the complete state) if "this" escapes
+ * somewhere the analysis cannot follow: into the receiver's state, a static field, a lambda, or a
+ * method that cannot be resolved. Transient fields are ignored, as they are never sent.
+ *
+ * @author lonnie
+ */
+public class UpdateAnalysis {
+
+  /**
+   * Thrown when update() cannot be analyzed
+   */
+  public static class AnalysisFailed extends Exception {
+
+    private static final long serialVersionUID = 1L;
+
+    public AnalysisFailed(String message) {
+      super(message);
+    }
+
+    public AnalysisFailed(String message, Throwable cause) {
+      super(message, cause);
+    }
+  }
+
+  // nested calls followed before giving up
+  private static final int MAX_DEPTH = 16;
+
+  // BaseProtocol methods that use this only to look up its RuntimeState
+  private static final Set<String> RUNTIME_STATE_METHODS = new HashSet<String>(
+      Arrays.asList("getRuntimeState", "getAddress", "logJson", "toString"));
+
+  // library methods that do not modify their receiver
+  private static final Set<String> PURE_METHODS = new HashSet<String>(
+      Arrays.asList("equals", "hashCode", "toString", "compareTo", "compare", "size", "isEmpty",
+          "contains", "containsKey", "containsValue", "length", "charAt", "getClass",
+          "intValue", "longValue", "doubleValue", "floatValue", "booleanValue"));
+
+  // library classes whose methods do not modify their (non-receiver) arguments
+  private static final Set<String> READ_ONLY_ARGUMENT_OWNERS = new HashSet<String>(
+      Arrays.asList("java/lang/Object", "java/lang/String", "java/lang/StringBuilder",
+          "java/lang/StringBuffer", "java/lang/Math", "java/lang/StrictMath", "java/lang/Boolean",
+          "java/lang/Character", "java/lang/Number", "java/lang/Byte", "java/lang/Short",
+          "java/lang/Integer", "java/lang/Long", "java/lang/Float", "java/lang/Double"));
+
+  private final Class<?> klass;
+  private final Set<Field> reads = new HashSet<Field>();
+  private final Set<Field> writes = new HashSet<Field>();
+
+  private final Map<Class<?>, ClassNode> classNodes = new HashMap<Class<?>, ClassNode>();
+  private final Map<String, Flow> summaries = new HashMap<String, Flow>();
+  private final Set<String> inProgress = new HashSet<String>();
+
+  private UpdateAnalysis(Class<?> klass) {
+    this.klass = klass;
+  }
+
+  /**
+   * Analyze the update method of a protocol class
+   *
+   * @param klass Protocol class
+   * @return The analysis, with read and written fields
+   * @throws AnalysisFailed If update() is not a @GossipUpdate method, or does something the analysis
+   *                        cannot follow
+   */
+  public static UpdateAnalysis analyze(Class<? extends Protocol> klass) throws AnalysisFailed {
+    Method update;
+    try {
+      update = klass.getMethod("update", Protocol.class);
+    } catch (NoSuchMethodException e) {
+      throw new AnalysisFailed("no update method", e);
+    }
+    if (ClassUtils.getExchangeAnnotation(update) == null) {
+      throw new AnalysisFailed("update() is not annotated @GossipUpdate");
+    }
+    UpdateAnalysis analysis = new UpdateAnalysis(klass);
+    Target target = analysis.resolveVirtual(klass, "update",
+        Type.getMethodDescriptor(update));
+    if (target == null || target.node == null) {
+      throw new AnalysisFailed("cannot find the bytecode of update()");
+    }
+    analysis.analyzeMethod(target, new Flow[]{Flow.SELF, Flow.OTHER}, 0);
+    return analysis;
+  }
+
+  /**
+   * @return Fields of this that update() may read, sorted by declaring class and name
+   */
+  public List<Field> getReads() {
+    return sorted(reads);
+  }
+
+  /**
+   * @return Fields of this that update() may write, sorted by declaring class and name
+   */
+  public List<Field> getWrites() {
+    return sorted(writes);
+  }
+
+  private static List<Field> sorted(Set<Field> fields) {
+    Field[] array = fields.toArray(new Field[0]);
+    Arrays.sort(array, FIELD_ORDER);
+    return Collections.unmodifiableList(Arrays.asList(array));
+  }
+
+  /**
+   * Order used for field lists, so that both peers agree on it
+   */
+  public static final Comparator<Field> FIELD_ORDER = new Comparator<Field>() {
+    @Override
+    public int compare(Field f1, Field f2) {
+      int c = f1.getDeclaringClass().getName().compareTo(f2.getDeclaringClass().getName());
+      return (c != 0 ? c : f1.getName().compareTo(f2.getName()));
+    }
+  };
+
+  // ---- abstract values ---------------------------------------------------
+
+  /**
+   * Abstract value: whether it may be this, and the fields of this whose object graphs it may
+   * point into
+   */
+  private static class Flow implements Value {
+
+    private static final Flow UNINITIALIZED = new Flow(1, false, Collections.<Field>emptySet());
+    private static final Flow OTHER = new Flow(1, false, Collections.<Field>emptySet());
+    private static final Flow OTHER2 = new Flow(2, false, Collections.<Field>emptySet());
+    private static final Flow SELF = new Flow(1, true, Collections.<Field>emptySet());
+
+    private final int size;
+    private final boolean self;
+    private final Set<Field> fields;
+
+    private Flow(int size, boolean self, Set<Field> fields) {
+      this.size = size;
+      this.self = self;
+      this.fields = fields;
+    }
+
+    private static Flow other(int size) {
+      return (size == 2 ? OTHER2 : OTHER);
+    }
+
+    private static Flow of(Set<Field> fields) {
+      return (fields.isEmpty() ? OTHER : new Flow(1, false, fields));
+    }
+
+    @Override
+    public int getSize() {
+      return size;
+    }
+
+    private Flow union(Flow w) {
+      if ((self || !w.self) && fields.containsAll(w.fields)) {
+        return this;
+      }
+      Set<Field> all = new HashSet<Field>(fields);
+      all.addAll(w.fields);
+      return new Flow(size, self || w.self, all);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Flow)) {
+        return false;
+      }
+      Flow w = (Flow) o;
+      return size == w.size && self == w.self && fields.equals(w.fields);
+    }
+
+    @Override
+    public int hashCode() {
+      return size * 31 + (self ? 1 : 0) + fields.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      Set<String> names = new TreeSet<String>();
+      for (Field f : fields) {
+        names.add(f.getDeclaringClass().getName() + "." + f.getName());
+      }
+      return (self ? "this" : "") + names;
+    }
+  }
+
+  // ---- method resolution --------------------------------------------------
+
+  private static class Target {
+
+    private final Class<?> owner;
+    // null for library methods, which are not analyzed
+    private final MethodNode node;
+
+    private Target(Class<?> owner, MethodNode node) {
+      this.owner = owner;
+      this.node = node;
+    }
+  }
+
+  private static boolean isLibrary(Class<?> k) {
+    String name = k.getName();
+    return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.")
+        || name.startsWith("jdk.");
+  }
+
+  private ClassNode classNode(Class<?> k) throws AnalysisFailed {
+    ClassNode node = classNodes.get(k);
+    if (node != null) {
+      return node;
+    }
+    String resource = k.getName().replace('.', '/') + ".class";
+    ClassLoader loader = (k.getClassLoader() != null ? k.getClassLoader()
+        : ClassLoader.getSystemClassLoader());
+    try (InputStream in = loader.getResourceAsStream(resource)) {
+      if (in == null) {
+        throw new AnalysisFailed("no bytecode for " + k.getName());
+      }
+      node = new ClassNode();
+      new ClassReader(in).accept(node, 0);
+    } catch (IllegalArgumentException e) {
+      // class file version newer than this ASM supports
+      throw new AnalysisFailed("cannot parse bytecode for " + k.getName(), e);
+    } catch (IOException e) {
+      throw new AnalysisFailed("cannot read bytecode for " + k.getName(), e);
+    }
+    classNodes.put(k, node);
+    return node;
+  }
+
+  private MethodNode findDeclared(Class<?> k, String name, String desc) throws AnalysisFailed {
+    for (MethodNode m : classNode(k).methods) {
+      if (m.name.equals(name) && m.desc.equals(desc)) {
+        return m;
+      }
+    }
+    return null;
+  }
+
+  // find the implementation of name/desc that an instance of k would run, starting at k
+  private Target resolveVirtual(Class<?> k, String name, String desc) throws AnalysisFailed {
+    for (Class<?> c = k; c != null; c = c.getSuperclass()) {
+      if (isLibrary(c)) {
+        return new Target(c, null);
+      }
+      MethodNode m = findDeclared(c, name, desc);
+      if (m != null) {
+        if ((m.access & Opcodes.ACC_ABSTRACT) != 0) {
+          return null;
+        }
+        return new Target(c, m);
+      }
+    }
+    // default methods
+    for (Class<?> c = k; c != null; c = c.getSuperclass()) {
+      for (Class<?> i : c.getInterfaces()) {
+        if (isLibrary(i)) {
+          continue;
+        }
+        MethodNode m = findDeclared(i, name, desc);
+        if (m != null && (m.access & Opcodes.ACC_ABSTRACT) == 0) {
+          return new Target(i, m);
+        }
+      }
+    }
+    return null;
+  }
+
+  private Class<?> loadClass(String internalName) throws AnalysisFailed {
+    try {
+      return Class.forName(Type.getObjectType(internalName).getClassName(), false,
+          klass.getClassLoader());
+    } catch (ClassNotFoundException e) {
+      throw new AnalysisFailed("cannot load " + internalName, e);
+    }
+  }
+
+  // resolve a field reference to an instance field of this, or null
+  private Field selfField(FieldInsnNode insn) throws AnalysisFailed {
+    for (Class<?> c = loadClass(insn.owner); c != null; c = c.getSuperclass()) {
+      for (Field f : c.getDeclaredFields()) {
+        if (f.getName().equals(insn.name)) {
+          int mod = f.getModifiers();
+          if (Modifier.isStatic(mod) || Modifier.isTransient(mod)
+              || !f.getDeclaringClass().isAssignableFrom(klass)) {
+            return null;
+          }
+          return f;
+        }
+      }
+    }
+    throw new AnalysisFailed("cannot resolve field " + insn.owner + "." + insn.name);
+  }
+
+  // ---- interprocedural analysis -------------------------------------------
+
+  // analyze one method with abstract arguments; returns the abstract return value
+  private Flow analyzeMethod(Target target, Flow[] args, int depth) throws AnalysisFailed {
+    if (depth > MAX_DEPTH) {
+      throw new AnalysisFailed("calls nested too deeply");
+    }
+    if ((target.node.access & Opcodes.ACC_NATIVE) != 0) {
+      throw new AnalysisFailed("native method " + target.node.name);
+    }
+    String key = target.owner.getName() + "." + target.node.name + target.node.desc
+        + Arrays.toString(args);
+    Flow summary = summaries.get(key);
+    if (summary != null) {
+      return summary;
+    }
+    if (!inProgress.add(key)) {
+      // recursive call: assume it modifies, and may return, anything its arguments reach
+      Set<Field> fields = new HashSet<Field>();
+      for (Flow v : args) {
+        if (v.self) {
+          throw new AnalysisFailed("recursive call to " + target.node.name);
+        }
+        fields.addAll(v.fields);
+      }
+      writes.addAll(fields);
+      return Flow.of(fields);
+    }
+    FlowInterpreter interpreter = new FlowInterpreter(target, args, depth);
+    try {
+      new Analyzer<Flow>(interpreter).analyze(
+          Type.getInternalName(target.owner), target.node);
+    } catch (AnalyzerException e) {
+      // report the innermost reason
+      for (Throwable t = e; t != null; t = t.getCause()) {
+        if (t instanceof AnalysisFailed) {
+          throw (AnalysisFailed) t;
+        }
+      }
+      throw new AnalysisFailed(
+          "in " + target.owner.getName() + "." + target.node.name + ": " + e.getMessage(), e);
+    } finally {
+      inProgress.remove(key);
+    }
+    summaries.put(key, interpreter.returned);
+    return interpreter.returned;
+  }
+
+  private class FlowInterpreter extends Interpreter<Flow> {
+
+    private final Target target;
+    private final Map<Integer, Flow> params = new HashMap<Integer, Flow>();
+    private final int depth;
+    private Flow returned = Flow.OTHER;
+
+    private FlowInterpreter(Target target, Flow[] args, int depth) {
+      super(Opcodes.ASM9);
+      this.target = target;
+      this.depth = depth;
+      // map argument positions to local variable slots
+      int local = 0;
+      int i = 0;
+      if ((target.node.access & Opcodes.ACC_STATIC) == 0) {
+        params.put(local++, args[i++]);
+      }
+      for (Type t : Type.getArgumentTypes(target.node.desc)) {
+        params.put(local, args[i++]);
+        local += t.getSize();
+      }
+    }
+
+    private AnalyzerException fail(AbstractInsnNode insn, String reason) {
+      return new AnalyzerException(insn, reason,
+          new AnalysisFailed(String.format("in %s.%s: %s", target.owner.getName(),
+              target.node.name, reason)));
+    }
+
+    private void mutated(Flow v, AbstractInsnNode insn) throws AnalyzerException {
+      if (v.self) {
+        throw fail(insn, "this escapes");
+      }
+      writes.addAll(v.fields);
+    }
+
+    private Field field(FieldInsnNode insn) throws AnalyzerException {
+      try {
+        return selfField(insn);
+      } catch (AnalysisFailed e) {
+        throw new AnalyzerException(insn, e.getMessage(), e);
+      }
+    }
+
+    @Override
+    public Flow newValue(Type type) {
+      if (type == null) {
+        return Flow.UNINITIALIZED;
+      } else if (type == Type.VOID_TYPE) {
+        return null;
+      }
+      return Flow.other(type.getSize());
+    }
+
+    @Override
+    public Flow newParameterValue(boolean isInstanceMethod, int local, Type type) {
+      Flow v = params.get(local);
+      return (v != null && type.getSize() == 1 ? v : newValue(type));
+    }
+
+    @Override
+    public Flow newOperation(AbstractInsnNode insn) {
+      switch (insn.getOpcode()) {
+        case Opcodes.LCONST_0:
+        case Opcodes.LCONST_1:
+        case Opcodes.DCONST_0:
+        case Opcodes.DCONST_1:
+          return Flow.OTHER2;
+        case Opcodes.LDC:
+          Object cst = ((LdcInsnNode) insn).cst;
+          return Flow.other(cst instanceof Long || cst instanceof Double ? 2 : 1);
+        case Opcodes.GETSTATIC:
+          return newValue(Type.getType(((FieldInsnNode) insn).desc));
+        default:
+          return Flow.OTHER;
+      }
+    }
+
+    @Override
+    public Flow copyOperation(AbstractInsnNode insn, Flow value) {
+      return value;
+    }
+
+    @Override
+    public Flow unaryOperation(AbstractInsnNode insn, Flow value) throws AnalyzerException {
+      switch (insn.getOpcode()) {
+        case Opcodes.GETFIELD: {
+          FieldInsnNode fin = (FieldInsnNode) insn;
+          Type type = Type.getType(fin.desc);
+          boolean reference = isReference(type);
+          Set<Field> fields = value.fields;
+          if (value.self) {
+            Field f = field(fin);
+            if (f != null) {
+              reads.add(f);
+              if (reference) {
+                fields = new HashSet<Field>(fields);
+                fields.add(f);
+              }
+            }
+          }
+          return (reference ? Flow.of(fields) : newValue(type));
+        }
+        case Opcodes.CHECKCAST:
+          return value;
+        case Opcodes.PUTSTATIC:
+        case Opcodes.ATHROW:
+          mutated(value, insn);
+          return null;
+        case Opcodes.LNEG:
+        case Opcodes.DNEG:
+        case Opcodes.I2L:
+        case Opcodes.I2D:
+        case Opcodes.L2D:
+        case Opcodes.F2L:
+        case Opcodes.F2D:
+        case Opcodes.D2L:
+          return Flow.OTHER2;
+        default:
+          return Flow.OTHER;
+      }
+    }
+
+    @Override
+    public Flow binaryOperation(AbstractInsnNode insn, Flow v1, Flow v2)
+        throws AnalyzerException {
+      switch (insn.getOpcode()) {
+        case Opcodes.PUTFIELD: {
+          if (v1.self) {
+            Field f = field((FieldInsnNode) insn);
+            if (f != null) {
+              writes.add(f);
+            }
+          } else if (!v1.fields.isEmpty()) {
+            writes.addAll(v1.fields);
+          } else if (v2.self) {
+            throw fail(insn, "this escapes");
+          }
+          writes.addAll(v2.fields);
+          return null;
+        }
+        case Opcodes.AALOAD:
+          return Flow.of(v1.fields);
+        case Opcodes.LALOAD:
+        case Opcodes.DALOAD:
+        case Opcodes.LADD:
+        case Opcodes.DADD:
+        case Opcodes.LSUB:
+        case Opcodes.DSUB:
+        case Opcodes.LMUL:
+        case Opcodes.DMUL:
+        case Opcodes.LDIV:
+        case Opcodes.DDIV:
+        case Opcodes.LREM:
+        case Opcodes.DREM:
+        case Opcodes.LSHL:
+        case Opcodes.LSHR:
+        case Opcodes.LUSHR:
+        case Opcodes.LAND:
+        case Opcodes.LOR:
+        case Opcodes.LXOR:
+          return Flow.OTHER2;
+        default:
+          return Flow.OTHER;
+      }
+    }
+
+    @Override
+    public Flow ternaryOperation(AbstractInsnNode insn, Flow array, Flow index, Flow value)
+        throws AnalyzerException {
+      // xASTORE
+      if (array.fields.isEmpty() && value.self) {
+        throw fail(insn, "this escapes");
+      }
+      writes.addAll(array.fields);
+      writes.addAll(value.fields);
+      return null;
+    }
+
+    @Override
+    public Flow naryOperation(AbstractInsnNode insn, List<? extends Flow> values)
+        throws AnalyzerException {
+      if (insn instanceof MethodInsnNode) {
+        return invoke((MethodInsnNode) insn, values);
+      } else if (insn instanceof InvokeDynamicInsnNode) {
+        return invokeDynamic((InvokeDynamicInsnNode) insn, values);
+      }
+      // MULTIANEWARRAY
+      return Flow.OTHER;
+    }
+
+    private Flow invoke(MethodInsnNode insn, List<? extends Flow> args)
+        throws AnalyzerException {
+      Type returnType = Type.getReturnType(insn.desc);
+      boolean isStatic = (insn.getOpcode() == Opcodes.INVOKESTATIC);
+      boolean anySelf = false;
+      Set<Field> fields = new HashSet<Field>();
+      for (Flow v : args) {
+        anySelf |= v.self;
+        fields.addAll(v.fields);
+      }
+      boolean tracked = anySelf || !fields.isEmpty();
+      if (!tracked) {
+        return newValue(returnType);
+      }
+      boolean selfReceiver = (!isStatic && ((Flow) args.get(0)).self);
+      try {
+        Target callee = callee(insn, selfReceiver);
+        if (selfReceiver && callee != null && isRuntimeStateMethod(callee, insn.name)) {
+          // only uses this to look up the RuntimeState; other arguments are only read
+          for (Flow v : args.subList(1, args.size())) {
+            if (v.self) {
+              throw fail(insn, "this passed to " + insn.name);
+            }
+          }
+          return newValue(returnType);
+        }
+        if (callee != null && callee.node != null) {
+          Flow result = analyzeMethod(callee, args.toArray(new Flow[0]), depth + 1);
+          return (isReference(returnType) ? result : newValue(returnType));
+        }
+        if (anySelf) {
+          throw fail(insn, "this passed to " + insn.owner + "." + insn.name);
+        }
+        // a library method, or one that cannot be resolved statically: assume it modifies any
+        // argument reached from a field of this, unless it is a library method known not to
+        for (int i = 0; i < args.size(); i++) {
+          boolean receiver = (!isStatic && i == 0);
+          if (!readOnlyArgument(insn, i, receiver)) {
+            mutated(args.get(i), insn);
+          }
+        }
+      } catch (AnalysisFailed e) {
+        throw new AnalyzerException(insn, e.getMessage(), e);
+      }
+      if (returnType == Type.VOID_TYPE) {
+        return null;
+      } else if (isReference(returnType)) {
+        // the result may point into any argument
+        return Flow.of(fields);
+      }
+      return newValue(returnType);
+    }
+
+    // the method a call runs, if it is known statically
+    private Target callee(MethodInsnNode insn, boolean selfReceiver) throws AnalysisFailed {
+      int opcode = insn.getOpcode();
+      if (selfReceiver && opcode != Opcodes.INVOKESPECIAL) {
+        return resolveVirtual(klass, insn.name, insn.desc);
+      }
+      Class<?> owner = loadClass(insn.owner);
+      Target t = resolveVirtual(owner, insn.name, insn.desc);
+      if (opcode == Opcodes.INVOKESTATIC || opcode == Opcodes.INVOKESPECIAL || t == null
+          || t.node == null) {
+        return t;
+      }
+      // virtual call on some other object: only exact if it cannot be overridden
+      boolean exact = Modifier.isFinal(owner.getModifiers())
+          || (t.node.access & (Opcodes.ACC_FINAL | Opcodes.ACC_PRIVATE)) != 0;
+      return (exact ? t : null);
+    }
+
+    private Flow invokeDynamic(InvokeDynamicInsnNode insn, List<? extends Flow> args)
+        throws AnalyzerException {
+      Handle bsm = insn.bsm;
+      boolean concat = bsm.getOwner().equals("java/lang/invoke/StringConcatFactory");
+      for (Flow v : args) {
+        if (v.self) {
+          if (!concat) {
+            throw fail(insn, "this captured by " + insn.name);
+          }
+          // string concatenation calls this.toString()
+          try {
+            Target callee = resolveVirtual(klass, "toString", "()Ljava/lang/String;");
+            if (callee == null) {
+              throw fail(insn, "cannot resolve toString");
+            }
+            if (!isRuntimeStateMethod(callee, "toString")) {
+              analyzeMethod(callee, new Flow[]{Flow.SELF}, depth + 1);
+            }
+          } catch (AnalysisFailed e) {
+            throw new AnalyzerException(insn, e.getMessage(), e);
+          }
+        } else if (!concat) {
+          writes.addAll(v.fields);
+        }
+      }
+      Type returnType = Type.getReturnType(insn.desc);
+      if (concat) {
+        return Flow.OTHER;
+      }
+      Set<Field> fields = new HashSet<Field>();
+      for (Flow v : args) {
+        fields.addAll(v.fields);
+      }
+      return (isReference(returnType) ? Flow.of(fields) : newValue(returnType));
+    }
+
+    @Override
+    public void returnOperation(AbstractInsnNode insn, Flow value, Flow expected) {
+      returned = returned.union(value);
+    }
+
+    @Override
+    public Flow merge(Flow v, Flow w) {
+      if (v.size != w.size) {
+        return Flow.UNINITIALIZED;
+      }
+      return v.union(w);
+    }
+  }
+
+  private static boolean isReference(Type type) {
+    return type.getSort() == Type.OBJECT || type.getSort() == Type.ARRAY;
+  }
+
+  private static boolean isRuntimeStateMethod(Target callee, String name) {
+    return (callee.owner == BaseProtocol.class && RUNTIME_STATE_METHODS.contains(name))
+        || (callee.owner == Object.class && (name.equals("getClass") || name.equals("hashCode")
+        || name.equals("equals")));
+  }
+
+  // library calls that do not modify the given argument
+  private boolean readOnlyArgument(MethodInsnNode insn, int index, boolean receiver)
+      throws AnalysisFailed {
+    if (!insn.owner.startsWith("java/")) {
+      return false;
+    }
+    if (!receiver) {
+      if (insn.owner.equals("java/lang/System")) {
+        // System.arraycopy(src, srcPos, dest, destPos, length) writes into dest
+        return !(insn.name.equals("arraycopy") && index == 2);
+      }
+      return READ_ONLY_ARGUMENT_OWNERS.contains(insn.owner);
+    }
+    Class<?> owner = loadClass(insn.owner);
+    if (owner == String.class || owner == Boolean.class || owner == Character.class
+        || (Number.class.isAssignableFrom(owner) && insn.owner.startsWith("java/lang/"))) {
+      return true;
+    }
+    return PURE_METHODS.contains(insn.name);
+  }
+}
@@ -0,0 +1,250 @@
+package org.princehouse.mica.base.log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.princehouse.mica.base.model.MicaRuntime;
+import org.princehouse.mica.base.model.MicaRuntime.JsonLogEvent;
+
+/**
+ * Buffers log events in a bounded ring buffer and writes them to a persistent FileChannel from a
+ * background writer thread, in batches. Callers only pay for serializing the event data and
+ * enqueueing it; the file format is up to the LogEncoder.
+ * <p>
+ * When the buffer is full, the overflow policy decides what happens to a new event:
+ * <ul>
+ * <li>block: wait for the writer to make room (nothing is lost)</li>
+ * <li>drop: discard the event</li>
+ * <li>sample: discard the event; in addition, once the buffer is three quarters full, keep only one
+ * event in sampleRate, so that some events keep getting through under sustained overload</li>
+ * </ul>
+ * The number of discarded events is reported on MicaRuntime.debug when the sink is closed.
+ * <p>
+ * Events are written in the order they were accepted, so one sink can be shared by all runtimes
+ * that log to the same file.
+ *
+ * @author lonnie
+ */
+public class AsyncLogSink implements LogSink {
+
+  public static enum OverflowPolicy {
+    block, drop, sample
+  }
+
+  private static final int BATCH_BYTES = 1 << 16;
+
+  private final File file;
+  private final FileChannel channel;
+  private final LogEncoder encoder;
+  private final OverflowPolicy policy;
+  private final int sampleRate;
+
+  private final Object[] ring;
+  private int head = 0; // next line to write
+  private int count = 0;
+  private long sampleCounter = 0L;
+
+  // events accepted into the buffer / written to the channel / discarded
+  private long accepted = 0L;
+  private long written = 0L;
+  private long dropped = 0L;
+
+  private boolean closed = false;
+  private boolean failed = false;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+  private final Condition progress = lock.newCondition();
+
+  private final Thread writer;
+
+  /**
+   * @param file       Log file. Events are appended if it already exists.
+   * @param encoder    File format
+   * @param capacity   Maximum number of buffered events
+   * @param policy     What to do with events that arrive while the buffer is full
+   * @param sampleRate Under the sample policy, keep one event in sampleRate once the buffer is
+   *                   three quarters full
+   * @throws IOException
+   */
+  public AsyncLogSink(File file, LogEncoder encoder, int capacity, OverflowPolicy policy,
+      int sampleRate) throws IOException {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    this.file = file;
+    this.encoder = encoder;
+    this.policy = policy;
+    this.sampleRate = Math.max(1, sampleRate);
+    ring = new Object[capacity];
+    channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    writer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        writeLoop();
+      }
+    }, String.format("mica-log-writer %s", file.getName()));
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  @Override
+  public void log(int flags, JsonLogEvent event) {
+    Object captured = encoder.capture(flags, event);
+    lock.lock();
+    try {
+      if (closed || failed) {
+        dropped++;
+        return;
+      }
+      if (count == ring.length) {
+        if (policy != OverflowPolicy.block) {
+          dropped++;
+          return;
+        }
+        while (count == ring.length && !failed && !closed) {
+          notFull.awaitUninterruptibly();
+        }
+        // once closed, the writer may already have drained the ring and exited
+        if (closed || failed) {
+          dropped++;
+          return;
+        }
+      } else if (policy == OverflowPolicy.sample && count * 4 >= ring.length * 3) {
+        if (sampleCounter++ % sampleRate != 0) {
+          dropped++;
+          return;
+        }
+      }
+      ring[(head + count) % ring.length] = captured;
+      count++;
+      accepted++;
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void flush() {
+    lock.lock();
+    try {
+      long target = accepted;
+      while (written < target && !failed) {
+        progress.awaitUninterruptibly();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  @Override
+  public void close() {
+    lock.lock();
+    try {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      notEmpty.signal();
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    try {
+      channel.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    if (dropped > 0) {
+      MicaRuntime.debug.printf("log %s: discarded %d of %d events\n", file, dropped,
+          accepted + dropped);
+    }
+  }
+
+  public long getDropped() {
+    lock.lock();
+    try {
+      return dropped;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void writeLoop() {
+    OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), BATCH_BYTES);
+    Object[] batch = new Object[ring.length];
+    boolean header = true;
+    while (true) {
+      int n = 0;
+      lock.lock();
+      try {
+        while (count == 0 && !closed) {
+          notEmpty.awaitUninterruptibly();
+        }
+        if (count == 0) {
+          return; // closed and drained
+        }
+        while (count > 0) {
+          batch[n++] = ring[head];
+          ring[head] = null;
+          head = (head + 1) % ring.length;
+          count--;
+        }
+        notFull.signalAll();
+      } finally {
+        lock.unlock();
+      }
+
+      try {
+        if (header) {
+          encoder.writeHeader(out);
+          header = false;
+        }
+        for (int i = 0; i < n; i++) {
+          encoder.encode(batch[i], out);
+          batch[i] = null;
+        }
+        out.flush();
+      } catch (IOException e) {
+        e.printStackTrace();
+        lock.lock();
+        try {
+          failed = true;
+          dropped += accepted - written;
+          count = 0;
+          notFull.signalAll();
+          progress.signalAll();
+        } finally {
+          lock.unlock();
+        }
+        return;
+      }
+
+      lock.lock();
+      try {
+        written += n;
+        progress.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package org.princehouse.mica.base.log;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts binary logs (-logFormat binary) to the JSON lines format read by tools/micavis.
+ * Conversion is streaming, so logs of any size can be converted.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * BinaryLogConverter input.log [output.log]    (writes to stdout if no output is given)
+ * BinaryLogConverter logdir outputdir          (converts every binary .log file in logdir)
+ * </pre>
+ *
+ * @author lonnie
+ */
+public class BinaryLogConverter {
+
+  /**
+   * Convert one binary log
+   *
+   * @param in
+   * @param out
+   * @return Number of events converted
+   * @throws IOException
+   */
+  public static long convert(File in, OutputStream out) throws IOException {
+    BinaryLogReader reader = new BinaryLogReader(in);
+    Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8),
+        1 << 16);
+    long count = 0;
+    try {
+      BinaryLogReader.Event event = new BinaryLogReader.Event();
+      while (reader.next(event) != null) {
+        writer.write(event.toJsonLine());
+        writer.write('\n');
+        count++;
+      }
+    } finally {
+      writer.flush();
+      reader.close();
+    }
+    return count;
+  }
+
+  public static long convert(File in, File out) throws IOException {
+    OutputStream os = new FileOutputStream(out);
+    try {
+      return convert(in, os);
+    } finally {
+      os.close();
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1 || args.length > 2) {
+      System.err.println("usage: BinaryLogConverter input.log [output.log]");
+      System.err.println("       BinaryLogConverter logdir outputdir");
+      System.exit(1);
+    }
+    File in = new File(args[0]);
+    if (in.isDirectory()) {
+      if (args.length < 2) {
+        System.err.println("an output directory is required to convert a log directory");
+        System.exit(1);
+      }
+      File outdir = new File(args[1]);
+      outdir.mkdirs();
+      for (File f : in.listFiles()) {
+        if (!f.getName().endsWith(".log") || !BinaryLogReader.isBinaryLog(f)) {
+          continue;
+        }
+        long n = convert(f, new File(outdir, f.getName()));
+        System.err.printf("%s: %d events\n", f, n);
+      }
+    } else if (args.length == 2) {
+      convert(in, new File(args[1]));
+    } else {
+      convert(in, System.out);
+    }
+  }
+}
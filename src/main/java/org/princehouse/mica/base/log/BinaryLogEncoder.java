@@ -0,0 +1,123 @@
+package org.princehouse.mica.base.log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import org.princehouse.mica.base.model.MicaRuntime.JsonLogEvent;
+import org.princehouse.mica.util.Functional;
+import org.princehouse.mica.util.Logging;
+
+/**
+ * Compact binary log format. Event types and addresses are dictionary encoded, timestamps are
+ * delta encoded, and only the event data is kept as JSON text. BinaryLogReader reads the format
+ * back; BinaryLogConverter turns it into the usual JSON lines.
+ * <p>
+ * Layout (varints are unsigned LEB128; deltas are zigzag encoded):
+ *
+ * <pre>
+ * file    := segment*
+ * segment := "MICALOG" version record*        (one segment per time the file is opened)
+ * record  := TYPE string                      (defines the next event type id, from 0)
+ *          | ADDRESS string                   (defines the next address id, from 0)
+ *          | EVENT flags type address dt data
+ * string  := varint length, UTF-8 bytes
+ * dt      := timestamp minus the previous event's timestamp in the segment (0 for the first)
+ * data    := varint 0 (no data) | varint (length + 1), UTF-8 JSON bytes
+ * </pre>
+ *
+ * Dictionaries and the timestamp base are reset at the start of each segment.
+ *
+ * @author lonnie
+ */
+public class BinaryLogEncoder implements LogEncoder {
+
+  public static final byte[] MAGIC = "MICALOG".getBytes(StandardCharsets.US_ASCII);
+  public static final int VERSION = 1;
+
+  public static final int TYPE = 1;
+  public static final int ADDRESS = 2;
+  public static final int EVENT = 3;
+
+  private static class Captured {
+
+    private final int flags;
+    private final long timestamp;
+    private final String address;
+    private final String eventType;
+    private final byte[] data;
+
+    private Captured(int flags, long timestamp, String address, String eventType, byte[] data) {
+      this.flags = flags;
+      this.timestamp = timestamp;
+      this.address = address;
+      this.eventType = eventType;
+      this.data = data;
+    }
+  }
+
+  private Map<String, Integer> eventTypes = Functional.map();
+  private Map<String, Integer> addresses = Functional.map();
+  private long lastTimestamp = 0L;
+
+  @Override
+  public void writeHeader(OutputStream out) throws IOException {
+    eventTypes.clear();
+    addresses.clear();
+    lastTimestamp = 0L;
+    out.write(MAGIC);
+    out.write(VERSION);
+  }
+
+  @Override
+  public Object capture(int flags, JsonLogEvent event) {
+    byte[] data = null;
+    if (event.data != null) {
+      data = Logging.getGson().toJson(event.data).getBytes(StandardCharsets.UTF_8);
+    }
+    return new Captured(flags, event.timestamp, event.address, event.event_type, data);
+  }
+
+  @Override
+  public void encode(Object captured, OutputStream out) throws IOException {
+    Captured c = (Captured) captured;
+    int type = intern(eventTypes, c.eventType, TYPE, out);
+    int address = intern(addresses, c.address, ADDRESS, out);
+    out.write(EVENT);
+    writeVarint(out, c.flags & 0xffffffffL);
+    writeVarint(out, type);
+    writeVarint(out, address);
+    long dt = c.timestamp - lastTimestamp;
+    lastTimestamp = c.timestamp;
+    writeVarint(out, (dt << 1) ^ (dt >> 63));
+    if (c.data == null) {
+      writeVarint(out, 0);
+    } else {
+      writeVarint(out, c.data.length + 1);
+      out.write(c.data);
+    }
+  }
+
+  // id of s in dictionary, defining it first if necessary
+  private static int intern(Map<String, Integer> dictionary, String s, int tag, OutputStream out)
+      throws IOException {
+    Integer id = dictionary.get(s);
+    if (id == null) {
+      id = dictionary.size();
+      dictionary.put(s, id);
+      byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+      out.write(tag);
+      writeVarint(out, bytes.length);
+      out.write(bytes);
+    }
+    return id;
+  }
+
+  public static void writeVarint(OutputStream out, long x) throws IOException {
+    while ((x & ~0x7fL) != 0) {
+      out.write((int) ((x & 0x7f) | 0x80));
+      x >>>= 7;
+    }
+    out.write((int) x);
+  }
+}
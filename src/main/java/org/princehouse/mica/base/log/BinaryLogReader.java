@@ -0,0 +1,202 @@
+package org.princehouse.mica.base.log;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import org.princehouse.mica.util.Functional;
+import org.princehouse.mica.util.Logging;
+
+/**
+ * Streams the events of a log written by BinaryLogEncoder, one at a time.
+ *
+ * @author lonnie
+ */
+public class BinaryLogReader implements Closeable {
+
+  /**
+   * One decoded event. data is the event data as JSON text, or null if the event had none.
+   */
+  public static class Event {
+
+    public int flags;
+    public long timestamp;
+    public String address;
+    public String eventType;
+    public String data;
+
+    /**
+     * @return The event as the JSON line the JSON log writer would have produced
+     */
+    public String toJsonLine() {
+      StringBuilder sb = new StringBuilder();
+      sb.append("{\"timestamp\":").append(timestamp);
+      sb.append(",\"address\":").append(Logging.getGson().toJson(address));
+      sb.append(",\"event_type\":").append(Logging.getGson().toJson(eventType));
+      if (data != null) {
+        sb.append(",\"data\":").append(data);
+      }
+      sb.append("}");
+      return sb.toString();
+    }
+  }
+
+  private final InputStream in;
+  private final List<String> eventTypes = Functional.list();
+  private final List<String> addresses = Functional.list();
+  private long lastTimestamp = 0L;
+  private boolean started = false;
+
+  public BinaryLogReader(InputStream in) {
+    this.in = in;
+  }
+
+  public BinaryLogReader(File file) throws IOException {
+    this(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+  }
+
+  /**
+   * Does file start like a binary log?
+   *
+   * @param file
+   * @return
+   * @throws IOException
+   */
+  public static boolean isBinaryLog(File file) throws IOException {
+    byte[] start = new byte[BinaryLogEncoder.MAGIC.length];
+    InputStream in = new FileInputStream(file);
+    try {
+      int n = 0;
+      while (n < start.length) {
+        int r = in.read(start, n, start.length - n);
+        if (r < 0) {
+          return false;
+        }
+        n += r;
+      }
+    } finally {
+      in.close();
+    }
+    return Arrays.equals(start, BinaryLogEncoder.MAGIC);
+  }
+
+  /**
+   * Read the next event.
+   *
+   * @param event Decoded into this object, which is returned
+   * @return event, or null at the end of the log
+   * @throws IOException
+   */
+  public Event next(Event event) throws IOException {
+    while (true) {
+      int tag = in.read();
+      if (tag < 0) {
+        return null;
+      }
+      if (tag == BinaryLogEncoder.MAGIC[0]) {
+        readSegmentHeader();
+        continue;
+      }
+      if (!started) {
+        throw new IOException("not a binary MiCA log");
+      }
+      switch (tag) {
+        case BinaryLogEncoder.TYPE:
+          eventTypes.add(readString());
+          break;
+        case BinaryLogEncoder.ADDRESS:
+          addresses.add(readString());
+          break;
+        case BinaryLogEncoder.EVENT:
+          event.flags = (int) readVarint();
+          event.eventType = lookup(eventTypes, readVarint());
+          event.address = lookup(addresses, readVarint());
+          long zz = readVarint();
+          lastTimestamp += (zz >>> 1) ^ -(zz & 1);
+          event.timestamp = lastTimestamp;
+          int length = (int) readVarint();
+          event.data = (length == 0 ? null
+              : new String(readBytes(length - 1), StandardCharsets.UTF_8));
+          return event;
+        default:
+          throw new IOException(String.format("corrupt binary log: unknown record tag %d", tag));
+      }
+    }
+  }
+
+  public Event next() throws IOException {
+    return next(new Event());
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+
+  private void readSegmentHeader() throws IOException {
+    byte[] rest = readBytes(BinaryLogEncoder.MAGIC.length - 1);
+    for (int i = 0; i < rest.length; i++) {
+      if (rest[i] != BinaryLogEncoder.MAGIC[i + 1]) {
+        throw new IOException("corrupt binary log: bad segment header");
+      }
+    }
+    int version = readByte();
+    if (version != BinaryLogEncoder.VERSION) {
+      throw new IOException(String.format("unsupported binary log version %d", version));
+    }
+    eventTypes.clear();
+    addresses.clear();
+    lastTimestamp = 0L;
+    started = true;
+  }
+
+  private static String lookup(List<String> dictionary, long id) throws IOException {
+    if (id >= dictionary.size()) {
+      throw new IOException(String.format("corrupt binary log: undefined id %d", id));
+    }
+    return dictionary.get((int) id);
+  }
+
+  private String readString() throws IOException {
+    return new String(readBytes((int) readVarint()), StandardCharsets.UTF_8);
+  }
+
+  private int readByte() throws IOException {
+    int b = in.read();
+    if (b < 0) {
+      throw new EOFException();
+    }
+    return b;
+  }
+
+  private byte[] readBytes(int length) throws IOException {
+    byte[] bytes = new byte[length];
+    int n = 0;
+    while (n < length) {
+      int r = in.read(bytes, n, length - n);
+      if (r < 0) {
+        throw new EOFException();
+      }
+      n += r;
+    }
+    return bytes;
+  }
+
+  private long readVarint() throws IOException {
+    long x = 0L;
+    for (int shift = 0; shift < 64; shift += 7) {
+      int b = readByte();
+      x |= ((long) (b & 0x7f)) << shift;
+      if ((b & 0x80) == 0) {
+        return x;
+      }
+    }
+    throw new IOException("corrupt binary log: varint too long");
+  }
+}
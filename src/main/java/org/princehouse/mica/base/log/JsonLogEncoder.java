@@ -0,0 +1,32 @@
+package org.princehouse.mica.base.log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import org.princehouse.mica.base.model.MicaRuntime.JsonLogEvent;
+import org.princehouse.mica.util.Logging;
+
+/**
+ * One JSON object per line, as read by tools/micavis
+ *
+ * @author lonnie
+ */
+public class JsonLogEncoder implements LogEncoder {
+
+  private static final byte[] NEWLINE = {'\n'};
+
+  @Override
+  public void writeHeader(OutputStream out) {
+  }
+
+  @Override
+  public Object capture(int flags, JsonLogEvent event) {
+    return Logging.getGson().toJson(event);
+  }
+
+  @Override
+  public void encode(Object captured, OutputStream out) throws IOException {
+    out.write(((String) captured).getBytes(StandardCharsets.UTF_8));
+    out.write(NEWLINE);
+  }
+}
@@ -0,0 +1,27 @@
+package org.princehouse.mica.base.log;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import org.princehouse.mica.base.model.MicaRuntime.JsonLogEvent;
+
+/**
+ * File format of an AsyncLogSink. Encoding is split in two steps: capture runs on the logging
+ * thread and must snapshot everything that could change later (i.e., serialize the event data);
+ * encode runs on the writer thread, in log order, so it may keep state across events.
+ *
+ * @author lonnie
+ */
+public interface LogEncoder {
+
+  /**
+   * Written whenever the log file is opened, before any event
+   *
+   * @param out
+   * @throws IOException
+   */
+  public void writeHeader(OutputStream out) throws IOException;
+
+  public Object capture(int flags, JsonLogEvent event);
+
+  public void encode(Object captured, OutputStream out) throws IOException;
+}
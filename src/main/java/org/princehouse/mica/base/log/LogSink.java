@@ -0,0 +1,30 @@
+package org.princehouse.mica.base.log;
+
+import org.princehouse.mica.base.model.MicaRuntime.JsonLogEvent;
+
+/**
+ * Destination for the events of a runtime log. Obtain sinks from LogSinks.
+ *
+ * @author lonnie
+ */
+public interface LogSink {
+
+  /**
+   * Append one event to the log. The event's data is serialized before this method returns, so the
+   * caller may modify it afterwards.
+   *
+   * @param flags LogFlag mask the event was logged with
+   * @param event
+   */
+  public void log(int flags, JsonLogEvent event);
+
+  /**
+   * Block until every event accepted so far has been written to the log file
+   */
+  public void flush();
+
+  /**
+   * Flush and release the log file. The sink may not be used afterwards.
+   */
+  public void close();
+}
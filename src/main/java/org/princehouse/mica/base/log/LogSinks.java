@@ -0,0 +1,153 @@
+package org.princehouse.mica.base.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import org.princehouse.mica.base.exceptions.InvalidOption;
+import org.princehouse.mica.base.log.AsyncLogSink.OverflowPolicy;
+import org.princehouse.mica.base.model.MicaOptions;
+import org.princehouse.mica.base.model.MicaRuntime.JsonLogEvent;
+import org.princehouse.mica.util.Functional;
+
+/**
+ * Opens log sinks as selected by MicaOptions.logWriter and MicaOptions.logFormat.
+ * <p>
+ * Asynchronous sinks are shared by all runtimes that log to the same file (in the simulator, every
+ * runtime does), and reference counted: the file is closed when the last runtime closes its sink.
+ * Sinks still open when the JVM exits are flushed and closed by a shutdown hook.
+ *
+ * @author lonnie
+ */
+public class LogSinks {
+
+  private static class SharedSink implements LogSink {
+
+    private final AsyncLogSink sink;
+    private final String key;
+    private boolean closed = false;
+
+    private SharedSink(AsyncLogSink sink, String key) {
+      this.sink = sink;
+      this.key = key;
+    }
+
+    @Override
+    public void log(int flags, JsonLogEvent event) {
+      sink.log(flags, event);
+    }
+
+    @Override
+    public void flush() {
+      sink.flush();
+    }
+
+    @Override
+    public void close() {
+      release(this);
+    }
+  }
+
+  private static final Map<String, AsyncLogSink> openSinks = Functional.map();
+  private static final Map<String, Integer> refCounts = Functional.map();
+
+  static {
+    Runtime.getRuntime().addShutdownHook(new Thread() {
+      @Override
+      public void run() {
+        closeAll();
+      }
+    });
+  }
+
+  /**
+   * Open a sink for the given log file. Close it when done logging.
+   *
+   * @param file
+   * @param options
+   * @return
+   */
+  public static LogSink open(File file, MicaOptions options) {
+    LogEncoder encoder;
+    if (options.logFormat.equals("json")) {
+      encoder = new JsonLogEncoder();
+    } else if (options.logFormat.equals("binary")) {
+      encoder = new BinaryLogEncoder();
+    } else {
+      throw new InvalidOption("logFormat", options.logFormat);
+    }
+
+    if (options.logWriter.equals("sync")) {
+      if (!(encoder instanceof JsonLogEncoder)) {
+        // binary logs are stateful, so they need a single writer per file
+        throw new InvalidOption("logWriter", options.logWriter);
+      }
+      return new SyncLogSink(file);
+    } else if (options.logWriter.equals("async")) {
+      OverflowPolicy policy;
+      try {
+        policy = OverflowPolicy.valueOf(options.logOverflow);
+      } catch (IllegalArgumentException e) {
+        throw new InvalidOption("logOverflow", options.logOverflow);
+      }
+      return openShared(file, encoder, options.logBuffer, policy, options.logSampleRate);
+    } else {
+      throw new InvalidOption("logWriter", options.logWriter);
+    }
+  }
+
+  private static synchronized LogSink openShared(File file, LogEncoder encoder, int capacity,
+      OverflowPolicy policy, int sampleRate) {
+    String key = file.getAbsolutePath();
+    AsyncLogSink sink = openSinks.get(key);
+    if (sink == null) {
+      try {
+        sink = new AsyncLogSink(file, encoder, capacity, policy, sampleRate);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      openSinks.put(key, sink);
+      refCounts.put(key, 0);
+    }
+    refCounts.put(key, refCounts.get(key) + 1);
+    return new SharedSink(sink, key);
+  }
+
+  private static void release(SharedSink shared) {
+    AsyncLogSink last = null;
+    synchronized (LogSinks.class) {
+      if (shared.closed) {
+        return;
+      }
+      shared.closed = true;
+      int refs = refCounts.get(shared.key) - 1;
+      if (refs == 0) {
+        openSinks.remove(shared.key);
+        refCounts.remove(shared.key);
+        last = shared.sink;
+      } else {
+        refCounts.put(shared.key, refs);
+      }
+    }
+    if (last != null) {
+      last.close();
+    } else {
+      shared.sink.flush();
+    }
+  }
+
+  /**
+   * Flush and close every open asynchronous sink
+   */
+  public static void closeAll() {
+    List<AsyncLogSink> sinks;
+    synchronized (LogSinks.class) {
+      sinks = Functional.list(openSinks.values());
+      openSinks.clear();
+      refCounts.clear();
+    }
+    for (AsyncLogSink sink : sinks) {
+      sink.close();
+    }
+  }
+}
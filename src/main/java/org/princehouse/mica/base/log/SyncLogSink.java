@@ -0,0 +1,47 @@
+package org.princehouse.mica.base.log;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import org.princehouse.mica.base.model.MicaRuntime.JsonLogEvent;
+import org.princehouse.mica.util.Logging;
+
+/**
+ * Writes each event synchronously as a JSON line, opening the log file in append mode and closing
+ * it again for every event. Slow, but several runtimes (or processes) may share one file without
+ * coordination.
+ *
+ * @author lonnie
+ */
+public class SyncLogSink implements LogSink {
+
+  private final File file;
+
+  public SyncLogSink(File file) {
+    this.file = file;
+  }
+
+  @Override
+  public void log(int flags, JsonLogEvent event) {
+    String line = Logging.getGson().toJson(event);
+    FileOutputStream fos = null;
+    try {
+      fos = new FileOutputStream(file, file.exists());
+    } catch (FileNotFoundException e) {
+      e.printStackTrace();
+      return;
+    }
+    PrintStream out = new PrintStream(fos);
+    out.println(line);
+    out.close();
+  }
+
+  @Override
+  public void flush() {
+  }
+
+  @Override
+  public void close() {
+  }
+}
@@ -0,0 +1,303 @@
+package org.princehouse.mica.base.merge;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.objenesis.ObjenesisException;
+import org.objenesis.instantiator.ObjectInstantiator;
+import org.princehouse.mica.base.RuntimeErrorCondition;
+import org.princehouse.mica.base.exceptions.AbortRound;
+import org.princehouse.mica.base.exceptions.FatalErrorHalt;
+import org.princehouse.mica.base.model.MiCA;
+import org.princehouse.mica.base.model.MicaRuntime;
+import org.princehouse.mica.base.model.Protocol;
+import org.princehouse.mica.base.model.RuntimeState;
+import org.princehouse.mica.base.simple.SimpleCommunicationPatternAgent;
+import org.princehouse.mica.base.simple.TaggedPayload;
+import org.princehouse.mica.base.simple.WriteSet;
+import org.princehouse.mica.lib.abstractions.Merge;
+import org.princehouse.mica.lib.abstractions.MultiMerge;
+import org.princehouse.mica.lib.abstractions.MergeSelectionCase;
+import org.princehouse.mica.util.Functional;
+import org.princehouse.mica.util.MarkingObjectInputStream;
+import org.princehouse.mica.util.SerializableClasses;
+import org.princehouse.mica.util.Serialization;
+
+/**
+ * Communication pattern agent for composite protocols built with Merge operators. Only the
+ * subprotocols that gossip this round are sent.
+ * <p>
+ * After preUpdate, each Merge in the initiator's tree knows which of its subprotocols gossip (see
+ * Merge.getSubProtocolGossipCase). Merge's update() runs only those. m1 carries the initiator's
+ * protocol instance with every non-gossiping subprotocol replaced by a "shell": an instance of the
+ * same class whose fields all have default values (the Merges above them are kept). A
+ * subprotocol is still sent in full if a gossiping subprotocol can reach it, since the gossiping
+ * update may read it.
+ * <p>
+ * The receiver runs update() on the pruned copy and returns a WriteSet in which the shells are
+ * opaque. The initiator applies it to its live instance in place, so the subprotocols that were
+ * left out, and their references to the rest of the tree, are kept as they were.
+ * <p>
+ * MultiMerges are pruned the same way, using MultiMerge.getGossiping. Merges that override update()
+ * are treated as ordinary protocols and sent whole, as is every protocol that is not a Merge.
+ *
+ * @author lonnie
+ */
+public class MergeCommunicationPatternAgent extends SimpleCommunicationPatternAgent {
+
+  // TaggedPayload tags. m1 is a REQUEST (the serialized pruned protocol instance and
+  // RuntimeState), m2 a WRITESET.
+  private static final byte WRITESET = 0;
+  private static final byte REQUEST = 1;
+
+  @Override
+  public Serializable f1(MicaRuntime initiatorRuntime) {
+    try {
+      return new TaggedPayload(REQUEST, writeRequest(initiatorRuntime.getProtocolInstance(),
+          initiatorRuntime.getRuntimeState()));
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    } finally {
+      MiCA.getRuntimeInterface().getRuntimeContextManager().clear();
+    }
+  }
+
+  @Override
+  public Serializable f2(MicaRuntime receiverRuntime, Serializable o)
+      throws FatalErrorHalt, AbortRound {
+    Object[] state = null;
+    try {
+      state = readRequest(((TaggedPayload) o).getPayload());
+    } catch (IOException | ClassNotFoundException e) {
+      receiverRuntime.handleError(RuntimeErrorCondition.MISC_INTERNAL_ERROR, e);
+    }
+    Protocol p = (Protocol) state[0];
+    RuntimeState runtimeState = (RuntimeState) state[1];
+    MiCA.getRuntimeInterface().getRuntimeContextManager().setNativeRuntime(receiverRuntime);
+    try {
+      MiCA.getRuntimeInterface().getRuntimeContextManager()
+          .setReceivedRuntimeState(p, runtimeState);
+      WriteSet.Snapshot snapshot = WriteSet.snapshot(new Object[]{p, runtimeState},
+          Arrays.asList((Object[]) state[2]));
+      try {
+        p.update(receiverRuntime.getProtocolInstance());
+      } catch (Throwable t) {
+        receiverRuntime.handleError(RuntimeErrorCondition.UPDATE_EXCEPTION, t);
+      }
+      return snapshot.diff();
+    } finally {
+      MiCA.getRuntimeInterface().getRuntimeContextManager().clear();
+    }
+  }
+
+  // f3 is SimpleCommunicationPatternAgent's: m2 is always a WriteSet
+
+  @Override
+  public byte[] serialize(Serializable obj) {
+    if (obj instanceof TaggedPayload) {
+      return ((TaggedPayload) obj).toBytes();
+    }
+    return new TaggedPayload(WRITESET, Serialization.serializeDefault(obj)).toBytes();
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <T extends Serializable> T deserialize(byte[] data) {
+    TaggedPayload m = TaggedPayload.fromBytes(data);
+    switch (m.getTag()) {
+      case REQUEST:
+        return (T) m;
+      case WRITESET:
+        return (T) Serialization.deserializeDefault(m.getPayload());
+      default:
+        throw new RuntimeException("unknown message tag " + m.getTag());
+    }
+  }
+
+  /**
+   * Serialize a protocol instance and its runtime state, leaving out the subprotocols that do not
+   * gossip this round
+   *
+   * @param p
+   * @param runtimeState
+   * @return
+   * @throws IOException
+   */
+  static byte[] writeRequest(Protocol p, RuntimeState runtimeState) throws IOException {
+    List<Protocol> gossiping = Functional.list();
+    IdentityHashMap<Object, Boolean> omitted = new IdentityHashMap<Object, Boolean>();
+    partition(p, gossiping, omitted);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ShellOutputStream out = new ShellOutputStream(bytes, omitted);
+    // everything the gossiping subprotocols reach is written first, in full; the omitted
+    // subprotocols that are left are written as shells
+    out.writeObject(gossiping.toArray(new Protocol[gossiping.size()]));
+    out.shelling = true;
+    out.writeObject(p);
+    out.writeObject(runtimeState);
+    out.writeObject(out.shells.toArray());
+    out.close();
+    return bytes.toByteArray();
+  }
+
+  /**
+   * @param payload
+   * @return The protocol instance, its runtime state, and the array of shells in it
+   * @throws IOException
+   * @throws ClassNotFoundException
+   */
+  static Object[] readRequest(byte[] payload) throws IOException, ClassNotFoundException {
+    ObjectInputStream in = new MarkingObjectInputStream(new ByteArrayInputStream(payload));
+    in.readObject();
+    return new Object[]{in.readObject(), in.readObject(), in.readObject()};
+  }
+
+  // sort the merge tree under p into subprotocols that gossip and subprotocols that do not
+  private static void partition(Protocol p, List<Protocol> gossiping,
+      IdentityHashMap<Object, Boolean> omitted) {
+    if (p == null) {
+      return;
+    }
+    if (!isPrunable(p)) {
+      gossiping.add(p);
+      return;
+    }
+    if (p instanceof MultiMerge) {
+      MultiMerge m = (MultiMerge) p;
+      for (int i = 0; i < m.size(); i++) {
+        if (m.gossips(i)) {
+          partition(m.getSubProtocol(i), gossiping, omitted);
+        } else {
+          omit(m.getSubProtocol(i), omitted);
+        }
+      }
+      return;
+    }
+    Merge m = (Merge) p;
+    MergeSelectionCase c = m.getSubProtocolGossipCase();
+    if (c.p1Gossips()) {
+      partition(m.getP1(), gossiping, omitted);
+    } else {
+      omit(m.getP1(), omitted);
+    }
+    if (c.p2Gossips()) {
+      partition(m.getP2(), gossiping, omitted);
+    } else {
+      omit(m.getP2(), omitted);
+    }
+  }
+
+  // Merges under a non-gossiping branch are kept (they are small, and the receiver's merge log
+  // walks them); the protocols at their leaves are omitted
+  private static void omit(Protocol p, IdentityHashMap<Object, Boolean> omitted) {
+    if (p == null) {
+      return;
+    } else if (p instanceof Merge) {
+      omit(((Merge) p).getP1(), omitted);
+      omit(((Merge) p).getP2(), omitted);
+    } else if (p instanceof MultiMerge) {
+      for (Protocol sub : ((MultiMerge) p).getSubProtocols()) {
+        omit(sub, omitted);
+      }
+    } else {
+      omitted.put(p, true);
+    }
+  }
+
+  private static final Map<Class<?>, Boolean> mergeUpdateCache = new ConcurrentHashMap<Class<?>, Boolean>();
+
+  // a Merge or MultiMerge whose update() only runs the subprotocols selected this round
+  private static boolean isPrunable(Protocol p) {
+    Class<?> base;
+    if (p instanceof Merge
+        && ((Merge) p).getSubProtocolGossipCase() != MergeSelectionCase.NA) {
+      base = Merge.class;
+    } else if (p instanceof MultiMerge && ((MultiMerge) p).getGossiping() != null) {
+      base = MultiMerge.class;
+    } else {
+      return false;
+    }
+    Class<?> k = p.getClass();
+    Boolean prunable = mergeUpdateCache.get(k);
+    if (prunable == null) {
+      try {
+        prunable = k.getMethod("update", Protocol.class).getDeclaringClass() == base;
+      } catch (NoSuchMethodException e) {
+        throw new RuntimeException(e);
+      }
+      mergeUpdateCache.put(k, prunable);
+    }
+    return prunable;
+  }
+
+  // writes shells in place of omitted subprotocols that have not been written yet
+  private static class ShellOutputStream extends ObjectOutputStream {
+
+    private final IdentityHashMap<Object, Boolean> omitted;
+    private final List<Object> shells = Functional.list();
+    private boolean shelling = false;
+
+    private ShellOutputStream(OutputStream out, IdentityHashMap<Object, Boolean> omitted)
+        throws IOException {
+      super(out);
+      this.omitted = omitted;
+      enableReplaceObject(true);
+    }
+
+    @Override
+    protected Object replaceObject(Object obj) {
+      if (shelling && omitted.containsKey(obj)) {
+        Object shell = shell(obj.getClass());
+        if (shell != null) {
+          shells.add(shell);
+          return shell;
+        }
+      }
+      return obj;
+    }
+  }
+
+  private static final Map<Class<?>, ObjectInstantiator<?>> shellInstantiators = new ConcurrentHashMap<Class<?>, ObjectInstantiator<?>>();
+  private static final Map<Class<?>, Boolean> unshellable = new ConcurrentHashMap<Class<?>, Boolean>();
+
+  /**
+   * @param k
+   * @return An instance of k with default field values, or null if k's serialized form is custom
+   */
+  private static Object shell(Class<?> k) {
+    if (unshellable.containsKey(k)) {
+      return null;
+    }
+    ObjectInstantiator<?> i = shellInstantiators.get(k);
+    if (i == null) {
+      i = shellInstantiator(k);
+      if (i == null) {
+        unshellable.put(k, true);
+        return null;
+      }
+      shellInstantiators.put(k, i);
+    }
+    return i.newInstance();
+  }
+
+  private static ObjectInstantiator<?> shellInstantiator(Class<?> k) {
+    if (SerializableClasses.customizesSerialization(k)) {
+      return null;
+    }
+    try {
+      return SerializableClasses.instantiator(k);
+    } catch (ObjenesisException e) {
+      return null;
+    }
+  }
+}
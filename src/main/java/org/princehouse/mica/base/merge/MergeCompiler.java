@@ -0,0 +1,24 @@
+package org.princehouse.mica.base.merge;
+
+import org.princehouse.mica.base.model.CommunicationPatternAgent;
+import org.princehouse.mica.base.model.Compiler;
+import org.princehouse.mica.base.model.Protocol;
+
+/**
+ * Compiler for composite protocols: like SimpleCompiler, but the subprotocols of a Merge tree that
+ * do not gossip in a round are left out of its messages (see MergeCommunicationPatternAgent).
+ *
+ * @author lonnie
+ */
+public class MergeCompiler extends Compiler {
+
+  public MergeCompiler() {
+  }
+
+  private static CommunicationPatternAgent pattern = new MergeCommunicationPatternAgent();
+
+  @Override
+  public CommunicationPatternAgent compile(Protocol pinstance) {
+    return pattern;
+  }
+}
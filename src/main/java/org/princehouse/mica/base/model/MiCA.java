@@ -1,20 +1,101 @@
 package org.princehouse.mica.base.model;
 
+/**
+ * Lookup point for the runtime interface, options, and compiler in effect.
+ * <p>
+ * The static setters configure process-wide defaults, which is all a single experiment needs. To
+ * run several independent experiments in one JVM, each one binds its own Context to the thread
+ * that executes it (see enter/exit); while a context is bound, the getters return its values
+ * instead of the defaults.
+ *
+ * @author lonnie
+ */
 public class MiCA {
 
   private static RuntimeInterface rti = null;
   private static MicaOptions options = null;
   private static Compiler compiler = null;
 
+  /**
+   * A runtime interface, options, and compiler that belong together. Null members fall back to the
+   * process-wide defaults.
+   */
+  public static class Context {
+
+    private final RuntimeInterface runtimeInterface;
+    private final MicaOptions options;
+    private final Compiler compiler;
+
+    public Context(RuntimeInterface runtimeInterface, MicaOptions options, Compiler compiler) {
+      this.runtimeInterface = runtimeInterface;
+      this.options = options;
+      this.compiler = compiler;
+    }
+
+    public RuntimeInterface getRuntimeInterface() {
+      return runtimeInterface;
+    }
+
+    public MicaOptions getOptions() {
+      return options;
+    }
+
+    public Compiler getCompiler() {
+      return compiler;
+    }
+  }
+
+  private static final ThreadLocal<Context> threadContext = new ThreadLocal<Context>();
+
+  /**
+   * Bind context to the current thread.
+   *
+   * @param context
+   * @return The previously bound context (possibly null); pass it to exit() when done
+   */
+  public static Context enter(Context context) {
+    Context previous = threadContext.get();
+    threadContext.set(context);
+    return previous;
+  }
+
+  /**
+   * Restore the context that was bound before the matching enter()
+   *
+   * @param previous Return value of enter()
+   */
+  public static void exit(Context previous) {
+    if (previous == null) {
+      threadContext.remove();
+    } else {
+      threadContext.set(previous);
+    }
+  }
+
+  /**
+   * @return The context bound to the current thread, or null if the defaults are in effect
+   */
+  public static Context getContext() {
+    return threadContext.get();
+  }
+
   public static void setRuntimeInterface(RuntimeInterface rti) {
     MiCA.rti = rti;
   }
 
   public static RuntimeInterface getRuntimeInterface() {
+    Context c = threadContext.get();
+    if (c != null && c.runtimeInterface != null) {
+      return c.runtimeInterface;
+    }
     return rti;
   }
 
   public static MicaOptions getOptions() {
+    Context c = threadContext.get();
+    if (c != null && c.options != null) {
+      return c.options;
+    }
     return options;
   }
 
@@ -23,6 +104,10 @@ public class MiCA {
   }
 
   public static Compiler getCompiler() {
+    Context c = threadContext.get();
+    if (c != null && c.compiler != null) {
+      return c.compiler;
+    }
     return compiler;
   }
 
@@ -1,7 +1,10 @@
 package org.princehouse.mica.base.model;
 
 import com.beust.jcommander.Parameter;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.List;
+import org.princehouse.mica.base.LogFlag;
 import org.princehouse.mica.util.Functional;
 
 /**
@@ -60,7 +63,7 @@ public class MicaOptions {
   @Parameter(names = "-implementation", description = "Runtime implementation name. Valid options: simple, simulation.  Default: sim")
   public String implementation = "simulation";
 
-  @Parameter(names = "-compiler", description = "Analysis implementation. Options: default, simple, fake")
+  @Parameter(names = "-compiler", description = "Analysis implementation. Options: default, simple, fake, dataflow (send only the fields the update method uses), merge (leave subprotocols that do not gossip out of messages)")
   public String compiler = "default";
 
   @Parameter(names = "-timeout", description = "Lock waiting timeout (ms)")
@@ -75,14 +78,104 @@ public class MicaOptions {
   @Parameter(names = "-cacheReflection", description = "(Expert) Cache foreign objects analysis. This will cause incorrect behavior if new sub-protocols created dynamically after initialization of the parent protocol.")
   public Boolean reflectionCache = false;
 
-  @Parameter(names = "-simUpdateDuration", description = "Simulator only. Duration (ms) of simuated update function execution.  -1 indicates real wall clock time (default).")
+  @Parameter(names = "-debugContext", description = "(Debugging) Remember where each thread last set its native runtime, and report it when a runtime context is not cleared")
+  public boolean debugContext = false;
+
+  @Parameter(names = "-simUpdateDuration", description = "Simulator only. Duration (ms) of simuated update function execution; select takes no time.  -1 indicates real wall clock time (default).")
   public int simUpdateDuration = -1;
 
-  @Parameter(names = "-serializer", description = "Default serializer. Values are 'java' (kryo serialization not currently available)")
+  @Parameter(names = "-serializer", description = "Default serializer. Values are 'java', 'kryo', 'codec'")
   public String serializer = "java";
 
   @Parameter(names = "-logErrorLocations", description = "Record error locations in the logs, default false")
   public boolean logErrorLocations = true;
 
+  @Parameter(names = "-transport", description = "TCP/IP transport for -implementation simple. 'thread' listens with one thread per address; 'nio' multiplexes all addresses on a few selector threads. Default: thread")
+  public String transport = "thread";
+
+  @Parameter(names = "-nioSelectors", description = "NIO transport only. Number of selector threads")
+  public int nioSelectors = 2;
+
+  @Parameter(names = "-nioWorkers", description = "NIO transport only. Number of threads that handle incoming gossip (ignored with -threads virtual)")
+  public int nioWorkers = 32;
+
+  @Parameter(names = "-threads", description = "Threads for -implementation simple. 'platform' runs each node on an OS thread; 'virtual' runs each node and each incoming exchange on a virtual thread (Java 21+; falls back to small-stack platform threads), for many nodes per JVM. 'virtual' requires -transport nio. Default: platform")
+  public String threads = "platform";
+
+  @Parameter(names = "-scheduler", description = "Round timing for -implementation simple. 'loop' sleeps in a thread per node; 'wheel' runs every node's rounds from one shared timing wheel. Default: loop")
+  public String scheduler = "loop";
+
+  @Parameter(names = "-deltaExchange", description = "Simple runtime: send gossip messages as binary diffs against the state last exchanged with the same peer. Must be set on every node")
+  public boolean deltaExchange = false;
+
+  @Parameter(names = "-deltaPeers", description = "With -deltaExchange, keep delta bases for this many peers")
+  public int deltaPeers = 256;
+
+  @Parameter(names = "-responseEncoding", description = "Simple runtime: content of the gossip response. 'full' returns the initiator's whole state after update; 'writeset' returns only the fields update changed, which the initiator patches into its live state. Default: full")
+  public String responseEncoding = "full";
+
+  @Parameter(names = "-connectionPool", description = "Keep connections to peers open between gossip exchanges. Requires -transport nio on every node")
+  public boolean connectionPool = false;
+
+  @Parameter(names = "-connectionIdleMS", description = "With -connectionPool, close connections that have been idle this long (ms)")
+  public int connectionIdleMS = 60000;
+
+  @Parameter(names = "-logWriter", description = "JSON log writer. 'sync' opens the log file for every event; 'async' buffers events and writes them from a background thread. Default: sync")
+  public String logWriter = "sync";
+
+  @Parameter(names = "-logFormat", description = "JSON log file format. 'json' writes one JSON object per line; 'binary' writes a compact encoding (requires -logWriter async; convert with BinaryLogConverter). Default: json")
+  public String logFormat = "json";
+
+  @Parameter(names = "-logBuffer", description = "Async log writer only. Number of events buffered per log file")
+  public int logBuffer = 8192;
+
+  @Parameter(names = "-logOverflow", description = "Async log writer only. What to do when the log buffer is full. Options: block, drop, sample")
+  public String logOverflow = "block";
+
+  @Parameter(names = "-logSampleRate", description = "Async log writer only. With -logOverflow sample, keep one in this many events while the log buffer is nearly full")
+  public int logSampleRate = 10;
+
   public String mainClassName = null;
+
+  // computed from logsEnable and logsDisable on first use
+  private transient int logMask = 0;
+  private transient boolean haveLogMask = false;
+
+  /**
+   * Log flags in effect for runs with these options: LogFlag's defaults, plus logsEnable, minus
+   * logsDisable. Computed on first use, so set the log options before the run starts.
+   *
+   * @return
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public int getLogMask() {
+    if (!haveLogMask) {
+      int mask = LogFlag.set(LogFlag.defaultMask(), (List) logsEnable);
+      logMask = LogFlag.unset(mask, (List) logsDisable);
+      haveLogMask = true;
+    }
+    return logMask;
+  }
+
+  /**
+   * @return An independent copy of these options (list-valued options are copied, too)
+   */
+  public MicaOptions copy() {
+    MicaOptions copy = new MicaOptions();
+    try {
+      for (Field field : MicaOptions.class.getFields()) {
+        if (Modifier.isStatic(field.getModifiers())) {
+          continue;
+        }
+        Object value = field.get(this);
+        if (value instanceof List) {
+          value = Functional.list((List<?>) value);
+        }
+        field.set(copy, value);
+      }
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+    return copy;
+  }
 }
@@ -1,10 +1,6 @@
 package org.princehouse.mica.base.model;
 
-import com.google.gson.Gson;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Date;
 import java.util.Random;
@@ -14,11 +10,13 @@ import org.princehouse.mica.base.RuntimeErrorCondition;
 import org.princehouse.mica.base.RuntimeErrorResponse;
 import org.princehouse.mica.base.exceptions.AbortRound;
 import org.princehouse.mica.base.exceptions.FatalErrorHalt;
+import org.princehouse.mica.base.log.LogSink;
+import org.princehouse.mica.base.log.LogSinks;
 import org.princehouse.mica.base.net.model.Address;
 import org.princehouse.mica.util.ClassUtils;
 import org.princehouse.mica.util.Functional;
-import org.princehouse.mica.util.Logging;
 import org.princehouse.mica.util.Randomness;
+import org.princehouse.mica.util.SplitMixRandom;
 
 /**
  * The Runtime instance represents the local node in the gossip network. It runs the local protocol
@@ -70,6 +68,9 @@ public abstract class MicaRuntime {
   // json log file for this runtime instance
   private File logfile = null;
 
+  // opened on first use
+  private LogSink logSink = null;
+
   public String getLogFilename() {
     String s = String.format("%s.log", getAddress().toString());
     s = s.replace("/", "_");
@@ -77,7 +78,16 @@ public abstract class MicaRuntime {
   }
 
   public File getLogDirectory() {
-    return new File(MiCA.getOptions().logdir);
+    return new File(getOptions().logdir);
+  }
+
+  /**
+   * Options in effect for this runtime. By default, MiCA.getOptions()
+   *
+   * @return
+   */
+  public MicaOptions getOptions() {
+    return MiCA.getOptions();
   }
 
   public File getLogFile() {
@@ -95,6 +105,21 @@ public abstract class MicaRuntime {
     this.logfile = logfile;
   }
 
+  /**
+   * Flush and release this runtime's log. Logging again reopens it.
+   */
+  public void closeLog() {
+    runtimeLoglock.lock();
+    try {
+      if (logSink != null) {
+        logSink.close();
+        logSink = null;
+      }
+    } finally {
+      runtimeLoglock.unlock();
+    }
+  }
+
   /*
    * public void setLogDirectory(File logDirectory, boolean create) { if
    * (create && !logDirectory.exists()) { logDirectory.mkdirs(); }
@@ -140,7 +165,7 @@ public abstract class MicaRuntime {
 
   /**
    * @param logMask   Conjunctive bitmask: All log flags in the mask must be set in
-   *                  LogFlag.currentLogMask in order for this message to print May either be an
+   *                  LogFlag.getCurrentLogMask() in order for this message to print May either be an
    *                  Integer, which is interpreted as a set of bit flags, or a LogFlag enum object,
    *                  which is interpreted as the bit mask for that flag.
    * @param origin    Address originating the message
@@ -158,34 +183,16 @@ public abstract class MicaRuntime {
       return;
     }
 
-    runtimeLoglock.lock();
-
-    File logfile = getLogFile();
-
-    /**
-     * if(runtimeStartingTimestamp == 0) { runtimeStartingTimestamp = new
-     * Date().getTime(); if(logfile.exists()) { logfile.delete(); } }
-     **/
-    // old logfile now deleted at startup
-
-    FileOutputStream fos = null;
-    try {
-      fos = new FileOutputStream(logfile, logfile.exists());
-    } catch (FileNotFoundException e) {
-      e.printStackTrace();
-      runtimeLoglock.unlock();
-      return;
-    }
-
-    PrintStream out = new PrintStream(fos);
     JsonLogEvent logobj = new JsonLogEvent(getRuntimeClock(), origin.toString(), eventType,
         theEvent);
 
-    Gson gson = Logging.getGson();
-
+    runtimeLoglock.lock();
     try {
-      String msg = gson.toJson(logobj);
-      out.println(msg);
+      if (logSink == null) {
+        logSink = LogSinks.open(getLogFile(), getOptions());
+      }
+      // the sink serializes the event on this thread
+      logSink.log(LogFlag.maskOf(logMask), logobj);
     } catch (StackOverflowError e) {
       Object payload = logobj.data;
       System.err
@@ -198,7 +205,6 @@ public abstract class MicaRuntime {
       }
       // Treat this as a fatal error
       System.exit(-1);
-
     } catch (UnsupportedOperationException f) {
       try {
         handleError(RuntimeErrorCondition.MISC_INTERNAL_ERROR, f);
@@ -209,15 +215,9 @@ public abstract class MicaRuntime {
         // TODO Auto-generated catch block
         e.printStackTrace();
       }
+    } finally {
+      runtimeLoglock.unlock();
     }
-
-    try {
-      fos.close();
-    } catch (IOException e) {
-      e.printStackTrace();
-    }
-
-    runtimeLoglock.unlock();
   }
 
   /**
@@ -241,7 +241,7 @@ public abstract class MicaRuntime {
     File logDirectory = getLogDirectory();
 
     if (!logDirectory.exists()) {
-      logDirectory.mkdir();
+      logDirectory.mkdirs();
     }
 
     int intervalMS = getInterval();
@@ -321,7 +321,7 @@ public abstract class MicaRuntime {
     RuntimeErrorResponse policy = getErrorPolicy(condition);
 
     String lmsg = String.format("%s -> %s", condition, policy);
-    if (MiCA.getOptions().logErrorLocations) {
+    if (getOptions().logErrorLocations) {
       if (exception == null) {
         lmsg += " (null exception)";
       } else {
@@ -373,7 +373,7 @@ public abstract class MicaRuntime {
   }
 
   public void setRandomSeed(Long seed) {
-    getRuntimeState().setRandom(new Random(seed));
+    getRuntimeState().setRandom(new SplitMixRandom(seed));
   }
 
   public void setRoundLength(int roundLength) {
@@ -1,77 +1,184 @@
 package org.princehouse.mica.base.model;
 
 import java.util.WeakHashMap;
-import org.princehouse.mica.util.Logging;
+import org.princehouse.mica.base.BaseProtocol;
 import org.princehouse.mica.util.WeakHashSet;
-import org.princehouse.mica.util.reflection.FindReachableObjects;
+import org.princehouse.mica.util.reflection.RichObjectFinder;
 
 public class RuntimeContextManager {
 
-  // ---- agent execution context utilities ------------
-  private ThreadLocal<WeakHashSet<Object>> foreignObjects = new ThreadLocal<WeakHashSet<Object>>();
-  private ThreadLocal<RuntimeState> foreignRuntimeState = new ThreadLocal<RuntimeState>();
-  private ThreadLocal<MicaRuntime> nativeRuntime = new ThreadLocal<MicaRuntime>();
+  /**
+   * Everything known about the evaluation running on one thread. Each thread keeps its Context for
+   * good; clear() resets the fields instead of removing thread-local entries, so entering and
+   * leaving an evaluation costs one thread-local lookup each.
+   */
+  private static class Context {
+
+    private MicaRuntime nativeRuntime = null;
+    private RuntimeState foreignRuntimeState = null;
+    // protocols stamped with this mark were deserialized from the initiator's message
+    private Object foreignMark = null;
+    // or, for initiator objects that were not deserialized, all of its rich objects
+    private WeakHashSet<Object> foreignObjects = null;
+    private ViewMemo memo = null;
+    // for debugging (-debugContext), the piece of code that last set the native runtime
+    private String lastSetLocation = null;
+  }
+
+  private final ThreadLocal<Context> context = new ThreadLocal<Context>() {
+    @Override
+    protected Context initialValue() {
+      return new Context();
+    }
+  };
+
+  private MicaOptions options = null;
+
+  public RuntimeContextManager() {
+  }
 
-  // for debugging, remember which piece of code last set the native runtime
-  private ThreadLocal<String> debugLastSetLocation = new ThreadLocal<String>();
+  public RuntimeContextManager(MicaOptions options) {
+    this.options = options;
+  }
+
+  /**
+   * Options that govern this context manager. If none were set, the options in effect for the
+   * current thread (see MiCA.getOptions)
+   *
+   * @return
+   */
+  public MicaOptions getOptions() {
+    return (options != null ? options : MiCA.getOptions());
+  }
+
+  public void setOptions(MicaOptions options) {
+    this.options = options;
+  }
 
   public void clear() {
-    debugLastSetLocation.remove();
-    foreignObjects.remove();
-    foreignRuntimeState.remove();
-    nativeRuntime.remove();
+    Context c = context.get();
+    c.nativeRuntime = null;
+    c.foreignRuntimeState = null;
+    c.foreignMark = null;
+    c.foreignObjects = null;
+    c.memo = null;
+    c.lastSetLocation = null;
+  }
+
+  /**
+   * Memoize getView() and getRate() until the next clear(). Only for evaluations that do not change
+   * any protocol state (select, rate); never around preUpdate, update or postUpdate. Merge.preUpdate
+   * reads the views of its subprotocols and then runs their preUpdate, which may change them.
+   */
+  public void memoize() {
+    context.get().memo = new ViewMemo();
+  }
+
+  /**
+   * @return The current evaluation's memo, or null if memoize() has not been called since clear()
+   */
+  public ViewMemo getMemo() {
+    return context.get().memo;
   }
 
   public RuntimeState getRuntimeState(Object o) {
-    WeakHashSet<Object> foreign = foreignObjects.get();
-    if (foreign != null) {
-      if (foreign.contains(o)) {
-        RuntimeState frts = foreignRuntimeState.get();
-        assert (frts != null);
-        return frts;
-      }
+    Context c = context.get();
+    if (c.foreignRuntimeState != null && isForeign(c, o)) {
+      return c.foreignRuntimeState;
     }
-
-    MicaRuntime rt = getNativeRuntime();
+    MicaRuntime rt = c.nativeRuntime;
     if (rt == null) {
-      throw new RuntimeException("Cannot get runtime state: No native runtime is set");
+      throw new RuntimeException("You forgot to set the native runtime");
     }
     return rt.getRuntimeState();
   }
 
+  private static boolean isForeign(Context c, Object o) {
+    if (c.foreignMark != null) {
+      return (o instanceof BaseProtocol && ((BaseProtocol) o).getForeignMark() == c.foreignMark);
+    }
+    return (c.foreignObjects != null && c.foreignObjects.contains(o));
+  }
+
   public void setNativeRuntime(MicaRuntime rt) {
-    String location = Logging.getLocation(1);
-    if (nativeRuntime.get() != null) {
+    Context c = context.get();
+    if (c.nativeRuntime != null) {
       throw new RuntimeException(String.format(
           "Attempt to set native runtime without clearing first. Last set at %s\n",
-          debugLastSetLocation.get()));
+          (c.lastSetLocation != null ? c.lastSetLocation
+              : "(unknown; run with -debugContext to record it)")));
+    }
+    MicaOptions o = getOptions();
+    if (o != null && o.debugContext) {
+      c.lastSetLocation = callerLocation();
+    }
+    c.nativeRuntime = rt;
+  }
+
+  // "(file:line)" of the code that called into this class
+  private static String callerLocation() {
+    for (StackTraceElement frame : new Throwable().getStackTrace()) {
+      if (!frame.getClassName().equals(RuntimeContextManager.class.getName())) {
+        return String.format("(%s:%s)", frame.getFileName(), frame.getLineNumber());
+      }
     }
-    debugLastSetLocation.set(location);
-    nativeRuntime.set(rt);
+    return "(unknown)";
   }
 
   public MicaRuntime getNativeRuntime() {
-    MicaRuntime rt = nativeRuntime.get();
+    MicaRuntime rt = context.get().nativeRuntime;
     if (rt == null) {
       throw new RuntimeException("You forgot to set the native runtime");
     }
     return rt;
   }
 
+  /**
+   * Make rts the runtime state of the initiator's protocol instance rootProtocol, which was just
+   * deserialized from the initiator's message. The deserializers (Serialization, KryoUtil, Codecs,
+   * and any MarkingObjectInputStream) stamp every BaseProtocol they read from one message with the
+   * same mark, so this is constant time; a root without a mark falls back to
+   * setForeignRuntimeState. Only BaseProtocols are stamped, so partitioning schemes that override
+   * isRichObject should use setForeignRuntimeState.
+   *
+   * @param rootProtocol
+   * @param rts
+   */
+  public void setReceivedRuntimeState(Protocol rootProtocol, RuntimeState rts) {
+    Object mark = (rootProtocol instanceof BaseProtocol
+        ? ((BaseProtocol) rootProtocol).getForeignMark() : null);
+    if (mark == null) {
+      setForeignRuntimeState(rootProtocol, rts);
+      return;
+    }
+    Context c = context.get();
+    assert (c.foreignRuntimeState == null);
+    c.foreignMark = mark;
+    c.foreignRuntimeState = rts;
+  }
+
   private WeakHashMap<Protocol, WeakHashSet<Object>> foreignObjectCache = new WeakHashMap<Protocol, WeakHashSet<Object>>();
 
+  /**
+   * Make rts the runtime state of every rich object reachable from rootProtocol. This walks the
+   * whole object graph; for a protocol instance that was just deserialized, use
+   * setReceivedRuntimeState.
+   *
+   * @param rootProtocol
+   * @param rts
+   */
   public void setForeignRuntimeState(Protocol rootProtocol, RuntimeState rts) {
-    assert (foreignObjects.get() == null);
-    assert (foreignRuntimeState.get() == null);
-    foreignObjects.set(getForeignObjects(rootProtocol));
-    foreignRuntimeState.set(rts);
+    Context c = context.get();
+    assert (c.foreignRuntimeState == null);
+    c.foreignObjects = getForeignObjects(rootProtocol);
+    c.foreignRuntimeState = rts;
   }
 
   // caching refelection results can be dangerous; it will cause incorrect
   // execution if any protocol is created dynamically after
   // its parent has already been analyzed
   private WeakHashSet<Object> getForeignObjects(Protocol rootProtocol) {
-    if (MiCA.getOptions().reflectionCache) {
+    if (getOptions().reflectionCache) {
       WeakHashSet<Object> temp = foreignObjectCache.get(rootProtocol);
       if (temp != null) {
         return temp;
@@ -79,22 +186,11 @@ public class RuntimeContextManager {
     }
 
     final WeakHashSet<Object> whs = new WeakHashSet<Object>();
+    for (Object o : RichObjectFinder.forType(getRichObjectType()).find(rootProtocol)) {
+      whs.add(o);
+    }
 
-    FindReachableObjects<Object> reachableObjectFinder = new FindReachableObjects<Object>() {
-      @Override
-      public boolean match(Object obj) {
-        return isRichObject(obj);
-      }
-
-      @Override
-      public void add(Object obj) {
-        whs.add(obj);
-      }
-
-    };
-    reachableObjectFinder.analyze(rootProtocol);
-
-    if (MiCA.getOptions().reflectionCache) {
+    if (getOptions().reflectionCache) {
       foreignObjectCache.put(rootProtocol, whs);
     }
 
@@ -103,14 +199,24 @@ public class RuntimeContextManager {
 
   /**
    * A "rich object" is one for which MiCA associates a RuntimeState. By default, only Protocol
-   * instances. Different partitioning schemes can override this method to support other kinds of
-   * rich objects.
+   * instances. Different partitioning schemes can override getRichObjectType to support other kinds
+   * of rich objects.
    *
    * @param o
    * @return
    */
   public boolean isRichObject(Object o) {
-    return (o instanceof Protocol);
+    return getRichObjectType().isInstance(o);
+  }
+
+  /**
+   * The type of rich objects. Traversals of the initiator's object graph only follow references
+   * whose declared types can lead to an instance of it (see RichObjectFinder).
+   *
+   * @return
+   */
+  public Class<?> getRichObjectType() {
+    return Protocol.class;
   }
 
 }
@@ -4,6 +4,7 @@ import java.io.Serializable;
 import java.util.Date;
 import java.util.Random;
 import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.util.SplitMixRandom;
 
 /**
  * This is the chunk of global state that Protocol instances have access to.
@@ -18,7 +19,7 @@ public class RuntimeState implements Serializable {
   private static final long serialVersionUID = 1L;
 
   public RuntimeState() {
-    random = new Random();
+    random = new SplitMixRandom();
   }
 
   /**
@@ -0,0 +1,58 @@
+package org.princehouse.mica.base.model;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.util.Distribution;
+
+/**
+ * getView() and getRate() results of the protocol instances evaluated so far in one runtime
+ * evaluation (select or rate). A merge asks each subprotocol for its view and rate from
+ * select(), rate() and decideSelectionCase(), so without the memo a tree of nested merges evaluates
+ * each subtree a number of times exponential in its depth.
+ * <p>
+ * The runtime turns memoization on with RuntimeContextManager.memoize() and it ends with the
+ * matching clear(), so results never outlive the round they were computed in. Memoized views are
+ * shared by every caller in that evaluation and must not be modified in place. preUpdate is not
+ * memoized, as it may change the views it has already asked for.
+ *
+ * @author lonnie
+ */
+public class ViewMemo {
+
+  private final Map<Protocol, Distribution<Address>> views =
+      new IdentityHashMap<Protocol, Distribution<Address>>();
+  private final Map<Protocol, Double> rates = new IdentityHashMap<Protocol, Double>();
+
+  /**
+   * @return The memo of the current thread's evaluation, or null if memoization is off
+   */
+  public static ViewMemo current() {
+    RuntimeInterface rti = MiCA.getRuntimeInterface();
+    return (rti != null ? rti.getRuntimeContextManager().getMemo() : null);
+  }
+
+  public boolean hasView(Protocol p) {
+    return views.containsKey(p);
+  }
+
+  public Distribution<Address> getView(Protocol p) {
+    return views.get(p);
+  }
+
+  public void putView(Protocol p, Distribution<Address> view) {
+    views.put(p, view);
+  }
+
+  /**
+   * @param p
+   * @return Memoized rate of p, or null
+   */
+  public Double getRate(Protocol p) {
+    return rates.get(p);
+  }
+
+  public void putRate(Protocol p, double rate) {
+    rates.put(p, rate);
+  }
+}
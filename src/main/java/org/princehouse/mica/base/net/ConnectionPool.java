@@ -0,0 +1,157 @@
+package org.princehouse.mica.base.net;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.net.model.Connection;
+import org.princehouse.mica.util.Functional;
+
+/**
+ * Keeps connections to peers open between gossip exchanges, so that an exchange with a recently
+ * contacted peer does not pay for a TCP handshake and teardown.
+ * <p>
+ * A pooled connection carries a sequence of exchanges, each one a length-prefixed request frame
+ * followed by a length-prefixed response frame, exactly as SimpleRuntime sends them on a fresh
+ * connection. The receiving side must keep reading frames until the connection is closed, which
+ * the NIO transport does (see NioServer).
+ * <p>
+ * Idle connections are closed after idleTimeoutMS, and checked with Connection.isHealthy before
+ * they are reused. Not thread-safe; each runtime has its own pool.
+ *
+ * @author lonnie
+ */
+public class ConnectionPool {
+
+  private static class Idle {
+
+    private final Connection connection;
+    private final long since;
+
+    private Idle(Connection connection, long since) {
+      this.connection = connection;
+      this.since = since;
+    }
+  }
+
+  private final long idleTimeoutMS;
+  private final Map<Address, Deque<Idle>> idle = Functional.map();
+  private final Map<Connection, Address> active = Functional.map();
+
+  private long opened = 0;
+  private long reused = 0;
+
+  public ConnectionPool(long idleTimeoutMS) {
+    this.idleTimeoutMS = idleTimeoutMS;
+  }
+
+  /**
+   * Get a connection to address: an idle pooled one if a healthy one exists, otherwise a new one.
+   * Pass it to release() or discard() when the exchange is over.
+   *
+   * @param address
+   * @return
+   * @throws IOException If a new connection cannot be opened
+   */
+  public Connection acquire(Address address) throws IOException {
+    long now = System.currentTimeMillis();
+    evictIdle(now);
+    Deque<Idle> q = idle.get(address);
+    while (q != null && !q.isEmpty()) {
+      Connection c = q.pollLast().connection;
+      if (c.isHealthy()) {
+        reused++;
+        active.put(c, address);
+        return c;
+      }
+      closeQuietly(c);
+    }
+    Connection c = address.openConnection();
+    opened++;
+    active.put(c, address);
+    return c;
+  }
+
+  /**
+   * Return a connection after a successful exchange, so it can be reused
+   *
+   * @param connection
+   */
+  public void release(Connection connection) {
+    Address address = active.remove(connection);
+    if (address == null) {
+      closeQuietly(connection);
+      return;
+    }
+    Deque<Idle> q = idle.get(address);
+    if (q == null) {
+      q = new ArrayDeque<Idle>();
+      idle.put(address, q);
+    }
+    q.addLast(new Idle(connection, System.currentTimeMillis()));
+  }
+
+  /**
+   * Close a connection whose exchange failed, or that should not be reused for any other reason
+   *
+   * @param connection
+   */
+  public void discard(Connection connection) {
+    active.remove(connection);
+    closeQuietly(connection);
+  }
+
+  /**
+   * Close every pooled connection
+   */
+  public void close() {
+    for (Deque<Idle> q : idle.values()) {
+      for (Idle i : q) {
+        closeQuietly(i.connection);
+      }
+    }
+    idle.clear();
+    for (Connection c : active.keySet()) {
+      closeQuietly(c);
+    }
+    active.clear();
+  }
+
+  /**
+   * @return Number of connections opened so far
+   */
+  public long getOpened() {
+    return opened;
+  }
+
+  /**
+   * @return Number of times a pooled connection was reused
+   */
+  public long getReused() {
+    return reused;
+  }
+
+  private void evictIdle(long now) {
+    Iterator<Deque<Idle>> it = idle.values().iterator();
+    while (it.hasNext()) {
+      Deque<Idle> q = it.next();
+      // oldest first
+      while (!q.isEmpty() && now - q.peekFirst().since > idleTimeoutMS) {
+        closeQuietly(q.pollFirst().connection);
+      }
+      if (q.isEmpty()) {
+        it.remove();
+      }
+    }
+  }
+
+  private static void closeQuietly(Connection connection) {
+    try {
+      connection.close();
+    } catch (IOException e) {
+      // ignore
+    }
+  }
+}
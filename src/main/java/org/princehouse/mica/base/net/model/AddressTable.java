@@ -0,0 +1,69 @@
+package org.princehouse.mica.base.net.model;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interning table that gives each distinct Address (by equals) a dense int ID, starting at 0.
+ * <p>
+ * IDs are local to this JVM: they are assigned in the order addresses are first seen, so they
+ * must never be serialized. Structures keyed by ID (see AddressIntMap) convert back to Addresses
+ * when they are written. The table never shrinks; it holds one entry per peer this JVM has heard
+ * of.
+ *
+ * @author lonnie
+ */
+public class AddressTable {
+
+  private static final Map<Address, Integer> ids = new ConcurrentHashMap<Address, Integer>();
+  private static volatile Address[] addresses = new Address[64];
+  private static int count = 0;
+
+  /**
+   * @param a
+   * @return The ID of a, assigned on first use
+   */
+  public static int id(Address a) {
+    Integer id = ids.get(a);
+    return (id != null ? id : intern(a));
+  }
+
+  /**
+   * @param a
+   * @return The ID of a, or -1 if a has never been interned
+   */
+  public static int existingId(Address a) {
+    Integer id = ids.get(a);
+    return (id != null ? id : -1);
+  }
+
+  private static synchronized int intern(Address a) {
+    Integer id = ids.get(a);
+    if (id != null) {
+      return id;
+    }
+    if (count == addresses.length) {
+      addresses = Arrays.copyOf(addresses, count * 2);
+    }
+    // published before the ID can be looked up
+    addresses[count] = a;
+    ids.put(a, count);
+    return count++;
+  }
+
+  /**
+   * @param id
+   * @return The address interned as id
+   */
+  public static Address address(int id) {
+    return addresses[id];
+  }
+
+  /**
+   * @return The number of interned addresses
+   */
+  public static int size() {
+    return ids.size();
+  }
+}
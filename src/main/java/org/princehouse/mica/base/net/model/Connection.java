@@ -46,6 +46,16 @@ public abstract class Connection {
     return new PrintStream(getOutputStream());
   }
 
+  /**
+   * Can this connection be used for another exchange? Used by ConnectionPool to validate idle
+   * connections before reusing them. Must not block.
+   *
+   * @return False if the connection is known to be closed or otherwise unusable
+   */
+  public boolean isHealthy() {
+    return true;
+  }
+
   public abstract Address getSrc();
 
   public abstract Address getDst();
@@ -0,0 +1,67 @@
+package org.princehouse.mica.base.net.tcpip;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.net.model.Connection;
+
+/**
+ * Server side of a connection accepted by NioServer, as seen by an AcceptConnectionHandler. The
+ * input stream holds exactly one frame received from the peer (length header included); everything
+ * written to the output stream is sent back once the handler returns.
+ *
+ * @author lonnie
+ */
+public class NioConnection extends Connection {
+
+  private final NioServer.Channel channel;
+  private final InputStream inputStream;
+  private final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+  private boolean closed = false;
+
+  NioConnection(NioServer.Channel channel, byte[] frame) {
+    this.channel = channel;
+    this.inputStream = new ByteArrayInputStream(frame);
+  }
+
+  @Override
+  public InputStream getInputStream() {
+    return inputStream;
+  }
+
+  @Override
+  public OutputStream getOutputStream() {
+    return outputStream;
+  }
+
+  /**
+   * Send pending output, then close the connection
+   */
+  @Override
+  public void close() throws IOException {
+    closed = true;
+  }
+
+  boolean isClosed() {
+    return closed;
+  }
+
+  byte[] takeOutput() {
+    byte[] bytes = outputStream.toByteArray();
+    outputStream.reset();
+    return bytes;
+  }
+
+  @Override
+  public Address getSrc() {
+    return channel.getRemoteAddress();
+  }
+
+  @Override
+  public Address getDst() {
+    return channel.getLocalAddress();
+  }
+}
@@ -0,0 +1,452 @@
+package org.princehouse.mica.base.net.tcpip;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.princehouse.mica.base.exceptions.AbortRound;
+import org.princehouse.mica.base.exceptions.FatalErrorHalt;
+import org.princehouse.mica.base.model.MiCA;
+import org.princehouse.mica.base.model.MicaOptions;
+import org.princehouse.mica.util.Threads;
+
+/**
+ * TCP/IP communication facilitator based on non-blocking I/O. Replaces AsyncServer's thread per
+ * bound address when MicaOptions.transport is "nio".
+ * <p>
+ * A few selector threads multiplex every listening and accepted channel. Connections carry frames
+ * with a four byte big-endian length header (see SimpleRuntime.sendObject). When a complete frame
+ * has arrived, it is handed to the address's AcceptConnectionHandler on a worker pool, as a
+ * NioConnection whose input is that frame; whatever the handler writes is sent back afterwards.
+ * The channel then waits for the next frame until the peer closes it (or the handler calls
+ * close()), so clients may keep connections open across exchanges (see ConnectionPool). Channels
+ * that wait for a frame longer than the idle timeout are closed.
+ *
+ * @author lonnie
+ */
+public class NioServer {
+
+  public static final int BACKLOG = 1024;
+  private static final int HEADER_BYTES = 4;
+  // refuse frames that cannot be a gossip message (likely garbage on the port)
+  private static final int MAX_FRAME_BYTES = 256 << 20;
+  private static final long SWEEP_MS = 1000;
+
+  // bound address, and the MiCA context of the thread that bound it
+  private static class Listener {
+
+    private final TCPAddress address;
+    private final ServerSocketChannel serverChannel;
+    private final MiCA.Context context;
+
+    private Listener(TCPAddress address, ServerSocketChannel serverChannel,
+        MiCA.Context context) {
+      this.address = address;
+      this.serverChannel = serverChannel;
+      this.context = context;
+    }
+  }
+
+  /**
+   * Per-connection state. Only touched by the channel's selector thread, except while a frame is
+   * being handled, when the selector ignores the channel.
+   */
+  class Channel {
+
+    private final Listener listener;
+    private final SocketChannel socketChannel;
+    private final SelectorLoop loop;
+    private SelectionKey key = null;
+
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+    private ByteBuffer body = null;
+    private ByteBuffer output = null;
+    private boolean closeAfterWrite = false;
+    private long lastActive = System.currentTimeMillis();
+
+    private Channel(Listener listener, SocketChannel socketChannel, SelectorLoop loop) {
+      this.listener = listener;
+      this.socketChannel = socketChannel;
+      this.loop = loop;
+    }
+
+    TCPAddress getRemoteAddress() {
+      Socket s = socketChannel.socket();
+      return new TCPAddress(s.getInetAddress(), s.getPort());
+    }
+
+    TCPAddress getLocalAddress() {
+      return listener.address;
+    }
+
+    private void read() throws IOException {
+      while (true) {
+        ByteBuffer target = (body == null ? header : body);
+        int n = socketChannel.read(target);
+        if (n < 0) {
+          close();
+          return;
+        }
+        lastActive = System.currentTimeMillis();
+        if (target.hasRemaining()) {
+          return; // wait for more data
+        }
+        if (body == null) {
+          int length = header.getInt(0);
+          if (length < 0 || length > MAX_FRAME_BYTES) {
+            close();
+            return;
+          }
+          body = ByteBuffer.allocate(length);
+          if (length > 0) {
+            continue;
+          }
+        }
+        // complete frame: stop reading until it has been handled
+        byte[] frame = new byte[HEADER_BYTES + body.capacity()];
+        System.arraycopy(header.array(), 0, frame, 0, HEADER_BYTES);
+        System.arraycopy(body.array(), 0, frame, HEADER_BYTES, body.capacity());
+        header.clear();
+        body = null;
+        key.interestOps(0);
+        dispatch(this, frame);
+        return;
+      }
+    }
+
+    private void write() throws IOException {
+      socketChannel.write(output);
+      if (output.hasRemaining()) {
+        return;
+      }
+      output = null;
+      lastActive = System.currentTimeMillis();
+      if (closeAfterWrite) {
+        close();
+      } else {
+        key.interestOps(SelectionKey.OP_READ);
+      }
+    }
+
+    // called by the worker when the handler is done
+    private void respond(final byte[] bytes, final boolean close) {
+      loop.execute(new Runnable() {
+        @Override
+        public void run() {
+          if (!socketChannel.isOpen()) {
+            return;
+          }
+          if (bytes.length > 0) {
+            output = ByteBuffer.wrap(bytes);
+            closeAfterWrite = close;
+            key.interestOps(SelectionKey.OP_WRITE);
+          } else if (close) {
+            close();
+          } else {
+            key.interestOps(SelectionKey.OP_READ);
+          }
+        }
+      });
+    }
+
+    // waiting for a new frame, with nothing in flight
+    private boolean isIdle(long now) {
+      return key != null && key.isValid() && key.interestOps() == SelectionKey.OP_READ
+          && header.position() == 0 && now - lastActive > idleTimeoutMS;
+    }
+
+    private void close() {
+      loop.channels.remove(this);
+      if (key != null) {
+        key.cancel();
+      }
+      try {
+        socketChannel.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+  }
+
+  private class SelectorLoop extends Thread {
+
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private final Set<Channel> channels = new HashSet<Channel>();
+    private long lastSweep = System.currentTimeMillis();
+    private volatile boolean running = true;
+
+    private SelectorLoop(int i) throws IOException {
+      super(String.format("mica-nio-selector-%d", i));
+      setDaemon(true);
+      selector = Selector.open();
+    }
+
+    // run task on this selector thread
+    private void execute(Runnable task) {
+      tasks.add(task);
+      selector.wakeup();
+    }
+
+    private void register(final SelectableChannel channel, final int ops, final Object attachment) {
+      execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            SelectionKey key = channel.register(selector, ops, attachment);
+            if (attachment instanceof Channel) {
+              ((Channel) attachment).key = key;
+              channels.add((Channel) attachment);
+            }
+          } catch (ClosedChannelException e) {
+            // closed before it was registered
+          }
+        }
+      });
+    }
+
+    @Override
+    public void run() {
+      while (running) {
+        try {
+          selector.select(SWEEP_MS);
+        } catch (IOException e) {
+          e.printStackTrace();
+          break;
+        }
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+          task.run();
+        }
+        Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+        while (it.hasNext()) {
+          SelectionKey key = it.next();
+          it.remove();
+          if (!key.isValid()) {
+            continue;
+          }
+          Object attachment = key.attachment();
+          if (attachment instanceof Listener) {
+            accept((Listener) attachment);
+          } else {
+            Channel channel = (Channel) attachment;
+            try {
+              if (key.isReadable()) {
+                channel.read();
+              } else if (key.isWritable()) {
+                channel.write();
+              }
+            } catch (IOException e) {
+              channel.close();
+            }
+          }
+        }
+        sweep();
+      }
+      try {
+        selector.close();
+      } catch (IOException e) {
+        // ignore
+      }
+    }
+
+    // close idle channels
+    private void sweep() {
+      long now = System.currentTimeMillis();
+      if (now - lastSweep < SWEEP_MS) {
+        return;
+      }
+      lastSweep = now;
+      for (Channel channel : new ArrayList<Channel>(channels)) {
+        if (channel.isIdle(now)) {
+          channel.close();
+        }
+      }
+    }
+
+    private void shutdown() {
+      running = false;
+      selector.wakeup();
+    }
+  }
+
+  // Meant to be a singleton
+  private static NioServer server;
+
+  public static synchronized NioServer getServer() {
+    if (server == null) {
+      MicaOptions options = MiCA.getOptions();
+      if (options == null) {
+        options = new MicaOptions();
+      }
+      // outlive the clients' pooled connections, which are evicted after connectionIdleMS
+      server = new NioServer(options.nioSelectors, options.nioWorkers,
+          2L * options.connectionIdleMS, options.threads.equals("virtual"));
+    }
+    return server;
+  }
+
+  private final SelectorLoop[] loops;
+  private final AtomicInteger nextLoop = new AtomicInteger(0);
+  private final ExecutorService workers;
+  private final Map<TCPAddress, Listener> listeners = new ConcurrentHashMap<TCPAddress, Listener>();
+  private final long idleTimeoutMS;
+
+  private NioServer(int selectors, int workerThreads, long idleTimeoutMS, boolean virtual) {
+    this.idleTimeoutMS = idleTimeoutMS;
+    loops = new SelectorLoop[Math.max(1, selectors)];
+    try {
+      for (int i = 0; i < loops.length; i++) {
+        loops[i] = new SelectorLoop(i);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    for (SelectorLoop loop : loops) {
+      loop.start();
+    }
+    if (virtual) {
+      // a thread per incoming exchange, so that handlers waiting for a node's lock never queue
+      // behind each other
+      workers = Threads.newPerTaskExecutor(true, "mica-nio-worker");
+      return;
+    }
+    final AtomicInteger workerCount = new AtomicInteger(0);
+    workers = Executors.newFixedThreadPool(Math.max(1, workerThreads), new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, String.format("mica-nio-worker-%d", workerCount.getAndIncrement()));
+        t.setDaemon(true);
+        return t;
+      }
+    });
+  }
+
+  private SelectorLoop nextLoop() {
+    return loops[(nextLoop.getAndIncrement() & 0x7fffffff) % loops.length];
+  }
+
+  /**
+   * Start listening on address. Connections are handed to address's AcceptConnectionHandler.
+   *
+   * @param address
+   * @throws IOException
+   */
+  public void bind(TCPAddress address) throws IOException {
+    ServerSocketChannel serverChannel = ServerSocketChannel.open();
+    try {
+      serverChannel.configureBlocking(false);
+      serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+      serverChannel.bind(new InetSocketAddress(address.getInetAddressAddress(), address.getPort()),
+          BACKLOG);
+    } catch (IOException e) {
+      serverChannel.close();
+      throw e;
+    }
+    Listener listener = new Listener(address, serverChannel, MiCA.getContext());
+    listeners.put(address, listener);
+    nextLoop().register(serverChannel, SelectionKey.OP_ACCEPT, listener);
+  }
+
+  /**
+   * Stop listening on address. Established connections are not affected.
+   *
+   * @param address
+   * @return False if address was not bound
+   */
+  public boolean unbind(TCPAddress address) {
+    Listener listener = listeners.remove(address);
+    if (listener == null) {
+      return false;
+    }
+    try {
+      listener.serverChannel.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    return true;
+  }
+
+  private void accept(Listener listener) {
+    while (true) {
+      SocketChannel socketChannel;
+      try {
+        socketChannel = listener.serverChannel.accept();
+        if (socketChannel == null) {
+          return;
+        }
+        socketChannel.configureBlocking(false);
+        socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      } catch (IOException e) {
+        e.printStackTrace();
+        return;
+      }
+      SelectorLoop loop = nextLoop();
+      loop.register(socketChannel, SelectionKey.OP_READ,
+          new Channel(listener, socketChannel, loop));
+    }
+  }
+
+  private void dispatch(final Channel channel, final byte[] frame) {
+    workers.execute(new Runnable() {
+      @Override
+      public void run() {
+        Listener listener = channel.listener;
+        NioConnection connection = new NioConnection(channel, frame);
+        boolean close = false;
+        MiCA.Context previous = MiCA.enter(listener.context);
+        try {
+          listener.address.getAcceptHandler().acceptConnection(listener.address, connection);
+        } catch (FatalErrorHalt e) {
+          // like AsyncServer: the address stops accepting connections
+          close = true;
+          unbind(listener.address);
+        } catch (AbortRound e) {
+          close = true;
+        } catch (IOException e) {
+          e.printStackTrace();
+          close = true;
+        } catch (RuntimeException e) {
+          e.printStackTrace();
+          close = true;
+        } finally {
+          MiCA.exit(previous);
+        }
+        channel.respond(connection.takeOutput(), close || connection.isClosed());
+      }
+    });
+  }
+
+  public void stop() {
+    for (TCPAddress address : listeners.keySet()) {
+      unbind(address);
+    }
+    for (SelectorLoop loop : loops) {
+      loop.shutdown();
+    }
+    workers.shutdownNow();
+    synchronized (NioServer.class) {
+      if (server == this) {
+        server = null;
+      }
+    }
+  }
+}
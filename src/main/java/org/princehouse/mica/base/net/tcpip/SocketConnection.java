@@ -2,6 +2,8 @@ package org.princehouse.mica.base.net.tcpip;
 
 import java.io.IOException;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
 import org.princehouse.mica.base.net.BaseConnection;
 import org.princehouse.mica.base.net.model.Address;
 
@@ -24,6 +26,33 @@ public class SocketConnection extends BaseConnection {
     sock.close();
   }
 
+  /**
+   * For sockets that have a channel (see TCPAddress.openConnection), peek at the channel without
+   * blocking: the connection is unhealthy if the peer has closed it, or sent data nobody asked for.
+   */
+  @Override
+  public boolean isHealthy() {
+    if (sock.isClosed() || !sock.isConnected()) {
+      return false;
+    }
+    SocketChannel channel = sock.getChannel();
+    if (channel == null) {
+      return true;
+    }
+    synchronized (channel.blockingLock()) {
+      try {
+        channel.configureBlocking(false);
+        try {
+          return channel.read(ByteBuffer.allocate(1)) == 0;
+        } finally {
+          channel.configureBlocking(true);
+        }
+      } catch (IOException e) {
+        return false;
+      }
+    }
+  }
+
   @Override
   public Address getSrc() {
     return new TCPAddress(sock.getInetAddress(), sock.getPort());
@@ -4,20 +4,29 @@ import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.KryoSerializable;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.princehouse.mica.base.exceptions.AbortRound;
 import org.princehouse.mica.base.exceptions.FatalErrorHalt;
+import org.princehouse.mica.base.model.MiCA;
+import org.princehouse.mica.base.model.MicaOptions;
 import org.princehouse.mica.base.net.BaseConnection;
 import org.princehouse.mica.base.net.model.AcceptConnectionHandler;
 import org.princehouse.mica.base.net.model.Address;
 import org.princehouse.mica.base.net.model.Connection;
+import org.princehouse.mica.base.net.model.NotBoundException;
 
 /**
  * TCP/IP Address implementation.
@@ -38,6 +47,11 @@ public class TCPAddress implements Address, Externalizable, KryoSerializable {
   transient protected ServerSocket sock;
   transient int port;
 
+  // cached hashCode, and compareTo key for IPv4 addresses (ip << 16 | port); computed on first use
+  // since address and port are only assigned while constructing or deserializing
+  transient private int hash;
+  transient private long sortKey = -1;
+
   @Override
   public boolean equals(Object o) {
     if (!(o instanceof TCPAddress)) {
@@ -81,11 +95,81 @@ public class TCPAddress implements Address, Externalizable, KryoSerializable {
   public TCPAddress(InetAddress address, int port) {
     this.address = address;
     this.port = port;
+    remember(address);
+  }
+
+  /**
+   * Host names of the IP addresses this JVM has seen, so that addresses read from the wire (which
+   * carries only the raw IP) print the same as the originals in logs
+   */
+  private static final Map<InetAddress, InetAddress> namedAddresses = new ConcurrentHashMap<InetAddress, InetAddress>();
+
+  private static void remember(InetAddress a) {
+    // toString() is "host/ip"; it does not trigger a reverse lookup
+    if (a != null && !a.toString().startsWith("/") && !namedAddresses.containsKey(a)) {
+      namedAddresses.put(a, a);
+    }
+  }
+
+  /**
+   * Address from its wire form
+   *
+   * @param ip   4 or 16 raw IP address bytes
+   * @param port
+   * @return
+   * @throws UnknownHostException If ip has the wrong length
+   */
+  public static TCPAddress valueOf(byte[] ip, int port) throws UnknownHostException {
+    TCPAddress t = new TCPAddress();
+    t.address = inetAddress(ip);
+    t.port = port;
+    return t;
+  }
+
+  private static InetAddress inetAddress(byte[] ip) throws UnknownHostException {
+    InetAddress a = InetAddress.getByAddress(ip);
+    InetAddress named = namedAddresses.get(a);
+    return (named != null ? named : a);
+  }
+
+  /**
+   * Write the wire form of this address: the IP address length (4 or 16) and raw bytes, then the
+   * port as two bytes
+   *
+   * @param out
+   * @throws IOException
+   */
+  public void writeCompact(DataOutput out) throws IOException {
+    byte[] ip = address.getAddress();
+    out.writeByte(ip.length);
+    out.write(ip);
+    out.writeShort(port);
+  }
+
+  /**
+   * Read an address written by writeCompact
+   *
+   * @param in
+   * @return
+   * @throws IOException
+   */
+  public static TCPAddress readCompact(DataInput in) throws IOException {
+    byte[] ip = new byte[in.readUnsignedByte()];
+    in.readFully(ip);
+    return valueOf(ip, in.readUnsignedShort());
   }
 
   @Override
   public void bind(AcceptConnectionHandler h) {
     receiveCallback = h;
+    if (useNio()) {
+      try {
+        NioServer.getServer().bind(this);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      return;
+    }
     int backlog = 10;
     try {
       sock = new ServerSocket(port, backlog, address);
@@ -99,11 +183,27 @@ public class TCPAddress implements Address, Externalizable, KryoSerializable {
   }
 
   @Override
-  public void unbind() {
+  public void unbind() throws NotBoundException {
+    if (useNio()) {
+      if (!NioServer.getServer().unbind(this)) {
+        throw new NotBoundException();
+      }
+      return;
+    }
     // not implemented. haven't need it.
     throw new UnsupportedOperationException();
   }
 
+  // select the NIO transport instead of AsyncServer (see MicaOptions.transport)
+  private static boolean useNio() {
+    MicaOptions options = MiCA.getOptions();
+    return options != null && options.transport.equals("nio");
+  }
+
+  AcceptConnectionHandler getAcceptHandler() {
+    return receiveCallback;
+  }
+
   @Override
   public String toString() {
     return String.format("%s:%d", address, port);
@@ -147,21 +247,22 @@ public class TCPAddress implements Address, Externalizable, KryoSerializable {
 
   @Override
   public Connection openConnection() throws IOException {
-    Socket sock = new Socket(address, port);
-    BaseConnection c = new SocketConnection(sock);
+    // opened through a channel, so that ConnectionPool can check idle connections' health
+    SocketChannel channel = SocketChannel.open(new InetSocketAddress(address, port));
+    BaseConnection c = new SocketConnection(channel.socket());
     return c;
   }
 
   @Override
   public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
-    address = (InetAddress) in.readObject();
-    port = (Integer) in.readObject();
+    TCPAddress temp = readCompact(in);
+    address = temp.address;
+    port = temp.port;
   }
 
   @Override
   public void writeExternal(ObjectOutput out) throws IOException {
-    out.writeObject(address);
-    out.writeObject((Integer) port);
+    writeCompact(out);
   }
 
   /**
@@ -181,33 +282,74 @@ public class TCPAddress implements Address, Externalizable, KryoSerializable {
 
   }
 
+  // ordered by IP address bytes, then port; like equals and hashCode, this ignores host names,
+  // which do not survive the wire
   @Override
   public int compareTo(Address o) {
-    return toString().compareTo(o.toString());
+    if (!(o instanceof TCPAddress)) {
+      return toString().compareTo(o.toString());
+    }
+    long ka = sortKey();
+    long kb = ((TCPAddress) o).sortKey();
+    if (ka >= 0 && kb >= 0) {
+      return Long.compare(ka, kb);
+    }
+    byte[] a = address.getAddress();
+    byte[] b = ((TCPAddress) o).address.getAddress();
+    if (a.length != b.length) {
+      return a.length - b.length;
+    }
+    for (int i = 0; i < a.length; i++) {
+      if (a[i] != b[i]) {
+        return (a[i] & 0xFF) - (b[i] & 0xFF);
+      }
+    }
+    return port - ((TCPAddress) o).port;
+  }
+
+  // -2 for IPv6 addresses, which are compared byte by byte
+  private long sortKey() {
+    if (sortKey == -1) {
+      byte[] ip = address.getAddress();
+      long key = -2;
+      if (ip.length == 4) {
+        key = 0;
+        for (byte b : ip) {
+          key = (key << 8) | (b & 0xFF);
+        }
+        key = (key << 16) | port;
+      }
+      sortKey = key;
+    }
+    return sortKey;
   }
 
   @Override
   public int hashCode() {
-    return toString().hashCode();
+    int h = hash;
+    if (h == 0) {
+      h = address.hashCode() * 31 + port;
+      hash = h;
+    }
+    return h;
   }
 
   @Override
   public void read(Kryo kryo, Input in) {
-    String val = kryo.readObject(in, String.class);
-
-    TCPAddress temp;
+    byte[] ip = in.readBytes(in.readByte());
     try {
-      temp = TCPAddress.valueOf(val);
-      address = temp.address;
-      port = temp.port;
+      address = inetAddress(ip);
     } catch (UnknownHostException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
+      throw new RuntimeException(e);
     }
+    port = in.readShortUnsigned();
   }
 
   @Override
   public void write(Kryo kryo, Output out) {
-    kryo.writeObject(out, toString());
+    byte[] ip = address.getAddress();
+    out.writeByte(ip.length);
+    out.writeBytes(ip);
+    out.writeShort(port);
   }
 }
@@ -0,0 +1,142 @@
+package org.princehouse.mica.base.sim;
+
+import java.util.Arrays;
+
+/**
+ * Priority queue of pending SimulatorEvents, ordered by event time.
+ * <p>
+ * Binary heap keyed on (t, seq). The sequence number is a stable tie-break between events
+ * scheduled for the same time, so simulations are deterministic. The ordering is the same as the
+ * sorted LinkedList the Simulator used to keep: an event scheduled no later than the current head
+ * of the queue goes to the very front, and any other event goes after all queued events with the
+ * same time.
+ * <p>
+ * Cancelled events are discarded lazily by poll() when they reach the head of the queue.
+ *
+ * @author lonnie
+ */
+public class EventQueue {
+
+  private static final int INITIAL_CAPACITY = 64;
+
+  private SimulatorEvent[] heap = new SimulatorEvent[INITIAL_CAPACITY];
+  private long[] seqs = new long[INITIAL_CAPACITY];
+  private int size = 0;
+
+  // increasing sequence numbers order events behind others with the same time;
+  // decreasing ones put an event in front of everything already queued
+  private long nextSeq = 0L;
+  private long nextFrontSeq = -1L;
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public void clear() {
+    Arrays.fill(heap, 0, size, null);
+    size = 0;
+    nextSeq = 0L;
+    nextFrontSeq = -1L;
+  }
+
+  /**
+   * Insert an event. e.t must not be changed while the event is queued.
+   *
+   * @param e
+   */
+  public void add(SimulatorEvent e) {
+    assert (e != null);
+    long seq;
+    if (size > 0 && heap[0].t >= e.t) {
+      // very common case: an event that happens immediately jumps the queue
+      seq = nextFrontSeq--;
+    } else {
+      seq = nextSeq++;
+    }
+    if (size == heap.length) {
+      int capacity = heap.length * 2;
+      heap = Arrays.copyOf(heap, capacity);
+      seqs = Arrays.copyOf(seqs, capacity);
+    }
+    siftUp(size++, e, seq);
+  }
+
+  /**
+   * Returns the earliest event without removing it. The event may be cancelled.
+   *
+   * @return
+   */
+  public SimulatorEvent peek() {
+    return size > 0 ? heap[0] : null;
+  }
+
+  /**
+   * Remove and return the earliest event that has not been cancelled, or null if there is none.
+   *
+   * @return
+   */
+  public SimulatorEvent poll() {
+    while (size > 0) {
+      SimulatorEvent e = removeHead();
+      if (!e.isCancelled()) {
+        return e;
+      }
+    }
+    return null;
+  }
+
+  private SimulatorEvent removeHead() {
+    SimulatorEvent head = heap[0];
+    int last = --size;
+    SimulatorEvent e = heap[last];
+    long seq = seqs[last];
+    heap[last] = null;
+    if (last > 0) {
+      siftDown(0, e, seq);
+    }
+    return head;
+  }
+
+  private static boolean before(long t1, long seq1, long t2, long seq2) {
+    return t1 < t2 || (t1 == t2 && seq1 < seq2);
+  }
+
+  private void siftUp(int i, SimulatorEvent e, long seq) {
+    while (i > 0) {
+      int parent = (i - 1) >>> 1;
+      SimulatorEvent p = heap[parent];
+      if (!before(e.t, seq, p.t, seqs[parent])) {
+        break;
+      }
+      heap[i] = p;
+      seqs[i] = seqs[parent];
+      i = parent;
+    }
+    heap[i] = e;
+    seqs[i] = seq;
+  }
+
+  private void siftDown(int i, SimulatorEvent e, long seq) {
+    int half = size >>> 1;
+    while (i < half) {
+      int child = 2 * i + 1;
+      int right = child + 1;
+      if (right < size && before(heap[right].t, seqs[right], heap[child].t, seqs[child])) {
+        child = right;
+      }
+      if (!before(heap[child].t, seqs[child], e.t, seq)) {
+        break;
+      }
+      heap[i] = heap[child];
+      seqs[i] = seqs[child];
+      i = child;
+    }
+    heap[i] = e;
+    seqs[i] = seq;
+  }
+
+}
@@ -32,6 +32,16 @@ public class SimAddress implements Address {
     return id;
   }
 
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof SimAddress && id.equals(((SimAddress) o).id);
+  }
+
+  @Override
+  public int hashCode() {
+    return id.hashCode();
+  }
+
   @Override
   public int compareTo(Address a) {
     if (!(a instanceof SimAddress)) {
@@ -9,7 +9,6 @@ import org.princehouse.mica.base.exceptions.AbortRound;
 import org.princehouse.mica.base.exceptions.FatalErrorHalt;
 import org.princehouse.mica.base.exceptions.MicaException;
 import org.princehouse.mica.base.model.CommunicationPatternAgent;
-import org.princehouse.mica.base.model.MiCA;
 import org.princehouse.mica.base.model.MicaRuntime;
 import org.princehouse.mica.base.model.Protocol;
 import org.princehouse.mica.base.net.model.Address;
@@ -68,9 +67,10 @@ public class SimRound {
     // System.err.printf("  abort round %s\n", src);
 
     SimRuntime rta = sim.getRuntime(src);
-    rta.logJson(LogFlag.user, "notable-event-abort", MiCA.getOptions().expname);
+    rta.logJson(LogFlag.user, "notable-event-abort", sim.getOptions().expname);
 
     sim.getRuntimeContextManager().setNativeRuntime(rta);
+    sim.getRuntimeContextManager().memoize();
     double rate = 1.0;
     try {
       rate = rta.getProtocolInstance().getRate();
@@ -90,7 +90,7 @@ public class SimRound {
     long sleepTime = normalTime;
 
     if (normalTime < lateTime) {
-      rta.logJson(LogFlag.user, "notable-event-late", MiCA.getOptions().expname);
+      rta.logJson(LogFlag.user, "notable-event-late", sim.getOptions().expname);
       sleepTime = lateTime;
     }
 
@@ -282,9 +282,9 @@ public class SimRound {
 
       stopwatch.reset();
 
-      CommunicationPatternAgent patternSend = MiCA.getCompiler().compile(rta.getProtocolInstance());
+      CommunicationPatternAgent patternSend = sim.getCompiler().compile(rta.getProtocolInstance());
 
-      CommunicationPatternAgent patternRecv = MiCA.getCompiler().compile(rtb.getProtocolInstance());
+      CommunicationPatternAgent patternRecv = sim.getCompiler().compile(rtb.getProtocolInstance());
 
       try {
         Serializable m1 = patternSend.f1(rta);
@@ -322,9 +322,7 @@ public class SimRound {
         sim.getRuntimeContextManager().clear();
       }
 
-      long completionTimeRemote = (MiCA.getOptions().simUpdateDuration < 0 ? stopwatch.elapsed()
-          : MiCA
-              .getOptions().simUpdateDuration);
+      long completionTimeRemote = elapsed(sim.getOptions().simUpdateDuration);
 
       simulator.scheduleRelative(new ReleaseDstLock(), completionTimeRemote);
 
@@ -340,6 +338,7 @@ public class SimRound {
       }
 
       simulator.getRuntimeContextManager().setNativeRuntime(rta);
+      simulator.getRuntimeContextManager().memoize();
       double rate = 0;
       try {
         rate = rta.getProtocolInstance().getRate();
@@ -356,7 +355,7 @@ public class SimRound {
 
       int interval = simulator.getRuntime(round.src).getInterval();
 
-      long completionTimeLocal = stopwatch.elapsed();
+      long completionTimeLocal = elapsed(sim.getOptions().simUpdateDuration);
       simulator.scheduleRelative(new ReleaseSrcLock(), completionTimeLocal);
 
       long sleepMs = (long) (((double) interval) / rate);
@@ -367,6 +366,12 @@ public class SimRound {
     }
   }
 
+  // simulated ms since stopwatch.reset(): wall clock time, or fixed if simUpdateDuration is set, so
+  // that runs with the same seed are reproducible
+  private long elapsed(long fixed) {
+    return (sim.getOptions().simUpdateDuration < 0 ? stopwatch.elapsed() : fixed);
+  }
+
   protected void logJson(Object flags, Address source, String msgType, Object payload) {
     MicaRuntime rt = sim.getRuntime(source);
     rt.getProtocolInstance().logJson(flags, msgType, payload);
@@ -402,6 +407,7 @@ public class SimRound {
     public void execute(Simulator simulator) throws MicaException {
       SimRuntime rta = simulator.getRuntime(getSrc());
       simulator.getRuntimeContextManager().setNativeRuntime(rta);
+      simulator.getRuntimeContextManager().memoize();
 
       stopwatch.reset();
       SelectEvent se = null;
@@ -414,13 +420,13 @@ public class SimRound {
 
       }
       round.dst = se.selected;
-      long t = stopwatch.elapsed();
+      long t = elapsed(0);
 
       if (dst != null) {
         simulator.scheduleRelative(new AcquireDstLock(), t);
       }
 
-      // run pre-update
+      // run pre-update; not memoized, as preUpdate changes state that later views depend on
       simulator.getRuntimeContextManager().setNativeRuntime(rta);
       try {
         rta.getProtocolInstance().preUpdate(round.dst);
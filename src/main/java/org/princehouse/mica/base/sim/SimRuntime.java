@@ -1,7 +1,7 @@
 package org.princehouse.mica.base.sim;
 
 import java.util.concurrent.locks.ReentrantLock;
-import org.princehouse.mica.base.model.MiCA;
+import org.princehouse.mica.base.model.MicaOptions;
 import org.princehouse.mica.base.model.MicaRuntime;
 import org.princehouse.mica.base.model.Protocol;
 import org.princehouse.mica.base.net.model.Address;
@@ -10,13 +10,22 @@ public class SimRuntime extends MicaRuntime {
 
   private Protocol protocol = null;
 
-  public SimRuntime(Address address) {
+  private final Simulator simulator;
+
+  public SimRuntime(Address address, Simulator simulator) {
+    this.simulator = simulator;
     setAddress(address);
   }
 
   @Override
   public String getLogFilename() {
-    return String.format("%ssim_%s.log", MiCA.getOptions().logprefix, MiCA.getOptions().expname);
+    MicaOptions options = getOptions();
+    return String.format("%ssim_%s.log", options.logprefix, options.expname);
+  }
+
+  @Override
+  public MicaOptions getOptions() {
+    return simulator.getOptions();
   }
 
   @Override
@@ -33,6 +42,7 @@ public class SimRuntime extends MicaRuntime {
   @Override
   public void stop() {
     getSimulator().stopRuntime(this);
+    closeLog();
   }
 
   @Override
@@ -51,15 +61,15 @@ public class SimRuntime extends MicaRuntime {
   }
 
   protected Simulator getSimulator() {
-    return Simulator.v();
+    return simulator;
   }
 
   @Override
   public void start() {
     initLog();
-    MiCA.getRuntimeInterface().getRuntimeContextManager().setNativeRuntime(this);
+    simulator.getRuntimeContextManager().setNativeRuntime(this);
     logState("initial");
-    MiCA.getRuntimeInterface().getRuntimeContextManager().clear();
+    simulator.getRuntimeContextManager().clear();
   }
 
   @Override
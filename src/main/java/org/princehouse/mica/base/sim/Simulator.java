@@ -3,9 +3,7 @@ package org.princehouse.mica.base.sim;
 import fj.F;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.TimerTask;
 import org.princehouse.mica.base.LogFlag;
@@ -14,6 +12,7 @@ import org.princehouse.mica.base.exceptions.FatalErrorHalt;
 import org.princehouse.mica.base.exceptions.MicaException;
 import org.princehouse.mica.base.model.Compiler;
 import org.princehouse.mica.base.model.MiCA;
+import org.princehouse.mica.base.model.MicaOptions;
 import org.princehouse.mica.base.model.MicaRuntime;
 import org.princehouse.mica.base.model.Protocol;
 import org.princehouse.mica.base.model.RuntimeContextManager;
@@ -21,9 +20,14 @@ import org.princehouse.mica.base.model.RuntimeInterface;
 import org.princehouse.mica.base.net.dummy.DummyAddress;
 import org.princehouse.mica.base.net.model.Address;
 import org.princehouse.mica.util.Functional;
+import org.princehouse.mica.util.HarnessTimerTask;
 
 /**
  * Single-threaded MiCA emulator.
+ * <p>
+ * Each Simulator is an independent experiment with its own clock, runtimes, and (optionally) its
+ * own options and compiler, so several can run concurrently on different threads. run() binds the
+ * simulator to the calling thread as the MiCA context for the duration of the simulation.
  *
  * @author lonnie
  */
@@ -31,6 +35,46 @@ public class Simulator implements RuntimeInterface {
 
   private long clock = 0; // current clock
 
+  private MicaOptions options = null;
+  private Compiler compiler = null;
+
+  private RuntimeContextManager runtimeContextManager = new RuntimeContextManager();
+
+  public Simulator() {
+  }
+
+  public Simulator(MicaOptions options, Compiler compiler) {
+    setOptions(options);
+    setCompiler(compiler);
+  }
+
+  /**
+   * Options for this simulation. If none were set, MiCA.getOptions()
+   *
+   * @return
+   */
+  public MicaOptions getOptions() {
+    return (options != null ? options : MiCA.getOptions());
+  }
+
+  public void setOptions(MicaOptions options) {
+    this.options = options;
+    runtimeContextManager.setOptions(options);
+  }
+
+  /**
+   * Compiler for this simulation. If none was set, MiCA.getCompiler()
+   *
+   * @return
+   */
+  public Compiler getCompiler() {
+    return (compiler != null ? compiler : MiCA.getCompiler());
+  }
+
+  public void setCompiler(Compiler compiler) {
+    this.compiler = compiler;
+  }
+
   public long getClock() {
     return clock;
   }
@@ -51,7 +95,7 @@ public class Simulator implements RuntimeInterface {
     this.clock = clock;
   }
 
-  private LinkedList<SimulatorEvent> eventQueue = new LinkedList<SimulatorEvent>();
+  private EventQueue eventQueue = new EventQueue();
 
   private Map<Address, SimRuntime> addressBindings = Functional.map();
 
@@ -63,7 +107,7 @@ public class Simulator implements RuntimeInterface {
   // that only a lock-holder should be able to release a lock
   private Map<Address, Address> lockHolders = new HashMap<Address, Address>();
 
-  private Map<Address, List<SimulatorEvent>> lockWaitQueues = Functional.map();
+  private Map<Address, EventQueue> lockWaitQueues = Functional.map();
 
   private List<Address> unlockedQueue = Functional.list();
 
@@ -151,7 +195,7 @@ public class Simulator implements RuntimeInterface {
 
   protected void addLockWaiter(Address a, SimulatorEvent acquisitionCallback) {
     if (!lockWaitQueues.containsKey(a)) {
-      lockWaitQueues.put(a, Functional.<SimulatorEvent>list());
+      lockWaitQueues.put(a, new EventQueue());
     }
     acquisitionCallback.t = getClock();
     schedule(acquisitionCallback, lockWaitQueues.get(a));
@@ -167,58 +211,18 @@ public class Simulator implements RuntimeInterface {
     schedule(e, eventQueue);
   }
 
-  public SimulatorEvent pollEventQueue(List<SimulatorEvent> queue) {
+  public SimulatorEvent pollEventQueue(EventQueue queue) {
     if (queue == null) {
       return null;
     }
-
-    while (queue.size() > 0) {
-      SimulatorEvent e = queue.remove(0);
-      if (e.isCancelled()) {
-        // SimRuntime.debug.printf("   (cancelled)@%d   %s\n", e.t,
-        // e.toString());
-        continue;
-      } else {
-        return e;
-      }
-    }
-    return null;
+    // cancelled events are skipped by the queue
+    return queue.poll();
   }
 
-  public void schedule(SimulatorEvent e, List<SimulatorEvent> queue) {
+  public void schedule(SimulatorEvent e, EventQueue queue) {
     assert (e != null);
     assert (e.t >= getClock());
-
-    // this is a very common case --- insert an event that happens
-    // immediately
-    if (queue.size() == 0 || queue.get(0).t >= e.t) {
-      queue.add(0, e);
-      return;
-    }
-
-    // backwards O(n) linked list insert, running on the assumption that the
-    // inserted event will likely be scheduled
-    // later than existing events
-    for (ListIterator<SimulatorEvent> it = queue.listIterator(queue.size()); it.hasPrevious(); ) {
-      if (it.previous().t <= e.t) {
-        it.next();
-        it.add(e);
-        break;
-      }
-    }
-  }
-
-  @SuppressWarnings("unused")
-  private boolean queueIsCorrectlySorted(List<SimulatorEvent> queue) {
-    // sanity check --- O(n), use sparingly
-    long t = 0;
-    for (SimulatorEvent e : queue) {
-      if (e.t < t) {
-        return false;
-      }
-      t = e.t;
-    }
-    return true;
+    queue.add(e);
   }
 
   private boolean running = false;
@@ -237,6 +241,17 @@ public class Simulator implements RuntimeInterface {
 
   @Override
   public void run() {
+    MiCA.Context previous = MiCA.enter(new MiCA.Context(this, options, compiler));
+    try {
+      runSimulation();
+    } finally {
+      MiCA.exit(previous);
+    }
+  }
+
+  private void runSimulation() {
+    MicaOptions options = getOptions();
+
     // run the simulation
     for (MicaRuntime rt : getRuntimesSim()) {
       rt.start();
@@ -249,23 +264,23 @@ public class Simulator implements RuntimeInterface {
     simtimer.reset();
 
     long round = 0;
-    int roundSize = MiCA.getOptions().roundLength;
+    int roundSize = options.roundLength;
 
     // write options message to the first runtime
     MicaRuntime arbitraryRuntime = addressBindings.values().iterator().next();
-    arbitraryRuntime.logJson(LogFlag.init, "mica-options", MiCA.getOptions());
+    arbitraryRuntime.logJson(LogFlag.init, "mica-options", options);
 
     while (running) {
       long curRound = (getClock() / roundSize) + 1;
       if (curRound != round) {
         String stopsfx;
-        if (MiCA.getOptions().stopAfter > 0) {
-          stopsfx = String.format(" of %s", (int) MiCA.getOptions().stopAfter);
+        if (options.stopAfter > 0) {
+          stopsfx = String.format(" of %s", (int) options.stopAfter);
         } else {
           stopsfx = "";
         }
 
-        SimRuntime.debug.printf("(%s) round %d%s\n", MiCA.getOptions().expname, curRound, stopsfx);
+        SimRuntime.debug.printf("(%s) round %d%s\n", options.expname, curRound, stopsfx);
         round = curRound;
       }
       SimulatorEvent e = getNextEvent();
@@ -312,6 +327,10 @@ public class Simulator implements RuntimeInterface {
     }
     running = false;
 
+    for (MicaRuntime rt : getRuntimesSim()) {
+      rt.closeLog();
+    }
+
     double sfac = ((double) getClock()) / ((double) simtimer.elapsed() + 1);
     SimRuntime.debug.printf("Simulator stopped @%d; speed-up factor of %f\n", getClock(), sfac);
   }
@@ -320,10 +339,14 @@ public class Simulator implements RuntimeInterface {
     unbind(rt);
   }
 
-  // Simulator is a singleton...
+  // shared instance, from when the Simulator was a singleton
   private static Simulator singleton = null;
 
-  public static Simulator v() {
+  /**
+   * @deprecated Create a Simulator per experiment instead
+   */
+  @Deprecated
+  public static synchronized Simulator v() {
     if (singleton == null) {
       singleton = new Simulator();
     }
@@ -350,7 +373,7 @@ public class Simulator implements RuntimeInterface {
   @Override
   public MicaRuntime addRuntime(Address address, long randomSeed, int roundLength, int startTime,
       int lockTimeout) {
-    SimRuntime rt = new SimRuntime(address);
+    SimRuntime rt = new SimRuntime(address, this);
     rt.setRandomSeed(randomSeed);
     rt.setRoundLength(roundLength);
     rt.setLockWaitTimeout(lockTimeout);
@@ -364,7 +387,7 @@ public class Simulator implements RuntimeInterface {
 
   @Override
   public void scheduleTask(long delay, TimerTask task) {
-    this.scheduleRelative(new TimerEvent(null, task), delay);
+    this.scheduleRelative(new TimerEvent(null, HarnessTimerTask.wrap(task)), delay);
   }
 
   @Override
@@ -377,10 +400,11 @@ public class Simulator implements RuntimeInterface {
    */
   @Override
   public F<Integer, Address> getAddressFunc() {
+    final String expname = getOptions().expname;
     return new F<Integer, Address>() {
       @Override
       public Address f(Integer i) {
-        return new DummyAddress(String.format("%s%d", MiCA.getOptions().expname, i));
+        return new DummyAddress(String.format("%s%d", expname, i));
       }
     };
   }
@@ -390,8 +414,6 @@ public class Simulator implements RuntimeInterface {
     getRuntimeContextManager().getNativeRuntime().logJson(flags, origin, eventType, obj);
   }
 
-  private RuntimeContextManager runtimeContextManager = new RuntimeContextManager();
-
   @Override
   public RuntimeContextManager getRuntimeContextManager() {
     return runtimeContextManager;
@@ -0,0 +1,39 @@
+package org.princehouse.mica.base.simple;
+
+import org.princehouse.mica.base.model.Protocol;
+import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.sugar.ProtocolMetadata;
+import org.princehouse.mica.util.Distribution;
+
+/**
+ * Selects through a build-time generated dispatch table instead of a reflected field or method.
+ * Same results as SelectFieldSelector / SelectMethodSelector (@View) and
+ * UniformRandomCollectionFieldSelector (@ViewUniformRandom).
+ *
+ * @author lonnie
+ */
+public class MetadataSelector extends Selector {
+
+  private final ProtocolMetadata metadata;
+
+  public MetadataSelector(ProtocolMetadata metadata) {
+    if (!metadata.hasView()) {
+      throw new IllegalArgumentException(
+          "No view in the MiCA metadata for " + metadata.getProtocolClass().getName());
+    }
+    this.metadata = metadata;
+  }
+
+  @Override
+  public Distribution<Address> select(Protocol pinstance) throws SelectException {
+    Object value = metadata.view(pinstance);
+    if (metadata.isUniformRandomView()) {
+      return Distribution.uniform(getCollectionFromValue(value, pinstance.getRuntimeState()));
+    }
+    return asDistribution(value, pinstance);
+  }
+
+  public String toString() {
+    return String.format("<%s %s>", getClass().getName(), metadata.getProtocolClass().getName());
+  }
+}
@@ -1,8 +1,10 @@
 package org.princehouse.mica.base.simple;
 
 import java.lang.reflect.Field;
+import java.util.function.Function;
 import org.princehouse.mica.base.model.Protocol;
 import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.sugar.Accessors;
 import org.princehouse.mica.util.Distribution;
 
 /**
@@ -17,10 +19,12 @@ import org.princehouse.mica.util.Distribution;
 public class SelectFieldSelector extends Selector {
 
   private Field field;
+  private Function<Protocol, Object> getter;
 
   public SelectFieldSelector(Field field) throws InvalidSelectElement {
     this.field = field;
     validate(field);
+    getter = Accessors.getter(field);
   }
 
   private void validate(Field field) throws InvalidSelectElement {
@@ -29,15 +33,7 @@ public class SelectFieldSelector extends Selector {
 
   @Override
   public Distribution<Address> select(Protocol pinstance) throws SelectException {
-    Object obj = null;
-    try {
-      obj = field.get(pinstance);
-    } catch (IllegalArgumentException e) {
-      throw new RuntimeException(e);
-    } catch (IllegalAccessException e) {
-      throw new RuntimeException(e);
-    }
-    return asDistribution(obj, pinstance.getRuntimeState());
+    return asDistribution(getter.apply(pinstance), pinstance);
   }
 
   public String toString() {
@@ -1,9 +1,10 @@
 package org.princehouse.mica.base.simple;
 
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.function.Function;
 import org.princehouse.mica.base.model.Protocol;
 import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.sugar.Accessors;
 import org.princehouse.mica.base.sugar.annotations.View;
 import org.princehouse.mica.util.Distribution;
 
@@ -17,10 +18,12 @@ import org.princehouse.mica.util.Distribution;
 class SelectMethodSelector extends Selector {
 
   private Method method;
+  private Function<Protocol, Object> getter;
 
   public SelectMethodSelector(Method method) throws InvalidSelectElement {
     this.method = method;
     validate(method);
+    getter = Accessors.getter(method);
   }
 
   private void validate(Method Method) throws InvalidSelectElement {
@@ -29,16 +32,11 @@ class SelectMethodSelector extends Selector {
 
   @Override
   public Distribution<Address> select(Protocol pinstance) throws SelectException {
-    try {
-      Object obj = method.invoke(pinstance);
-      return Selector.asDistribution(obj, pinstance.getRuntimeState());
-    } catch (IllegalArgumentException e) {
+    if (!method.getDeclaringClass().isInstance(pinstance)) {
       throw new InvalidSelectElement(View.class, method);
-    } catch (IllegalAccessException e) {
-      throw new RuntimeException(e);
-    } catch (InvocationTargetException e) {
-      throw new RuntimeException(e);
     }
+    Object obj = getter.apply(pinstance);
+    return Selector.asDistribution(obj, pinstance);
   }
 
   public String toString() {
@@ -23,6 +23,20 @@ public abstract class Selector {
   public abstract Distribution<Address> select(Protocol pinstance) throws SelectException;
 
   // Utility methods for selecting from various different data types
+
+  /**
+   * Same as asDistribution(obj, pinstance.getRuntimeState()), but only looks up the runtime state
+   * for values that need it (Overlays)
+   */
+  @SuppressWarnings("unchecked")
+  public static Distribution<Address> asDistribution(Object obj, Protocol pinstance)
+      throws SelectException {
+    if (obj instanceof Distribution) {
+      return (Distribution<Address>) obj;
+    }
+    return asDistribution(obj, (obj instanceof Overlay ? pinstance.getRuntimeState() : null));
+  }
+
   @SuppressWarnings("unchecked")
   public static Distribution<Address> asDistribution(Object obj, RuntimeState rts)
       throws SelectException {
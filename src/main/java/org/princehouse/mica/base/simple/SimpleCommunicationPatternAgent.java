@@ -1,5 +1,6 @@
 package org.princehouse.mica.base.simple;
 
+import java.io.IOException;
 import java.io.Serializable;
 import org.princehouse.mica.base.RuntimeErrorCondition;
 import org.princehouse.mica.base.exceptions.AbortRound;
@@ -54,20 +55,42 @@ public class SimpleCommunicationPatternAgent implements CommunicationPatternAgen
     MiCA.getRuntimeInterface().getRuntimeContextManager().setNativeRuntime(receiverRuntime);
     try {
       MiCA.getRuntimeInterface().getRuntimeContextManager()
-          .setForeignRuntimeState(m1.p, m1.runtimeState);
+          .setReceivedRuntimeState(m1.p, m1.runtimeState);
+      // with the writeset encoding, m2 only carries what update() changes
+      WriteSet.Snapshot snapshot = null;
+      if (MiCA.getOptions().responseEncoding.equals("writeset")) {
+        snapshot = WriteSet.snapshot(m1.p, m1.runtimeState);
+      }
       try {
         m1.p.update(receiverRuntime.getProtocolInstance());
       } catch (Throwable t) {
         receiverRuntime.handleError(RuntimeErrorCondition.UPDATE_EXCEPTION, t);
       }
-      return m1;
+      return (snapshot == null ? m1 : snapshot.diff());
     } finally {
       MiCA.getRuntimeInterface().getRuntimeContextManager().clear();
     }
   }
 
   @Override
-  public void f3(MicaRuntime initiatorRuntime, Serializable o) {
+  public void f3(MicaRuntime initiatorRuntime, Serializable o) throws FatalErrorHalt, AbortRound {
+    if (o instanceof WriteSet) {
+      // patch the live instance
+      Object[] roots = new Object[]{initiatorRuntime.getProtocolInstance(),
+          initiatorRuntime.getRuntimeState()};
+      try {
+        ((WriteSet) o).apply(roots);
+      } catch (IOException e) {
+        initiatorRuntime.handleError(RuntimeErrorCondition.MISC_INTERNAL_ERROR, e);
+      }
+      if (roots[0] != initiatorRuntime.getProtocolInstance()) {
+        initiatorRuntime.setProtocolInstance((Protocol) roots[0]);
+      }
+      if (roots[1] != initiatorRuntime.getRuntimeState()) {
+        initiatorRuntime.setRuntimeState((RuntimeState) roots[1]);
+      }
+      return;
+    }
     SimpleM m2 = (SimpleM) o;
     initiatorRuntime.setProtocolInstance(m2.p);
     initiatorRuntime.setRuntimeState(m2.runtimeState);
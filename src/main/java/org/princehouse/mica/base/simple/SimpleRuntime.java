@@ -23,13 +23,19 @@ import org.princehouse.mica.base.exceptions.AbortRound;
 import org.princehouse.mica.base.exceptions.FatalErrorHalt;
 import org.princehouse.mica.base.model.CommunicationPatternAgent;
 import org.princehouse.mica.base.model.MiCA;
+import org.princehouse.mica.base.model.MicaOptions;
 import org.princehouse.mica.base.model.MicaRuntime;
 import org.princehouse.mica.base.model.Protocol;
+import org.princehouse.mica.base.net.ConnectionPool;
 import org.princehouse.mica.base.net.model.AcceptConnectionHandler;
 import org.princehouse.mica.base.net.model.Address;
 import org.princehouse.mica.base.net.model.Connection;
 import org.princehouse.mica.base.sim.StopWatch;
+import org.princehouse.mica.base.sugar.Sugar;
 import org.princehouse.mica.util.Distribution;
+import org.princehouse.mica.util.SplitMixRandom;
+import org.princehouse.mica.util.Threads;
+import org.princehouse.mica.util.TimingWheel;
 import org.princehouse.mica.util.Logging.SelectEvent;
 
 /**
@@ -74,15 +80,20 @@ public class SimpleRuntime extends MicaRuntime implements AcceptConnectionHandle
     rt.setProtocolInstance(pinstance);
     rt.setInterval(intervalMS);
     rt.setLockWaitTimeout(lockWaitTimeoutMS);
-    rt.setRandom(new Random(randomSeed));
+    rt.setRandom(new SplitMixRandom(randomSeed));
+    Sugar.v().warm(pinstance);
     ((SimpleRuntime) rt).launchThread(daemon);
     return rt;
   }
 
   public void launchThread(final boolean daemon) {
     final SimpleRuntime rt = this;
+    if (MiCA.getOptions().scheduler.equals("wheel")) {
+      startScheduled();
+      return;
+    }
 
-    Thread t = new Thread() {
+    Runnable task = new Runnable() {
       public void run() {
         try {
           rt.run();
@@ -91,8 +102,8 @@ public class SimpleRuntime extends MicaRuntime implements AcceptConnectionHandle
         }
       }
     };
-    t.setDaemon(daemon);
-    t.start();
+    boolean virtual = MiCA.getOptions().threads.equals("virtual");
+    Threads.newThread(virtual, String.format("mica-node-%s", getAddress()), daemon, task).start();
   }
 
   /**
@@ -130,14 +141,37 @@ public class SimpleRuntime extends MicaRuntime implements AcceptConnectionHandle
             connection.close();
             return;
           }
-          Serializable m1 = receiveObject(pattern, connection);
+          StateDelta.Request request = null;
+          Serializable m1;
+          if (delta == null) {
+            m1 = receiveObject(pattern, connection);
+          } else {
+            request = delta.decodeRequest(receiveFrame(connection));
+            if (request.getMessage() == null) {
+              // a delta against a base this runtime does not have; the initiator resends m1 in
+              // full on this connection
+              sendFrame(connection, delta.encodeNeedFull(request));
+              request = delta.decodeRequest(receiveFrame(connection));
+              if (request.getMessage() == null) {
+                throw new IOException("initiator did not resend its full state");
+              }
+            }
+            m1 = pattern.deserialize(request.getMessage());
+          }
           if (m1 == null) {
             debug.printf("message is null!!!\n");
           }
           Serializable m2 = pattern.f2(this, m1);
           lock.unlock();
           locked = false;
-          sendObject(pattern, connection, "m2", m2);
+          if (delta == null) {
+            sendObject(pattern, connection, "m2", m2);
+          } else {
+            byte[] m2bytes = pattern.serialize(m2);
+            byte[] wire = delta.encodeResponse(request, m2bytes);
+            logDeltaBytes("m2", m2bytes.length, wire.length);
+            sendFrame(connection, wire);
+          }
         } finally {
           if (locked) {
             lock.unlock();
@@ -162,12 +196,122 @@ public class SimpleRuntime extends MicaRuntime implements AcceptConnectionHandle
 
   private boolean running = true;
 
+  // connections kept open between rounds, if MicaOptions.connectionPool is set
+  private ConnectionPool pool = null;
+
+  // per-peer bases for delta exchange, if MicaOptions.deltaExchange is set
+  private StateDelta delta = null;
+
+  private double rate = 1.0;
+  private int intervalLength = 0;
+  private long nextRoundNanos = 0L;
+
+  private static TimingWheel scheduler = null;
+
+  /**
+   * @return Timing wheel shared by every runtime in this JVM; it runs their rounds (see
+   * startScheduled) and harness timers
+   */
+  public static synchronized TimingWheel getScheduler() {
+    if (scheduler == null) {
+      MicaOptions options = MiCA.getOptions();
+      boolean virtual = (options != null && options.threads.equals("virtual"));
+      scheduler = new TimingWheel(Threads.newPerTaskExecutor(virtual, "mica-round"));
+    }
+    return scheduler;
+  }
+
+  /**
+   * Main gossip loop, for MicaOptions.scheduler "loop": the runtime's thread sleeps until each
+   * round is due. See startScheduled() for the alternative.
+   */
   @Override
   public void run() throws InterruptedException {
+    if (!startup()) {
+      return;
+    }
+    try {
+      long backoffMS = 0;
+      while (running) {
+        long delay = nextRoundDeadline(backoffMS) - System.nanoTime();
+        if (delay > 0) {
+          Thread.sleep(delay / 1000000L, (int) (delay % 1000000L));
+        }
+        if (!running) {
+          break;
+        }
+        backoffMS = gossipRound();
+        if (backoffMS < 0) {
+          break;
+        }
+      }
+    } catch (FatalErrorHalt e) {
+      stop();
+      // fatalErrorHalt should have already shut down everything
+    } finally {
+      shutdown();
+    }
+  }
+
+  /**
+   * Run this runtime on the shared timing wheel (MicaOptions.scheduler "wheel") instead of a
+   * thread of its own. Each round is a task scheduled at the previous round's deadline plus the
+   * interval; the calling thread's MiCA context is bound while rounds run.
+   */
+  public void startScheduled() {
+    final MiCA.Context context = MiCA.getContext();
+    final TimingWheel wheel = getScheduler();
+    final Runnable round = new Runnable() {
+      @Override
+      public void run() {
+        MiCA.Context previous = MiCA.enter(context);
+        boolean again = false;
+        try {
+          if (running) {
+            long backoffMS = gossipRound();
+            if (backoffMS >= 0 && running) {
+              wheel.scheduleAt(nextRoundDeadline(backoffMS), this);
+              again = true;
+            }
+          }
+        } catch (FatalErrorHalt e) {
+          stop();
+        } catch (InterruptedException e) {
+          stop();
+        } finally {
+          if (!again) {
+            shutdown();
+          }
+          MiCA.exit(previous);
+        }
+      }
+    };
+    wheel.schedule(0, new Runnable() {
+      @Override
+      public void run() {
+        MiCA.Context previous = MiCA.enter(context);
+        try {
+          if (startup()) {
+            wheel.scheduleAt(nextRoundDeadline(0), round);
+          }
+        } catch (InterruptedException e) {
+          stop();
+        } finally {
+          MiCA.exit(previous);
+        }
+      }
+    });
+  }
 
+  // bind the address and get the initial rate; false if the runtime cannot start
+  private boolean startup() throws InterruptedException {
     final Address address = getAddress();
     super.run();
 
+    if (MiCA.getOptions().deltaExchange) {
+      delta = new StateDelta(address, MiCA.getOptions().deltaPeers);
+    }
+
     MiCA.getRuntimeInterface().getRuntimeContextManager().setNativeRuntime(this);
     logState("initial"); // sim-ok
     MiCA.getRuntimeInterface().getRuntimeContextManager().clear();
@@ -178,17 +322,16 @@ public class SimpleRuntime extends MicaRuntime implements AcceptConnectionHandle
       try {
         handleError(BIND_ADDRESS_EXCEPTION, e1);
       } catch (FatalErrorHalt e) {
-        return;
+        return false;
       } catch (AbortRound e) {
-        return; // same as fatal in this case
+        return false; // same as fatal in this case
       }
     }
 
-    long lastElapsedMS = 0L;
-
-    double rate = 1.0;
+    rate = 1.0;
 
     MiCA.getRuntimeInterface().getRuntimeContextManager().setNativeRuntime(this);
+    MiCA.getRuntimeInterface().getRuntimeContextManager().memoize();
     try {
       rate = getProtocolInstance().getRate();
     } catch (Throwable t) {
@@ -196,7 +339,7 @@ public class SimpleRuntime extends MicaRuntime implements AcceptConnectionHandle
         handleError(RuntimeErrorCondition.RATE_EXCEPTION, t);
       } catch (FatalErrorHalt e) {
         this.stop();
-        return;
+        return false;
       } catch (AbortRound e) {
         // ignore
       }
@@ -204,190 +347,259 @@ public class SimpleRuntime extends MicaRuntime implements AcceptConnectionHandle
       MiCA.getRuntimeInterface().getRuntimeContextManager().clear();
     }
 
-    int intervalMS = getInterval();
-    int intervalLength = 0;
-    StopWatch stopwatch = new StopWatch();
+    if (MiCA.getOptions().connectionPool) {
+      pool = new ConnectionPool(MiCA.getOptions().connectionIdleMS);
+    }
+    nextRoundNanos = System.nanoTime();
+    return true;
+  }
 
+  // initiator: send m1 and receive m2, as deltas if MicaOptions.deltaExchange is set
+  private Serializable exchange(CommunicationPatternAgent pattern, Connection connection,
+      Address partner, Serializable m1) throws FatalErrorHalt, AbortRound {
+    if (delta == null) {
+      sendObject(pattern, connection, "m1", m1);
+      return receiveObject(pattern, connection);
+    }
+    byte[] m1bytes = pattern.serialize(m1);
+    byte[] m2bytes = null;
     try {
-      // Main gossip loop
-      while (running) {
-        try {
-          Connection connection = null;
-          stopwatch.reset();
-          Address partner = null;
-
-          MiCA.getRuntimeInterface().getRuntimeContextManager().setNativeRuntime(this);
-          logJson(LogFlag.rate, "mica-rate", rate); // sim-ok
-          MiCA.getRuntimeInterface().getRuntimeContextManager().clear();
+      m2bytes = exchangeFrames(connection, partner, m1bytes);
+      if (m2bytes == null) {
+        // the partner does not have our base, and decodeResponse forgot it: resend in full
+        m2bytes = exchangeFrames(connection, partner, m1bytes);
+        if (m2bytes == null) {
+          throw new IOException("partner refused the full state");
+        }
+      }
+    } catch (IOException e) {
+      handleError(GOSSIP_IO_ERROR, new AbortRound());
+    } finally {
+      if (m2bytes == null) {
+        delta.forget(partner);
+      }
+    }
+    return pattern.deserialize(m2bytes);
+  }
 
-          intervalLength = (int) (((double) intervalMS) / rate);
-          if (intervalLength <= 0) {
-            System.err.printf("%s error: Rate * intervalMS <= 0.  Resetting to default.\n", this);
-            intervalLength = intervalMS;
-          }
+  // initiator: one request and its response; null if the partner answered NEED_FULL
+  private byte[] exchangeFrames(Connection connection, Address partner, byte[] m1bytes)
+      throws IOException, FatalErrorHalt, AbortRound {
+    byte[] wire = delta.encodeRequest(partner, m1bytes);
+    logDeltaBytes("m1", m1bytes.length, wire.length);
+    sendFrame(connection, wire);
+    return delta.decodeResponse(partner, m1bytes, receiveFrame(connection));
+  }
 
-          long sleepTime = intervalLength - lastElapsedMS;
+  private void shutdown() {
+    if (pool != null) {
+      pool.close();
+    }
+    closeLog();
+  }
 
-          if (sleepTime < 0) {
-            sleepTime = 0;
-            MiCA.getRuntimeInterface().getRuntimeContextManager().setNativeRuntime(this);
-            logJson(LogFlag.user, "notable-event-late"); // sim-ok
-            MiCA.getRuntimeInterface().getRuntimeContextManager().clear();
-          }
-          Thread.sleep(sleepTime);
+  /**
+   * Deadline of the next round (System.nanoTime() time base): one interval, scaled by the current
+   * rate, after the previous deadline, so that time spent gossiping does not accumulate as drift.
+   * After a contended round, the schedule restarts after the backoff.
+   *
+   * @param backoffMS
+   * @return
+   */
+  private long nextRoundDeadline(long backoffMS) {
+    MiCA.getRuntimeInterface().getRuntimeContextManager().setNativeRuntime(this);
+    logJson(LogFlag.rate, "mica-rate", rate); // sim-ok
+    MiCA.getRuntimeInterface().getRuntimeContextManager().clear();
 
-          if (!running) {
-            break;
-          }
+    intervalLength = (int) (((double) getInterval()) / rate);
+    if (intervalLength <= 0) {
+      System.err.printf("%s error: Rate * intervalMS <= 0.  Resetting to default.\n", this);
+      intervalLength = getInterval();
+    }
 
-          if (lock.tryLock(getLockWaitTimeout(), TimeUnit.MILLISECONDS)) {
+    long now = System.nanoTime();
+    if (backoffMS > 0) {
+      nextRoundNanos = now + TimeUnit.MILLISECONDS.toNanos(backoffMS + intervalLength);
+    } else {
+      nextRoundNanos += TimeUnit.MILLISECONDS.toNanos(intervalLength);
+    }
+    if (nextRoundNanos < now) {
+      // the previous round overran this one's start
+      nextRoundNanos = now;
+      MiCA.getRuntimeInterface().getRuntimeContextManager().setNativeRuntime(this);
+      logJson(LogFlag.user, "notable-event-late"); // sim-ok
+      MiCA.getRuntimeInterface().getRuntimeContextManager().clear();
+    }
+    return nextRoundNanos;
+  }
 
-            CommunicationPatternAgent pattern = MiCA.getCompiler().compile(getProtocolInstance());
+  /**
+   * One gossip exchange initiated by this runtime
+   *
+   * @return Milliseconds to back off before the next round (usually 0), or -1 to stop
+   * @throws InterruptedException
+   * @throws FatalErrorHalt
+   */
+  private long gossipRound() throws InterruptedException, FatalErrorHalt {
+    try {
+      Connection connection = null;
+      StopWatch stopwatch = new StopWatch();
+      Address partner = null;
 
-            try {
-              if (!running) {
-                // recv thread may have shutdown while it
-                // held
-                // the lock.
-                // now that we have it, test for this
-                lock.unlock();
-                break;
-              }
+      if (lock.tryLock(getLockWaitTimeout(), TimeUnit.MILLISECONDS)) {
 
-              SelectEvent se = null;
+        CommunicationPatternAgent pattern = MiCA.getCompiler().compile(getProtocolInstance());
 
-              Protocol p = getProtocolInstance();
-              MiCA.getRuntimeInterface().getRuntimeContextManager().setNativeRuntime(this);
-              try {
-                se = new SelectEvent();
-                Distribution<Address> view = p.getView();
-                se.selected = (view != null ? view.sample(p.getRuntimeState().getRandom()) : null);
-                if (p.getAddress().equals(se.selected)) {
-                  se.selected = null;
-                }
-              } catch (Throwable e) {
-                handleError(RuntimeErrorCondition.SELECT_EXCEPTION, e);
-              } finally {
-                MiCA.getRuntimeInterface().getRuntimeContextManager().clear();
-              }
+        try {
+          if (!running) {
+            // recv thread may have shutdown while it
+            // held
+            // the lock.
+            // now that we have it, test for this
+            return -1;
+          }
 
-              partner = se.selected;
+          SelectEvent se = null;
 
-              logJson(LogFlag.select, "mica-select", se); // sim-ok
+          Protocol p = getProtocolInstance();
+          MiCA.getRuntimeInterface().getRuntimeContextManager().setNativeRuntime(this);
+          MiCA.getRuntimeInterface().getRuntimeContextManager().memoize();
+          try {
+            se = new SelectEvent();
+            Distribution<Address> view = p.getView();
+            se.selected = (view != null ? view.sample(p.getRuntimeState().getRandom()) : null);
+            if (p.getAddress().equals(se.selected)) {
+              se.selected = null;
+            }
+          } catch (Throwable e) {
+            handleError(RuntimeErrorCondition.SELECT_EXCEPTION, e);
+          } finally {
+            MiCA.getRuntimeInterface().getRuntimeContextManager().clear();
+          }
 
-              MiCA.getRuntimeInterface().getRuntimeContextManager().setNativeRuntime(this);
-              try {
-                // preUpdate is called even if partner is
-                // invalid
-                // (null or self address)
-                getProtocolInstance().preUpdate(partner);
-              } catch (Throwable t) {
-                handleError(PREUDPATE_EXCEPTION, t);
-              } finally {
-                MiCA.getRuntimeInterface().getRuntimeContextManager().clear();
-              }
+          partner = se.selected;
 
-              MiCA.getRuntimeInterface().getRuntimeContextManager().setNativeRuntime(this);
-              logState("preupdate"); // sim-ok
-              MiCA.getRuntimeInterface().getRuntimeContextManager().clear();
+          logJson(LogFlag.select, "mica-select", se); // sim-ok
 
-              if (getAddress().equals(partner)) {
-                handleError(SELF_GOSSIP, null);
-              }
+          // not memoized: preUpdate changes state that later views in the same call depend on
+          MiCA.getRuntimeInterface().getRuntimeContextManager().setNativeRuntime(this);
+          try {
+            // preUpdate is called even if partner is
+            // invalid
+            // (null or self address)
+            getProtocolInstance().preUpdate(partner);
+          } catch (Throwable t) {
+            handleError(PREUDPATE_EXCEPTION, t);
+          } finally {
+            MiCA.getRuntimeInterface().getRuntimeContextManager().clear();
+          }
 
-              if (partner == null) {
-                continue;
-              }
+          MiCA.getRuntimeInterface().getRuntimeContextManager().setNativeRuntime(this);
+          logState("preupdate"); // sim-ok
+          MiCA.getRuntimeInterface().getRuntimeContextManager().clear();
 
-              try {
-                connection = partner.openConnection();
-              } catch (Exception ce) {
-                handleError(OPEN_CONNECTION_FAIL, ce);
-              }
+          if (getAddress().equals(partner)) {
+            handleError(SELF_GOSSIP, null);
+          }
 
-              if (connection == null) {
-                continue;
-              }
+          if (partner == null) {
+            return 0;
+          }
 
-              try {
-                Serializable m1 = pattern.f1(this);
-                sendObject(pattern, connection, "m1", m1);
-                Serializable m2 = receiveObject(pattern, connection);
-                pattern.f3(this, m2);
-              } catch (AbortRound ar) {
-                throw ar;
-              } catch (FatalErrorHalt feh) {
-                throw feh;
-              } catch (Throwable t) {
-                // May be a serialization problem
-                System.err.print(t);
-                handleError(ACTIVE_GOSSIP_EXCEPTION, t);
-              } finally {
-                try {
-                  connection.close();
-                } catch (IOException e) {
-                  handleError(RuntimeErrorCondition.CLOSE_CONNECTION_EXCEPTION, e);
-                }
-              }
+          try {
+            connection = (pool == null ? partner.openConnection() : pool.acquire(partner));
+          } catch (Exception ce) {
+            handleError(OPEN_CONNECTION_FAIL, ce);
+          }
 
-              MiCA.getRuntimeInterface().getRuntimeContextManager().setNativeRuntime(this);
-              logJson(LogFlag.gossip, "mica-gossip", new Address[]{address, partner});
-              logState("gossip-initiator"); // sim-ok
-              MiCA.getRuntimeInterface().getRuntimeContextManager().clear();
+          if (connection == null) {
+            return 0;
+          }
 
-              MiCA.getRuntimeInterface().getRuntimeContextManager().setNativeRuntime(this);
+          // a pooled connection is only reused after a complete request/response exchange
+          boolean reusable = false;
+          try {
+            Serializable m1 = pattern.f1(this);
+            Serializable m2 = exchange(pattern, connection, partner, m1);
+            reusable = true;
+            pattern.f3(this, m2);
+          } catch (AbortRound ar) {
+            throw ar;
+          } catch (FatalErrorHalt feh) {
+            throw feh;
+          } catch (Throwable t) {
+            // May be a serialization problem
+            System.err.print(t);
+            handleError(ACTIVE_GOSSIP_EXCEPTION, t);
+          } finally {
+            if (pool == null) {
               try {
-                getProtocolInstance().postUpdate();
-                logState("postupdate"); // sim-ok
-              } catch (Throwable t) {
-                handleError(POSTUDPATE_EXCEPTION, t);
-              } finally {
-                MiCA.getRuntimeInterface().getRuntimeContextManager().clear();
+                connection.close();
+              } catch (IOException e) {
+                handleError(RuntimeErrorCondition.CLOSE_CONNECTION_EXCEPTION, e);
               }
+            } else if (reusable) {
+              pool.release(connection);
+            } else {
+              pool.discard(connection);
+            }
+          }
 
-              getRuntimeState().incrementRound();
+          MiCA.getRuntimeInterface().getRuntimeContextManager().setNativeRuntime(this);
+          logJson(LogFlag.gossip, "mica-gossip", new Address[]{getAddress(), partner});
+          logState("gossip-initiator"); // sim-ok
+          MiCA.getRuntimeInterface().getRuntimeContextManager().clear();
 
-              MiCA.getRuntimeInterface().getRuntimeContextManager().setNativeRuntime(this);
-              try {
-                rate = getProtocolInstance().getRate();
-              } catch (Throwable t) {
-                try {
-                  handleError(RuntimeErrorCondition.RATE_EXCEPTION, t);
-                } catch (FatalErrorHalt e) {
-                  this.stop();
-                  return;
-                } catch (AbortRound e) {
-                  // ignore
-                }
-              } finally {
-                MiCA.getRuntimeInterface().getRuntimeContextManager().clear();
-              }
-            } finally {
-              lock.unlock();
-            }
-          } else {
-            // failed to acquire lock within time limit; gossip
-            handleError(INITIATOR_LOCK_TIMEOUT, null);
+          MiCA.getRuntimeInterface().getRuntimeContextManager().setNativeRuntime(this);
+          try {
+            getProtocolInstance().postUpdate();
+            logState("postupdate"); // sim-ok
+          } catch (Throwable t) {
+            handleError(POSTUDPATE_EXCEPTION, t);
+          } finally {
+            MiCA.getRuntimeInterface().getRuntimeContextManager().clear();
           }
 
-          double sec = ((double) stopwatch.elapsed()) / 1000.0;
-          MicaRuntime.debug.printf("%s -> %s, elapsed time %g s\n", this, partner, sec);
-        } catch (AbortRound ar) {
-          if (lock.isLocked() && lock.isHeldByCurrentThread()) {
-            lock.unlock();
-            // ... do nothing, and on to the next round...
+          getRuntimeState().incrementRound();
+
+          MiCA.getRuntimeInterface().getRuntimeContextManager().setNativeRuntime(this);
+          MiCA.getRuntimeInterface().getRuntimeContextManager().memoize();
+          try {
+            rate = getProtocolInstance().getRate();
+          } catch (Throwable t) {
+            try {
+              handleError(RuntimeErrorCondition.RATE_EXCEPTION, t);
+            } catch (FatalErrorHalt e) {
+              this.stop();
+              return -1;
+            } catch (AbortRound e) {
+              // ignore
+            }
+          } finally {
+            MiCA.getRuntimeInterface().getRuntimeContextManager().clear();
           }
-          int maxBackoffMS = (int) (MiCA.getOptions().contentionBackoff * intervalLength);
-          int backoff = rng.nextInt(maxBackoffMS);
-          Thread.sleep(backoff);
+        } finally {
+          lock.unlock();
         }
-      } // end while
-    } catch (FatalErrorHalt e) {
-      stop();
-      // fatalErrorHalt should have already shut down everything
-    } // end while(running) loop
+      } else {
+        // failed to acquire lock within time limit; gossip
+        handleError(INITIATOR_LOCK_TIMEOUT, null);
+      }
+
+      double sec = ((double) stopwatch.elapsed()) / 1000.0;
+      MicaRuntime.debug.printf("%s -> %s, elapsed time %g s\n", this, partner, sec);
+      return 0;
+    } catch (AbortRound ar) {
+      if (lock.isLocked() && lock.isHeldByCurrentThread()) {
+        lock.unlock();
+        // ... do nothing, and on to the next round...
+      }
+      int maxBackoffMS = (int) (MiCA.getOptions().contentionBackoff * intervalLength);
+      return rng.nextInt(maxBackoffMS);
+    }
   }
 
+
   /*
    * @Override protected void fatalErrorHalt(RuntimeErrorCondition condition)
    * throws FatalErrorHalt { stop(); // passively signal that it's time to
@@ -433,12 +645,25 @@ public class SimpleRuntime extends MicaRuntime implements AcceptConnectionHandle
 
     data = agent.serialize(obj);
     logJson(LogFlag.serialization, "mica-serialize-bytes-" + logMessageName, data.length);
+    sendFrame(connection, data);
+  }
+
+  // log the size of a message sent as a delta, and the bytes saved by not sending it in full
+  private void logDeltaBytes(String logMessageName, int fullBytes, int wireBytes) {
+    logJson(LogFlag.serialization, "mica-serialize-bytes-" + logMessageName, wireBytes);
+    logJson(LogFlag.serialization, "mica-serialize-bytes-" + logMessageName + "-saved",
+        fullBytes - wireBytes);
+  }
 
-    byte[] lengthBytes = serializeInteger(data.length);
+  private void sendFrame(Connection connection, byte[] data) throws FatalErrorHalt, AbortRound {
+    // header and body in one write, so that the frame is not split into two segments (which
+    // interacts badly with delayed acks on connections that are kept open)
+    byte[] frame = new byte[4 + data.length];
+    System.arraycopy(serializeInteger(data.length), 0, frame, 0, 4);
+    System.arraycopy(data, 0, frame, 4, data.length);
 
     try {
-      connection.getOutputStream().write(lengthBytes);
-      connection.getOutputStream().write(data);
+      connection.getOutputStream().write(frame);
     } catch (SocketException se) {
       // FIXME: check that handleError is aborting on GOSSIP_IO_ERROR
       // handleError(GOSSIP_IO_ERROR, se);
@@ -467,7 +692,10 @@ public class SimpleRuntime extends MicaRuntime implements AcceptConnectionHandle
   private <T extends Serializable> T receiveObject(CommunicationPatternAgent agent,
       Connection connection)
       throws FatalErrorHalt, AbortRound {
+    return agent.<T>deserialize(receiveFrame(connection));
+  }
 
+  private byte[] receiveFrame(Connection connection) throws FatalErrorHalt, AbortRound {
     try {
       InputStream is = connection.getInputStream();
       byte[] lengthBytes = new byte[4];
@@ -500,7 +728,7 @@ public class SimpleRuntime extends MicaRuntime implements AcceptConnectionHandle
             String.format("EXPECTED %d bytes, read %d, ERROR\n", length, bytesRead));
       }
 
-      return agent.<T>deserialize(data);
+      return data;
 
     } catch (SocketException e) {
       // FIXME check that handlError is aborting round on GOSSIP_IO_ERROR
@@ -17,6 +17,7 @@ import org.princehouse.mica.base.model.RuntimeAgent;
 import org.princehouse.mica.base.model.RuntimeContextManager;
 import org.princehouse.mica.base.model.RuntimeState;
 import org.princehouse.mica.base.net.model.Connection;
+import org.princehouse.mica.util.MarkingObjectInputStream;
 
 /**
  * RuntimeAgent for the simple runtime.
@@ -112,7 +113,7 @@ class SimpleRuntimeAgent extends RuntimeAgent {
     ObjectInputStream ois = null;
 
     try {
-      ois = new ObjectInputStream(connection.getInputStream());
+      ois = new MarkingObjectInputStream(connection.getInputStream());
     } catch (java.io.EOFException e) {
       runtime.handleError(RuntimeErrorCondition.MISC_INTERNAL_ERROR, e);
     }
@@ -124,7 +125,7 @@ class SimpleRuntimeAgent extends RuntimeAgent {
       // runtime state data
 
       RuntimeContextManager context = MiCA.getRuntimeInterface().getRuntimeContextManager();
-      context.setForeignRuntimeState(initiator, rqm.runtimeState);
+      context.setReceivedRuntimeState(initiator, rqm.runtimeState);
       context.setNativeRuntime(runtime);
       try {
         try {
@@ -5,7 +5,6 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.Timer;
 import java.util.TimerTask;
 import org.princehouse.mica.base.LogFlag;
 import org.princehouse.mica.base.model.Compiler;
@@ -15,6 +14,8 @@ import org.princehouse.mica.base.model.RuntimeContextManager;
 import org.princehouse.mica.base.model.RuntimeInterface;
 import org.princehouse.mica.base.net.model.Address;
 import org.princehouse.mica.util.Functional;
+import org.princehouse.mica.util.HarnessTimerTask;
+import org.princehouse.mica.util.TimingWheel;
 
 public class SimpleRuntimeInterface extends RuntimeContextManager implements RuntimeInterface {
 
@@ -107,12 +108,27 @@ public class SimpleRuntimeInterface extends RuntimeContextManager implements Run
     for (MicaRuntime rt : runtimes) {
       rt.stop();
     }
+    synchronized (timers) {
+      for (TimingWheel.Timeout t : timers) {
+        t.cancel();
+      }
+      timers.clear();
+    }
   }
 
+  // harness timers pending on the round scheduler's wheel, cancelled by stop()
+  private final List<TimingWheel.Timeout> timers = Functional.list();
+
+  /**
+   * Harness timers run on the timing wheel that drives the rounds (SimpleRuntime.getScheduler()).
+   * Cancelling a HarnessTimerTask keeps it from running; see HarnessTimerTask.
+   */
   @Override
   public void scheduleTask(long delay, TimerTask task) {
-    Timer timer = new Timer(true);
-    timer.schedule(task, delay);
+    TimingWheel.Timeout t = HarnessTimerTask.schedule(SimpleRuntime.getScheduler(), delay, task);
+    synchronized (timers) {
+      timers.add(t);
+    }
   }
 
   @Override
@@ -1,17 +1,21 @@
 package org.princehouse.mica.base.simple;
 
 import java.lang.reflect.Method;
+import java.util.function.Function;
 import org.princehouse.mica.base.model.Protocol;
 import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.sugar.Accessors;
 import org.princehouse.mica.util.Distribution;
 
 public class SingleValueSelectFunctionSelector extends Selector {
 
   private Method selectMethod;
+  private Function<Protocol, Object> getter;
 
   public SingleValueSelectFunctionSelector(Method selectMethod) {
     validateSelectMethod(selectMethod);
     this.selectMethod = selectMethod;
+    getter = Accessors.getter(selectMethod);
   }
 
   private static void validateSelectMethod(Method selectMethod) {
@@ -20,13 +24,8 @@ public class SingleValueSelectFunctionSelector extends Selector {
 
   @Override
   public Distribution<Address> select(Protocol pinstance) {
-    try {
-      Object robj = selectMethod.invoke(pinstance);
-      Address addr = (Address) robj;
-      return Distribution.create(addr);
-    } catch (Throwable t) {
-      throw new RuntimeException(t);
-    }
+    Address addr = (Address) getter.apply(pinstance);
+    return Distribution.create(addr);
   }
 
   public String toString() {
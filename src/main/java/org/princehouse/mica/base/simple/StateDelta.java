@@ -0,0 +1,240 @@
+package org.princehouse.mica.base.simple;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.util.BinaryDelta;
+
+/**
+ * Delta state exchange for SimpleRuntime (MicaOptions.deltaExchange). Instead of the serialized
+ * gossip messages, the wire carries binary diffs (see BinaryDelta) against a base that both peers
+ * already have:
+ * <ul>
+ * <li>m1 is diffed against the m2 of the previous exchange this initiator started with this
+ * receiver: the initiator adopted it as its state, and the receiver sent it.</li>
+ * <li>m2 is diffed against the m1 of the same exchange, since f2 returns the initiator's state
+ * after the update.</li>
+ * </ul>
+ * Each side keeps the last m2 per peer, identified by a checksum. Without a base, the initiator
+ * sends m1 in full. A receiver that does not have the initiator's base (for instance because it
+ * restarted or evicted it) answers NEED_FULL; the initiator then forgets its base and sends the
+ * same m1 again, in full, on the same connection, so the round still takes place.
+ * <p>
+ * Wire format: a tag byte; requests then carry the initiator's address (as a string, only used as
+ * a key); FULL carries the serialized message; DELTA carries the base's checksum and the diff.
+ *
+ * @author lonnie
+ */
+public class StateDelta {
+
+  public static final byte FULL = 1;
+  public static final byte DELTA = 2;
+  public static final byte NEED_FULL = 3;
+
+  /**
+   * A decoded request
+   */
+  public static class Request {
+
+    private final String initiator;
+    private final byte[] message;
+
+    private Request(String initiator, byte[] message) {
+      this.initiator = initiator;
+      this.message = message;
+    }
+
+    /**
+     * @return Serialized m1, or null if it was a delta against a base this receiver does not have
+     */
+    public byte[] getMessage() {
+      return message;
+    }
+  }
+
+  private static class Base {
+
+    private final byte[] bytes;
+    private final long checksum;
+
+    private Base(byte[] bytes) {
+      this.bytes = bytes;
+      this.checksum = checksum(bytes);
+    }
+  }
+
+  private final String self;
+
+  // last m2 of exchanges initiated by this node, by receiver
+  private final Map<String, Base> initiated;
+  // last m2 of exchanges initiated by peers, by initiator
+  private final Map<String, Base> received;
+
+  /**
+   * @param self     Local address
+   * @param maxPeers Keep bases for this many peers in each direction (least recently used are
+   *                 dropped)
+   */
+  public StateDelta(Address self, int maxPeers) {
+    this.self = self.toString();
+    initiated = lru(maxPeers);
+    received = lru(maxPeers);
+  }
+
+  private static Map<String, Base> lru(final int maxPeers) {
+    return Collections.synchronizedMap(new LinkedHashMap<String, Base>(16, 0.75f, true) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Base> eldest) {
+        return size() > maxPeers;
+      }
+    });
+  }
+
+  /**
+   * Initiator: encode m1 for receiver
+   *
+   * @param receiver
+   * @param m1       Serialized m1
+   * @return Wire bytes
+   */
+  public byte[] encodeRequest(Address receiver, byte[] m1) {
+    Base base = initiated.get(receiver.toString());
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeByte(base == null ? FULL : DELTA);
+      out.writeUTF(self);
+      writeBody(out, base, m1);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Receiver: decode a request
+   *
+   * @param wire
+   * @return
+   * @throws IOException If the request is malformed
+   */
+  public Request decodeRequest(byte[] wire) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(wire));
+    byte tag = in.readByte();
+    String initiator = in.readUTF();
+    return new Request(initiator, readBody(in, tag, received.get(initiator)));
+  }
+
+  /**
+   * Receiver: encode m2 for the initiator of request, and keep it as the base of the next request
+   * from that initiator
+   *
+   * @param request
+   * @param m2      Serialized m2
+   * @return Wire bytes
+   */
+  public byte[] encodeResponse(Request request, byte[] m2) {
+    received.put(request.initiator, new Base(m2));
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeByte(DELTA);
+      writeBody(out, new Base(request.message), m2);
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  /**
+   * Receiver: response to a request whose base is unknown
+   *
+   * @param request
+   * @return Wire bytes
+   */
+  public byte[] encodeNeedFull(Request request) {
+    received.remove(request.initiator);
+    return new byte[]{NEED_FULL};
+  }
+
+  /**
+   * Initiator: decode the response to m1, and keep it as the base of the next request to receiver
+   *
+   * @param receiver
+   * @param m1       Serialized m1, as passed to encodeRequest
+   * @param wire
+   * @return Serialized m2, or null if the receiver asked for the full state; encodeRequest then
+   * encodes m1 in full, to be sent on the same connection
+   * @throws IOException If the response is malformed
+   */
+  public byte[] decodeResponse(Address receiver, byte[] m1, byte[] wire) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(wire));
+    byte tag = in.readByte();
+    if (tag == NEED_FULL) {
+      initiated.remove(receiver.toString());
+      return null;
+    }
+    byte[] m2 = readBody(in, tag, new Base(m1));
+    if (m2 == null) {
+      throw new IOException("response does not match request");
+    }
+    initiated.put(receiver.toString(), new Base(m2));
+    return m2;
+  }
+
+  /**
+   * Initiator: forget the base for receiver, after an exchange failed part way
+   *
+   * @param receiver
+   */
+  public void forget(Address receiver) {
+    initiated.remove(receiver.toString());
+  }
+
+  private static void writeBody(DataOutputStream out, Base base, byte[] message)
+      throws IOException {
+    if (base == null) {
+      out.write(message);
+    } else {
+      out.writeLong(base.checksum);
+      out.write(BinaryDelta.diff(base.bytes, message));
+    }
+  }
+
+  // null if the message is a delta against something other than base
+  private static byte[] readBody(DataInputStream in, byte tag, Base base) throws IOException {
+    if (tag == FULL) {
+      byte[] message = new byte[in.available()];
+      in.readFully(message);
+      return message;
+    } else if (tag != DELTA) {
+      throw new IOException("unknown message tag " + tag);
+    }
+    long checksum = in.readLong();
+    byte[] rest = new byte[in.available()];
+    in.readFully(rest);
+    if (base == null || base.checksum != checksum) {
+      return null;
+    }
+    try {
+      return BinaryDelta.apply(base.bytes, rest);
+    } catch (IllegalArgumentException e) {
+      throw new IOException(e);
+    }
+  }
+
+  private static long checksum(byte[] bytes) {
+    CRC32 crc = new CRC32();
+    crc.update(bytes, 0, bytes.length);
+    return (((long) bytes.length) << 32) | crc.getValue();
+  }
+}
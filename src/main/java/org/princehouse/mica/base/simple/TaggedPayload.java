@@ -0,0 +1,59 @@
+package org.princehouse.mica.base.simple;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A message that a communication pattern agent serializes itself: the agent's tag for the kind of
+ * message, and the already serialized payload. On the wire it is the tag byte followed by the
+ * payload.
+ *
+ * @author lonnie
+ */
+public class TaggedPayload implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final byte tag;
+  private final byte[] payload;
+
+  public TaggedPayload(byte tag, byte[] payload) {
+    this.tag = tag;
+    this.payload = payload;
+  }
+
+  public byte getTag() {
+    return tag;
+  }
+
+  public byte[] getPayload() {
+    return payload;
+  }
+
+  /**
+   * @param o
+   * @param tag
+   * @return Whether o is a TaggedPayload with the given tag
+   */
+  public static boolean is(Object o, byte tag) {
+    return o instanceof TaggedPayload && ((TaggedPayload) o).tag == tag;
+  }
+
+  /**
+   * @return The tag byte followed by the payload
+   */
+  public byte[] toBytes() {
+    byte[] data = new byte[payload.length + 1];
+    data[0] = tag;
+    System.arraycopy(payload, 0, data, 1, payload.length);
+    return data;
+  }
+
+  /**
+   * @param data As written by toBytes
+   * @return
+   */
+  public static TaggedPayload fromBytes(byte[] data) {
+    return new TaggedPayload(data[0], Arrays.copyOfRange(data, 1, data.length));
+  }
+}
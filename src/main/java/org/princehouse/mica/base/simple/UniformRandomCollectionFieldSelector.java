@@ -2,17 +2,21 @@ package org.princehouse.mica.base.simple;
 
 import java.lang.reflect.Field;
 import java.util.Collection;
+import java.util.function.Function;
 import org.princehouse.mica.base.model.Protocol;
 import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.sugar.Accessors;
 import org.princehouse.mica.util.Distribution;
 
 class UniformRandomCollectionFieldSelector extends Selector {
 
   private Field field;
+  private Function<Protocol, Object> getter;
 
   public UniformRandomCollectionFieldSelector(Field field) {
     this.field = field;
     validate(field);
+    getter = Accessors.getter(field);
   }
 
   private void validate(Field field) {
@@ -20,20 +24,8 @@ class UniformRandomCollectionFieldSelector extends Selector {
   }
 
   private Collection<Address> getCollection(Protocol pinstance) {
-    Object obj = null;
     try {
-      obj = field.get(pinstance);
-    } catch (IllegalArgumentException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
-      return null;
-    } catch (IllegalAccessException e) {
-      // TODO Auto-generated catch block
-      e.printStackTrace();
-      return null;
-    }
-    try {
-      return getCollectionFromValue(obj, pinstance.getRuntimeState());
+      return getCollectionFromValue(getter.apply(pinstance), pinstance.getRuntimeState());
     } catch (SelectException e) {
       throw new RuntimeException(e);
     }
@@ -0,0 +1,457 @@
+package org.princehouse.mica.base.simple;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import org.princehouse.mica.util.Functional;
+import org.princehouse.mica.util.SerializableClasses;
+
+/**
+ * The part of the initiator's state that the receiver's update() changed, to be sent back as m2
+ * instead of the whole state (MicaOptions.responseEncoding "writeset").
+ * <p>
+ * Both peers number the objects of the initiator's state the same way, by a breadth-first
+ * traversal from the roots (the initiator's protocol instance and runtime state) over
+ * non-transient, non-static fields. Objects whose serialized form is custom (JDK classes such as
+ * collections, and the classes SerializableClasses.customizesSerialization picks out) and
+ * primitive arrays are opaque "leaves": numbered, but not traversed. Strings, boxed primitives,
+ * enums, and classes are plain values.
+ * <p>
+ * The receiver snapshots every numbered object before update() (field values; the serialized form
+ * of leaves) and records afterwards which fields and array elements were assigned, and which leaves
+ * changed. The new values are serialized together; references to numbered objects in them are sent
+ * as object numbers, so the initiator's patched state shares structure exactly as the receiver's
+ * copy did. A changed leaf is replaced wherever the initiator's state refers to it.
+ * <p>
+ * The receiver may declare some objects opaque (see snapshot(Object[], Collection)): they are
+ * numbered but not traversed or compared, and the initiator does not traverse the objects with the
+ * same numbers either. This lets the receiver's copy stand in empty objects for parts of the
+ * initiator's state that were not sent (see MergeCommunicationPatternAgent).
+ *
+ * @author lonnie
+ */
+public class WriteSet implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  // slot value meaning "replace this leaf"
+  private static final int REPLACE = -1;
+
+  // reference to a numbered object, within serialized values
+  private static class Ref implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private final int index;
+
+    private Ref(int index) {
+      this.index = index;
+    }
+  }
+
+  /**
+   * Numbering of the objects reachable from a set of roots
+   */
+  private static class Graph {
+
+    private final List<Object> objects = Functional.list();
+    private final IdentityHashMap<Object, Integer> index = new IdentityHashMap<Object, Integer>();
+    // numbers of the opaque objects, ascending
+    private final List<Integer> opaque = Functional.list();
+    private final IdentityHashMap<Object, Boolean> opaqueObjects;
+    private final int[] opaqueIndices;
+
+    private Graph(Object[] roots, IdentityHashMap<Object, Boolean> opaqueObjects,
+        int[] opaqueIndices) {
+      this.opaqueObjects = opaqueObjects;
+      this.opaqueIndices = opaqueIndices;
+      ArrayDeque<Object> queue = new ArrayDeque<Object>();
+      for (Object root : roots) {
+        visit(root, queue);
+      }
+      while (!queue.isEmpty()) {
+        Object o = queue.poll();
+        if (o instanceof Object[]) {
+          for (Object element : (Object[]) o) {
+            visit(element, queue);
+          }
+        } else {
+          for (Field f : fields(o.getClass())) {
+            visit(get(f, o), queue);
+          }
+        }
+      }
+    }
+
+    private void visit(Object o, ArrayDeque<Object> queue) {
+      if (o == null || isValue(o) || index.containsKey(o)) {
+        return;
+      }
+      int i = objects.size();
+      index.put(o, i);
+      objects.add(o);
+      if (opaqueObjects.containsKey(o) || Arrays.binarySearch(opaqueIndices, i) >= 0) {
+        opaque.add(i);
+      } else if (!isLeaf(o.getClass())) {
+        queue.add(o);
+      }
+    }
+  }
+
+  private final int objectCount;
+  private final int[] opaque;
+  private final int[] targets;
+  private final int[] slots;
+  private final byte[] values;
+
+  private WriteSet(int objectCount, int[] opaque, int[] targets, int[] slots, byte[] values) {
+    this.objectCount = objectCount;
+    this.opaque = opaque;
+    this.targets = targets;
+    this.slots = slots;
+    this.values = values;
+  }
+
+  /**
+   * State of the initiator's objects before update()
+   */
+  public static class Snapshot {
+
+    private final Graph graph;
+    private final Object[] saved;
+
+    private Snapshot(Object[] roots, IdentityHashMap<Object, Boolean> opaque) {
+      graph = new Graph(roots, opaque, new int[0]);
+      saved = new Object[graph.objects.size()];
+      for (int i = 0; i < saved.length; i++) {
+        if (!opaque.containsKey(graph.objects.get(i))) {
+          saved[i] = save(graph.objects.get(i));
+        }
+      }
+    }
+
+    /**
+     * @return Everything that changed since the snapshot was taken
+     */
+    public WriteSet diff() {
+      List<Integer> targets = Functional.list();
+      List<Integer> slots = Functional.list();
+      List<Object> newValues = Functional.list();
+      for (int i = 0; i < saved.length; i++) {
+        Object o = graph.objects.get(i);
+        Class<?> c = o.getClass();
+        if (saved[i] == null) {
+          // opaque
+          continue;
+        } else if (isLeaf(c)) {
+          if (!Objects.deepEquals(saved[i], save(o))) {
+            targets.add(i);
+            slots.add(REPLACE);
+            newValues.add(o);
+          }
+        } else {
+          Object[] before = (Object[]) saved[i];
+          Object[] after = (Object[]) save(o);
+          for (int j = 0; j < after.length; j++) {
+            if (!sameValue(before[j], after[j])) {
+              targets.add(i);
+              slots.add(j);
+              newValues.add(after[j]);
+            }
+          }
+        }
+      }
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try {
+        RefOutputStream out = new RefOutputStream(bytes, graph.index, changedLeaves(targets,
+            slots));
+        out.writeObject(newValues.toArray());
+        out.close();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      return new WriteSet(saved.length, toArray(graph.opaque), toArray(targets), toArray(slots),
+          bytes.toByteArray());
+    }
+
+    private IdentityHashMap<Object, Boolean> changedLeaves(List<Integer> targets,
+        List<Integer> slots) {
+      IdentityHashMap<Object, Boolean> changed = new IdentityHashMap<Object, Boolean>();
+      for (int k = 0; k < targets.size(); k++) {
+        if (slots.get(k) == REPLACE) {
+          changed.put(graph.objects.get(targets.get(k)), true);
+        }
+      }
+      return changed;
+    }
+  }
+
+  /**
+   * Snapshot the objects reachable from roots, before they are modified
+   *
+   * @param roots
+   * @return
+   */
+  public static Snapshot snapshot(Object... roots) {
+    return new Snapshot(roots, new IdentityHashMap<Object, Boolean>());
+  }
+
+  /**
+   * Snapshot the objects reachable from roots, except from the opaque objects, before they are
+   * modified. The opaque objects must not be modified.
+   *
+   * @param roots
+   * @param opaque
+   * @return
+   */
+  public static Snapshot snapshot(Object[] roots, Collection<?> opaque) {
+    IdentityHashMap<Object, Boolean> opaqueObjects = new IdentityHashMap<Object, Boolean>();
+    for (Object o : opaque) {
+      opaqueObjects.put(o, true);
+    }
+    return new Snapshot(roots, opaqueObjects);
+  }
+
+  /**
+   * @return Number of modified fields, array elements, and leaves
+   */
+  public int size() {
+    return targets.length;
+  }
+
+  /**
+   * Patch the state reachable from roots, which must be the initiator's state as it was when the
+   * receiver took its snapshot
+   *
+   * @param roots Updated in place if a root itself was replaced
+   * @throws IOException If the roots do not match the snapshot
+   */
+  public void apply(Object[] roots) throws IOException {
+    Graph graph = new Graph(roots, new IdentityHashMap<Object, Boolean>(), opaque);
+    if (graph.objects.size() != objectCount) {
+      throw new IOException(String.format("state has %d objects, write set expects %d",
+          graph.objects.size(), objectCount));
+    }
+    Object[] newValues;
+    try {
+      newValues = (Object[]) new RefInputStream(new ByteArrayInputStream(values), graph.objects)
+          .readObject();
+    } catch (ClassNotFoundException e) {
+      throw new IOException(e);
+    }
+
+    // leaves first, so that assignments to the same slots take precedence
+    IdentityHashMap<Object, Object> replaced = new IdentityHashMap<Object, Object>();
+    for (int k = 0; k < targets.length; k++) {
+      if (slots[k] == REPLACE) {
+        replaced.put(graph.objects.get(targets[k]), newValues[k]);
+      }
+    }
+    if (!replaced.isEmpty()) {
+      for (int i = 0; i < roots.length; i++) {
+        if (replaced.containsKey(roots[i])) {
+          roots[i] = replaced.get(roots[i]);
+        }
+      }
+      for (Object o : graph.objects) {
+        if (isLeaf(o.getClass())) {
+          continue;
+        }
+        Object[] current = (Object[]) save(o);
+        for (int j = 0; j < current.length; j++) {
+          if (current[j] != null && replaced.containsKey(current[j])) {
+            set(o, j, replaced.get(current[j]));
+          }
+        }
+      }
+    }
+    for (int k = 0; k < targets.length; k++) {
+      if (slots[k] != REPLACE) {
+        set(graph.objects.get(targets[k]), slots[k], newValues[k]);
+      }
+    }
+  }
+
+  // serializes references to unchanged numbered objects as Refs
+  private static class RefOutputStream extends ObjectOutputStream {
+
+    private final IdentityHashMap<Object, Integer> index;
+    private final IdentityHashMap<Object, Boolean> changed;
+
+    private RefOutputStream(OutputStream out, IdentityHashMap<Object, Integer> index,
+        IdentityHashMap<Object, Boolean> changed) throws IOException {
+      super(out);
+      this.index = index;
+      this.changed = changed;
+      enableReplaceObject(true);
+    }
+
+    @Override
+    protected Object replaceObject(Object obj) {
+      Integer i = index.get(obj);
+      if (i != null && !changed.containsKey(obj)) {
+        return new Ref(i);
+      }
+      return obj;
+    }
+  }
+
+  private static class RefInputStream extends ObjectInputStream {
+
+    private final List<Object> objects;
+
+    private RefInputStream(InputStream in, List<Object> objects) throws IOException {
+      super(in);
+      this.objects = objects;
+      enableResolveObject(true);
+    }
+
+    @Override
+    protected Object resolveObject(Object obj) {
+      if (obj instanceof Ref) {
+        return objects.get(((Ref) obj).index);
+      }
+      return obj;
+    }
+  }
+
+  // ---- object model ----
+
+  private static final Map<Class<?>, Field[]> fieldCache = new ConcurrentHashMap<Class<?>, Field[]>();
+  private static final Map<Class<?>, Boolean> leafCache = new ConcurrentHashMap<Class<?>, Boolean>();
+
+  private static boolean isValue(Object o) {
+    return o instanceof String || o instanceof Number && o.getClass().getName().startsWith(
+        "java.lang.") || o instanceof Boolean || o instanceof Character || o instanceof Enum
+        || o instanceof Class;
+  }
+
+  private static boolean sameValue(Object a, Object b) {
+    if (a == b) {
+      return true;
+    }
+    // primitive fields are boxed by Field.get
+    return a != null && b != null && isValue(a) && a.equals(b);
+  }
+
+  private static boolean isLeaf(Class<?> c) {
+    if (c.isArray()) {
+      return c.getComponentType().isPrimitive();
+    }
+    Boolean leaf = leafCache.get(c);
+    if (leaf == null) {
+      leaf = SerializableClasses.customizesSerialization(c);
+      for (Class<?> k = c; !leaf && k != null && k != Object.class; k = k.getSuperclass()) {
+        leaf = SerializableClasses.isJdk(k);
+      }
+      leafCache.put(c, leaf);
+    }
+    return leaf;
+  }
+
+  // serialized fields of c: superclass fields first, by name within each class
+  private static Field[] fields(Class<?> c) {
+    Field[] fields = fieldCache.get(c);
+    if (fields == null) {
+      List<Field> all = Functional.list();
+      List<Class<?>> hierarchy = Functional.list();
+      for (Class<?> k = c; k != null && k != Object.class; k = k.getSuperclass()) {
+        hierarchy.add(0, k);
+      }
+      for (Class<?> k : hierarchy) {
+        Field[] declared = k.getDeclaredFields();
+        Arrays.sort(declared, new Comparator<Field>() {
+          @Override
+          public int compare(Field f1, Field f2) {
+            return f1.getName().compareTo(f2.getName());
+          }
+        });
+        for (Field f : declared) {
+          int mod = f.getModifiers();
+          if (Modifier.isStatic(mod) || Modifier.isTransient(mod)) {
+            continue;
+          }
+          f.setAccessible(true);
+          all.add(f);
+        }
+      }
+      fields = all.toArray(new Field[all.size()]);
+      fieldCache.put(c, fields);
+    }
+    return fields;
+  }
+
+  private static Object get(Field f, Object o) {
+    try {
+      return f.get(o);
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static void set(Object o, int slot, Object value) {
+    if (o instanceof Object[]) {
+      ((Object[]) o)[slot] = value;
+      return;
+    }
+    try {
+      fields(o.getClass())[slot].set(o, value);
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // comparable copy of o's state
+  private static Object save(Object o) {
+    Class<?> c = o.getClass();
+    if (o instanceof Object[]) {
+      return ((Object[]) o).clone();
+    } else if (c.isArray()) {
+      int n = Array.getLength(o);
+      Object copy = Array.newInstance(c.getComponentType(), n);
+      System.arraycopy(o, 0, copy, 0, n);
+      return copy;
+    } else if (isLeaf(c)) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try {
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(o);
+        out.close();
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      return bytes.toByteArray();
+    }
+    Field[] fields = fields(c);
+    Object[] values = new Object[fields.length];
+    for (int i = 0; i < fields.length; i++) {
+      values[i] = get(fields[i], o);
+    }
+    return values;
+  }
+
+  private static int[] toArray(List<Integer> list) {
+    int[] a = new int[list.size()];
+    for (int i = 0; i < a.length; i++) {
+      a[i] = list.get(i);
+    }
+    return a;
+  }
+}
@@ -0,0 +1,132 @@
+package org.princehouse.mica.base.sugar;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import org.princehouse.mica.base.model.Protocol;
+
+/**
+ * Call sites for the annotated elements of protocol classes (@View, @GossipRate), generated once per
+ * element so that the runtime does not go through Method.invoke / Field.get, boxing and exception
+ * wrapping every time it asks a protocol for its view or rate. Methods get a LambdaMetafactory
+ * class that calls them directly; fields, which LambdaMetafactory does not accept, get a getter
+ * method handle.
+ *
+ * @author lonnie
+ */
+public class Accessors {
+
+  /**
+   * @param rateMethod A no-argument method returning double (or a boxed or narrower number)
+   * @return A function that calls rateMethod on a protocol
+   */
+  @SuppressWarnings("unchecked")
+  public static ToDoubleFunction<Protocol> rate(Method rateMethod) {
+    try {
+      MethodHandles.Lookup lookup = lookup(rateMethod.getDeclaringClass());
+      MethodHandle target = lookup.unreflect(rateMethod);
+      try {
+        return (ToDoubleFunction<Protocol>) metafactory(lookup, target, ToDoubleFunction.class,
+            "applyAsDouble", MethodType.methodType(double.class, Object.class),
+            MethodType.methodType(double.class, rateMethod.getDeclaringClass()));
+      } catch (Throwable t) {
+        // methods LambdaMetafactory cannot call directly (e.g. a Number return type)
+        final MethodHandle mh = target.asType(MethodType.methodType(double.class, Protocol.class));
+        return new ToDoubleFunction<Protocol>() {
+          @Override
+          public double applyAsDouble(Protocol p) {
+            try {
+              return (double) mh.invokeExact(p);
+            } catch (Throwable t) {
+              throw rethrow(t);
+            }
+          }
+        };
+      }
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @param method A no-argument method
+   * @return A function that calls method on a protocol
+   */
+  @SuppressWarnings("unchecked")
+  public static Function<Protocol, Object> getter(Method method) {
+    try {
+      MethodHandles.Lookup lookup = lookup(method.getDeclaringClass());
+      MethodHandle target = lookup.unreflect(method);
+      try {
+        return (Function<Protocol, Object>) metafactory(lookup, target, Function.class, "apply",
+            MethodType.methodType(Object.class, Object.class),
+            MethodType.methodType(box(method.getReturnType()), method.getDeclaringClass()));
+      } catch (Throwable t) {
+        return handleGetter(target);
+      }
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @param field An instance field
+   * @return A function that reads field from a protocol
+   */
+  public static Function<Protocol, Object> getter(Field field) {
+    try {
+      return handleGetter(lookup(field.getDeclaringClass()).unreflectGetter(field));
+    } catch (IllegalAccessException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static Function<Protocol, Object> handleGetter(MethodHandle target) {
+    final MethodHandle mh = target.asType(MethodType.methodType(Object.class, Protocol.class));
+    return new Function<Protocol, Object>() {
+      @Override
+      public Object apply(Protocol p) {
+        try {
+          return (Object) mh.invokeExact(p);
+        } catch (Throwable t) {
+          throw rethrow(t);
+        }
+      }
+    };
+  }
+
+  // a lookup with private access to klass, so that non-public protocol classes and members work
+  private static MethodHandles.Lookup lookup(Class<?> klass) throws IllegalAccessException {
+    return MethodHandles.privateLookupIn(klass, MethodHandles.lookup());
+  }
+
+  private static Object metafactory(MethodHandles.Lookup lookup, MethodHandle target,
+      Class<?> iface, String name, MethodType erased, MethodType instantiated) throws Throwable {
+    CallSite site = LambdaMetafactory.metafactory(lookup, name, MethodType.methodType(iface),
+        erased, target, instantiated);
+    return site.getTarget().invoke();
+  }
+
+  private static Class<?> box(Class<?> k) {
+    return MethodType.methodType(k).wrap().returnType();
+  }
+
+  // exceptions thrown by the protocol's own code pass through unchanged if unchecked
+  private static RuntimeException rethrow(Throwable t) {
+    if (t instanceof RuntimeException) {
+      return (RuntimeException) t;
+    } else if (t instanceof Error) {
+      throw (Error) t;
+    }
+    return new RuntimeException(t);
+  }
+
+  private Accessors() {
+  }
+}
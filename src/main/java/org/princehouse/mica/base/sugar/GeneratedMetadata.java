@@ -0,0 +1,87 @@
+package org.princehouse.mica.base.sugar;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * Finds the metadata ProtocolProcessor generated at build time: per-class dispatch tables
+ * (ProtocolMetadata) and the protocol index.
+ *
+ * @author lonnie
+ */
+public class GeneratedMetadata {
+
+  /**
+   * Appended to a protocol's binary name to name its generated ProtocolMetadata class
+   */
+  public static final String SUFFIX = "$$MiCA";
+
+  /**
+   * Class path resource listing, one per line, the protocol classes and interfaces compiled with
+   * ProtocolProcessor. Every jar or class directory may have one.
+   */
+  public static final String INDEX = "META-INF/mica/protocols";
+
+  /**
+   * @param k
+   * @return The generated dispatch table for protocol class k, or null if k was not compiled with
+   * ProtocolProcessor (or the processor could not generate one for it)
+   */
+  public static ProtocolMetadata forClass(Class<?> k) {
+    Class<?> generated;
+    try {
+      generated = Class.forName(k.getName() + SUFFIX, true, k.getClassLoader());
+    } catch (ClassNotFoundException e) {
+      return null;
+    }
+    try {
+      ProtocolMetadata m = (ProtocolMetadata) generated.getDeclaredConstructor().newInstance();
+      // a stale table from some other class of the same name
+      return (m.getProtocolClass() == k ? m : null);
+    } catch (ReflectiveOperationException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * @param loader
+   * @return Names of the classes in every protocol index visible to loader, or null if there is no
+   * index at all
+   */
+  public static List<String> readIndex(ClassLoader loader) {
+    List<String> names = null;
+    try {
+      Enumeration<URL> indexes = loader.getResources(INDEX);
+      while (indexes.hasMoreElements()) {
+        if (names == null) {
+          names = new ArrayList<String>();
+        }
+        BufferedReader in = new BufferedReader(
+            new InputStreamReader(indexes.nextElement().openStream(), StandardCharsets.UTF_8));
+        try {
+          String line;
+          while ((line = in.readLine()) != null) {
+            line = line.trim();
+            if (line.length() > 0) {
+              names.add(line);
+            }
+          }
+        } finally {
+          in.close();
+        }
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+    return names;
+  }
+
+  private GeneratedMetadata() {
+  }
+}
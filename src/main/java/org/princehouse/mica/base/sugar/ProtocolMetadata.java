@@ -0,0 +1,47 @@
+package org.princehouse.mica.base.sugar;
+
+import org.princehouse.mica.base.model.Protocol;
+
+/**
+ * Dispatch table for one protocol class, generated at build time by ProtocolProcessor (as the class
+ * "<protocol binary name>$$MiCA"). It reads the protocol's @View or @ViewUniformRandom element and
+ * calls its @GossipRate method directly, with the same choice of elements AnnotationInspector would
+ * make at runtime. Sugar uses it when present (see GeneratedMetadata) and falls back to reflection
+ * otherwise.
+ *
+ * @author lonnie
+ */
+public interface ProtocolMetadata {
+
+  /**
+   * @return The protocol class this table was generated for
+   */
+  public Class<?> getProtocolClass();
+
+  /**
+   * @return Whether the table has a view element; if not, use AnnotationInspector
+   */
+  public boolean hasView();
+
+  /**
+   * @return Whether the view element is annotated @ViewUniformRandom rather than @View
+   */
+  public boolean isUniformRandomView();
+
+  /**
+   * @param p An instance of the protocol class
+   * @return The value of its view element, to be coerced into a distribution by a Selector
+   */
+  public Object view(Protocol p);
+
+  /**
+   * @return Whether the table has a rate method; if not, use AnnotationInspector
+   */
+  public boolean hasRate();
+
+  /**
+   * @param p An instance of the protocol class
+   * @return Its @GossipRate method's value
+   */
+  public double rate(Protocol p);
+}
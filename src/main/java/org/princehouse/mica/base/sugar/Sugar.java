@@ -1,16 +1,17 @@
 package org.princehouse.mica.base.sugar;
 
-import java.lang.reflect.Method;
-import java.util.Map;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToDoubleFunction;
 import org.princehouse.mica.base.model.Protocol;
 import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.simple.MetadataSelector;
 import org.princehouse.mica.base.simple.SelectException;
 import org.princehouse.mica.base.simple.Selector;
 import org.princehouse.mica.base.sugar.annotations.AnnotationInspector;
 import org.princehouse.mica.util.Distribution;
-import org.princehouse.mica.util.Functional;
-import org.princehouse.mica.util.NotFoundException;
-import org.princehouse.mica.util.TooManyException;
+import org.princehouse.mica.util.reflection.RichObjectFinder;
 
 public class Sugar {
 
@@ -20,54 +21,163 @@ public class Sugar {
 
   public Distribution<Address> executeSugarView(Protocol p) {
     try {
-      Selector selector = getSelector(p);
-      try {
-        return selector.select(p);
-      } catch (SelectException e) {
-        throw new RuntimeException(e);
-      }
-    } catch (Exception e) {
+      return resolutions.get(p.getClass()).selector().select(p);
+    } catch (SelectException e) {
       throw new RuntimeException(e);
     }
   }
 
   public double executeSugarRate(Protocol p) {
+    return resolutions.get(p.getClass()).rate().applyAsDouble(p);
+  }
+
+  /**
+   * Resolve the view and rate of every protocol class reachable from root now, rather than on first
+   * use by whichever runtime thread gets there first. Runtimes call this with each top-level
+   * protocol instance before they start. Classes that cannot be resolved (e.g. a protocol with no
+   * view of its own, whose view is never asked for) are skipped; using them fails as before.
+   *
+   * @param root
+   * @return The number of distinct protocol classes reachable from root
+   */
+  public int warm(Object root) {
+    Set<Class<?>> classes = new HashSet<Class<?>>();
+    for (Object o : RichObjectFinder.forType(Protocol.class).find(root)) {
+      classes.add(o.getClass());
+    }
+    for (Class<?> k : classes) {
+      warm(k);
+    }
+    return classes.size();
+  }
+
+  /**
+   * Resolve the view and rate of protocol class k now, if they can be resolved
+   *
+   * @param k
+   */
+  public void warm(Class<?> k) {
+    Resolution r = resolutions.get(k);
+    try {
+      r.selector();
+    } catch (RuntimeException e) {
+      // reported when the view is used
+    }
     try {
-      Method rateMethod = getRateMethod(p);
+      r.rate();
+    } catch (RuntimeException e) {
+      // reported when the rate is used
+    }
+  }
+
+  /**
+   * @return How many views and rates have been resolved (by generated metadata or by reflection)
+   * since startup; each class's view and rate are resolved at most once
+   */
+  public long getResolutionCount() {
+    return resolutionCount.get();
+  }
+
+  // private ------------------------------------
+
+  /**
+   * How to get the view and rate of one protocol class, resolved lazily, exactly once. Both prefer
+   * the dispatch table generated by ProtocolProcessor, if the class has one. Reads after resolution
+   * are one volatile load; the lock is only taken while unresolved, so concurrent first uses wait
+   * for one AnnotationInspector scan instead of each doing their own.
+   */
+  private final class Resolution {
+
+    private final Class<?> k;
+    private boolean metadataLoaded = false;
+    private ProtocolMetadata metadata = null;
+    private volatile Selector selector = null;
+    private volatile ToDoubleFunction<Protocol> rate = null;
+
+    private Resolution(Class<?> k) {
+      this.k = k;
+    }
+
+    private ProtocolMetadata metadata() {
+      // callers hold the lock
+      if (!metadataLoaded) {
+        metadata = GeneratedMetadata.forClass(k);
+        metadataLoaded = true;
+      }
+      return metadata;
+    }
+
+    private Selector selector() {
+      Selector s = selector;
+      if (s == null) {
+        synchronized (this) {
+          s = selector;
+          if (s == null) {
+            s = resolveSelector();
+            resolutionCount.incrementAndGet();
+            selector = s;
+          }
+        }
+      }
+      return s;
+    }
+
+    private ToDoubleFunction<Protocol> rate() {
+      ToDoubleFunction<Protocol> r = rate;
+      if (r == null) {
+        synchronized (this) {
+          r = rate;
+          if (r == null) {
+            r = resolveRate();
+            resolutionCount.incrementAndGet();
+            rate = r;
+          }
+        }
+      }
+      return r;
+    }
+
+    private Selector resolveSelector() {
+      ProtocolMetadata m = metadata();
+      if (m != null && m.hasView()) {
+        return new MetadataSelector(m);
+      }
       try {
-        return (Double) rateMethod.invoke(p);
+        return AnnotationInspector.locateSelectMethod(k);
       } catch (Exception e) {
         throw new RuntimeException(e);
       }
-    } catch (Exception e) {
-      throw new RuntimeException(e);
     }
-  }
 
-  // private ------------------------------------
-  private Map<Class<?>, Selector> selectorCache = Functional.map();
-  private Map<Class<?>, Method> rateCache = Functional.map();
-
-  private Selector getSelector(Protocol p)
-      throws NotFoundException, TooManyException, SelectException {
-    Class<?> k = p.getClass();
-    Selector s = selectorCache.get(k);
-    if (s == null) {
-      s = AnnotationInspector.locateSelectMethod(k);
-      selectorCache.put(k, s);
+    private ToDoubleFunction<Protocol> resolveRate() {
+      final ProtocolMetadata m = metadata();
+      if (m != null && m.hasRate()) {
+        return new ToDoubleFunction<Protocol>() {
+          @Override
+          public double applyAsDouble(Protocol p) {
+            return m.rate(p);
+          }
+        };
+      }
+      try {
+        return Accessors.rate(AnnotationInspector.locateFrequencyMethod(k));
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
     }
-    return s;
   }
 
-  private Method getRateMethod(Protocol p) throws TooManyException, NotFoundException {
-    Class<?> k = p.getClass();
-    Method m = rateCache.get(k);
-    if (m == null) {
-      m = AnnotationInspector.locateFrequencyMethod(p.getClass());
-      rateCache.put(k, m);
+  // ClassValue: lock-free reads, safe for runtimes and simulations running in parallel, and does
+  // not keep protocol classes (or their class loaders) alive. Racing computeValues for the same
+  // class only create Resolutions, which are cheap; ClassValue keeps one of them.
+  private final ClassValue<Resolution> resolutions = new ClassValue<Resolution>() {
+    @Override
+    protected Resolution computeValue(Class<?> k) {
+      return new Resolution(k);
     }
-    return m;
-  }
+  };
+
+  private final AtomicLong resolutionCount = new AtomicLong();
 
   private Sugar() {
   }
@@ -0,0 +1,418 @@
+package org.princehouse.mica.base.sugar.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * Build-time counterpart of AnnotationInspector and ReflectionUtil. For every class compiled with
+ * it, this processor
+ * <ul>
+ * <li>checks the class's @View, @ViewUniformRandom, @GossipRate and @GossipUpdate members, reporting
+ * as compile errors the mistakes that AnnotationInspector and the Selectors would only report at
+ * runtime (or ignore);</li>
+ * <li>if the class is a concrete Protocol, generates its dispatch table (a ProtocolMetadata named
+ * "&lt;binary name&gt;$$MiCA"), choosing its view element and rate method by the same rules as
+ * AnnotationInspector: public members only, the most derived declaring class wins;</li>
+ * <li>lists every Protocol class and interface it saw in the protocol index,
+ * META-INF/mica/protocols, which ReflectionUtil reads instead of scanning the class path.</li>
+ * </ul>
+ * Cases the generated code cannot handle the same way as the reflective runtime (private classes,
+ * ambiguous or interface-declared elements) get no table entry, and the runtime falls back to
+ * reflection for them.
+ * <p>
+ * The processor only refers to MiCA classes by name, so it can be compiled before the rest of MiCA
+ * (see pom.xml). The index only covers the classes of one compilation.
+ *
+ * @author lonnie
+ */
+@SupportedAnnotationTypes("*")
+public class ProtocolProcessor extends AbstractProcessor {
+
+  // must match GeneratedMetadata
+  static final String SUFFIX = "$$MiCA";
+  static final String INDEX = "META-INF/mica/protocols";
+
+  static final String PROTOCOL = "org.princehouse.mica.base.model.Protocol";
+  static final String METADATA = "org.princehouse.mica.base.sugar.ProtocolMetadata";
+
+  private static final String ANNOTATIONS = "org.princehouse.mica.base.sugar.annotations.";
+  static final String VIEW = ANNOTATIONS + "View";
+  static final String VIEW_UNIFORM_RANDOM = ANNOTATIONS + "ViewUniformRandom";
+  static final String GOSSIP_RATE = ANNOTATIONS + "GossipRate";
+  static final String GOSSIP_UPDATE = ANNOTATIONS + "GossipUpdate";
+
+  // what Selector.asDistribution accepts
+  private static final String[] VIEW_TYPES = {"org.princehouse.mica.util.Distribution", PROTOCOL,
+      "java.util.Collection", "org.princehouse.mica.lib.abstractions.Overlay",
+      "org.princehouse.mica.base.net.model.Address"};
+  // what Selector.getCollectionFromValue accepts
+  private static final String[] UNIFORM_VIEW_TYPES = {"java.util.Collection",
+      "org.princehouse.mica.lib.abstractions.Overlay"};
+
+  private Elements elements;
+  private Types types;
+  private TypeMirror protocolType;
+
+  private final Set<String> index = new TreeSet<String>();
+  private final List<Element> indexed = new ArrayList<Element>();
+
+  @Override
+  public synchronized void init(ProcessingEnvironment env) {
+    super.init(env);
+    elements = env.getElementUtils();
+    types = env.getTypeUtils();
+    TypeElement protocol = elements.getTypeElement(PROTOCOL);
+    protocolType = (protocol != null ? types.erasure(protocol.asType()) : null);
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+    if (protocolType == null) {
+      // MiCA is not on the class path
+      return false;
+    }
+    for (TypeElement t : ElementFilter.typesIn(round.getRootElements())) {
+      processType(t);
+    }
+    if (round.processingOver() && index.size() > 0) {
+      writeIndex();
+    }
+    // other processors may want the same annotations
+    return false;
+  }
+
+  private void processType(TypeElement t) {
+    check(t);
+    if (types.isSubtype(types.erasure(t.asType()), protocolType)) {
+      index.add(elements.getBinaryName(t).toString());
+      indexed.add(t);
+      if (t.getKind() == ElementKind.CLASS && !t.getModifiers().contains(Modifier.ABSTRACT)
+          && accessible(t)) {
+        generate(t);
+      }
+    }
+    for (TypeElement nested : ElementFilter.typesIn(t.getEnclosedElements())) {
+      processType(nested);
+    }
+  }
+
+  // ----------------------- checks --------------------------------------------
+
+  private void check(TypeElement t) {
+    int views = 0;
+    int rates = 0;
+    for (Element e : t.getEnclosedElements()) {
+      boolean view = has(e, VIEW);
+      boolean uniform = has(e, VIEW_UNIFORM_RANDOM);
+      boolean rate = has(e, GOSSIP_RATE);
+      boolean update = has(e, GOSSIP_UPDATE);
+      if (!(view || uniform || rate || update)) {
+        continue;
+      }
+      boolean isPublic = e.getModifiers().contains(Modifier.PUBLIC);
+      if ((view || uniform || rate) && !isPublic) {
+        warn(e, "MiCA only uses public members; this annotation is ignored at runtime");
+      }
+
+      if (view && uniform) {
+        error(e, "@View and @ViewUniformRandom cannot annotate the same element");
+      } else if (view) {
+        checkView(e, VIEW_TYPES, "@View");
+      } else if (uniform) {
+        if (e.getKind() != ElementKind.FIELD) {
+          error(e, "@ViewUniformRandom only applies to fields; use @View on a method returning a "
+              + "collection of addresses");
+        } else {
+          checkView(e, UNIFORM_VIEW_TYPES, "@ViewUniformRandom");
+        }
+      }
+      if ((view || uniform) && isPublic && ++views == 2) {
+        error(e, "More than one view element in " + t.getSimpleName());
+      }
+
+      if (rate) {
+        checkRate(e);
+        if (isPublic && ++rates == 2) {
+          error(e, "More than one @GossipRate method in " + t.getSimpleName());
+        }
+      }
+      if (update) {
+        if (e.getKind() != ElementKind.METHOD
+            || ((ExecutableElement) e).getParameters().size() != 1) {
+          error(e, "@GossipUpdate must annotate a method with one parameter, the other protocol "
+              + "instance");
+        } else if (e.getModifiers().contains(Modifier.STATIC)) {
+          error(e, "@GossipUpdate method cannot be static");
+        }
+      }
+    }
+  }
+
+  private void checkView(Element e, String[] accepted, String annotation) {
+    TypeMirror type;
+    if (e.getKind() == ElementKind.FIELD) {
+      type = e.asType();
+    } else if (e.getKind() == ElementKind.METHOD) {
+      ExecutableElement m = (ExecutableElement) e;
+      if (m.getParameters().size() > 0) {
+        error(e, annotation + " method cannot take parameters");
+        return;
+      }
+      type = m.getReturnType();
+    } else {
+      error(e, annotation + " must annotate a field or method");
+      return;
+    }
+    if (!viewType(type, accepted)) {
+      error(e, String.format("%s cannot make a view from a %s", annotation, type));
+    }
+  }
+
+  // could a value of this static type be one of the accepted types?
+  private boolean viewType(TypeMirror type, String[] accepted) {
+    if (type.getKind() != TypeKind.DECLARED && type.getKind() != TypeKind.TYPEVAR) {
+      return false;
+    }
+    TypeMirror t = types.erasure(type);
+    for (String name : accepted) {
+      TypeElement a = elements.getTypeElement(name);
+      if (a == null) {
+        // not on the class path; cannot tell
+        return true;
+      }
+      TypeMirror at = types.erasure(a.asType());
+      if (types.isAssignable(t, at) || types.isAssignable(at, t)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void checkRate(Element e) {
+    if (e.getKind() != ElementKind.METHOD) {
+      error(e, "@GossipRate must annotate a method");
+      return;
+    }
+    ExecutableElement m = (ExecutableElement) e;
+    if (m.getParameters().size() > 0) {
+      error(e, "@GossipRate method cannot take parameters");
+    } else if (!numeric(m.getReturnType())) {
+      error(e, "@GossipRate method must return a number (double)");
+    }
+  }
+
+  private boolean numeric(TypeMirror type) {
+    if (type.getKind() == TypeKind.DECLARED) {
+      try {
+        type = types.unboxedType(type);
+      } catch (IllegalArgumentException e) {
+        return false;
+      }
+    }
+    switch (type.getKind()) {
+      case BYTE:
+      case SHORT:
+      case INT:
+      case LONG:
+      case FLOAT:
+      case DOUBLE:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  // ----------------------- dispatch tables -----------------------------------
+
+  // can a class in the same package cast to t?
+  private static boolean accessible(TypeElement t) {
+    Element e = t;
+    while (e instanceof TypeElement) {
+      TypeElement te = (TypeElement) e;
+      if (te.getModifiers().contains(Modifier.PRIVATE)
+          || (te.getNestingKind() != NestingKind.TOP_LEVEL
+          && te.getNestingKind() != NestingKind.MEMBER)) {
+        return false;
+      }
+      e = te.getEnclosingElement();
+    }
+    return true;
+  }
+
+  /**
+   * The public member with the given annotation(s) that AnnotationInspector would choose for class
+   * t, or null if it would not find exactly one in the class hierarchy (or it is declared by an
+   * interface)
+   */
+  private Element choose(TypeElement t, boolean methodsOnly, String... annotations) {
+    List<Element> candidates = new ArrayList<Element>();
+    for (Element e : elements.getAllMembers(t)) {
+      if (!e.getModifiers().contains(Modifier.PUBLIC)
+          || (e.getKind() != ElementKind.METHOD
+          && (methodsOnly || e.getKind() != ElementKind.FIELD))) {
+        continue;
+      }
+      for (String a : annotations) {
+        if (has(e, a)) {
+          candidates.add(e);
+          break;
+        }
+      }
+    }
+    // the most derived class that declares any of them
+    TypeElement k = t;
+    while (k != null) {
+      Element chosen = null;
+      for (Element e : candidates) {
+        if (e.getEnclosingElement().equals(k)) {
+          if (chosen != null) {
+            return null;
+          }
+          chosen = e;
+        }
+      }
+      if (chosen != null) {
+        return chosen;
+      }
+      TypeMirror sup = k.getSuperclass();
+      k = (sup.getKind() == TypeKind.DECLARED ? (TypeElement) types.asElement(sup) : null);
+    }
+    return null;
+  }
+
+  private void generate(TypeElement t) {
+    Element view = choose(t, false, VIEW, VIEW_UNIFORM_RANDOM);
+    boolean uniform = false;
+    if (view != null) {
+      uniform = has(view, VIEW_UNIFORM_RANDOM);
+      if ((uniform && has(view, VIEW)) || (uniform && view.getKind() != ElementKind.FIELD)
+          || (view.getKind() == ElementKind.METHOD
+          && ((ExecutableElement) view).getParameters().size() > 0)) {
+        // the runtime rejects these; let it
+        view = null;
+      }
+    }
+    Element rate = choose(t, true, GOSSIP_RATE);
+    if (rate != null && (((ExecutableElement) rate).getParameters().size() > 0
+        || !numeric(((ExecutableElement) rate).getReturnType()))) {
+      rate = null;
+    }
+
+    String pkg = elements.getPackageOf(t).getQualifiedName().toString();
+    String binary = elements.getBinaryName(t).toString();
+    String name = (pkg.isEmpty() ? binary : binary.substring(pkg.length() + 1)) + SUFFIX;
+    String type = t.getQualifiedName().toString();
+    String protocol = PROTOCOL;
+
+    try {
+      Writer w = processingEnv.getFiler()
+          .createSourceFile(pkg.isEmpty() ? name : pkg + "." + name, t).openWriter();
+      PrintWriter out = new PrintWriter(w);
+      try {
+        if (!pkg.isEmpty()) {
+          out.printf("package %s;%n%n", pkg);
+        }
+        out.printf("/** MiCA dispatch table for {@link %s}. */%n", type);
+        out.printf("@javax.annotation.processing.Generated(\"%s\")%n", getClass().getName());
+        out.printf("@SuppressWarnings({\"rawtypes\", \"unchecked\"})%n");
+        out.printf("public final class %s implements %s {%n%n", name, METADATA);
+
+        out.printf("  public Class<?> getProtocolClass() {%n    return %s.class;%n  }%n%n", type);
+
+        out.printf("  public boolean hasView() {%n    return %s;%n  }%n%n", view != null);
+        out.printf("  public boolean isUniformRandomView() {%n    return %s;%n  }%n%n", uniform);
+        out.printf("  public Object view(%s p) {%n    %s;%n  }%n%n", protocol,
+            (view == null ? "throw new UnsupportedOperationException()"
+                : "return " + access(type, view)));
+
+        out.printf("  public boolean hasRate() {%n    return %s;%n  }%n%n", rate != null);
+        out.printf("  public double rate(%s p) {%n    %s;%n  }%n", protocol,
+            (rate == null ? "throw new UnsupportedOperationException()"
+                : "return " + access(type, rate)));
+        out.printf("}%n");
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      error(t, "Cannot write MiCA metadata: " + e);
+    }
+  }
+
+  // expression reading field / calling method e of protocol instance p, of class type
+  private static String access(String type, Element e) {
+    String target = (e.getModifiers().contains(Modifier.STATIC) ? type
+        : String.format("((%s) p)", type));
+    return String.format("%s.%s%s", target, e.getSimpleName(),
+        (e.getKind() == ElementKind.METHOD ? "()" : ""));
+  }
+
+  // ----------------------- index ---------------------------------------------
+
+  private void writeIndex() {
+    try {
+      FileObject f = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+          INDEX, indexed.toArray(new Element[indexed.size()]));
+      PrintWriter out = new PrintWriter(f.openWriter());
+      try {
+        for (String name : index) {
+          out.println(name);
+        }
+      } finally {
+        out.close();
+      }
+    } catch (IOException e) {
+      processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+          "Cannot write MiCA protocol index: " + e);
+    }
+  }
+
+  // ----------------------- utilities -----------------------------------------
+
+  private static boolean has(Element e, String annotation) {
+    for (AnnotationMirror a : e.getAnnotationMirrors()) {
+      if (((TypeElement) a.getAnnotationType().asElement()).getQualifiedName()
+          .contentEquals(annotation)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void error(Element e, String message) {
+    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, e);
+  }
+
+  private void warn(Element e, String message) {
+    processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING, message, e);
+  }
+}
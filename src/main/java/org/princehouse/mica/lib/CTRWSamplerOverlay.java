@@ -9,7 +9,7 @@ import org.princehouse.mica.base.BaseProtocol;
 import org.princehouse.mica.base.model.Protocol;
 import org.princehouse.mica.base.net.model.Address;
 import org.princehouse.mica.base.sugar.annotations.GossipUpdate;
-import org.princehouse.mica.base.sugar.annotations.ViewUniformRandom;
+import org.princehouse.mica.base.sugar.annotations.View;
 
 /**
  * TODO (unfinished)
@@ -40,7 +40,7 @@ public class CTRWSamplerOverlay extends BaseProtocol {
 
   public Queue<SamplingMessage> messages = new LinkedList<SamplingMessage>();
 
-  @ViewUniformRandom
+  @View
   public Set<Address> select() {
     SamplingMessage m = messages.peek(); // next message in the queue
     if (m == null) {
@@ -54,7 +54,7 @@ public class CTRWSamplerOverlay extends BaseProtocol {
     }
   }
 
-  @ViewUniformRandom
+  // neighbors; select() chooses among them uniformly
   public Set<Address> view;
 
   public CTRWSamplerOverlay(Set<Address> view) {
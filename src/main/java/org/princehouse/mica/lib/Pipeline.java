@@ -9,6 +9,7 @@ import org.princehouse.mica.base.sugar.annotations.GossipRate;
 import org.princehouse.mica.base.sugar.annotations.GossipUpdate;
 import org.princehouse.mica.base.sugar.annotations.View;
 import org.princehouse.mica.lib.abstractions.MergeCorrelated;
+import org.princehouse.mica.lib.abstractions.MultiMergeCorrelated;
 import org.princehouse.mica.util.Distribution;
 
 /*
@@ -18,6 +19,10 @@ import org.princehouse.mica.util.Distribution;
  *
  * Each round, the entire pipeline is merged with the MergeCorrelated operator, which builds a balanced tree of
  * binary merge operations.  The gossip rate, select, and update operations are derived from this merge tree.
+ * If flatMergeThreshold is set, pipelines of at least that many instances use a single MultiMergeCorrelated over the
+ * whole pipeline instead, which is evaluated in one pass over the k instances. It has the same rate, select
+ * distribution and per-instance gossip probabilities as the tree, but groups the instances that gossip together
+ * differently, so it is off by default.
  *
  * When every protocol in the pipeline has the same select distribution, the behavior is identical to Danny Dolev's
  * original pipeline --- the whole pipeline gossips in unison to a single selected neighbor, and the gossip rate is
@@ -83,6 +88,25 @@ public class Pipeline<P extends Protocol> extends BaseProtocol {
     this.pipe = pipe;
   }
 
+  /**
+   * Pipelines at least this long are merged with one MultiMergeCorrelated instead of a tree of
+   * binary merges
+   */
+  private int flatMergeThreshold = DEFAULT_FLAT_MERGE_THRESHOLD;
+
+  /**
+   * Flat merging is off unless a threshold is set
+   */
+  public static final int DEFAULT_FLAT_MERGE_THRESHOLD = Integer.MAX_VALUE;
+
+  public int getFlatMergeThreshold() {
+    return flatMergeThreshold;
+  }
+
+  public void setFlatMergeThreshold(int flatMergeThreshold) {
+    this.flatMergeThreshold = flatMergeThreshold;
+  }
+
   private Protocol merged = null;
 
   @View
@@ -150,6 +174,9 @@ public class Pipeline<P extends Protocol> extends BaseProtocol {
   @SuppressWarnings("unchecked")
   private Protocol buildMerge() {
     // merge together everything in the pipeline!
+    if (pipe.size() >= getFlatMergeThreshold()) {
+      return new MultiMergeCorrelated(pipe);
+    }
     return MergeCorrelated.operator.merge((List<BaseProtocol>) pipe);
   }
 
@@ -8,7 +8,7 @@ import java.util.Set;
 import org.princehouse.mica.base.BaseProtocol;
 import org.princehouse.mica.base.net.model.Address;
 import org.princehouse.mica.base.sugar.annotations.GossipUpdate;
-import org.princehouse.mica.base.sugar.annotations.ViewUniformRandom;
+import org.princehouse.mica.base.sugar.annotations.View;
 
 /**
  * Peer sampling protocol based on the paper
@@ -39,7 +39,7 @@ abstract public class CTRWPeerSampler extends BaseProtocol {
 
   public Queue<SamplingMessage> messages = new LinkedList<SamplingMessage>();
 
-  @ViewUniformRandom
+  @View
   public Set<Address> select() {
     SamplingMessage m = messages.peek(); // next message in the queue
     if (m == null) {
@@ -53,7 +53,7 @@ abstract public class CTRWPeerSampler extends BaseProtocol {
     }
   }
 
-  @ViewUniformRandom
+  // neighbors; select() chooses among them uniformly
   public Set<Address> view;
 
   public CTRWPeerSampler(Set<Address> view) {
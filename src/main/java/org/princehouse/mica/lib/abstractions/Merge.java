@@ -32,7 +32,7 @@ public abstract class Merge extends BaseProtocol implements BinaryCompositeProto
   // would be erased by serialization
   private MergeSelectionCase subProtocolGossipCase = MergeSelectionCase.NA;
 
-  protected MergeSelectionCase getSubProtocolGossipCase() {
+  public MergeSelectionCase getSubProtocolGossipCase() {
     return subProtocolGossipCase;
   }
 
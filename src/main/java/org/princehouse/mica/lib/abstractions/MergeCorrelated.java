@@ -57,7 +57,7 @@ public class MergeCorrelated extends Merge {
       return rate1;
     }
 
-    return Distribution.max(d1.scale(rate1), d2.scale(rate2)).magnitude();
+    return Distribution.maxMagnitude(d1, rate1, d2, rate2);
   }
 
   /**
@@ -85,10 +85,7 @@ public class MergeCorrelated extends Merge {
     }
 
     double w = rate1 / (rate1 + rate2);
-    d1 = d1.scale(w);
-    d2 = d2.scale(1 - w);
-
-    return Distribution.max(d1, d2).ipnormalize();
+    return Distribution.maxNormalized(d1, w, d2, 1 - w);
   }
 
   /**
@@ -54,10 +54,7 @@ public class MergeIndependent extends Merge {
       return d1;
     }
 
-    d1 = d1.scale(w);
-    d2 = d2.scale(1 - w);
-
-    return d1.add(d2);
+    return Distribution.weightedSum(d1, w, d2, 1 - w);
   }
 
   /**
@@ -0,0 +1,199 @@
+package org.princehouse.mica.lib.abstractions;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.princehouse.mica.base.BaseProtocol;
+import org.princehouse.mica.base.LogFlag;
+import org.princehouse.mica.base.model.Protocol;
+import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.sugar.annotations.GossipUpdate;
+import org.princehouse.mica.util.Distribution;
+
+/**
+ * Base class for merge operators over any number of subprotocols. Where a balanced tree of binary
+ * Merges evaluates views, rates and selection cases level by level, a MultiMerge computes its view,
+ * rate and gossiping subprotocols directly over its k subprotocols in one pass. Subclasses say how
+ * their choices compare to the corresponding tree.
+ * <p>
+ * In preUpdate, decideGossiping picks the subprotocols that gossip with the selected peer this
+ * round, and the order their updates run in; update and postUpdate run only those.
+ *
+ * @author lonnie
+ */
+public abstract class MultiMerge extends BaseProtocol implements CompositeProtocol {
+
+  private static final long serialVersionUID = 1L;
+
+  private List<Protocol> subProtocols = new ArrayList<Protocol>();
+
+  // indices of the subprotocols that gossip this round, in update order; null until preUpdate has
+  // chosen. Like Merge's selection case, it can't be transient: it is needed for postUpdate, and
+  // the receiver reads it from the initiator's copy
+  private int[] gossiping = null;
+
+  public MultiMerge() {
+  }
+
+  public MultiMerge(List<? extends Protocol> subProtocols) {
+    this.subProtocols.addAll(subProtocols);
+  }
+
+  @Override
+  public void addSubProtocol(Protocol p) {
+    subProtocols.add(p);
+  }
+
+  @Override
+  public List<Protocol> getSubProtocols() {
+    return subProtocols;
+  }
+
+  public Protocol getSubProtocol(int i) {
+    return subProtocols.get(i);
+  }
+
+  public int size() {
+    return subProtocols.size();
+  }
+
+  /**
+   * @return Indices of the subprotocols chosen to gossip this round, in update order, or null if
+   * preUpdate has not chosen yet
+   */
+  public int[] getGossiping() {
+    return gossiping;
+  }
+
+  protected void setGossiping(int[] gossiping) {
+    this.gossiping = gossiping;
+  }
+
+  /**
+   * @param x   Gossip partner chosen by the runtime
+   * @param rng Random number generator
+   * @return Indices of the subprotocols that gossip with x, in the order their updates run
+   */
+  public abstract int[] decideGossiping(Address x, Random rng);
+
+  /**
+   * Note: If preUpdate is overridden and this super method never called, merge will break
+   */
+  @Override
+  public void preUpdate(Address selected) {
+    int[] chosen = decideGossiping(selected, getRuntimeState().getRandom());
+    setGossiping(chosen);
+    for (int i : chosen) {
+      getSubProtocol(i).preUpdate(selected);
+    }
+  }
+
+  @GossipUpdate
+  @Override
+  public void update(Protocol p) {
+    MultiMerge that = (MultiMerge) p;
+    if (gossiping == null) {
+      throw new RuntimeException(
+          "Merge error: No selection choice! Did you override preUpdate and forget to call super()?");
+    }
+    for (int i : gossiping) {
+      getSubProtocol(i).update(that.getSubProtocol(i));
+    }
+    if (LogFlag.merge.test()) {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < size(); i++) {
+        sb.append(i > 0 ? "," : "").append('p').append(i).append(':').append(gossips(i));
+      }
+      logJson(LogFlag.merge, "merge-execute-subprotocols", sb.toString());
+    }
+  }
+
+  /**
+   * @param i
+   * @return True if subprotocol i was chosen to gossip this round
+   */
+  public boolean gossips(int i) {
+    if (gossiping != null) {
+      for (int j : gossiping) {
+        if (j == i) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public void postUpdate() {
+    if (gossiping != null) {
+      for (int i : gossiping) {
+        getSubProtocol(i).postUpdate();
+      }
+    }
+  }
+
+  @Override
+  public void unreachable(Address peer) {
+    for (Protocol p : subProtocols) {
+      p.unreachable(peer);
+    }
+  }
+
+  @Override
+  public void busy(Address peer) {
+    for (Protocol p : subProtocols) {
+      p.busy(peer);
+    }
+  }
+
+  // ---- helpers for subclasses ----
+
+  /**
+   * The subprotocols' views, in order (null for subprotocols that do not gossip)
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  protected Distribution<Address>[] views() {
+    Distribution<Address>[] views = new Distribution[size()];
+    for (int i = 0; i < views.length; i++) {
+      views[i] = getSubProtocol(i).getView();
+    }
+    return views;
+  }
+
+  protected double[] rates() {
+    double[] rates = new double[size()];
+    for (int i = 0; i < rates.length; i++) {
+      rates[i] = getSubProtocol(i).getRate();
+    }
+    return rates;
+  }
+
+  /**
+   * When some subprotocol has a null view, exactly one subprotocol gossips, chosen in proportion
+   * to the rates (the binary merges' rule for this pathological case; the others still get
+   * preUpdate calls on later rounds)
+   *
+   * @param rates
+   * @param total Sum of rates
+   * @param rng
+   * @return
+   */
+  protected static int[] chooseByRate(double[] rates, double total, Random rng) {
+    double u = rng.nextDouble() * total;
+    for (int i = 0; i < rates.length; i++) {
+      u -= rates[i];
+      if (u < 0) {
+        return new int[]{i};
+      }
+    }
+    return new int[]{rates.length - 1};
+  }
+
+  protected static void brokenDistributions(Address x, Distribution<Address>[] views) {
+    System.err.printf("Broken component distribution diagnostic for x=%s\n", x);
+    for (Distribution<Address> d : views) {
+      d.dump(System.err);
+    }
+    throw new RuntimeException("broken component distributions");
+  }
+}
@@ -0,0 +1,171 @@
+package org.princehouse.mica.lib.abstractions;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.princehouse.mica.base.model.Protocol;
+import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.sugar.annotations.GossipRate;
+import org.princehouse.mica.base.sugar.annotations.View;
+import org.princehouse.mica.util.Distribution;
+
+/**
+ * Correlated merge of k subprotocols in one step. The composite view is proportional to
+ * max_i(rate_i * view_i(x)) and the composite rate is the sum over x of that maximum, as for a
+ * balanced tree of MergeCorrelated over the same subprotocols. When peer x is chosen, each
+ * subprotocol gossips with probability rate_i * view_i(x) divided by the largest of those values,
+ * also as in the tree.
+ * <p>
+ * Which subprotocols gossip together is not the same as in the tree. Here a single draw nests the
+ * gossiping sets, so that as many subprotocols as possible gossip together; the tree draws
+ * separately at each level, and subprotocols in different subtrees gossip together less often.
+ * Code that depends on the joint behavior of a MergeCorrelated tree should keep using the tree.
+ *
+ * @author lonnie
+ */
+public class MultiMergeCorrelated extends MultiMerge {
+
+  private static final long serialVersionUID = 1L;
+
+  public MultiMergeCorrelated() {
+    super();
+  }
+
+  /**
+   * @param subProtocols Protocols to merge
+   */
+  public MultiMergeCorrelated(List<? extends Protocol> subProtocols) {
+    super(subProtocols);
+  }
+
+  /**
+   * Unnormalized max_i(rate_i * view_i) over the subprotocols with non-null views, or null if
+   * every view is null
+   */
+  private Distribution<Address> weightedMax() {
+    Distribution<Address>[] views = views();
+    double[] rates = rates();
+    Distribution<Address> max = null;
+    for (int i = 0; i < views.length; i++) {
+      if (views[i] == null) {
+        continue;
+      }
+      if (max == null) {
+        max = new Distribution<Address>();
+      }
+      for (Map.Entry<Address, Double> e : views[i].entrySet()) {
+        double v = e.getValue() * rates[i];
+        if (v > 0) {
+          Double current = max.get(e.getKey());
+          if (v > current) {
+            max.put(e.getKey(), v);
+          }
+        }
+      }
+    }
+    return max;
+  }
+
+  /**
+   * Composite gossip rate; less than or equal to the sum of the subprotocol rates
+   *
+   * @return
+   */
+  @GossipRate
+  public double mergedRate() {
+    Distribution<Address> max = weightedMax();
+    return (max == null ? 0 : max.magnitude());
+  }
+
+  /**
+   * Compute composite select distribution
+   *
+   * @return composite select distribution
+   */
+  @View
+  public Distribution<Address> select() {
+    Distribution<Address> max = weightedMax();
+    if (max == null || max.isEmpty()) {
+      return null;
+    }
+    return max.ipnormalize();
+  }
+
+  /**
+   * Subprotocol i gossips with probability q_i / max_j(q_j), where q_i = rate_i * view_i(x), the
+   * same marginal probability as in a balanced MergeCorrelated tree. The choices share one uniform
+   * draw, so the gossiping set is always the subprotocols with the largest q_i; in the tree,
+   * subprotocols in different subtrees are decided by different draws.
+   *
+   * @param x   Gossip partner chosen by the runtime
+   * @param rng Random number generator
+   * @return Indices of the subprotocols that gossip with x, in the order their updates run
+   */
+  @Override
+  public int[] decideGossiping(Address x, Random rng) {
+    Distribution<Address>[] views = views();
+    double[] rates = rates();
+    int k = rates.length;
+
+    double total = 0;
+    boolean nullView = false;
+    for (int i = 0; i < k; i++) {
+      total += rates[i];
+      nullView |= (views[i] == null);
+    }
+
+    if (total < 10e-7) {
+      return new int[0];
+    }
+
+    if (nullView) {
+      // pathological case where one or more protocols has a null view,
+      // indicating it does not want to gossip. We will still call preUpdate, though
+      return chooseByRate(rates, total, rng);
+    }
+
+    double[] p = new double[k];
+    double pmax = 0;
+    for (int i = 0; i < k; i++) {
+      p[i] = views[i].get(x) * rates[i] / total;
+      pmax = Math.max(pmax, p[i]);
+    }
+
+    if (pmax <= Distribution.MAGNITUDE_EPS) {
+      brokenDistributions(x, views);
+    }
+
+    // one uniform draw decides everyone: subprotocol i gossips with probability p_i / pmax, and
+    // every subprotocol that gossips does so whenever a less likely one does
+    double u = rng.nextDouble() * pmax;
+    int[] chosen = new int[k];
+    int n = 0;
+    for (int i = 0; i < k; i++) {
+      if (u < p[i]) {
+        chosen[n++] = i;
+      }
+    }
+
+    // updates run in random order
+    for (int i = n - 1; i > 0; i--) {
+      int j = rng.nextInt(i + 1);
+      int t = chosen[i];
+      chosen[i] = chosen[j];
+      chosen[j] = t;
+    }
+
+    int[] order = new int[n];
+    System.arraycopy(chosen, 0, order, 0, n);
+    return order;
+  }
+
+  /**
+   * Convenience static method for merging. Same as "new MultiMergeCorrelated(subProtocols)"
+   *
+   * @param subProtocols
+   * @return
+   */
+  public static MultiMergeCorrelated merge(List<? extends Protocol> subProtocols) {
+    return new MultiMergeCorrelated(subProtocols);
+  }
+}
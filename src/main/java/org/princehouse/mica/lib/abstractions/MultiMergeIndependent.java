@@ -0,0 +1,135 @@
+package org.princehouse.mica.lib.abstractions;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.princehouse.mica.base.model.Protocol;
+import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.sugar.annotations.GossipRate;
+import org.princehouse.mica.base.sugar.annotations.View;
+import org.princehouse.mica.util.Distribution;
+
+/**
+ * Independent merge of k subprotocols in one step. Same behavior as a balanced tree of
+ * MergeIndependent over the same subprotocols: the composite view is the rate-weighted average of
+ * the subprotocol views, the composite rate is the sum of their rates, and exactly one subprotocol
+ * gossips each round, chosen in proportion to rate_i * view_i(x).
+ *
+ * @author lonnie
+ */
+public class MultiMergeIndependent extends MultiMerge {
+
+  private static final long serialVersionUID = 1L;
+
+  public MultiMergeIndependent() {
+    super();
+  }
+
+  /**
+   * @param subProtocols Protocols to merge
+   */
+  public MultiMergeIndependent(List<? extends Protocol> subProtocols) {
+    super(subProtocols);
+  }
+
+  /**
+   * Composite select distribution
+   *
+   * @return
+   */
+  @View
+  public Distribution<Address> select() {
+    Distribution<Address>[] views = views();
+    double[] rates = rates();
+
+    double total = 0;
+    for (int i = 0; i < views.length; i++) {
+      if (views[i] != null) {
+        total += rates[i];
+      }
+    }
+
+    Distribution<Address> sum = null;
+    for (int i = 0; i < views.length; i++) {
+      if (views[i] == null) {
+        continue;
+      }
+      if (sum == null) {
+        sum = new Distribution<Address>();
+      }
+      double w = rates[i] / total;
+      for (Map.Entry<Address, Double> e : views[i].entrySet()) {
+        double v = e.getValue() * w;
+        if (v > 0) {
+          sum.put(e.getKey(), sum.get(e.getKey()) + v);
+        }
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * Composite rate function
+   */
+  @GossipRate
+  public double mergedRate() {
+    Distribution<Address>[] views = views();
+    double[] rates = rates();
+    double total = 0;
+    for (int i = 0; i < views.length; i++) {
+      if (views[i] != null) {
+        total += rates[i];
+      }
+    }
+    return total;
+  }
+
+  @Override
+  public int[] decideGossiping(Address x, Random rng) {
+    Distribution<Address>[] views = views();
+    double[] rates = rates();
+    int k = rates.length;
+
+    double total = 0;
+    boolean nullView = false;
+    for (int i = 0; i < k; i++) {
+      total += rates[i];
+      nullView |= (views[i] == null);
+    }
+
+    if (total < 10e-7) {
+      return new int[0];
+    }
+
+    if (nullView) {
+      // pathological case where one or more protocols has a null view,
+      // indicating it does not want to gossip. We will still call preUpdate, though
+      return chooseByRate(rates, total, rng);
+    }
+
+    double[] p = new double[k];
+    double sum = 0;
+    boolean broken = true;
+    for (int i = 0; i < k; i++) {
+      p[i] = views[i].get(x) * rates[i] / total;
+      sum += p[i];
+      broken &= (p[i] < 1e-5);
+    }
+
+    if (broken) {
+      brokenDistributions(x, views);
+    }
+
+    return chooseByRate(p, sum, rng);
+  }
+
+  /**
+   * Convenience static method for merging. Same as "new MultiMergeIndependent(subProtocols)"
+   *
+   * @param subProtocols
+   * @return
+   */
+  public static MultiMergeIndependent merge(List<? extends Protocol> subProtocols) {
+    return new MultiMergeIndependent(subProtocols);
+  }
+}
@@ -1,6 +1,7 @@
 package org.princehouse.mica.lib.abstractions;
 
 import java.io.Serializable;
+import java.util.Collection;
 import org.princehouse.mica.base.MalformedViewException;
 import org.princehouse.mica.base.model.NeedsRuntimeException;
 import org.princehouse.mica.base.model.RuntimeState;
@@ -8,6 +9,7 @@ import org.princehouse.mica.base.net.model.Address;
 import org.princehouse.mica.base.simple.SelectException;
 import org.princehouse.mica.base.simple.Selector;
 import org.princehouse.mica.util.Distribution;
+import org.princehouse.mica.util.FrozenDistribution;
 
 /**
  * An unchanging overlay. Used for protocols that do not change their views.
@@ -23,8 +25,30 @@ public class StaticOverlay implements Overlay, Serializable {
 
   private Object view = null;
 
+  // whether the view is known not to change, so it can be frozen on first use
+  private boolean immutable = false;
+
+  // view as a frozen distribution, if immutable and it does not depend on the runtime state
+  transient private FrozenDistribution<Address> frozen = null;
+
+  /**
+   * @param view Read again on every call to getView, as it may be a live collection or
+   *             distribution
+   */
   public StaticOverlay(Object view) {
+    this(view, false);
+  }
+
+  /**
+   * @param view
+   * @param immutable If true, the caller promises that view (a collection, address or
+   *                  distribution) will not be modified, and it is converted into a frozen
+   *                  distribution once; call setView to replace it. Protocols and overlays are
+   *                  asked for their view every time either way.
+   */
+  public StaticOverlay(Object view, boolean immutable) {
     this.view = view;
+    this.immutable = immutable;
 
     // sanity check
     try {
@@ -40,15 +64,26 @@ public class StaticOverlay implements Overlay, Serializable {
 
   @Override
   public Distribution<Address> getView(RuntimeState rts) throws NeedsRuntimeException {
+    if (frozen != null) {
+      return frozen;
+    }
+    Distribution<Address> dist;
     try {
-      return Selector.asDistribution(view, rts);
+      dist = Selector.asDistribution(view, rts);
     } catch (SelectException e) {
       throw new RuntimeException(e);
     }
+    if (immutable && dist != null && (view instanceof Collection || view instanceof Address
+        || view instanceof Distribution)) {
+      frozen = dist.freeze();
+      return frozen;
+    }
+    return dist;
   }
 
   public void setView(Object view) {
     this.view = view;
+    frozen = null;
   }
 
   @Override
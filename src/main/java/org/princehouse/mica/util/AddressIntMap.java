@@ -0,0 +1,256 @@
+package org.princehouse.mica.util;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoSerializable;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.net.model.AddressTable;
+
+/**
+ * Map from Address to int, keyed by the addresses' AddressTable IDs. Lookups hash an int and
+ * compare ints, and values are not boxed when the primitive methods (getInt, putInt, removeKey) are
+ * used.
+ * <p>
+ * The IDs are local to this JVM, so the map is serialized as (Address, value) pairs and re-interned
+ * when it is read.
+ *
+ * @author lonnie
+ */
+public class AddressIntMap extends AbstractMap<Address, Integer> implements Externalizable,
+    KryoSerializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final int EMPTY = -1;
+
+  // open addressing with linear probing; keys holds address IDs, EMPTY in unused slots
+  private int[] keys;
+  private int[] values;
+  private int size = 0;
+
+  public AddressIntMap() {
+    allocate(8);
+  }
+
+  private void allocate(int capacity) {
+    keys = new int[capacity];
+    Arrays.fill(keys, EMPTY);
+    values = new int[capacity];
+  }
+
+  private int slot(int id) {
+    return (id * 0x9E3779B9) & (keys.length - 1);
+  }
+
+  // slot holding id, or -1
+  private int find(int id) {
+    if (id < 0) {
+      return -1;
+    }
+    int mask = keys.length - 1;
+    for (int i = slot(id); ; i = (i + 1) & mask) {
+      if (keys[i] == id) {
+        return i;
+      } else if (keys[i] == EMPTY) {
+        return -1;
+      }
+    }
+  }
+
+  private int find(Object key) {
+    return (key instanceof Address ? find(AddressTable.existingId((Address) key)) : -1);
+  }
+
+  /**
+   * @param key
+   * @param missing Returned if key is not in the map
+   * @return
+   */
+  public int getInt(Address key, int missing) {
+    int i = find(key);
+    return (i >= 0 ? values[i] : missing);
+  }
+
+  public void putInt(Address key, int value) {
+    int id = AddressTable.id(key);
+    int i = find(id);
+    if (i >= 0) {
+      values[i] = value;
+      return;
+    }
+    if (2 * (size + 1) > keys.length) {
+      int[] oldKeys = keys;
+      int[] oldValues = values;
+      allocate(keys.length * 2);
+      for (int j = 0; j < oldKeys.length; j++) {
+        if (oldKeys[j] != EMPTY) {
+          insert(oldKeys[j], oldValues[j]);
+        }
+      }
+    }
+    insert(id, value);
+    size++;
+  }
+
+  private void insert(int id, int value) {
+    int mask = keys.length - 1;
+    int i = slot(id);
+    while (keys[i] != EMPTY) {
+      i = (i + 1) & mask;
+    }
+    keys[i] = id;
+    values[i] = value;
+  }
+
+  /**
+   * @param key
+   * @return True if key was in the map
+   */
+  public boolean removeKey(Object key) {
+    int i = find(key);
+    if (i < 0) {
+      return false;
+    }
+    // shift back later entries of the probe sequence so lookups do not stop at the hole
+    int mask = keys.length - 1;
+    int hole = i;
+    for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+      int home = slot(keys[j]);
+      if (((j - home) & mask) >= ((j - hole) & mask)) {
+        keys[hole] = keys[j];
+        values[hole] = values[j];
+        hole = j;
+      }
+    }
+    keys[hole] = EMPTY;
+    size--;
+    return true;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return find(key) >= 0;
+  }
+
+  @Override
+  public Integer get(Object key) {
+    int i = find(key);
+    return (i >= 0 ? values[i] : null);
+  }
+
+  @Override
+  public Integer put(Address key, Integer value) {
+    Integer old = get(key);
+    putInt(key, value);
+    return old;
+  }
+
+  @Override
+  public Integer remove(Object key) {
+    Integer old = get(key);
+    removeKey(key);
+    return old;
+  }
+
+  @Override
+  public void clear() {
+    allocate(8);
+    size = 0;
+  }
+
+  @Override
+  public Set<Entry<Address, Integer>> entrySet() {
+    return new AbstractSet<Entry<Address, Integer>>() {
+      @Override
+      public int size() {
+        return size;
+      }
+
+      @Override
+      public Iterator<Entry<Address, Integer>> iterator() {
+        return new Iterator<Entry<Address, Integer>>() {
+          private int next = advance(0);
+
+          private int advance(int i) {
+            while (i < keys.length && keys[i] == EMPTY) {
+              i++;
+            }
+            return i;
+          }
+
+          @Override
+          public boolean hasNext() {
+            return next < keys.length;
+          }
+
+          @Override
+          public Entry<Address, Integer> next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            Entry<Address, Integer> e = new SimpleImmutableEntry<Address, Integer>(
+                AddressTable.address(keys[next]), values[next]);
+            next = advance(next + 1);
+            return e;
+          }
+        };
+      }
+    };
+  }
+
+  @Override
+  public void writeExternal(ObjectOutput out) throws IOException {
+    out.writeInt(size);
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != EMPTY) {
+        out.writeObject(AddressTable.address(keys[i]));
+        out.writeInt(values[i]);
+      }
+    }
+  }
+
+  @Override
+  public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+    clear();
+    int n = in.readInt();
+    for (int i = 0; i < n; i++) {
+      putInt((Address) in.readObject(), in.readInt());
+    }
+  }
+
+  @Override
+  public void write(Kryo kryo, Output output) {
+    output.writeVarInt(size, true);
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i] != EMPTY) {
+        kryo.writeClassAndObject(output, AddressTable.address(keys[i]));
+        output.writeVarInt(values[i], false);
+      }
+    }
+  }
+
+  @Override
+  public void read(Kryo kryo, Input input) {
+    clear();
+    int n = input.readVarInt(true);
+    for (int i = 0; i < n; i++) {
+      putInt((Address) kryo.readClassAndObject(input), input.readVarInt(false));
+    }
+  }
+}
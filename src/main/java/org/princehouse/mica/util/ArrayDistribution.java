@@ -0,0 +1,359 @@
+package org.princehouse.mica.util;
+
+import java.io.ObjectStreamException;
+import java.util.AbstractCollection;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Immutable Distribution stored in parallel arrays, with primitive double weights, and an
+ * open-addressing index for get(). The fused operations (Distribution.maxNormalized,
+ * Distribution.weightedSum) return one, and read their arguments' arrays directly when they are
+ * ArrayDistributions, so a stack of merges passes weights from layer to layer without boxing them
+ * or building a HashMap per layer.
+ * <p>
+ * Like FrozenDistribution, it can be returned anywhere a Distribution is expected as long as the
+ * caller does not modify it: the mutators, including the in-place operations, throw
+ * UnsupportedOperationException, and the non-destructive operations (copy(), scale(), max(), ...)
+ * return ordinary mutable distributions. Only keys with positive weight are stored.
+ * <p>
+ * Nothing is stored in the HashMap it extends. Java serialization writes a mutable Distribution in
+ * its place.
+ *
+ * @param <T>
+ * @author lonnie
+ */
+public class ArrayDistribution<T> extends Distribution<T> {
+
+  private static final long serialVersionUID = 1L;
+
+  private Object[] keys;
+  private double[] weights;
+  private int n;
+  private double magnitude;
+  // index + 1 of the key hashed to each slot, 0 for empty; length is a power of two >= 2n
+  private int[] table;
+
+  /**
+   * @param dist Copied; only keys with positive weight are kept
+   */
+  public ArrayDistribution(Map<? extends T, Double> dist) {
+    Object[] k = new Object[dist.size()];
+    double[] w = new double[dist.size()];
+    int m = 0;
+    for (Map.Entry<? extends T, Double> e : dist.entrySet()) {
+      if (e.getValue() > 0) {
+        k[m] = e.getKey();
+        w[m++] = e.getValue();
+      }
+    }
+    build(k, w, m);
+  }
+
+  /**
+   * Takes ownership of the arrays. The first n keys must be distinct, with positive weights.
+   */
+  ArrayDistribution(Object[] keys, double[] weights, int n) {
+    build(keys, weights, n);
+  }
+
+  private void build(Object[] keys, double[] weights, int n) {
+    this.keys = keys;
+    this.weights = weights;
+    this.n = n;
+    int capacity = 2;
+    while (capacity < 2 * n) {
+      capacity <<= 1;
+    }
+    table = new int[capacity];
+    double s = 0;
+    for (int i = 0; i < n; i++) {
+      s += weights[i];
+      int slot = hash(keys[i]) & (capacity - 1);
+      while (table[slot] != 0) {
+        slot = (slot + 1) & (capacity - 1);
+      }
+      table[slot] = i + 1;
+    }
+    magnitude = s;
+  }
+
+  private static int hash(Object key) {
+    int h = (key == null ? 0 : key.hashCode());
+    return h ^ (h >>> 16);
+  }
+
+  private int indexOf(Object key) {
+    int mask = table.length - 1;
+    for (int slot = hash(key) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+      Object k = keys[table[slot] - 1];
+      if (k == key || (key != null && key.equals(k))) {
+        return table[slot] - 1;
+      }
+    }
+    return -1;
+  }
+
+  // primitive access, for the fused operations in Distribution
+
+  /**
+   * @param key
+   * @return The weight of key, or 0 if it has none, without boxing
+   */
+  public double weight(Object key) {
+    int i = indexOf(key);
+    return (i < 0 ? 0 : weights[i]);
+  }
+
+  int length() {
+    return n;
+  }
+
+  Object keyAt(int i) {
+    return keys[i];
+  }
+
+  double weightAt(int i) {
+    return weights[i];
+  }
+
+  // Distribution
+
+  @Override
+  public Double get(Object key) {
+    return weight(key);
+  }
+
+  @Override
+  public Double getOrDefault(Object key, Double defaultValue) {
+    int i = indexOf(key);
+    return (i < 0 ? defaultValue : weights[i]);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return indexOf(key) >= 0;
+  }
+
+  @Override
+  public boolean containsValue(Object value) {
+    if (value instanceof Double) {
+      for (int i = 0; i < n; i++) {
+        if (weights[i] == (Double) value) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public int size() {
+    return n;
+  }
+
+  @Override
+  public double magnitude() {
+    return magnitude;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public T sample(Random rng) {
+    double sample = rng.nextDouble();
+    if (n == 0) {
+      return null;
+    }
+    for (int i = 0; i < n; i++) {
+      if (sample <= weights[i]) {
+        return (T) keys[i];
+      }
+      sample -= weights[i];
+    }
+    throw new RuntimeException("code should never reach this point");
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public Distribution<T> copy() {
+    Distribution<T> tmp = new Distribution<T>();
+    for (int i = 0; i < n; i++) {
+      tmp.put((T) keys[i], weights[i]);
+    }
+    return tmp;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public Set<T> keySet() {
+    Set<T> set = new HashSet<T>();
+    for (int i = 0; i < n; i++) {
+      set.add((T) keys[i]);
+    }
+    return set;
+  }
+
+  @Override
+  public Collection<Double> values() {
+    return new AbstractCollection<Double>() {
+      @Override
+      public int size() {
+        return n;
+      }
+
+      @Override
+      public Iterator<Double> iterator() {
+        return new Iterator<Double>() {
+          private int i = 0;
+
+          @Override
+          public boolean hasNext() {
+            return i < n;
+          }
+
+          @Override
+          public Double next() {
+            if (i >= n) {
+              throw new NoSuchElementException();
+            }
+            return weights[i++];
+          }
+        };
+      }
+    };
+  }
+
+  @Override
+  public Set<Entry<T, Double>> entrySet() {
+    return new AbstractSet<Entry<T, Double>>() {
+      @Override
+      public int size() {
+        return n;
+      }
+
+      @Override
+      public Iterator<Entry<T, Double>> iterator() {
+        return new Iterator<Entry<T, Double>>() {
+          private int i = 0;
+
+          @Override
+          public boolean hasNext() {
+            return i < n;
+          }
+
+          @SuppressWarnings("unchecked")
+          @Override
+          public Entry<T, Double> next() {
+            if (i >= n) {
+              throw new NoSuchElementException();
+            }
+            Entry<T, Double> e = new SimpleImmutableEntry<T, Double>((T) keys[i], weights[i]);
+            i++;
+            return e;
+          }
+        };
+      }
+    };
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public void forEach(BiConsumer<? super T, ? super Double> action) {
+    for (int i = 0; i < n; i++) {
+      action.accept((T) keys[i], weights[i]);
+    }
+  }
+
+  @Override
+  public Object clone() {
+    return this;
+  }
+
+  private Object writeReplace() throws ObjectStreamException {
+    return copy();
+  }
+
+  // mutators
+
+  @Override
+  public Distribution<T> ipscale(double d) {
+    throw new UnsupportedOperationException("ArrayDistribution is immutable");
+  }
+
+  @Override
+  public Double put(T key, Double value) {
+    throw new UnsupportedOperationException("ArrayDistribution is immutable");
+  }
+
+  @Override
+  public void putAll(Map<? extends T, ? extends Double> m) {
+    throw new UnsupportedOperationException("ArrayDistribution is immutable");
+  }
+
+  @Override
+  public Double remove(Object key) {
+    throw new UnsupportedOperationException("ArrayDistribution is immutable");
+  }
+
+  @Override
+  public boolean remove(Object key, Object value) {
+    throw new UnsupportedOperationException("ArrayDistribution is immutable");
+  }
+
+  @Override
+  public void clear() {
+    throw new UnsupportedOperationException("ArrayDistribution is immutable");
+  }
+
+  @Override
+  public Double putIfAbsent(T key, Double value) {
+    throw new UnsupportedOperationException("ArrayDistribution is immutable");
+  }
+
+  @Override
+  public boolean replace(T key, Double oldValue, Double newValue) {
+    throw new UnsupportedOperationException("ArrayDistribution is immutable");
+  }
+
+  @Override
+  public Double replace(T key, Double value) {
+    throw new UnsupportedOperationException("ArrayDistribution is immutable");
+  }
+
+  @Override
+  public void replaceAll(BiFunction<? super T, ? super Double, ? extends Double> function) {
+    throw new UnsupportedOperationException("ArrayDistribution is immutable");
+  }
+
+  @Override
+  public Double computeIfAbsent(T key, Function<? super T, ? extends Double> mappingFunction) {
+    throw new UnsupportedOperationException("ArrayDistribution is immutable");
+  }
+
+  @Override
+  public Double computeIfPresent(T key,
+      BiFunction<? super T, ? super Double, ? extends Double> remappingFunction) {
+    throw new UnsupportedOperationException("ArrayDistribution is immutable");
+  }
+
+  @Override
+  public Double compute(T key,
+      BiFunction<? super T, ? super Double, ? extends Double> remappingFunction) {
+    throw new UnsupportedOperationException("ArrayDistribution is immutable");
+  }
+
+  @Override
+  public Double merge(T key, Double value,
+      BiFunction<? super Double, ? super Double, ? extends Double> remappingFunction) {
+    throw new UnsupportedOperationException("ArrayDistribution is immutable");
+  }
+}
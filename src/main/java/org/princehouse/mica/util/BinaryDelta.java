@@ -0,0 +1,193 @@
+package org.princehouse.mica.util;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Binary diff between two byte arrays, meant for successive serializations of the same object
+ * graph: a delta is a sequence of "copy a range of the base" and "insert these bytes" operations.
+ * <p>
+ * diff() indexes the base in fixed-size blocks and scans the target with a rolling hash, extending
+ * every verified block match in both directions, so inserted or removed bytes only cost the bytes
+ * around them (as in rsync).
+ * <p>
+ * Delta format: varint target length, then operations until the target is complete. An operation
+ * is a varint header h: if h is even, copy h/2 bytes from the base offset given by the following
+ * varint; if h is odd, insert the (h-1)/2 bytes that follow.
+ *
+ * @author lonnie
+ */
+public class BinaryDelta {
+
+  public static final int BLOCK = 16;
+
+  private static final int PRIME = 31;
+
+  // PRIME^BLOCK, to remove the outgoing byte from the rolling hash
+  private static final int OUT_FACTOR;
+
+  static {
+    int f = 1;
+    for (int i = 0; i < BLOCK; i++) {
+      f *= PRIME;
+    }
+    OUT_FACTOR = f;
+  }
+
+  /**
+   * @param base
+   * @param target
+   * @return Delta that turns base into target
+   */
+  public static byte[] diff(byte[] base, byte[] target) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(16, target.length / 8));
+    writeVarint(out, target.length);
+
+    // open-addressed table of block start offsets in base, by hash
+    int blocks = base.length / BLOCK;
+    int size = Integer.highestOneBit(Math.max(1, blocks * 2 - 1)) << 1;
+    int mask = size - 1;
+    int[] table = new int[size];
+    Arrays.fill(table, -1);
+    for (int b = 0; b < blocks; b++) {
+      int slot = mix(hash(base, b * BLOCK)) & mask;
+      while (table[slot] >= 0) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = b * BLOCK;
+    }
+
+    int literalStart = 0;
+    int i = 0;
+    int h = (target.length >= BLOCK ? hash(target, 0) : 0);
+    while (i + BLOCK <= target.length) {
+      int match = -1;
+      if (blocks > 0) {
+        for (int slot = mix(h) & mask; table[slot] >= 0; slot = (slot + 1) & mask) {
+          int candidate = table[slot];
+          if (equalBlock(base, candidate, target, i)) {
+            match = candidate;
+            break;
+          }
+        }
+      }
+      if (match < 0) {
+        if (i + BLOCK < target.length) {
+          h = h * PRIME + target[i + BLOCK] - OUT_FACTOR * target[i];
+        }
+        i++;
+        continue;
+      }
+      // extend backwards into the pending literal, then forwards
+      int start = i;
+      int baseStart = match;
+      while (start > literalStart && baseStart > 0 && target[start - 1] == base[baseStart - 1]) {
+        start--;
+        baseStart--;
+      }
+      int end = i + BLOCK;
+      int baseEnd = match + BLOCK;
+      while (end < target.length && baseEnd < base.length && target[end] == base[baseEnd]) {
+        end++;
+        baseEnd++;
+      }
+      writeInsert(out, target, literalStart, start);
+      writeVarint(out, (long) (end - start) << 1);
+      writeVarint(out, baseStart);
+      literalStart = end;
+      i = end;
+      if (i + BLOCK <= target.length) {
+        h = hash(target, i);
+      }
+    }
+    writeInsert(out, target, literalStart, target.length);
+    return out.toByteArray();
+  }
+
+  /**
+   * @param base  The base that delta was computed against
+   * @param delta Output of diff()
+   * @return The target
+   * @throws IllegalArgumentException If delta is malformed or does not fit base
+   */
+  public static byte[] apply(byte[] base, byte[] delta) {
+    int[] pos = new int[]{0};
+    int length = (int) readVarint(delta, pos);
+    byte[] target = new byte[length];
+    int t = 0;
+    try {
+      while (t < length) {
+        long h = readVarint(delta, pos);
+        int n = (int) (h >>> 1);
+        if ((h & 1) == 0) {
+          int offset = (int) readVarint(delta, pos);
+          System.arraycopy(base, offset, target, t, n);
+        } else {
+          System.arraycopy(delta, pos[0], target, t, n);
+          pos[0] += n;
+        }
+        t += n;
+      }
+    } catch (IndexOutOfBoundsException e) {
+      throw new IllegalArgumentException("delta does not match base", e);
+    }
+    if (t != length || pos[0] != delta.length) {
+      throw new IllegalArgumentException("delta does not match base");
+    }
+    return target;
+  }
+
+  private static void writeInsert(ByteArrayOutputStream out, byte[] data, int from, int to) {
+    if (to > from) {
+      writeVarint(out, ((long) (to - from) << 1) | 1);
+      out.write(data, from, to - from);
+    }
+  }
+
+  private static int hash(byte[] data, int offset) {
+    int h = 0;
+    for (int i = offset; i < offset + BLOCK; i++) {
+      h = h * PRIME + data[i];
+    }
+    return h;
+  }
+
+  // spread the polynomial hash over the table's low bits
+  private static int mix(int h) {
+    h *= 0x9E3779B9;
+    return h ^ (h >>> 16);
+  }
+
+  private static boolean equalBlock(byte[] a, int i, byte[] b, int j) {
+    for (int k = 0; k < BLOCK; k++) {
+      if (a[i + k] != b[j + k]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void writeVarint(ByteArrayOutputStream out, long v) {
+    while ((v & ~0x7FL) != 0) {
+      out.write((int) ((v & 0x7F) | 0x80));
+      v >>>= 7;
+    }
+    out.write((int) v);
+  }
+
+  private static long readVarint(byte[] data, int[] pos) {
+    long v = 0;
+    int shift = 0;
+    while (true) {
+      if (pos[0] >= data.length || shift > 63) {
+        throw new IllegalArgumentException("truncated delta");
+      }
+      byte b = data[pos[0]++];
+      v |= ((long) (b & 0x7F)) << shift;
+      if ((b & 0x80) == 0) {
+        return v;
+      }
+      shift += 7;
+    }
+  }
+}
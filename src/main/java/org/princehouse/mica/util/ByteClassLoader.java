@@ -2,6 +2,14 @@ package org.princehouse.mica.util;
 
 public class ByteClassLoader extends ClassLoader {
 
+  public ByteClassLoader() {
+    super();
+  }
+
+  public ByteClassLoader(ClassLoader parent) {
+    super(parent);
+  }
+
   public static Class<?> define(String name, byte[] data) {
     return new ByteClassLoader().classFromBytes(name, data);
   }
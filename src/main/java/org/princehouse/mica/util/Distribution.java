@@ -1,10 +1,10 @@
 package org.princehouse.mica.util;
 
-import fj.F;
 import fj.F2;
 import java.io.PrintStream;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Random;
 import java.util.Set;
 
@@ -17,7 +17,8 @@ import java.util.Set;
  * The values in a Distribution should always sum to one, although this is not enforced.  Methods
  * such as normalize() and ipnormalize() can be used to bring a distribution back a sum of one.
  * <p>
- * Distribution extends HashMap.
+ * Distribution extends HashMap. The fused operations used by the merge operators return
+ * ArrayDistributions, which keep their weights in arrays instead.
  *
  * @param <T>
  * @author lonnie
@@ -39,17 +40,16 @@ public class Distribution<T> extends HashMap<T, Double> {
    * Unlike standard map get, this returns 0 for items that are not "in" the distribution
    */
   public Double get(Object obj) {
-    if (containsKey(obj)) {
-      return super.get(obj);
-    } else {
-      return 0.0;
-    }
+    Double p = super.get(obj);
+    return (p != null ? p : 0.0);
   }
 
   public double magnitude() {
     double s = 0.0;
-    for (T obj : keySet()) {
-      s += get(obj);
+    for (Double p : values()) {
+      if (p > 0) {
+        s += p;
+      }
     }
     return s;
   }
@@ -80,8 +80,10 @@ public class Distribution<T> extends HashMap<T, Double> {
    * @return
    */
   public Distribution<T> ipscale(double d) {
-    for (T k : keySet()) {
-      put(k, get(k) * d);
+    for (Entry<T, Double> e : entrySet()) {
+      if (e.getValue() > 0) {
+        e.setValue(e.getValue() * d);
+      }
     }
     return this;
   }
@@ -112,12 +114,13 @@ public class Distribution<T> extends HashMap<T, Double> {
    * returns only keys whose probability is nonzero
    */
   public Set<T> keySet() {
-    return Functional.set(Functional.filter(super.keySet(), new F<T, Boolean>() {
-      @Override
-      public Boolean f(T k) {
-        return get(k) > 0;
+    Set<T> keys = new HashSet<T>();
+    for (Entry<T, Double> e : entrySet()) {
+      if (e.getValue() > 0) {
+        keys.add(e.getKey());
       }
-    }));
+    }
+    return keys;
   }
 
   public static <T> Distribution<T> create() {
@@ -144,17 +147,165 @@ public class Distribution<T> extends HashMap<T, Double> {
       d2 = new Distribution<T>();
     }
 
-    Set<T> keyUnion = Functional.union(d1.keySet(), d2.keySet());
+    // union of the keys with nonzero probability, without building the key sets
+    Distribution<T> pmd = create();
+    for (Entry<T, Double> e : d1.entrySet()) {
+      if (e.getValue() > 0) {
+        pmd.put(e.getKey(), f.f(e.getValue(), d2.get(e.getKey())));
+      }
+    }
+    for (Entry<T, Double> e : d2.entrySet()) {
+      if (e.getValue() > 0 && !(d1.get(e.getKey()) > 0)) {
+        pmd.put(e.getKey(), f.f(d1.get(e.getKey()), e.getValue()));
+      }
+    }
+    return (pmd.size() > 0 ? pmd : null);
+  }
 
-    if (keyUnion.size() == 0) {
-      return null;
+  /**
+   * max(d1.scale(s1), d2.scale(s2)).ipnormalize(), computed without the intermediate copies. Null
+   * arguments are treated as empty distributions.
+   *
+   * @param d1
+   * @param s1 Non-negative scale for d1
+   * @param d2
+   * @param s2 Non-negative scale for d2
+   * @return The normalized distribution, as an (immutable) ArrayDistribution, or null if it would
+   * have no keys
+   */
+  public static <T> Distribution<T> maxNormalized(Distribution<T> d1, double s1,
+      Distribution<T> d2, double s2) {
+    return combine(d1, s1, d2, s2, true, true);
+  }
+
+  /**
+   * max(d1.scale(s1), d2.scale(s2)).magnitude(), computed without allocating
+   *
+   * @param d1
+   * @param s1 Non-negative scale for d1
+   * @param d2
+   * @param s2 Non-negative scale for d2
+   * @return
+   */
+  public static <T> double maxMagnitude(Distribution<T> d1, double s1, Distribution<T> d2,
+      double s2) {
+    double s = 0;
+    if (d1 instanceof ArrayDistribution) {
+      ArrayDistribution<T> a = (ArrayDistribution<T>) d1;
+      for (int i = 0; i < a.length(); i++) {
+        s += Math.max(a.weightAt(i) * s1, positive(d2, a.keyAt(i)) * s2);
+      }
+    } else if (d1 != null) {
+      for (Entry<T, Double> e : d1.entrySet()) {
+        if (e.getValue() > 0) {
+          s += Math.max(e.getValue() * s1, positive(d2, e.getKey()) * s2);
+        }
+      }
     }
+    if (d2 instanceof ArrayDistribution) {
+      ArrayDistribution<T> a = (ArrayDistribution<T>) d2;
+      for (int i = 0; i < a.length(); i++) {
+        if (positive(d1, a.keyAt(i)) == 0) {
+          s += a.weightAt(i) * s2;
+        }
+      }
+    } else if (d2 != null) {
+      for (Entry<T, Double> e : d2.entrySet()) {
+        if (e.getValue() > 0 && positive(d1, e.getKey()) == 0) {
+          s += e.getValue() * s2;
+        }
+      }
+    }
+    return s;
+  }
 
-    Distribution<T> pmd = create();
-    for (T x : keyUnion) {
-      pmd.put(x, f.f(d1.get(x), d2.get(x)));
+  /**
+   * d1.scale(s1).add(d2.scale(s2)), computed without the intermediate copies. Null arguments are
+   * treated as empty distributions.
+   *
+   * @param d1
+   * @param s1 Non-negative scale for d1
+   * @param d2
+   * @param s2 Non-negative scale for d2
+   * @return The weighted sum, as an (immutable) ArrayDistribution, or null if it would have no
+   * keys
+   */
+  public static <T> Distribution<T> weightedSum(Distribution<T> d1, double s1,
+      Distribution<T> d2, double s2) {
+    return combine(d1, s1, d2, s2, false, false);
+  }
+
+  // weight of key in d if it is positive, else 0
+  private static <T> double positive(Distribution<T> d, Object key) {
+    if (d == null) {
+      return 0;
     }
-    return pmd;
+    double p = (d instanceof ArrayDistribution ? ((ArrayDistribution<T>) d).weight(key)
+        : d.get(key));
+    return (p > 0 ? p : 0);
+  }
+
+  // copies the keys of d with positive weight, and their weights, into keys and weights from
+  // offset on
+  private static <T> int positiveEntries(Distribution<T> d, Object[] keys, double[] weights,
+      int offset) {
+    int n = offset;
+    if (d instanceof ArrayDistribution) {
+      ArrayDistribution<T> a = (ArrayDistribution<T>) d;
+      for (int i = 0; i < a.length(); i++) {
+        keys[n] = a.keyAt(i);
+        weights[n++] = a.weightAt(i);
+      }
+    } else if (d != null) {
+      for (Entry<T, Double> e : d.entrySet()) {
+        if (e.getValue() > 0) {
+          keys[n] = e.getKey();
+          weights[n++] = e.getValue();
+        }
+      }
+    }
+    return n - offset;
+  }
+
+  // Single pass over each distribution. The weights are collected, and combined in place, in the
+  // parallel arrays that become the result.
+  private static <T> Distribution<T> combine(Distribution<T> d1, double s1, Distribution<T> d2,
+      double s2, boolean max, boolean normalize) {
+    int capacity = (d1 != null ? d1.size() : 0) + (d2 != null ? d2.size() : 0);
+    Object[] keys = new Object[capacity];
+    double[] weights = new double[capacity];
+    int n = 0;
+    double total = 0;
+    int n1 = positiveEntries(d1, keys, weights, 0);
+    for (int i = 0; i < n1; i++) {
+      double a = weights[i] * s1;
+      double b = positive(d2, keys[i]) * s2;
+      double w = (max ? Math.max(a, b) : a + b);
+      if (w > 0) {
+        keys[n] = keys[i];
+        weights[n++] = w;
+        total += w;
+      }
+    }
+    int end = n + positiveEntries(d2, keys, weights, n);
+    for (int i = n; i < end; i++) {
+      double w = weights[i] * s2;
+      if (w > 0 && positive(d1, keys[i]) == 0) {
+        keys[n] = keys[i];
+        weights[n++] = w;
+        total += w;
+      }
+    }
+    if (n == 0) {
+      return null;
+    }
+    if (normalize) {
+      double scale = 1.0 / total;
+      for (int i = 0; i < n; i++) {
+        weights[i] *= scale;
+      }
+    }
+    return new ArrayDistribution<T>(keys, weights, n);
   }
 
   public static <T> Distribution<T> max(Distribution<T> d1, Distribution<T> d2) {
@@ -233,16 +384,24 @@ public class Distribution<T> extends HashMap<T, Double> {
     });
   }
 
+  /**
+   * Linear in the number of keys. Use freeze() for a distribution that is sampled repeatedly.
+   *
+   * @param rng
+   * @return
+   */
   public T sample(Random rng) {
     double sample = rng.nextDouble();
     if (size() <= 0) {
       return null;
     }
 
-    for (T x : keySet()) {
-      double y = get(x);
-      if (sample <= y) {
-        return x;
+    for (Entry<T, Double> e : entrySet()) {
+      double y = e.getValue();
+      if (y <= 0) {
+        continue;
+      } else if (sample <= y) {
+        return e.getKey();
       } else {
         sample -= y;
       }
@@ -265,12 +424,24 @@ public class Distribution<T> extends HashMap<T, Double> {
 
   public Distribution<T> copy() {
     Distribution<T> tmp = new Distribution<T>();
-    for (T k : keySet()) {
-      tmp.put(k, get(k));
+    for (Entry<T, Double> e : entrySet()) {
+      if (e.getValue() > 0) {
+        tmp.put(e.getKey(), e.getValue());
+      }
     }
     return tmp;
   }
 
+  /**
+   * Immutable copy of this distribution with constant-time, allocation-free sample(). Use for
+   * views that are sampled many times without changing.
+   *
+   * @return
+   */
+  public FrozenDistribution<T> freeze() {
+    return new FrozenDistribution<T>(this);
+  }
+
   public Distribution<T> copynormalize() {
     return copy().ipnormalize();
   }
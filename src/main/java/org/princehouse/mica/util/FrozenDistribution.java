@@ -0,0 +1,221 @@
+package org.princehouse.mica.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Immutable Distribution that samples in constant time without allocating, using Vose's alias
+ * method. Create one with Distribution.freeze().
+ * <p>
+ * A frozen distribution can be returned anywhere a Distribution is expected (for instance, from a
+ * View), as long as the caller does not try to modify it: the mutators, including the in-place
+ * operations such as ipnormalize(), throw UnsupportedOperationException. The non-destructive
+ * operations (copy(), scale(), max(), ...) return ordinary mutable distributions.
+ * <p>
+ * sample() draws one rng.nextDouble(), like Distribution.sample(), but maps it to a key
+ * differently, so the two do not pick the same key for the same random number. Weights are
+ * normalized when the table is built; keys with weight zero or less are never sampled.
+ *
+ * @param <T>
+ * @author lonnie
+ */
+public class FrozenDistribution<T> extends Distribution<T> {
+
+  private static final long serialVersionUID = 1L;
+
+  // keys[i] is kept with probability prob[i] in column i, otherwise keys[alias[i]] is chosen
+  transient private Object[] keys;
+  transient private double[] prob;
+  transient private int[] alias;
+
+  public FrozenDistribution(Distribution<T> dist) {
+    for (Map.Entry<T, Double> e : dist.entrySet()) {
+      if (e.getValue() > 0) {
+        super.put(e.getKey(), e.getValue());
+      }
+    }
+    build();
+  }
+
+  private void build() {
+    int n = super.size();
+    keys = new Object[n];
+    prob = new double[n];
+    alias = new int[n];
+    if (n == 0) {
+      return;
+    }
+    double total = 0;
+    int i = 0;
+    for (Map.Entry<T, Double> e : super.entrySet()) {
+      keys[i] = e.getKey();
+      prob[i] = e.getValue();
+      total += prob[i++];
+    }
+
+    // scale so the average column holds 1.0, then top up each under-full column from a full one
+    int[] small = new int[n];
+    int[] large = new int[n];
+    int ns = 0;
+    int nl = 0;
+    for (i = 0; i < n; i++) {
+      prob[i] *= n / total;
+      if (prob[i] < 1.0) {
+        small[ns++] = i;
+      } else {
+        large[nl++] = i;
+      }
+    }
+    while (ns > 0 && nl > 0) {
+      int s = small[--ns];
+      int l = large[--nl];
+      alias[s] = l;
+      prob[l] -= 1.0 - prob[s];
+      if (prob[l] < 1.0) {
+        small[ns++] = l;
+      } else {
+        large[nl++] = l;
+      }
+    }
+    // whatever is left is 1.0 up to rounding error
+    while (nl > 0) {
+      prob[large[--nl]] = 1.0;
+    }
+    while (ns > 0) {
+      prob[small[--ns]] = 1.0;
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public T sample(Random rng) {
+    int n = keys.length;
+    if (n == 0) {
+      return null;
+    }
+    double u = rng.nextDouble() * n;
+    int i = (int) u;
+    return (T) (u - i < prob[i] ? keys[i] : keys[alias[i]]);
+  }
+
+  @Override
+  public FrozenDistribution<T> freeze() {
+    return this;
+  }
+
+  private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+    in.defaultReadObject();
+    build();
+  }
+
+  // read-only Map views and mutators
+
+  @Override
+  public Set<Entry<T, Double>> entrySet() {
+    final Set<Entry<T, Double>> entries = super.entrySet();
+    return new AbstractSet<Entry<T, Double>>() {
+      @Override
+      public int size() {
+        return entries.size();
+      }
+
+      @Override
+      public Iterator<Entry<T, Double>> iterator() {
+        final Iterator<Entry<T, Double>> it = entries.iterator();
+        return new Iterator<Entry<T, Double>>() {
+          @Override
+          public boolean hasNext() {
+            return it.hasNext();
+          }
+
+          @Override
+          public Entry<T, Double> next() {
+            return new SimpleImmutableEntry<T, Double>(it.next());
+          }
+        };
+      }
+    };
+  }
+
+  @Override
+  public Collection<Double> values() {
+    return Collections.unmodifiableCollection(super.values());
+  }
+
+  @Override
+  public Double put(T key, Double value) {
+    throw new UnsupportedOperationException("FrozenDistribution is immutable");
+  }
+
+  @Override
+  public void putAll(Map<? extends T, ? extends Double> m) {
+    throw new UnsupportedOperationException("FrozenDistribution is immutable");
+  }
+
+  @Override
+  public Double remove(Object key) {
+    throw new UnsupportedOperationException("FrozenDistribution is immutable");
+  }
+
+  @Override
+  public boolean remove(Object key, Object value) {
+    throw new UnsupportedOperationException("FrozenDistribution is immutable");
+  }
+
+  @Override
+  public void clear() {
+    throw new UnsupportedOperationException("FrozenDistribution is immutable");
+  }
+
+  @Override
+  public Double putIfAbsent(T key, Double value) {
+    throw new UnsupportedOperationException("FrozenDistribution is immutable");
+  }
+
+  @Override
+  public boolean replace(T key, Double oldValue, Double newValue) {
+    throw new UnsupportedOperationException("FrozenDistribution is immutable");
+  }
+
+  @Override
+  public Double replace(T key, Double value) {
+    throw new UnsupportedOperationException("FrozenDistribution is immutable");
+  }
+
+  @Override
+  public void replaceAll(BiFunction<? super T, ? super Double, ? extends Double> function) {
+    throw new UnsupportedOperationException("FrozenDistribution is immutable");
+  }
+
+  @Override
+  public Double computeIfAbsent(T key, Function<? super T, ? extends Double> mappingFunction) {
+    throw new UnsupportedOperationException("FrozenDistribution is immutable");
+  }
+
+  @Override
+  public Double computeIfPresent(T key,
+      BiFunction<? super T, ? super Double, ? extends Double> remappingFunction) {
+    throw new UnsupportedOperationException("FrozenDistribution is immutable");
+  }
+
+  @Override
+  public Double compute(T key,
+      BiFunction<? super T, ? super Double, ? extends Double> remappingFunction) {
+    throw new UnsupportedOperationException("FrozenDistribution is immutable");
+  }
+
+  @Override
+  public Double merge(T key, Double value,
+      BiFunction<? super Double, ? super Double, ? extends Double> remappingFunction) {
+    throw new UnsupportedOperationException("FrozenDistribution is immutable");
+  }
+}
@@ -0,0 +1,85 @@
+package org.princehouse.mica.util;
+
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * TimerTask whose cancel() is honoured by the runtimes' schedulers (see
+ * RuntimeInterface.scheduleTask). A plain TimerTask's cancellation is private to java.util.Timer,
+ * so a TimerTask handed to the timing wheel or the simulator runs even if it has been cancelled;
+ * harness timers that may be cancelled should extend this class instead.
+ *
+ * @author lonnie
+ */
+public abstract class HarnessTimerTask extends TimerTask {
+
+  private static final int PENDING = 0;
+  private static final int STARTED = 1;
+  private static final int CANCELLED = 2;
+
+  private final AtomicInteger state = new AtomicInteger(PENDING);
+  private volatile TimingWheel.Timeout timeout = null;
+
+  /**
+   * Prevent the task from running, if it has not been started yet
+   *
+   * @return True if this call prevented the task from running
+   */
+  @Override
+  public boolean cancel() {
+    super.cancel();
+    boolean prevented = state.compareAndSet(PENDING, CANCELLED);
+    TimingWheel.Timeout t = timeout;
+    if (t != null) {
+      t.cancel();
+    }
+    return prevented;
+  }
+
+  /**
+   * @return True if cancel() was called before the task started
+   */
+  public boolean isCancelled() {
+    return state.get() == CANCELLED;
+  }
+
+  /**
+   * Run task once on the wheel, delayMS milliseconds from now. If task is a HarnessTimerTask,
+   * cancelling it also cancels the returned Timeout.
+   *
+   * @param wheel
+   * @param delayMS
+   * @param task
+   * @return
+   */
+  public static TimingWheel.Timeout schedule(TimingWheel wheel, long delayMS, TimerTask task) {
+    TimingWheel.Timeout t = wheel.schedule(delayMS, wrap(task));
+    if (task instanceof HarnessTimerTask) {
+      HarnessTimerTask h = (HarnessTimerTask) task;
+      h.timeout = t;
+      if (h.isCancelled()) {
+        t.cancel();
+      }
+    }
+    return t;
+  }
+
+  /**
+   * @param task
+   * @return Runnable that runs task, unless task is a HarnessTimerTask that has been cancelled
+   */
+  public static Runnable wrap(final TimerTask task) {
+    if (!(task instanceof HarnessTimerTask)) {
+      return task;
+    }
+    final HarnessTimerTask h = (HarnessTimerTask) task;
+    return new Runnable() {
+      @Override
+      public void run() {
+        if (h.state.compareAndSet(PENDING, STARTED)) {
+          h.run();
+        }
+      }
+    };
+  }
+}
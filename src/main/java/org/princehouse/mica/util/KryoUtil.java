@@ -1,18 +1,245 @@
 package org.princehouse.mica.util;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoException;
 import com.esotericsoftware.kryo.Serializer;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.FieldSerializer;
+import com.esotericsoftware.kryo.serializers.JavaSerializer;
+import com.esotericsoftware.kryo.util.DefaultInstantiatorStrategy;
+import com.esotericsoftware.kryo.util.ObjectMap;
+import com.esotericsoftware.kryo.util.Pool;
 import de.javakaffee.kryoserializers.EnumMapSerializer;
 import de.javakaffee.kryoserializers.EnumSetSerializer;
 import de.javakaffee.kryoserializers.KryoReflectionFactorySupport;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.EnumMap;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Random;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+import org.princehouse.mica.base.BaseProtocol;
+import org.princehouse.mica.base.model.RuntimeState;
+import org.princehouse.mica.base.net.tcpip.TCPAddress;
+import org.princehouse.mica.base.simple.WriteSet;
+import org.princehouse.mica.lib.abstractions.MergeCorrelated;
+import org.princehouse.mica.lib.abstractions.MergeIndependent;
+import org.princehouse.mica.lib.abstractions.MergeSelectionCase;
+import org.princehouse.mica.lib.abstractions.MergeShuffle;
 
 public class KryoUtil {
 
+  /**
+   * Key in Kryo.getContext() of the mark given to the protocol instances read, like
+   * MarkingObjectInputStream.getMark()
+   */
+  public static final String FOREIGN_MARK = "mica.foreignMark";
+
+  // Kryo returns its context maps as raw ObjectMaps
+  @SuppressWarnings("unchecked")
+  static ObjectMap<Object, Object> context(Kryo kryo) {
+    return (ObjectMap<Object, Object>) kryo.getContext();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static ObjectMap<Object, Object> graphContext(Kryo kryo) {
+    return (ObjectMap<Object, Object>) kryo.getGraphContext();
+  }
+
+  /**
+   * Classes registered with every Kryo instance, in this order, so that peers agree on their ids.
+   * Unregistered classes are written by name.
+   */
+  private static final Class<?>[] REGISTERED = new Class<?>[]{Object[].class, byte[].class,
+      int[].class, double[].class, ArrayList.class, LinkedList.class, HashMap.class, HashSet.class,
+      Random.class, SplitMixRandom.class, TCPAddress.class, AddressIntMap.class, RuntimeState.class,
+      Distribution.class, MergeSelectionCase.class, MergeCorrelated.class, MergeIndependent.class,
+      MergeShuffle.class, WriteSet.class};
+
+  /**
+   * Kryo configured for MiCA object graphs: shared and cyclic references are preserved, classes
+   * without a no-arg constructor can be read, and the core classes are registered
+   *
+   * @return
+   */
   public static Kryo defaultKryo() {
-    return new Kryo();
-    // return reflectionKryo();
+    Kryo k = new MicaKryo();
+    k.setRegistrationRequired(false);
+    k.setReferences(true);
+    k.setInstantiatorStrategy(new DefaultInstantiatorStrategy(new StdInstantiatorStrategy()));
+    k.addDefaultSerializer(Distribution.class, new DistributionSerializer());
+    for (Class<?> c : REGISTERED) {
+      k.register(c);
+    }
+    return k;
+  }
+
+  /**
+   * A Kryo instance with reusable buffers, from pool
+   */
+  public static class PooledKryo {
+
+    public final Kryo kryo = defaultKryo();
+    public final Output output = new Output(4096, -1);
+    public final Input input = new Input();
+  }
+
+  /**
+   * Kryo instances are expensive to create and not thread-safe; each serialization borrows one
+   * from the pool and frees it afterwards
+   */
+  public static final Pool<PooledKryo> pool = new Pool<PooledKryo>(true, true, 64) {
+    @Override
+    protected PooledKryo create() {
+      return new PooledKryo();
+    }
+  };
+
+  private static class MicaKryo extends Kryo {
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public Serializer getDefaultSerializer(Class type) {
+      // collections without a no-arg constructor (unmodifiable views, Arrays.asList, ...) cannot be
+      // rebuilt element by element
+      if (SerializableClasses.isJdk(type) && (Collection.class.isAssignableFrom(type) || Map.class.isAssignableFrom(
+          type)) && !hasPublicNoArgConstructor(type)) {
+        return new MarkingJavaSerializer();
+      }
+      return super.getDefaultSerializer(type);
+    }
+
+    // called for classes that no default serializer covers
+    @SuppressWarnings("rawtypes")
+    @Override
+    protected Serializer newDefaultSerializer(Class type) {
+      if (SerializableClasses.isJdk(type)
+          || SerializableClasses.customizesSerialization(type)) {
+        // JDK internals are not accessible to FieldSerializer
+        return new MarkingJavaSerializer();
+      }
+      if (BaseProtocol.class.isAssignableFrom(type)) {
+        @SuppressWarnings("unchecked")
+        Class<Object> k = type;
+        return new ProtocolSerializer<Object>(this, k);
+      }
+      return super.newDefaultSerializer(type);
+    }
+  }
+
+  /**
+   * Entries as (key, double) pairs. MapSerializer cannot be used: Distribution has one type
+   * parameter where Map has two.
+   */
+  @SuppressWarnings("rawtypes")
+  private static class DistributionSerializer extends Serializer<Distribution> {
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public void write(Kryo kryo, Output output, Distribution d) {
+      output.writeVarInt(d.size(), true);
+      for (Map.Entry<Object, Double> e : ((Distribution<Object>) d).entrySet()) {
+        kryo.writeClassAndObject(output, e.getKey());
+        output.writeDouble(e.getValue());
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Distribution read(Kryo kryo, Input input, Class<? extends Distribution> type) {
+      // immutable distributions are read into a mutable one and then converted; their keys
+      // cannot refer back to them, so registering the reference afterwards is safe
+      boolean immutable = (type == FrozenDistribution.class || type == ArrayDistribution.class);
+      Distribution<Object> d = (immutable ? new Distribution<Object>() : kryo.newInstance(type));
+      if (!immutable) {
+        kryo.reference(d);
+      }
+      int n = input.readVarInt(true);
+      for (int i = 0; i < n; i++) {
+        Object key = kryo.readClassAndObject(input);
+        d.put(key, input.readDouble());
+      }
+      if (type == FrozenDistribution.class) {
+        return d.freeze();
+      } else if (type == ArrayDistribution.class) {
+        return new ArrayDistribution<Object>(d);
+      }
+      return d;
+    }
+  }
+
+  /**
+   * Does what BaseProtocol.readObject does for MarkingObjectInputStream
+   */
+  private static class ProtocolSerializer<T> extends FieldSerializer<T> {
+
+    private ProtocolSerializer(Kryo kryo, Class<T> type) {
+      super(kryo, type);
+    }
+
+    @Override
+    public T read(Kryo kryo, Input input, Class<? extends T> type) {
+      T p = super.read(kryo, input, type);
+      Object mark = context(kryo).get(FOREIGN_MARK);
+      if (mark != null && p instanceof BaseProtocol) {
+        ((BaseProtocol) p).setForeignMark(mark);
+      }
+      return p;
+    }
+  }
+
+  /**
+   * JavaSerializer whose object streams stamp the protocol instances they read, so that protocols
+   * inside Java-serialized objects get the same mark as the rest of the message
+   */
+  private static class MarkingJavaSerializer extends JavaSerializer {
+
+    @SuppressWarnings("rawtypes")
+    @Override
+    public Object read(final Kryo kryo, Input input, Class type) {
+      Object mark = context(kryo).get(FOREIGN_MARK);
+      if (mark == null) {
+        return super.read(kryo, input, type);
+      }
+      try {
+        ObjectMap<Object, Object> graphContext = graphContext(kryo);
+        ObjectInputStream in = (ObjectInputStream) graphContext.get(this);
+        if (in == null) {
+          in = new MarkingObjectInputStream(input, mark) {
+            @Override
+            protected Class<?> resolveClass(ObjectStreamClass desc)
+                throws IOException, ClassNotFoundException {
+              try {
+                return Class.forName(desc.getName(), false, kryo.getClassLoader());
+              } catch (ClassNotFoundException e) {
+                return super.resolveClass(desc);
+              }
+            }
+          };
+          graphContext.put(this, in);
+        }
+        return in.readObject();
+      } catch (Exception e) {
+        throw new KryoException("Error during Java deserialization.", e);
+      }
+    }
+  }
+
+  private static boolean hasPublicNoArgConstructor(Class<?> c) {
+    try {
+      return Modifier.isPublic(c.getModifiers()) && c.getConstructor() != null;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
   }
 
   public static Kryo reflectionKryo() {
@@ -22,7 +22,7 @@ import org.princehouse.mica.base.net.model.Address;
 /**
  * Contains subclasses for custom log events
  * <p>
- * Note: The "current" preferences for logging are stored in LogFlag.currentLogMask
+ * Note: The "current" preferences for logging come from LogFlag.getCurrentLogMask()
  *
  * @author lonnie
  */
@@ -4,16 +4,31 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 
+/**
+ * ObjectInputStream that stamps every BaseProtocol it reads with the same mark (see
+ * BaseProtocol.getForeignMark), so that the receiver of a message can tell the sender's protocol
+ * instances from its own without walking the object graph.
+ */
 public class MarkingObjectInputStream extends ObjectInputStream {
 
-  private WeakHashSet<Object> foreignObjectSet = new WeakHashSet<Object>();
+  private final Object mark;
 
-  public WeakHashSet<Object> getForeignObjectSet() {
-    return foreignObjectSet;
+  public Object getMark() {
+    return mark;
   }
 
   public MarkingObjectInputStream(InputStream in) throws IOException {
+    this(in, new Object());
+  }
+
+  /**
+   * @param in
+   * @param mark Mark shared with the rest of the message this stream is part of
+   * @throws IOException
+   */
+  public MarkingObjectInputStream(InputStream in, Object mark) throws IOException {
     super(in);
+    this.mark = mark;
   }
 
 }
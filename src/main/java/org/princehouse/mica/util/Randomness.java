@@ -133,6 +133,9 @@ public class Randomness {
    * @return
    */
   static public long getSeed(Random random) {
+    if (random instanceof SplitMixRandom) {
+      return ((SplitMixRandom) random).getState();
+    }
     byte[] ba0, ba1, bar;
     try {
       ByteArrayOutputStream baos = new ByteArrayOutputStream(128);
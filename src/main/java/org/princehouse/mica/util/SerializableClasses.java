@@ -0,0 +1,86 @@
+package org.princehouse.mica.util;
+
+import java.io.Externalizable;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import org.objenesis.Objenesis;
+import org.objenesis.ObjenesisException;
+import org.objenesis.ObjenesisSerializer;
+import org.objenesis.instantiator.ObjectInstantiator;
+import org.princehouse.mica.base.BaseProtocol;
+
+/**
+ * What the serializers and communication pattern agents need to know about Serializable classes,
+ * independent of any one serializer.
+ *
+ * @author lonnie
+ */
+public class SerializableClasses {
+
+  // caches an instantiator per class
+  private static final Objenesis objenesis = new ObjenesisSerializer();
+
+  /**
+   * Constructs instances of k the way Java deserialization does: the fields of k and its
+   * Serializable superclasses keep their default values, and only the no-arg constructor of the
+   * first superclass that is not Serializable runs.
+   *
+   * @param k
+   * @return
+   * @throws ObjenesisException If k is not Serializable, or that superclass has no no-arg
+   *                            constructor
+   */
+  public static <T> ObjectInstantiator<T> instantiator(Class<T> k) {
+    return objenesis.getInstantiatorOf(k);
+  }
+
+  /**
+   * @param c
+   * @return True if c, or c's element type, belongs to the JDK
+   */
+  public static boolean isJdk(Class<?> c) {
+    String name = (c.isArray() ? c.getComponentType() : c).getName();
+    return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.")
+        || name.startsWith("jdk.");
+  }
+
+  /**
+   * The one test of custom serialized forms shared by the serializers and the communication pattern
+   * agents, so they agree on which classes they may take apart field by field.
+   * <p>
+   * BaseProtocol is exempt: its readObject only marks the protocol instances read, which the
+   * serializers and agents do themselves. Hooks declared by BaseProtocol's subclasses do count.
+   *
+   * @param c
+   * @return True if c is Externalizable or c or one of its superclasses below BaseProtocol declares
+   * a Java serialization hook (writeObject, readObject, readObjectNoData, writeReplace or
+   * readResolve)
+   */
+  public static boolean customizesSerialization(Class<?> c) {
+    if (Externalizable.class.isAssignableFrom(c)) {
+      return true;
+    }
+    for (Class<?> k = c; k != null && k != Object.class; k = k.getSuperclass()) {
+      if (k == BaseProtocol.class) {
+        break;
+      }
+      if (declares(k, "writeObject", ObjectOutputStream.class) || declares(k, "readObject",
+          ObjectInputStream.class) || declares(k, "readObjectNoData") || declares(k,
+          "writeReplace") || declares(k, "readResolve")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean declares(Class<?> c, String name, Class<?>... parameterTypes) {
+    try {
+      return c.getDeclaredMethod(name, parameterTypes) != null;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  private SerializableClasses() {
+  }
+}
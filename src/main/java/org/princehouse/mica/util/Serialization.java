@@ -1,20 +1,20 @@
 package org.princehouse.mica.util;
 
 import com.esotericsoftware.kryo.Kryo;
-import com.esotericsoftware.kryo.KryoException;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import org.princehouse.mica.base.model.MiCA;
-//import com.sun.xml.internal.messaging.saaj.util.ByteOutputStream;
+import org.princehouse.mica.util.codec.Codecs;
 
 public class Serialization {
 
+  private static final byte[] EMPTY = new byte[0];
+
   public static byte[] serializeJava(Serializable obj) {
     ByteArrayOutputStream buffer = new ByteArrayOutputStream();
     try {
@@ -26,8 +26,18 @@ public class Serialization {
   }
 
   public static Serializable deserializeJava(byte[] data) {
+    return deserializeJava(data, new Object());
+  }
+
+  /**
+   * @param data
+   * @param mark Given to the protocol instances read (see MarkingObjectInputStream)
+   * @return
+   */
+  public static Serializable deserializeJava(byte[] data, Object mark) {
     try {
-      return (Serializable) new ObjectInputStream(new ByteArrayInputStream(data)).readObject();
+      return (Serializable) new MarkingObjectInputStream(new ByteArrayInputStream(data), mark)
+          .readObject();
     } catch (ClassNotFoundException e) {
       throw new RuntimeException(e);
     } catch (IOException e) {
@@ -36,40 +46,53 @@ public class Serialization {
   }
 
   public static byte[] serializeKryo(Serializable obj) {
-    return serializeKryo(obj, getKryo());
+    KryoUtil.PooledKryo k = KryoUtil.pool.obtain();
+    try {
+      k.output.reset();
+      k.kryo.writeClassAndObject(k.output, obj);
+      return k.output.toBytes();
+    } finally {
+      KryoUtil.pool.free(k);
+    }
   }
 
   public static byte[] serializeKryo(Serializable obj, Kryo k) {
-    // Note: ByteOutputStream is specific to Oracle's JDK. Will not work with OpenJDK.
-    // FIXME: Replace with something better supported
-    // TODO
-    //throw new UnsupportedOperationException("Kryo serialization is currently broken");
-    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-    Output output = new Output(buffer);
-    try {
-      k.writeClassAndObject(output, obj);
-    } catch (KryoException ke) {
-      throw ke;
-    }
-    output.close();
-    byte[] bytes = buffer.toByteArray();
-    assert (bytes != null);
-    return bytes;
+    Output output = new Output(4096, -1);
+    k.writeClassAndObject(output, obj);
+    return output.toBytes();
   }
 
+  /**
+   * Deserialize with Kryo. Protocol instances read are stamped with a new mark, like
+   * MarkingObjectInputStream does
+   *
+   * @param data
+   * @return
+   */
   public static Serializable deserializeKryo(byte[] data) {
-    return deserializeKryo(data, getKryo());
+    KryoUtil.PooledKryo k = KryoUtil.pool.obtain();
+    try {
+      KryoUtil.context(k.kryo).put(KryoUtil.FOREIGN_MARK, new Object());
+      k.input.setBuffer(data);
+      return (Serializable) k.kryo.readClassAndObject(k.input);
+    } finally {
+      KryoUtil.context(k.kryo).remove(KryoUtil.FOREIGN_MARK);
+      // don't hold on to the message
+      k.input.setBuffer(EMPTY);
+      KryoUtil.pool.free(k);
+    }
   }
 
   public static Serializable deserializeKryo(byte[] data, Kryo k) {
+    return (Serializable) k.readClassAndObject(new Input(data));
+  }
 
-    try {
-      Serializable obj = (Serializable) k
-          .readClassAndObject(new Input(new ByteArrayInputStream(data)));
-      return obj;
-    } catch (KryoException ke) {
-      throw ke;
-    }
+  public static byte[] serializeCodec(Serializable obj) {
+    return Codecs.serialize(obj);
+  }
+
+  public static Serializable deserializeCodec(byte[] data) {
+    return Codecs.deserialize(data);
   }
 
   public static byte[] serializeDefault(Serializable obj) {
@@ -78,6 +101,8 @@ public class Serialization {
       return serializeJava(obj);
     } else if (sOpt.equals("kryo")) {
       return serializeKryo(obj);
+    } else if (sOpt.equals("codec")) {
+      return serializeCodec(obj);
     } else {
       throw new RuntimeException("unrecognized default serializer option: " + sOpt);
     }
@@ -89,22 +114,12 @@ public class Serialization {
       return deserializeJava(data); // fixme
     } else if (sOpt.equals("kryo")) {
       return deserializeKryo(data);
+    } else if (sOpt.equals("codec")) {
+      return deserializeCodec(data);
     } else {
       throw new RuntimeException("unrecognized default serializer option: " + sOpt);
     }
 
   }
 
-  private static ThreadLocal<Kryo> kryo = new ThreadLocal<Kryo>();
-
-  private static Kryo getKryo() {
-    if (kryo.get() == null) {
-      Kryo k = KryoUtil.defaultKryo();
-      kryo.set(k);
-      return k;
-    } else {
-      return kryo.get();
-    }
-  }
-
 }
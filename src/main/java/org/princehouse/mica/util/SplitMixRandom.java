@@ -0,0 +1,125 @@
+package org.princehouse.mica.util;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoSerializable;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Random;
+
+/**
+ * A Random whose entire state is one long, advanced by the SplitMix64 generator (the algorithm of
+ * java.util.SplittableRandom).
+ * <p>
+ * RuntimeState travels with every gossip exchange. A serialized java.util.Random carries its class
+ * description and three fields; this serializes as the 8-byte state.
+ * <p>
+ * Values from nextGaussian are not cached across serialization, unlike java.util.Random's.
+ *
+ * @author lonnie
+ */
+public class SplitMixRandom extends Random implements Externalizable, KryoSerializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private static final long GAMMA = 0x9e3779b97f4a7c15L;
+
+  // assigned by setSeed, which Random's constructor calls; an initializer here would overwrite it
+  private long state;
+
+  // nextGaussian's second value, cleared by setSeed (Random's own cache is not)
+  private double nextNextGaussian;
+  private boolean haveNextNextGaussian;
+
+  /**
+   * Randomly seeded
+   */
+  public SplitMixRandom() {
+    super();
+  }
+
+  public SplitMixRandom(long seed) {
+    super(seed);
+  }
+
+  @Override
+  public synchronized void setSeed(long seed) {
+    state = seed;
+    haveNextNextGaussian = false;
+  }
+
+  /**
+   * @return The current state; a SplitMixRandom seeded with it continues the same sequence
+   */
+  public synchronized long getState() {
+    return state;
+  }
+
+  private synchronized long nextState() {
+    state += GAMMA;
+    return state;
+  }
+
+  private static long mix64(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  @Override
+  protected int next(int bits) {
+    return (int) (mix64(nextState()) >>> (64 - bits));
+  }
+
+  @Override
+  public long nextLong() {
+    return mix64(nextState());
+  }
+
+  /**
+   * Random's polar method, with a cache that setSeed clears, so a reseeded generator repeats its
+   * Gaussians too
+   */
+  @Override
+  public synchronized double nextGaussian() {
+    if (haveNextNextGaussian) {
+      haveNextNextGaussian = false;
+      return nextNextGaussian;
+    }
+    double v1;
+    double v2;
+    double s;
+    do {
+      v1 = 2 * nextDouble() - 1;
+      v2 = 2 * nextDouble() - 1;
+      s = v1 * v1 + v2 * v2;
+    } while (s >= 1 || s == 0);
+    double multiplier = StrictMath.sqrt(-2 * StrictMath.log(s) / s);
+    nextNextGaussian = v2 * multiplier;
+    haveNextNextGaussian = true;
+    return v1 * multiplier;
+  }
+
+  @Override
+  public void writeExternal(ObjectOutput out) throws IOException {
+    out.writeLong(getState());
+  }
+
+  @Override
+  public void readExternal(ObjectInput in) throws IOException {
+    setSeed(in.readLong());
+  }
+
+  @Override
+  public void write(Kryo kryo, Output output) {
+    output.writeLong(getState());
+  }
+
+  @Override
+  public void read(Kryo kryo, Input input) {
+    setSeed(input.readLong());
+  }
+}
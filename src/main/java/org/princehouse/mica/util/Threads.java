@@ -0,0 +1,127 @@
+package org.princehouse.mica.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the threads that run SimpleRuntime nodes and handle incoming gossip.
+ * <p>
+ * In virtual mode (MicaOptions.threads), each node's gossip loop and each accepted exchange runs
+ * on its own virtual thread, so that tens of thousands of nodes fit in one JVM. Virtual threads
+ * are looked up reflectively; on a JVM without them (before Java 21) virtual mode falls back to
+ * platform threads with a small stack, which still lets considerably more nodes share a JVM than
+ * the default stack size does.
+ * <p>
+ * Runtime code that blocks while holding a lock uses ReentrantLock rather than synchronized, so
+ * virtual threads do not pin their carrier thread.
+ *
+ * @author lonnie
+ */
+public class Threads {
+
+  /**
+   * Stack size requested for platform threads standing in for virtual threads
+   */
+  public static final long FALLBACK_STACK_BYTES = 256L << 10;
+
+  private static final Object virtualBuilder;
+  private static final Method unstarted;
+  private static final Method name;
+  private static final Method newVirtualExecutor;
+
+  static {
+    Object builder = null;
+    Method u = null;
+    Method n = null;
+    Method e = null;
+    try {
+      builder = Thread.class.getMethod("ofVirtual").invoke(null);
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      u = builderClass.getMethod("unstarted", Runnable.class);
+      n = builderClass.getMethod("name", String.class);
+      e = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+    } catch (Exception ex) {
+      builder = null;
+    }
+    virtualBuilder = builder;
+    unstarted = u;
+    name = n;
+    newVirtualExecutor = e;
+  }
+
+  private static boolean warned = false;
+
+  /**
+   * @return True if this JVM supports virtual threads
+   */
+  public static boolean virtualThreadsAvailable() {
+    return virtualBuilder != null;
+  }
+
+  private static synchronized void warnFallback() {
+    if (!warned) {
+      warned = true;
+      System.err.printf("Virtual threads are not available in Java %s; using platform threads "
+          + "with %d KB stacks\n", System.getProperty("java.version"), FALLBACK_STACK_BYTES >> 10);
+    }
+  }
+
+  /**
+   * Create a thread (not started). Virtual threads are always daemon threads.
+   *
+   * @param virtual Use a virtual thread if possible
+   * @param threadName
+   * @param daemon  For platform threads
+   * @param task
+   * @return
+   */
+  public static Thread newThread(boolean virtual, String threadName, boolean daemon,
+      Runnable task) {
+    if (virtual && virtualThreadsAvailable()) {
+      try {
+        return (Thread) unstarted.invoke(name.invoke(virtualBuilder, threadName), task);
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
+    Thread t;
+    if (virtual) {
+      warnFallback();
+      t = new Thread(null, task, threadName, FALLBACK_STACK_BYTES);
+    } else {
+      t = new Thread(task, threadName);
+    }
+    t.setDaemon(daemon);
+    return t;
+  }
+
+  /**
+   * Executor that never queues a task behind another one: each task runs on a new virtual thread,
+   * or on a cached pool of daemon platform threads (small-stack ones if virtual was requested but
+   * is not available).
+   *
+   * @param virtual Use virtual threads if possible
+   * @param prefix  Thread name prefix
+   * @return
+   */
+  public static ExecutorService newPerTaskExecutor(final boolean virtual, final String prefix) {
+    if (virtual && virtualThreadsAvailable()) {
+      try {
+        return (ExecutorService) newVirtualExecutor.invoke(null);
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }
+    final AtomicInteger count = new AtomicInteger(0);
+    return Executors.newCachedThreadPool(new ThreadFactory() {
+      @Override
+      public Thread newThread(Runnable r) {
+        return Threads.newThread(virtual, String.format("%s-%d", prefix, count.getAndIncrement()),
+            true, r);
+      }
+    });
+  }
+}
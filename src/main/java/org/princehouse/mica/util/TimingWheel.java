@@ -0,0 +1,261 @@
+package org.princehouse.mica.util;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timing wheel: runs tasks at nanoTime deadlines using a single ticker thread, however many
+ * tasks are pending. Due tasks are handed to an executor, so a task that blocks does not delay the
+ * others.
+ * <p>
+ * The wheel is an array of buckets, each covering one tick. A task goes into the bucket of the tick
+ * in which its deadline falls, along with the number of full turns of the wheel still to wait.
+ * Ticks are counted from the wheel's start time rather than from the previous tick, so the ticker
+ * does not drift. Deadlines are absolute: a periodic task that reschedules itself at previous
+ * deadline + period does not accumulate its own delays either.
+ * <p>
+ * Lateness (the time between a task's deadline and the moment it starts running) is recorded in a
+ * histogram; see getLateness().
+ *
+ * @author lonnie
+ */
+public class TimingWheel {
+
+  /**
+   * Handle of a scheduled task
+   */
+  public static class Timeout {
+
+    private final long deadline;
+    private final Runnable task;
+    private long rounds = 0;
+    private volatile boolean cancelled = false;
+
+    private Timeout(long deadline, Runnable task) {
+      this.deadline = deadline;
+      this.task = task;
+    }
+
+    /**
+     * Prevent the task from running, if it has not been started yet
+     */
+    public void cancel() {
+      cancelled = true;
+    }
+
+    /**
+     * @return Deadline (System.nanoTime() time base)
+     */
+    public long getDeadline() {
+      return deadline;
+    }
+  }
+
+  /**
+   * Snapshot of the lateness histogram. Percentiles are upper bounds with power-of-two
+   * resolution.
+   */
+  public static class Lateness {
+
+    public final long count;
+    public final double meanMicros;
+    public final long maxMicros;
+    public final long p50Micros;
+    public final long p99Micros;
+
+    private Lateness(long count, double meanMicros, long maxMicros, long p50Micros,
+        long p99Micros) {
+      this.count = count;
+      this.meanMicros = meanMicros;
+      this.maxMicros = maxMicros;
+      this.p50Micros = p50Micros;
+      this.p99Micros = p99Micros;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%d tasks, lateness mean %.0f us, p50 <= %d us, p99 <= %d us, max %d us",
+          count, meanMicros, p50Micros, p99Micros, maxMicros);
+    }
+  }
+
+  public static final long DEFAULT_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+  public static final int DEFAULT_WHEEL_SIZE = 512;
+
+  private static final int HISTOGRAM_BUCKETS = 48;
+
+  private final long tickNanos;
+  private final int mask;
+  private final LinkedList<Timeout>[] wheel;
+  private final Executor executor;
+  private final ConcurrentLinkedQueue<Timeout> pending = new ConcurrentLinkedQueue<Timeout>();
+  private final long startNanos = System.nanoTime();
+  private final Thread ticker;
+  private volatile boolean running = true;
+
+  // lateness histogram: bucket i counts lateness in [2^(i-1), 2^i) microseconds
+  private final AtomicLongArray histogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+  private final AtomicLong latenessCount = new AtomicLong();
+  private final AtomicLong latenessSumMicros = new AtomicLong();
+  private final AtomicLong latenessMaxMicros = new AtomicLong();
+
+  public TimingWheel(Executor executor) {
+    this(executor, DEFAULT_TICK_NANOS, DEFAULT_WHEEL_SIZE);
+  }
+
+  /**
+   * @param executor  Runs due tasks
+   * @param tickNanos Resolution
+   * @param wheelSize Number of buckets; rounded up to a power of two
+   */
+  public TimingWheel(Executor executor, long tickNanos, int wheelSize) {
+    this.executor = executor;
+    this.tickNanos = tickNanos;
+    int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+    mask = size - 1;
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    LinkedList<Timeout>[] buckets = new LinkedList[size];
+    wheel = buckets;
+    for (int i = 0; i < size; i++) {
+      wheel[i] = new LinkedList<Timeout>();
+    }
+    ticker = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        tickLoop();
+      }
+    }, "mica-timing-wheel");
+    ticker.setDaemon(true);
+    ticker.start();
+  }
+
+  /**
+   * Run task once delayMS milliseconds from now
+   *
+   * @param delayMS
+   * @param task
+   * @return
+   */
+  public Timeout schedule(long delayMS, Runnable task) {
+    return scheduleAt(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0L, delayMS)),
+        task);
+  }
+
+  /**
+   * Run task once at deadline, in the System.nanoTime() time base. Deadlines in the past run at the
+   * next tick.
+   *
+   * @param deadline
+   * @param task
+   * @return
+   */
+  public Timeout scheduleAt(long deadline, Runnable task) {
+    Timeout t = new Timeout(deadline, task);
+    pending.add(t);
+    return t;
+  }
+
+  /**
+   * Stop the ticker. Pending tasks are dropped.
+   */
+  public void stop() {
+    running = false;
+    ticker.interrupt();
+  }
+
+  /**
+   * @return Lateness of all tasks run so far
+   */
+  public Lateness getLateness() {
+    long count = latenessCount.get();
+    return new Lateness(count, count == 0 ? 0.0 : ((double) latenessSumMicros.get()) / count,
+        latenessMaxMicros.get(), percentile(count, 0.5), percentile(count, 0.99));
+  }
+
+  private long percentile(long count, double q) {
+    long target = (long) Math.ceil(count * q);
+    long seen = 0;
+    for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+      seen += histogram.get(i);
+      if (seen >= target && seen > 0) {
+        return (1L << i) - 1;
+      }
+    }
+    return 0L;
+  }
+
+  private void recordLateness(long nanos) {
+    long micros = Math.max(0L, nanos / 1000L);
+    int bucket = Math.min(HISTOGRAM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    histogram.incrementAndGet(bucket);
+    latenessCount.incrementAndGet();
+    latenessSumMicros.addAndGet(micros);
+    long max;
+    while (micros > (max = latenessMaxMicros.get())) {
+      if (latenessMaxMicros.compareAndSet(max, micros)) {
+        break;
+      }
+    }
+  }
+
+  private void tickLoop() {
+    long tick = 0;
+    while (running) {
+      // end of this tick, measured from the start so that ticks do not drift
+      long tickEnd = startNanos + (tick + 1) * tickNanos;
+      long wait;
+      while ((wait = tickEnd - System.nanoTime()) > 0) {
+        LockSupport.parkNanos(wait);
+        if (!running) {
+          return;
+        }
+      }
+      transferPending(tick);
+      expire(wheel[(int) (tick & mask)]);
+      tick++;
+    }
+  }
+
+  private void transferPending(long tick) {
+    Timeout t;
+    while ((t = pending.poll()) != null) {
+      if (t.cancelled) {
+        continue;
+      }
+      long due = (t.deadline - startNanos + tickNanos - 1) / tickNanos - 1;
+      due = Math.max(due, tick);
+      t.rounds = (due - tick) / wheel.length;
+      wheel[(int) (due & mask)].add(t);
+    }
+  }
+
+  private void expire(LinkedList<Timeout> bucket) {
+    Iterator<Timeout> it = bucket.iterator();
+    while (it.hasNext()) {
+      final Timeout t = it.next();
+      if (t.cancelled) {
+        it.remove();
+      } else if (t.rounds <= 0) {
+        it.remove();
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            if (t.cancelled) {
+              return;
+            }
+            recordLateness(System.nanoTime() - t.deadline);
+            t.task.run();
+          }
+        });
+      } else {
+        t.rounds--;
+      }
+    }
+  }
+}
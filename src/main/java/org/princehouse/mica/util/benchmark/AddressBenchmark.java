@@ -0,0 +1,183 @@
+package org.princehouse.mica.util.benchmark;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.princehouse.mica.base.net.model.AcceptConnectionHandler;
+import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.net.model.Connection;
+import org.princehouse.mica.base.net.tcpip.TCPAddress;
+import org.princehouse.mica.util.AddressIntMap;
+
+/**
+ * Cost of the Address operations the library does most: map lookups keyed by address (failure
+ * detector records, views) and sorting/comparison (leader election, sorted views).
+ * <p>
+ * Three variants are measured: the legacy TCPAddress behaviour, which formatted toString() on
+ * every hashCode and compareTo call; TCPAddress as it is now, with a cached hash and sort key; and
+ * AddressIntMap, which looks up by interned address ID without boxing.
+ * <p>
+ * Usage: AddressBenchmark [n ...] (default 16 256 4096)
+ *
+ * @author lonnie
+ */
+public class AddressBenchmark {
+
+  private static final int LOOKUPS = 1000000;
+
+  // TCPAddress with the hashCode/compareTo it had before they were cached
+  private static class LegacyAddress implements Address {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TCPAddress a;
+
+    public LegacyAddress(TCPAddress a) {
+      this.a = a;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof LegacyAddress && a.equals(((LegacyAddress) o).a);
+    }
+
+    @Override
+    public int hashCode() {
+      return toString().hashCode();
+    }
+
+    @Override
+    public int compareTo(Address o) {
+      return toString().compareTo(o.toString());
+    }
+
+    @Override
+    public String toString() {
+      return a.toString();
+    }
+
+    @Override
+    public void bind(AcceptConnectionHandler h) throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void unbind() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Connection openConnection() throws IOException {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private static List<TCPAddress> addresses(int n) throws UnknownHostException {
+    List<TCPAddress> addresses = new ArrayList<TCPAddress>();
+    for (int i = 0; i < n; i++) {
+      addresses.add(TCPAddress.valueOf(new byte[]{10, 0, (byte) (i >> 8), (byte) i}, 8000 + i));
+    }
+    return addresses;
+  }
+
+  // lookup keys, as fresh copies so no identity shortcut in equals applies
+  private static Address[] probes(List<TCPAddress> keys, boolean legacy)
+      throws UnknownHostException {
+    Random rng = new Random(0L);
+    Address[] probes = new Address[LOOKUPS];
+    for (int i = 0; i < probes.length; i++) {
+      TCPAddress a = keys.get(rng.nextInt(keys.size()));
+      TCPAddress copy = TCPAddress.valueOf(a.getInetAddressAddress().getAddress(), a.getPort());
+      probes[i] = legacy ? new LegacyAddress(copy) : copy;
+    }
+    return probes;
+  }
+
+  private static double mapLookup(final Map<Address, Integer> map, final Address[] probes) {
+    long nanos = Benchmark.best(2, 5, new Runnable() {
+      @Override
+      public void run() {
+        long sum = 0;
+        for (Address a : probes) {
+          sum += map.get(a);
+        }
+        Benchmark.consume(sum);
+      }
+    });
+    return Benchmark.nanosPerOp(probes.length, nanos);
+  }
+
+  private static double intMapLookup(final AddressIntMap map, final Address[] probes) {
+    long nanos = Benchmark.best(2, 5, new Runnable() {
+      @Override
+      public void run() {
+        long sum = 0;
+        for (Address a : probes) {
+          sum += map.getInt(a, 0);
+        }
+        Benchmark.consume(sum);
+      }
+    });
+    return Benchmark.nanosPerOp(probes.length, nanos);
+  }
+
+  private static double sort(final List<? extends Address> keys) {
+    final List<Address> shuffled = new ArrayList<Address>(keys);
+    final int reps = Math.max(1, 200000 / keys.size());
+    long nanos = Benchmark.best(2, 5, new Runnable() {
+      @Override
+      public void run() {
+        Random rng = new Random(0L);
+        for (int i = 0; i < reps; i++) {
+          Collections.shuffle(shuffled, rng);
+          Collections.sort(shuffled);
+        }
+        Benchmark.consume(shuffled.get(0));
+      }
+    });
+    return Benchmark.nanosPerOp((long) reps * keys.size(), nanos);
+  }
+
+  public static void main(String[] args) throws UnknownHostException {
+    int[] sizes = {16, 256, 4096};
+    if (args.length > 0) {
+      sizes = new int[args.length];
+      for (int i = 0; i < args.length; i++) {
+        sizes[i] = Integer.parseInt(args[i]);
+      }
+    }
+
+    Benchmark.title("Address map lookup, ns/lookup");
+    Benchmark.row("n", "legacy HashMap", "cached HashMap", "AddressIntMap");
+    for (int n : sizes) {
+      List<TCPAddress> keys = addresses(n);
+      Map<Address, Integer> legacy = new HashMap<Address, Integer>();
+      Map<Address, Integer> cached = new HashMap<Address, Integer>();
+      AddressIntMap ids = new AddressIntMap();
+      for (int i = 0; i < n; i++) {
+        legacy.put(new LegacyAddress(keys.get(i)), i);
+        cached.put(keys.get(i), i);
+        ids.putInt(keys.get(i), i);
+      }
+      Address[] probes = probes(keys, false);
+      Benchmark.row(n, mapLookup(legacy, probes(keys, true)), mapLookup(cached, probes),
+          intMapLookup(ids, probes));
+    }
+
+    Benchmark.title("Address sort, ns/element");
+    Benchmark.row("n", "legacy", "cached");
+    for (int n : sizes) {
+      List<TCPAddress> keys = addresses(n);
+      List<LegacyAddress> legacyKeys = new ArrayList<LegacyAddress>();
+      for (TCPAddress a : keys) {
+        legacyKeys.add(new LegacyAddress(a));
+      }
+      Benchmark.row(n, sort(legacyKeys), sort(keys));
+    }
+  }
+}
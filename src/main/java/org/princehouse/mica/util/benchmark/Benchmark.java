@@ -0,0 +1,99 @@
+package org.princehouse.mica.util.benchmark;
+
+import java.io.PrintStream;
+
+/**
+ * Minimal timing helpers shared by the micro-benchmarks in this package. Each benchmark is a plain
+ * main class; run it with the project jar on the classpath.
+ *
+ * @author lonnie
+ */
+public class Benchmark {
+
+  public static PrintStream out = System.out;
+
+  /**
+   * Run task once and return the elapsed wall clock time in nanoseconds
+   *
+   * @param task
+   * @return
+   */
+  public static long time(Runnable task) {
+    long start = System.nanoTime();
+    task.run();
+    return System.nanoTime() - start;
+  }
+
+  /**
+   * Run task warmup times untimed, then return the best of trials timed runs, in nanoseconds
+   *
+   * @param warmup
+   * @param trials
+   * @param task
+   * @return
+   */
+  public static long best(int warmup, int trials, Runnable task) {
+    for (int i = 0; i < warmup; i++) {
+      task.run();
+    }
+    long best = Long.MAX_VALUE;
+    for (int i = 0; i < trials; i++) {
+      best = Math.min(best, time(task));
+    }
+    return best;
+  }
+
+  public static double perSecond(long ops, long nanos) {
+    return ((double) ops) * 1e9 / Math.max(1L, nanos);
+  }
+
+  public static double nanosPerOp(long ops, long nanos) {
+    return ((double) nanos) / Math.max(1L, ops);
+  }
+
+  public static void title(String title) {
+    out.printf("\n== %s ==\n", title);
+  }
+
+  /**
+   * Print a row of a fixed-width table. All cells are right-aligned.
+   *
+   * @param cells
+   */
+  public static void row(Object... cells) {
+    StringBuilder sb = new StringBuilder();
+    for (Object cell : cells) {
+      if (cell instanceof Double || cell instanceof Float) {
+        sb.append(String.format("%16.2f", cell));
+      } else if (cell instanceof Number) {
+        sb.append(String.format("%16d", cell));
+      } else {
+        sb.append(String.format("%16s", cell));
+      }
+    }
+    out.println(sb.toString());
+  }
+
+  /**
+   * Defeat dead code elimination by "using" a value
+   *
+   * @param o
+   */
+  public static void consume(Object o) {
+    if (o != null && System.identityHashCode(o) == 0x7fffffff) {
+      out.print("");
+    }
+  }
+
+  public static void consume(long x) {
+    if (x == 0x7fffffffffffffffL) {
+      out.print("");
+    }
+  }
+
+  public static void consume(double x) {
+    if (x == Double.MIN_VALUE) {
+      out.print("");
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package org.princehouse.mica.util.benchmark;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.util.List;
+import java.util.Random;
+import org.princehouse.mica.base.model.MiCA;
+import org.princehouse.mica.base.model.MicaOptions;
+import org.princehouse.mica.base.net.ConnectionPool;
+import org.princehouse.mica.base.net.model.AcceptConnectionHandler;
+import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.net.model.Connection;
+import org.princehouse.mica.base.net.model.NotBoundException;
+import org.princehouse.mica.base.net.tcpip.TCPAddress;
+import org.princehouse.mica.util.Functional;
+
+/**
+ * Gossip exchanges/sec over the NIO transport, opening a connection per exchange (as SimpleRuntime
+ * does by default) versus reusing pooled connections (-connectionPool).
+ * <p>
+ * A number of local peers echo each request frame back. The client runs exchanges with randomly
+ * chosen peers, one at a time, each a length-prefixed request followed by a length-prefixed
+ * response of the same size.
+ * <p>
+ * Usage: ConnectionPoolBenchmark [exchanges] [peers] [frameBytes] (default 20000 16 1024)
+ *
+ * @author lonnie
+ */
+public class ConnectionPoolBenchmark {
+
+  private static final int BASE_PORT = 9400;
+
+  private static final AcceptConnectionHandler ECHO = new AcceptConnectionHandler() {
+    @Override
+    public void acceptConnection(Address recipient, Connection connection) throws IOException {
+      DataInputStream in = new DataInputStream(connection.getInputStream());
+      byte[] frame = new byte[4 + in.readInt()];
+      in.readFully(frame, 4, frame.length - 4);
+      writeLength(frame, frame.length - 4);
+      connection.getOutputStream().write(frame);
+    }
+  };
+
+  private static void writeLength(byte[] frame, int length) {
+    frame[0] = (byte) (length >>> 24);
+    frame[1] = (byte) (length >>> 16);
+    frame[2] = (byte) (length >>> 8);
+    frame[3] = (byte) length;
+  }
+
+  private static void exchange(Connection c, byte[] request, byte[] response) throws IOException {
+    c.getOutputStream().write(request);
+    InputStream in = c.getInputStream();
+    int offset = 0;
+    while (offset < response.length) {
+      int n = in.read(response, offset, response.length - offset);
+      if (n < 0) {
+        throw new IOException("connection closed by peer");
+      }
+      offset += n;
+    }
+  }
+
+  private static long run(List<TCPAddress> peers, int exchanges, byte[] request, boolean pooled)
+      throws IOException {
+    Random rng = new Random(0L);
+    byte[] response = new byte[request.length];
+    ConnectionPool pool = new ConnectionPool(60000L);
+    long start = System.nanoTime();
+    for (int i = 0; i < exchanges; i++) {
+      TCPAddress peer = peers.get(rng.nextInt(peers.size()));
+      if (pooled) {
+        Connection c = pool.acquire(peer);
+        exchange(c, request, response);
+        pool.release(c);
+      } else {
+        Connection c = peer.openConnection();
+        exchange(c, request, response);
+        c.close();
+      }
+    }
+    long nanos = System.nanoTime() - start;
+    pool.close();
+    return nanos;
+  }
+
+  public static void main(String[] args) throws IOException, NotBoundException {
+    int exchanges = (args.length > 0 ? Integer.parseInt(args[0]) : 20000);
+    int npeers = (args.length > 1 ? Integer.parseInt(args[1]) : 16);
+    int frameBytes = (args.length > 2 ? Integer.parseInt(args[2]) : 1024);
+
+    MicaOptions options = new MicaOptions();
+    options.transport = "nio";
+    MiCA.setOptions(options);
+
+    InetAddress localhost = InetAddress.getByName("localhost");
+    List<TCPAddress> peers = Functional.list();
+    for (int i = 0; i < npeers; i++) {
+      TCPAddress a = new TCPAddress(localhost, BASE_PORT + i);
+      a.bind(ECHO);
+      peers.add(a);
+    }
+
+    byte[] request = new byte[4 + frameBytes];
+    new Random(1L).nextBytes(request);
+    writeLength(request, frameBytes);
+
+    Benchmark.title("Peer connections (NIO transport)");
+    Benchmark.row("mode", "peers", "frame bytes", "exchanges", "exchanges/s");
+    for (boolean pooled : new boolean[]{false, true}) {
+      String mode = (pooled ? "pooled" : "per exchange");
+      // warm up
+      run(peers, Math.min(exchanges, 2000), request, pooled);
+      long nanos = run(peers, exchanges, request, pooled);
+      Benchmark.row(mode, npeers, frameBytes, exchanges, Benchmark.perSecond(exchanges, nanos));
+    }
+
+    for (TCPAddress a : peers) {
+      a.unbind();
+    }
+  }
+}
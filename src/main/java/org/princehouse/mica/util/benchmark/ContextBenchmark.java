@@ -0,0 +1,202 @@
+package org.princehouse.mica.util.benchmark;
+
+import java.io.Serializable;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.princehouse.mica.base.BaseProtocol;
+import org.princehouse.mica.base.model.MiCA;
+import org.princehouse.mica.base.model.MicaOptions;
+import org.princehouse.mica.base.model.MicaRuntime;
+import org.princehouse.mica.base.model.Protocol;
+import org.princehouse.mica.base.model.RuntimeContextManager;
+import org.princehouse.mica.base.model.RuntimeState;
+import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.net.tcpip.TCPAddress;
+import org.princehouse.mica.base.simple.SimpleRuntime;
+import org.princehouse.mica.base.simple.SimpleRuntimeInterface;
+import org.princehouse.mica.lib.abstractions.MergeCorrelated;
+import org.princehouse.mica.util.Serialization;
+import org.princehouse.mica.util.reflection.FindReachableObjects;
+import org.princehouse.mica.util.reflection.RichObjectFinder;
+
+/**
+ * Per-round cost of the runtime context: the setNativeRuntime / clear pairs the runtime makes
+ * around each evaluation, and the receiver's foreign-state setup for an initiator's merge tree of n
+ * leaves (after deserialization, which is not timed), followed by one getRuntimeState per
+ * protocol in the tree. "traverse" is setForeignRuntimeState, which walks the initiator's object
+ * graph; "stamped" is setReceivedRuntimeState, which uses the mark the deserializer gave the
+ * protocols it read. The last table is the graph search itself, for leaves that carry collections
+ * (FindReachableObjects, which walks every object, vs RichObjectFinder's per-class plans).
+ * <p>
+ * Usage: ContextBenchmark [n ...] (default 4 64 1024)
+ *
+ * @author lonnie
+ */
+public class ContextBenchmark {
+
+  // SimpleRuntime sets the native runtime about this many times in a round that gossips
+  private static final int EVALUATIONS = 12;
+
+  @SuppressWarnings("serial")
+  public static class Leaf extends BaseProtocol {
+
+    public int value;
+
+    @Override
+    public void update(Protocol that) {
+    }
+  }
+
+  // a leaf carrying state that cannot contain a protocol
+  @SuppressWarnings("serial")
+  public static class Payload extends Leaf {
+
+    public Set<Integer> seen = new HashSet<Integer>();
+    public Map<Address, Double> estimates = new HashMap<Address, Double>();
+  }
+
+  private static Protocol tree(int n) {
+    List<BaseProtocol> leaves = new ArrayList<BaseProtocol>();
+    for (int i = 0; i < n; i++) {
+      leaves.add(new Leaf());
+    }
+    return MergeCorrelated.operator.merge(leaves);
+  }
+
+  private static Protocol payloadTree(int n, int payload) throws UnknownHostException {
+    List<BaseProtocol> leaves = new ArrayList<BaseProtocol>();
+    for (int i = 0; i < n; i++) {
+      Payload leaf = new Payload();
+      for (int j = 0; j < payload; j++) {
+        leaf.seen.add(j);
+        leaf.estimates.put(TCPAddress.valueOf(new byte[]{10, 0, (byte) (j >> 8), (byte) j}, 8000),
+            (double) j);
+      }
+      leaves.add(leaf);
+    }
+    return MergeCorrelated.operator.merge(leaves);
+  }
+
+  private static void protocols(Protocol p, List<Protocol> out) {
+    out.add(p);
+    if (p instanceof MergeCorrelated) {
+      protocols(((MergeCorrelated) p).getP1(), out);
+      protocols(((MergeCorrelated) p).getP2(), out);
+    }
+  }
+
+  private static double receive(final RuntimeContextManager manager, final MicaRuntime runtime,
+      final Protocol root, final RuntimeState foreignState, final List<Protocol> received,
+      final boolean stamped, final int reps) {
+    return Benchmark.nanosPerOp(reps, Benchmark.best(2, 5, new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 0; i < reps; i++) {
+          manager.setNativeRuntime(runtime);
+          if (stamped) {
+            manager.setReceivedRuntimeState(root, foreignState);
+          } else {
+            manager.setForeignRuntimeState(root, foreignState);
+          }
+          for (Protocol p : received) {
+            Benchmark.consume(p.getRuntimeState());
+          }
+          manager.clear();
+        }
+      }
+    })) / 1000.0;
+  }
+
+  private static double search(final Protocol root, final boolean planned, final int reps) {
+    return Benchmark.nanosPerOp(reps, Benchmark.best(2, 5, new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 0; i < reps; i++) {
+          if (planned) {
+            Benchmark.consume(RichObjectFinder.forType(Protocol.class).find(root));
+          } else {
+            final List<Object> found = new ArrayList<Object>();
+            new FindReachableObjects<Object>() {
+              @Override
+              public boolean match(Object obj) {
+                return obj instanceof Protocol;
+              }
+
+              @Override
+              public void add(Object obj) {
+                found.add(obj);
+              }
+            }.analyze(root);
+            Benchmark.consume(found);
+          }
+        }
+      }
+    })) / 1000.0;
+  }
+
+  public static void main(String[] args) throws UnknownHostException {
+    int[] sizes = {4, 64, 1024};
+    if (args.length > 0) {
+      sizes = new int[args.length];
+      for (int i = 0; i < args.length; i++) {
+        sizes[i] = Integer.parseInt(args[i]);
+      }
+    }
+
+    final SimpleRuntimeInterface rti = new SimpleRuntimeInterface();
+    final MicaRuntime runtime = new SimpleRuntime(TCPAddress.valueOf("127.0.0.1:8000"));
+    final RuntimeState foreignState = new RuntimeState();
+    final Protocol self = new Leaf();
+    MiCA.Context previous = MiCA.enter(new MiCA.Context(rti, new MicaOptions(), null));
+    try {
+      final RuntimeContextManager manager = rti.getRuntimeContextManager();
+
+      Benchmark.title("Runtime context, ns/op");
+      final int rounds = 200000;
+      long nanos = Benchmark.best(3, 5, new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < rounds; i++) {
+            for (int j = 0; j < EVALUATIONS; j++) {
+              manager.setNativeRuntime(runtime);
+              Benchmark.consume(self.getRuntimeState());
+              manager.clear();
+            }
+          }
+        }
+      });
+      Benchmark.row("round", "evaluations", EVALUATIONS, Benchmark.nanosPerOp(rounds, nanos));
+
+      Benchmark.title("Receiver foreign state setup + lookups, us/message");
+      Benchmark.row("n", "protocols", "traverse", "stamped", "speedup");
+      for (int n : sizes) {
+        final List<Protocol> received = new ArrayList<Protocol>();
+        final Protocol root = (Protocol) Serialization
+            .deserializeJava(Serialization.serializeJava((Serializable) tree(n)));
+        protocols(root, received);
+        final int reps = Math.max(10, 20000 / n);
+        double traverse = receive(manager, runtime, root, foreignState, received, false, reps);
+        double stamped = receive(manager, runtime, root, foreignState, received, true, reps);
+        Benchmark.row(n, received.size(), traverse, stamped, traverse / stamped);
+      }
+
+      Benchmark.title("Foreign object search, leaves holding a Set<Integer> and a Map<Address, "
+          + "Double> of 256 entries each, us/tree");
+      Benchmark.row("n", "visitor", "planned", "speedup");
+      for (int n : sizes) {
+        Protocol root = payloadTree(n, 256);
+        final int reps = Math.max(5, 2000 / n);
+        double visitor = search(root, false, reps);
+        double planned = search(root, true, reps);
+        Benchmark.row(n, visitor, planned, visitor / planned);
+      }
+    } finally {
+      MiCA.exit(previous);
+    }
+  }
+}
@@ -0,0 +1,159 @@
+package org.princehouse.mica.util.benchmark;
+
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.net.tcpip.TCPAddress;
+import org.princehouse.mica.util.Distribution;
+import org.princehouse.mica.util.FrozenDistribution;
+
+/**
+ * Cost of the Distribution operations done by the merge operators on every round, for views of n
+ * addresses.
+ * <p>
+ * "composed" is the way MergeCorrelated and MergeShuffle built their results before the fused
+ * operations existed: max(d1.scale(w), d2.scale(1 - w)).ipnormalize() for the view and
+ * max(d1.scale(r1), d2.scale(r2)).magnitude() for the rate. "fused" is Distribution.maxNormalized
+ * and Distribution.maxMagnitude, which return ArrayDistributions. The stack rows fold a four-layer
+ * merge (the shape of FourLayerTreeStack) the same two ways, so from the second layer on the fused
+ * operations read array-backed arguments. The sample rows compare Distribution.sample with
+ * FrozenDistribution.sample.
+ * <p>
+ * Usage: DistributionBenchmark [n ...] (default 16 256 4096)
+ *
+ * @author lonnie
+ */
+public class DistributionBenchmark {
+
+  private static final int LAYERS = 4;
+
+  // n addresses with random weights; consecutive layers share about half their keys
+  private static List<Distribution<Address>> views(int n) throws UnknownHostException {
+    Random rng = new Random(0L);
+    List<Distribution<Address>> views = new ArrayList<Distribution<Address>>();
+    for (int layer = 0; layer < LAYERS; layer++) {
+      Distribution<Address> d = new Distribution<Address>();
+      for (int i = 0; i < n; i++) {
+        int k = i + layer * n / 2;
+        d.put(TCPAddress.valueOf(new byte[]{10, 2, (byte) (k >> 8), (byte) k}, 8000),
+            rng.nextDouble());
+      }
+      views.add(d.ipnormalize());
+    }
+    return views;
+  }
+
+  private static double time(int ops, Runnable task) {
+    return Benchmark.nanosPerOp(ops, Benchmark.best(3, 5, task));
+  }
+
+  public static void main(String[] args) throws UnknownHostException {
+    int[] sizes = {16, 256, 4096};
+    if (args.length > 0) {
+      sizes = new int[args.length];
+      for (int i = 0; i < args.length; i++) {
+        sizes[i] = Integer.parseInt(args[i]);
+      }
+    }
+
+    Benchmark.title("Merge operations, ns/op");
+    Benchmark.row("n", "op", "composed", "fused");
+    for (int n : sizes) {
+      final List<Distribution<Address>> views = views(n);
+      final Distribution<Address> d1 = views.get(0);
+      final Distribution<Address> d2 = views.get(1);
+      final int reps = Math.max(10, 200000 / n);
+
+      double composed = time(reps, new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < reps; i++) {
+            Benchmark.consume(Distribution.max(d1.scale(0.3), d2.scale(0.7)).ipnormalize());
+          }
+        }
+      });
+      double fused = time(reps, new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < reps; i++) {
+            Benchmark.consume(Distribution.maxNormalized(d1, 0.3, d2, 0.7));
+          }
+        }
+      });
+      Benchmark.row(n, "view", composed, fused);
+
+      composed = time(reps, new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < reps; i++) {
+            Benchmark.consume(Distribution.max(d1.scale(1.0), d2.scale(2.0)).magnitude());
+          }
+        }
+      });
+      fused = time(reps, new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < reps; i++) {
+            Benchmark.consume(Distribution.maxMagnitude(d1, 1.0, d2, 2.0));
+          }
+        }
+      });
+      Benchmark.row(n, "rate", composed, fused);
+
+      composed = time(reps, new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < reps; i++) {
+            Distribution<Address> d = views.get(0);
+            for (int layer = 1; layer < LAYERS; layer++) {
+              d = Distribution.max(d.scale(0.5), views.get(layer).scale(0.5)).ipnormalize();
+            }
+            Benchmark.consume(d);
+          }
+        }
+      });
+      fused = time(reps, new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < reps; i++) {
+            Distribution<Address> d = views.get(0);
+            for (int layer = 1; layer < LAYERS; layer++) {
+              d = Distribution.maxNormalized(d, 0.5, views.get(layer), 0.5);
+            }
+            Benchmark.consume(d);
+          }
+        }
+      });
+      Benchmark.row(n, "stack", composed, fused);
+    }
+
+    Benchmark.title("Sampling, ns/sample");
+    Benchmark.row("n", "Distribution", "Frozen");
+    for (int n : sizes) {
+      final Distribution<Address> d = views(n).get(0);
+      final FrozenDistribution<Address> frozen = d.freeze();
+      final int samples = 1000000 / Math.max(1, n / 64);
+      double linear = time(samples, new Runnable() {
+        @Override
+        public void run() {
+          Random rng = new Random(0L);
+          for (int i = 0; i < samples; i++) {
+            Benchmark.consume(d.sample(rng));
+          }
+        }
+      });
+      double alias = time(samples, new Runnable() {
+        @Override
+        public void run() {
+          Random rng = new Random(0L);
+          for (int i = 0; i < samples; i++) {
+            Benchmark.consume(frozen.sample(rng));
+          }
+        }
+      });
+      Benchmark.row(n, linear, alias);
+    }
+  }
+}
@@ -0,0 +1,152 @@
+package org.princehouse.mica.util.benchmark;
+
+import java.util.LinkedList;
+import java.util.ListIterator;
+import java.util.Random;
+import org.princehouse.mica.base.exceptions.MicaException;
+import org.princehouse.mica.base.sim.EventQueue;
+import org.princehouse.mica.base.sim.Simulator;
+import org.princehouse.mica.base.sim.SimulatorEvent;
+
+/**
+ * Events/sec of the Simulator event queue under the "hold" model: n events are pending (roughly
+ * one per simulated node); each step removes the earliest event and schedules a follow-up event a
+ * random interval later. Every fourth follow-up also schedules a timeout that is cancelled right
+ * away, the way SimRound cancels lock timeouts, so lazy discard is exercised too.
+ * <p>
+ * The sorted LinkedList the Simulator used previously is measured alongside for comparison where
+ * it finishes in reasonable time.
+ * <p>
+ * Usage: EventQueueBenchmark [n ...] (default 1000 10000 100000 1000000)
+ *
+ * @author lonnie
+ */
+public class EventQueueBenchmark {
+
+  private static final int ROUND_MS = 5000;
+  private static final int LEGACY_MAX_N = 10000;
+
+  private static class HoldEvent extends SimulatorEvent {
+
+    public HoldEvent(long t) {
+      super(null);
+      this.t = t;
+    }
+
+    @Override
+    public void execute(Simulator simulator) throws MicaException {
+    }
+  }
+
+  private interface Queue {
+
+    void add(SimulatorEvent e);
+
+    SimulatorEvent poll();
+  }
+
+  private static class HeapQueue implements Queue {
+
+    private EventQueue q = new EventQueue();
+
+    @Override
+    public void add(SimulatorEvent e) {
+      q.add(e);
+    }
+
+    @Override
+    public SimulatorEvent poll() {
+      return q.poll();
+    }
+  }
+
+  // the algorithm Simulator.schedule/pollEventQueue used before EventQueue
+  private static class LegacyListQueue implements Queue {
+
+    private LinkedList<SimulatorEvent> queue = new LinkedList<SimulatorEvent>();
+
+    @Override
+    public void add(SimulatorEvent e) {
+      if (queue.size() == 0 || queue.get(0).t >= e.t) {
+        queue.add(0, e);
+        return;
+      }
+      for (ListIterator<SimulatorEvent> it = queue.listIterator(queue.size()); it.hasPrevious(); ) {
+        if (it.previous().t <= e.t) {
+          it.next();
+          it.add(e);
+          break;
+        }
+      }
+    }
+
+    @Override
+    public SimulatorEvent poll() {
+      while (queue.size() > 0) {
+        SimulatorEvent e = queue.remove(0);
+        if (!e.isCancelled()) {
+          return e;
+        }
+      }
+      return null;
+    }
+  }
+
+  private static long hold(Queue q, int n, long steps, long seed) {
+    Random rng = new Random(seed);
+    for (int i = 0; i < n; i++) {
+      q.add(new HoldEvent(rng.nextInt(ROUND_MS)));
+    }
+    long checksum = 0;
+    for (long i = 0; i < steps; i++) {
+      SimulatorEvent e = q.poll();
+      long now = e.t;
+      checksum += now;
+      q.add(new HoldEvent(now + rng.nextInt(ROUND_MS)));
+      if ((i & 3) == 0) {
+        HoldEvent timeout = new HoldEvent(now + ROUND_MS);
+        q.add(timeout);
+        timeout.cancel();
+      }
+    }
+    return checksum;
+  }
+
+  private static double eventsPerSecond(final boolean legacy, final int n, final long steps) {
+    final long[] checksum = new long[1];
+    long nanos = Benchmark.best(1, 3, new Runnable() {
+      @Override
+      public void run() {
+        Queue q = legacy ? new LegacyListQueue() : new HeapQueue();
+        long start = System.nanoTime();
+        checksum[0] = hold(q, n, steps, 0L);
+        Benchmark.consume(System.nanoTime() - start);
+      }
+    });
+    Benchmark.consume(checksum[0]);
+    // count both the initial fill and the hold steps as scheduled events
+    return Benchmark.perSecond(n + steps, nanos);
+  }
+
+  public static void main(String[] args) {
+    int[] sizes = {1000, 10000, 100000, 1000000};
+    if (args.length > 0) {
+      sizes = new int[args.length];
+      for (int i = 0; i < args.length; i++) {
+        sizes[i] = Integer.parseInt(args[i]);
+      }
+    }
+
+    Benchmark.title("Simulator event queue, hold model");
+    Benchmark.row("n", "heap ev/s", "list ev/s");
+    for (int n : sizes) {
+      long steps = Math.max(2L * n, 1000000L);
+      double heap = eventsPerSecond(false, n, steps);
+      Object legacy = "(skipped)";
+      if (n <= LEGACY_MAX_N) {
+        legacy = eventsPerSecond(true, n, Math.min(steps, 200000L));
+      }
+      Benchmark.row(n, heap, legacy);
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package org.princehouse.mica.util.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.princehouse.mica.base.LogFlag;
+import org.princehouse.mica.base.log.LogSink;
+import org.princehouse.mica.base.log.LogSinks;
+import org.princehouse.mica.base.model.MicaOptions;
+import org.princehouse.mica.base.model.MicaRuntime.JsonLogEvent;
+import org.princehouse.mica.util.Functional;
+
+/**
+ * Bytes per event and events/sec of the log writers. The synthetic workload mimics a simulation
+ * round: each node logs select, gossip, rate, and pre/post-update state events, where the state is
+ * a small nested structure with a view of a few neighbors.
+ * <p>
+ * Events/sec includes serializing the event data and, for asynchronous writers, waiting for the
+ * writer thread to finish at the end.
+ * <p>
+ * Usage: LogWriterBenchmark [events] [nodes] (default 200000 100)
+ *
+ * @author lonnie
+ */
+public class LogWriterBenchmark {
+
+  private static final int SYNC_MAX_EVENTS = 50000;
+
+  private static List<JsonLogEvent> workload(int count, int nodes) {
+    Random rng = new Random(0L);
+    List<JsonLogEvent> events = Functional.list();
+    long clock = 0L;
+    while (events.size() < count) {
+      String node = "n" + rng.nextInt(nodes);
+      String partner = "n" + rng.nextInt(nodes);
+      clock += rng.nextInt(50);
+
+      List<String> view = Functional.list();
+      for (int i = 0; i < 4; i++) {
+        view.add("n" + rng.nextInt(nodes));
+      }
+      Map<String, Object> state = Functional.<String, Object>mapFromPairs("stateType",
+          "FindMinPush", "state", Functional.<String, Object>mapFromPairs("overlay",
+              Functional.<String, Object>mapFromPairs("view", view), "value", rng.nextInt(1000)),
+          "view", view);
+
+      events.add(new JsonLogEvent(clock, node, "mica-select", partner));
+      events.add(new JsonLogEvent(clock, node, "mica-state-preupdate", state));
+      events.add(new JsonLogEvent(clock + 1, node, "mica-gossip", new String[]{node, partner}));
+      events.add(new JsonLogEvent(clock + 2, node, "mica-state-postupdate", state));
+      events.add(new JsonLogEvent(clock + 2, node, "mica-rate", 1.0));
+    }
+    return events.subList(0, count);
+  }
+
+  private static void measure(String writer, String format, List<JsonLogEvent> events)
+      throws IOException {
+    MicaOptions options = new MicaOptions();
+    options.logWriter = writer;
+    options.logFormat = format;
+    int flags = LogFlag.state.set(0);
+
+    File file = File.createTempFile("mica-log-benchmark", ".log");
+    try {
+      // warm up
+      LogSink sink = LogSinks.open(file, options);
+      for (JsonLogEvent e : events.subList(0, Math.min(events.size(), 5000))) {
+        sink.log(flags, e);
+      }
+      sink.close();
+      file.delete();
+
+      long start = System.nanoTime();
+      sink = LogSinks.open(file, options);
+      for (JsonLogEvent e : events) {
+        sink.log(flags, e);
+      }
+      sink.close();
+      long nanos = System.nanoTime() - start;
+
+      Benchmark.row(writer, format, events.size(), Benchmark.perSecond(events.size(), nanos),
+          ((double) file.length()) / events.size());
+    } finally {
+      file.delete();
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    int count = (args.length > 0 ? Integer.parseInt(args[0]) : 200000);
+    int nodes = (args.length > 1 ? Integer.parseInt(args[1]) : 100);
+    List<JsonLogEvent> events = workload(count, nodes);
+
+    Benchmark.title("Log writers");
+    Benchmark.row("writer", "format", "events", "events/s", "bytes/event");
+    measure("sync", "json", events.subList(0, Math.min(count, SYNC_MAX_EVENTS)));
+    measure("async", "json", events);
+    measure("async", "binary", events);
+  }
+}
@@ -0,0 +1,130 @@
+package org.princehouse.mica.util.benchmark;
+
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.princehouse.mica.base.BaseProtocol;
+import org.princehouse.mica.base.model.MiCA;
+import org.princehouse.mica.base.model.MicaRuntime;
+import org.princehouse.mica.base.model.Protocol;
+import org.princehouse.mica.base.model.RuntimeContextManager;
+import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.net.tcpip.TCPAddress;
+import org.princehouse.mica.base.simple.SimpleRuntime;
+import org.princehouse.mica.base.simple.SimpleRuntimeInterface;
+import org.princehouse.mica.base.sugar.annotations.View;
+import org.princehouse.mica.lib.abstractions.MergeCorrelated;
+import org.princehouse.mica.lib.abstractions.MultiMergeCorrelated;
+import org.princehouse.mica.util.Distribution;
+
+/**
+ * Time for the runtime's per-round evaluation of a balanced MergeCorrelated tree of 2^depth leaf
+ * protocols: the view (as in select) and then the rate. Each leaf has a fixed view of 8 out of 64
+ * addresses.
+ * <p>
+ * Without memoization every merge asks both subtrees for their view and rate from select() and
+ * again from rate(), so leaf evaluations grow as 4^depth; with ViewMemo each protocol is evaluated
+ * once. The flat column evaluates a MultiMergeCorrelated over the same leaves, with memoization.
+ * <p>
+ * Usage: MergeBenchmark [depth ...] (default 2 4 6 8)
+ *
+ * @author lonnie
+ */
+public class MergeBenchmark {
+
+  private static final int ADDRESSES = 64;
+  private static final int VIEW_SIZE = 8;
+
+  @SuppressWarnings("serial")
+  public static class Leaf extends BaseProtocol {
+
+    @View
+    public Distribution<Address> view;
+
+    public Leaf(Distribution<Address> view) {
+      this.view = view;
+    }
+
+    @Override
+    public void update(Protocol that) {
+    }
+  }
+
+  private static List<BaseProtocol> leaves(int depth) throws UnknownHostException {
+    Random rng = new Random(0L);
+    List<Address> addresses = new ArrayList<Address>();
+    for (int i = 0; i < ADDRESSES; i++) {
+      addresses.add(TCPAddress.valueOf(new byte[]{10, 4, 0, (byte) i}, 8000));
+    }
+    List<BaseProtocol> leaves = new ArrayList<BaseProtocol>();
+    for (int i = 0; i < (1 << depth); i++) {
+      List<Address> view = new ArrayList<Address>();
+      for (int j = 0; j < VIEW_SIZE; j++) {
+        view.add(addresses.get(rng.nextInt(ADDRESSES)));
+      }
+      leaves.add(new Leaf(Distribution.uniform(view)));
+    }
+    return leaves;
+  }
+
+  private static double evaluate(final Protocol root, final RuntimeContextManager manager,
+      final MicaRuntime runtime, final boolean memoize, final int reps) {
+    long nanos = Benchmark.best(1, 3, new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 0; i < reps; i++) {
+          // select and rate are separate evaluations, as in SimpleRuntime
+          for (int phase = 0; phase < 2; phase++) {
+            manager.setNativeRuntime(runtime);
+            if (memoize) {
+              manager.memoize();
+            }
+            try {
+              Benchmark.consume(phase == 0 ? root.getView() : root.getRate());
+            } finally {
+              manager.clear();
+            }
+          }
+        }
+      }
+    });
+    return Benchmark.nanosPerOp(reps, nanos) / 1000.0;
+  }
+
+  public static void main(String[] args) throws UnknownHostException {
+    int[] depths = {2, 4, 6, 8};
+    if (args.length > 0) {
+      depths = new int[args.length];
+      for (int i = 0; i < args.length; i++) {
+        depths[i] = Integer.parseInt(args[i]);
+      }
+    }
+
+    SimpleRuntimeInterface rti = new SimpleRuntimeInterface();
+    MicaRuntime runtime = new SimpleRuntime(TCPAddress.valueOf("127.0.0.1:8000"));
+    MiCA.Context previous = MiCA.enter(new MiCA.Context(rti, null, null));
+    try {
+      // warm up both paths before timing anything
+      Protocol warm = MergeCorrelated.operator.merge(leaves(4));
+      evaluate(warm, rti.getRuntimeContextManager(), runtime, true, 200);
+      evaluate(warm, rti.getRuntimeContextManager(), runtime, false, 200);
+      evaluate(new MultiMergeCorrelated(leaves(4)), rti.getRuntimeContextManager(), runtime, true,
+          200);
+
+      Benchmark.title("Merge tree view + rate evaluation, us/round");
+      Benchmark.row("depth", "leaves", "plain", "memoized", "speedup", "flat");
+      for (int depth : depths) {
+        List<BaseProtocol> leaves = leaves(depth);
+        Protocol root = MergeCorrelated.operator.merge(leaves);
+        RuntimeContextManager manager = rti.getRuntimeContextManager();
+        double memoized = evaluate(root, manager, runtime, true, 20);
+        double plain = evaluate(root, manager, runtime, false, Math.max(1, 20 >> depth));
+        double flat = evaluate(new MultiMergeCorrelated(leaves), manager, runtime, true, 20);
+        Benchmark.row(depth, 1 << depth, plain, memoized, plain / memoized, flat);
+      }
+    } finally {
+      MiCA.exit(previous);
+    }
+  }
+}
@@ -0,0 +1,191 @@
+package org.princehouse.mica.util.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import org.princehouse.mica.util.Functional;
+import org.princehouse.mica.util.Threads;
+
+/**
+ * Nodes per JVM versus memory and round-time jitter for the SimpleRuntime thread modes
+ * (-threads platform|virtual).
+ * <p>
+ * Each node runs the skeleton of SimpleRuntime's gossip loop on its own thread: take the node's
+ * lock, do a little work, release it, and sleep until the next round. Jitter is how late a node
+ * wakes up relative to its schedule. Memory is the growth of the process's resident set while all
+ * nodes are running (Linux only), which includes thread stacks.
+ * <p>
+ * Without virtual threads (before Java 21), "virtual" measures the small-stack platform thread
+ * fallback.
+ * <p>
+ * Usage: NodeDensityBenchmark [rounds] [roundMS] [nodes...] (default 10 1000 1000 5000 20000)
+ *
+ * @author lonnie
+ */
+public class NodeDensityBenchmark {
+
+  private static class Node implements Runnable {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Random rng;
+    private final long offset;
+    private final int roundMS;
+    private final long[] lateness;
+    private final CountDownLatch go;
+    private final CountDownLatch done;
+    private long state = 0L;
+
+    private Node(long seed, int roundMS, int rounds, CountDownLatch go, CountDownLatch done) {
+      this.rng = new Random(seed);
+      this.offset = TimeUnit.MILLISECONDS.toNanos(rng.nextInt(roundMS));
+      this.roundMS = roundMS;
+      this.lateness = new long[rounds];
+      this.go = go;
+      this.done = done;
+    }
+
+    @Override
+    public void run() {
+      try {
+        go.await();
+        long start = startNanos + offset;
+        for (int round = 0; round < lateness.length; round++) {
+          long wake = start + TimeUnit.MILLISECONDS.toNanos((long) round * roundMS);
+          long delay = wake - System.nanoTime();
+          if (delay > 0) {
+            Thread.sleep(delay / 1000000L, (int) (delay % 1000000L));
+          }
+          lateness[round] = Math.max(0L, System.nanoTime() - wake);
+          lock.lock();
+          try {
+            state += rng.nextInt();
+          } finally {
+            lock.unlock();
+          }
+        }
+      } catch (InterruptedException e) {
+        // stop early
+      } finally {
+        done.countDown();
+      }
+    }
+  }
+
+  private static final String CHILD = "-child";
+
+  // set before the nodes are released
+  private static volatile long startNanos;
+
+  // resident set size in KB, or -1 if unknown
+  private static long rssKB() {
+    try {
+      BufferedReader in = new BufferedReader(new FileReader("/proc/self/status"));
+      try {
+        String line;
+        while ((line = in.readLine()) != null) {
+          if (line.startsWith("VmRSS:")) {
+            return Long.parseLong(line.replaceAll("[^0-9]", ""));
+          }
+        }
+      } finally {
+        in.close();
+      }
+    } catch (IOException e) {
+      // not Linux
+    }
+    return -1L;
+  }
+
+  private static void measure(boolean virtual, int n, int rounds, int roundMS)
+      throws InterruptedException {
+    String mode = virtual ? (Threads.virtualThreadsAvailable() ? "virtual" : "small-stack")
+        : "platform";
+    long rss0 = rssKB();
+
+    CountDownLatch go = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(n);
+    List<Node> nodes = Functional.list();
+    int started = 0;
+    try {
+      for (int i = 0; i < n; i++) {
+        Node node = new Node(i, roundMS, rounds, go, done);
+        Threads.newThread(virtual, "node-" + i, true, node).start();
+        nodes.add(node);
+        started++;
+      }
+    } catch (OutOfMemoryError e) {
+      // could not create another thread
+      Benchmark.row(mode, n, "failed at " + started, "", "", "", "");
+      System.exit(1);
+    }
+    startNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(roundMS);
+    go.countDown();
+
+    // all nodes are parked in their loop by now
+    Thread.sleep(roundMS * 2L);
+    long rss1 = rssKB();
+    done.await();
+
+    long[] all = new long[nodes.size() * rounds];
+    int k = 0;
+    for (Node node : nodes) {
+      // skip the first round, which includes thread startup
+      for (int r = 1; r < rounds; r++) {
+        all[k++] = node.lateness[r];
+      }
+    }
+    all = Arrays.copyOf(all, k);
+    Arrays.sort(all);
+    double ms = 1e6;
+    long grownKB = (rss0 < 0 || rss1 < 0 ? -1 : rss1 - rss0);
+    Benchmark.row(mode, n, grownKB < 0 ? "n/a" : grownKB >> 10,
+        grownKB < 0 ? "n/a" : ((double) grownKB) / n, all[k / 2] / ms, all[(int) (k * 0.99)] / ms,
+        all[k - 1] / ms);
+  }
+
+  // measure in a fresh JVM, so that one configuration's threads do not skew the next one's memory
+  private static void fork(boolean virtual, int n, int rounds, int roundMS)
+      throws IOException, InterruptedException {
+    String java = System.getProperty("java.home") + File.separator + "bin" + File.separator
+        + "java";
+    ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+        NodeDensityBenchmark.class.getName(), CHILD, Boolean.toString(virtual),
+        Integer.toString(n), Integer.toString(rounds), Integer.toString(roundMS));
+    pb.inheritIO();
+    pb.start().waitFor();
+  }
+
+  public static void main(String[] args) throws IOException, InterruptedException {
+    if (args.length > 0 && args[0].equals(CHILD)) {
+      measure(Boolean.parseBoolean(args[1]), Integer.parseInt(args[2]),
+          Integer.parseInt(args[3]), Integer.parseInt(args[4]));
+      return;
+    }
+    int rounds = (args.length > 0 ? Integer.parseInt(args[0]) : 10);
+    int roundMS = (args.length > 1 ? Integer.parseInt(args[1]) : 1000);
+    int[] counts = new int[]{1000, 5000, 20000};
+    if (args.length > 2) {
+      counts = new int[args.length - 2];
+      for (int i = 2; i < args.length; i++) {
+        counts[i - 2] = Integer.parseInt(args[i]);
+      }
+    }
+
+    Benchmark.title(String.format("Nodes per JVM (Java %s, %d rounds of %d ms)",
+        System.getProperty("java.version"), rounds, roundMS));
+    Benchmark.row("threads", "nodes", "rss growth MB", "KB/node", "p50 late ms", "p99 late ms",
+        "max late ms");
+    for (int n : counts) {
+      for (boolean virtual : new boolean[]{false, true}) {
+        fork(virtual, n, rounds, roundMS);
+      }
+    }
+  }
+}
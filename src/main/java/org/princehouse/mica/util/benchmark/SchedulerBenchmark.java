@@ -0,0 +1,148 @@
+package org.princehouse.mica.util.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.princehouse.mica.util.Threads;
+import org.princehouse.mica.util.TimingWheel;
+
+/**
+ * Round-start jitter and thread count of SimpleRuntime's two round schedulers (-scheduler
+ * loop|wheel): a thread per node sleeping until its next deadline, versus one shared timing wheel
+ * handing due rounds to a thread pool.
+ * <p>
+ * Each node has a random phase and a fixed period; a round does no work beyond recording how late
+ * it started. Both schedulers use the same drift-corrected deadlines (previous deadline + period).
+ * <p>
+ * Usage: SchedulerBenchmark [rounds] [roundMS] [nodes...] (default 10 500 100 1000 5000)
+ *
+ * @author lonnie
+ */
+public class SchedulerBenchmark {
+
+  private static class Node {
+
+    private final long[] lateness;
+    private final long firstDeadline;
+    private final int roundMS;
+    private int round = 0;
+
+    private Node(long start, int phaseMS, int roundMS, int rounds) {
+      this.firstDeadline = start + TimeUnit.MILLISECONDS.toNanos(phaseMS);
+      this.roundMS = roundMS;
+      this.lateness = new long[rounds];
+    }
+
+    private long deadline() {
+      return firstDeadline + TimeUnit.MILLISECONDS.toNanos((long) round * roundMS);
+    }
+
+    // returns false after the last round
+    private boolean runRound() {
+      lateness[round] = Math.max(0L, System.nanoTime() - deadline());
+      round++;
+      return round < lateness.length;
+    }
+  }
+
+  private static Node[] nodes(int n, int rounds, int roundMS) {
+    Random rng = new Random(0L);
+    long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(roundMS);
+    Node[] nodes = new Node[n];
+    for (int i = 0; i < n; i++) {
+      nodes[i] = new Node(start, rng.nextInt(roundMS), roundMS, rounds);
+    }
+    return nodes;
+  }
+
+  private static int runThreads(Node[] nodes) throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(nodes.length);
+    for (final Node node : nodes) {
+      Threads.newThread(false, "node", true, new Runnable() {
+        @Override
+        public void run() {
+          try {
+            do {
+              long delay = node.deadline() - System.nanoTime();
+              if (delay > 0) {
+                Thread.sleep(delay / 1000000L, (int) (delay % 1000000L));
+              }
+            } while (node.runRound());
+          } catch (InterruptedException e) {
+            // stop
+          } finally {
+            done.countDown();
+          }
+        }
+      }).start();
+    }
+    int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+    done.await();
+    return threads;
+  }
+
+  private static int runWheel(Node[] nodes) throws InterruptedException {
+    final CountDownLatch done = new CountDownLatch(nodes.length);
+    ExecutorService executor = Threads.newPerTaskExecutor(false, "round");
+    final TimingWheel wheel = new TimingWheel(executor);
+    for (final Node node : nodes) {
+      wheel.scheduleAt(node.deadline(), new Runnable() {
+        @Override
+        public void run() {
+          if (node.runRound()) {
+            wheel.scheduleAt(node.deadline(), this);
+          } else {
+            done.countDown();
+          }
+        }
+      });
+    }
+    Thread.sleep(nodes[0].roundMS * 2L);
+    int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+    done.await();
+    wheel.stop();
+    executor.shutdown();
+    return threads;
+  }
+
+  private static void measure(String mode, int n, int rounds, int roundMS)
+      throws InterruptedException {
+    Node[] nodes = nodes(n, rounds, roundMS);
+    int threads = (mode.equals("loop") ? runThreads(nodes) : runWheel(nodes));
+
+    long[] all = new long[n * rounds];
+    int k = 0;
+    for (Node node : nodes) {
+      for (long l : node.lateness) {
+        all[k++] = l;
+      }
+    }
+    Arrays.sort(all);
+    double ms = 1e6;
+    Benchmark.row(mode, n, threads, all[k / 2] / ms, all[(int) (k * 0.99)] / ms,
+        all[k - 1] / ms);
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int rounds = (args.length > 0 ? Integer.parseInt(args[0]) : 10);
+    int roundMS = (args.length > 1 ? Integer.parseInt(args[1]) : 500);
+    int[] counts = new int[]{100, 1000, 5000};
+    if (args.length > 2) {
+      counts = new int[args.length - 2];
+      for (int i = 2; i < args.length; i++) {
+        counts[i - 2] = Integer.parseInt(args[i]);
+      }
+    }
+
+    Benchmark.title(String.format("Round schedulers (%d rounds of %d ms)", rounds, roundMS));
+    Benchmark.row("scheduler", "nodes", "live threads", "p50 late ms", "p99 late ms",
+        "max late ms");
+    for (int n : counts) {
+      measure("loop", n, rounds, roundMS);
+      measure("wheel", n, rounds, roundMS);
+    }
+  }
+}
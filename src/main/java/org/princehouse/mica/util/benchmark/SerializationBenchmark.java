@@ -0,0 +1,121 @@
+package org.princehouse.mica.util.benchmark;
+
+import java.io.Serializable;
+import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import org.princehouse.mica.base.BaseProtocol;
+import org.princehouse.mica.base.model.RuntimeState;
+import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.net.tcpip.TCPAddress;
+import org.princehouse.mica.example.FindMinPush;
+import org.princehouse.mica.example.FourLayerTreeStack;
+import org.princehouse.mica.lib.MinAddressLeaderElection;
+import org.princehouse.mica.lib.abstractions.StaticOverlay;
+import org.princehouse.mica.util.Functional;
+import org.princehouse.mica.util.Serialization;
+
+/**
+ * Round trips/sec and bytes per message of Java serialization versus Kryo and generated codecs
+ * (MicaOptions.serializer), for messages like SimpleRuntime's m1: an instance of one of the example
+ * protocols and a RuntimeState.
+ * <p>
+ * A round trip serializes the message and deserializes the bytes. The multi-threaded runs show the
+ * Kryo pool under contention.
+ * <p>
+ * Usage: SerializationBenchmark [roundTrips] [viewSize] [threads] (default 20000 8 4)
+ *
+ * @author lonnie
+ */
+public class SerializationBenchmark {
+
+  private static List<Address> view(int viewSize) throws UnknownHostException {
+    List<Address> view = Functional.list();
+    for (int i = 0; i < viewSize; i++) {
+      view.add(TCPAddress.valueOf("127.0.0.1:" + (8000 + i)));
+    }
+    return view;
+  }
+
+  private static Serializable message(BaseProtocol p, Address address) {
+    RuntimeState runtimeState = new RuntimeState();
+    runtimeState.setAddress(address);
+    return new Serializable[]{p, runtimeState};
+  }
+
+  private static byte[] serialize(String serializer, Serializable message) {
+    if (serializer.equals("java")) {
+      return Serialization.serializeJava(message);
+    } else if (serializer.equals("kryo")) {
+      return Serialization.serializeKryo(message);
+    } else {
+      return Serialization.serializeCodec(message);
+    }
+  }
+
+  private static Serializable deserialize(String serializer, byte[] data) {
+    if (serializer.equals("java")) {
+      return Serialization.deserializeJava(data);
+    } else if (serializer.equals("kryo")) {
+      return Serialization.deserializeKryo(data);
+    } else {
+      return Serialization.deserializeCodec(data);
+    }
+  }
+
+  private static void roundTrip(String serializer, Serializable message) {
+    Benchmark.consume(deserialize(serializer, serialize(serializer, message)));
+  }
+
+  private static void measure(final String serializer, final Serializable message,
+      final int count, int threads) throws InterruptedException {
+    for (int i = 0; i < Math.min(count, 2000); i++) {
+      roundTrip(serializer, message);
+    }
+    final CountDownLatch done = new CountDownLatch(threads);
+    final int each = count / threads;
+    long start = System.nanoTime();
+    for (int t = 0; t < threads; t++) {
+      new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int i = 0; i < each; i++) {
+            roundTrip(serializer, message);
+          }
+          done.countDown();
+        }
+      }).start();
+    }
+    done.await();
+    long nanos = System.nanoTime() - start;
+    int bytes = serialize(serializer, message).length;
+    Benchmark.row(serializer, threads, bytes, Benchmark.perSecond(each * threads, nanos),
+        Benchmark.nanosPerOp(each * threads, nanos) / 1000.0);
+  }
+
+  public static void main(String[] args) throws Exception {
+    int count = (args.length > 0 ? Integer.parseInt(args[0]) : 20000);
+    int viewSize = (args.length > 1 ? Integer.parseInt(args[1]) : 8);
+    int threads = (args.length > 2 ? Integer.parseInt(args[2]) : 4);
+    List<Address> view = view(viewSize);
+    Map<String, Serializable> messages = new LinkedHashMap<String, Serializable>();
+    messages.put("FourLayerTreeStack",
+        message(new FourLayerTreeStack(new StaticOverlay(view), 0), view.get(0)));
+    messages.put("MinAddressLeaderElection",
+        message(new MinAddressLeaderElection(new StaticOverlay(view)), view.get(0)));
+    messages.put("FindMinPush",
+        message(new FindMinPush(17, new HashSet<Address>(view)), view.get(0)));
+
+    for (Map.Entry<String, Serializable> e : messages.entrySet()) {
+      Benchmark.title("Serializers: " + e.getKey() + " message");
+      Benchmark.row("serializer", "threads", "bytes", "trips/s", "us/trip");
+      for (String serializer : new String[]{"java", "kryo", "codec"}) {
+        measure(serializer, e.getValue(), count, 1);
+        measure(serializer, e.getValue(), count, threads);
+      }
+    }
+  }
+}
@@ -0,0 +1,161 @@
+package org.princehouse.mica.util.benchmark;
+
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import org.princehouse.mica.base.BaseProtocol;
+import org.princehouse.mica.base.model.MiCA;
+import org.princehouse.mica.base.model.MicaRuntime;
+import org.princehouse.mica.base.model.Protocol;
+import org.princehouse.mica.base.model.RuntimeContextManager;
+import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.net.tcpip.TCPAddress;
+import org.princehouse.mica.base.simple.SimpleRuntime;
+import org.princehouse.mica.base.simple.SimpleRuntimeInterface;
+import org.princehouse.mica.base.sugar.Sugar;
+import org.princehouse.mica.base.sugar.annotations.GossipRate;
+import org.princehouse.mica.base.sugar.annotations.View;
+import org.princehouse.mica.lib.abstractions.MergeCorrelated;
+import org.princehouse.mica.util.Distribution;
+
+/**
+ * Cost of dispatching to the @View and @GossipRate elements of a protocol (Sugar), alone and as
+ * part of the runtime's memoized per-round view + rate evaluation of a balanced MergeCorrelated
+ * stack of 2^depth leaves, where every protocol in the stack is dispatched to once for its view and
+ * once for its rate.
+ * <p>
+ * Usage: SugarBenchmark [depth ...] (default 1 3 5 7)
+ *
+ * @author lonnie
+ */
+public class SugarBenchmark {
+
+  // @View field, inherited @GossipRate
+  @SuppressWarnings("serial")
+  public static class FieldLeaf extends BaseProtocol {
+
+    @View
+    public Distribution<Address> view;
+
+    public FieldLeaf(Distribution<Address> view) {
+      this.view = view;
+    }
+
+    @Override
+    public void update(Protocol that) {
+    }
+  }
+
+  // @View and @GossipRate methods
+  @SuppressWarnings("serial")
+  public static class MethodLeaf extends BaseProtocol {
+
+    private Distribution<Address> view;
+
+    public MethodLeaf(Distribution<Address> view) {
+      this.view = view;
+    }
+
+    @View
+    public Distribution<Address> select() {
+      return view;
+    }
+
+    @GossipRate
+    public double leafRate() {
+      return 2.0;
+    }
+
+    @Override
+    public void update(Protocol that) {
+    }
+  }
+
+  private static double dispatch(final Protocol p, final boolean rate, final int reps) {
+    long nanos = Benchmark.best(3, 5, new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 0; i < reps; i++) {
+          if (rate) {
+            Benchmark.consume(Sugar.v().executeSugarRate(p));
+          } else {
+            Benchmark.consume(Sugar.v().executeSugarView(p));
+          }
+        }
+      }
+    });
+    return Benchmark.nanosPerOp(reps, nanos);
+  }
+
+  private static double round(final Protocol root, final RuntimeContextManager manager,
+      final MicaRuntime runtime, final int reps) {
+    long nanos = Benchmark.best(3, 5, new Runnable() {
+      @Override
+      public void run() {
+        for (int i = 0; i < reps; i++) {
+          // select and rate are separate evaluations, as in SimpleRuntime
+          for (int phase = 0; phase < 2; phase++) {
+            manager.setNativeRuntime(runtime);
+            manager.memoize();
+            try {
+              Benchmark.consume(phase == 0 ? root.getView() : root.getRate());
+            } finally {
+              manager.clear();
+            }
+          }
+        }
+      }
+    });
+    return Benchmark.nanosPerOp(reps, nanos);
+  }
+
+  public static void main(String[] args) throws UnknownHostException {
+    int[] depths = {1, 3, 5, 7};
+    if (args.length > 0) {
+      depths = new int[args.length];
+      for (int i = 0; i < args.length; i++) {
+        depths[i] = Integer.parseInt(args[i]);
+      }
+    }
+
+    List<Address> view = new ArrayList<Address>();
+    for (int i = 0; i < 8; i++) {
+      view.add(TCPAddress.valueOf(new byte[]{10, 6, 0, (byte) i}, 8000));
+    }
+    Distribution<Address> d = Distribution.uniform(view);
+
+    SimpleRuntimeInterface rti = new SimpleRuntimeInterface();
+    MicaRuntime runtime = new SimpleRuntime(TCPAddress.valueOf("127.0.0.1:8000"));
+    MiCA.Context previous = MiCA.enter(new MiCA.Context(rti, null, null));
+    RuntimeContextManager manager = rti.getRuntimeContextManager();
+    try {
+      Benchmark.title("Sugar dispatch, ns/call");
+      Benchmark.row("element", "ns");
+      manager.setNativeRuntime(runtime);
+      try {
+        final int reps = 1000000;
+        Benchmark.row("@View field", dispatch(new FieldLeaf(d), false, reps));
+        Benchmark.row("@View method", dispatch(new MethodLeaf(d), false, reps));
+        Benchmark.row("@GossipRate", dispatch(new MethodLeaf(d), true, reps));
+        Benchmark.row("inherited rate", dispatch(new FieldLeaf(d), true, reps));
+      } finally {
+        manager.clear();
+      }
+
+      Benchmark.title("MergeCorrelated stack view + rate, memoized, ns/round");
+      Benchmark.row("depth", "protocols", "ns/round", "ns/protocol");
+      for (int depth : depths) {
+        List<BaseProtocol> leaves = new ArrayList<BaseProtocol>();
+        for (int i = 0; i < (1 << depth); i++) {
+          leaves.add(i % 2 == 0 ? new FieldLeaf(d) : new MethodLeaf(d));
+        }
+        Protocol root = MergeCorrelated.operator.merge(leaves);
+        int protocols = 2 * leaves.size() - 1;
+        double nanos = round(root, manager, runtime, Math.max(50, 200000 >> depth));
+        Benchmark.row(depth, protocols, nanos, nanos / protocols);
+      }
+    } finally {
+      MiCA.exit(previous);
+    }
+  }
+}
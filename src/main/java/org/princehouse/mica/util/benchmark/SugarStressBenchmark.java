@@ -0,0 +1,245 @@
+package org.princehouse.mica.util.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import org.princehouse.mica.base.BaseProtocol;
+import org.princehouse.mica.base.model.MiCA;
+import org.princehouse.mica.base.model.MicaRuntime;
+import org.princehouse.mica.base.model.Protocol;
+import org.princehouse.mica.base.model.RuntimeContextManager;
+import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.net.tcpip.TCPAddress;
+import org.princehouse.mica.base.simple.SimpleRuntime;
+import org.princehouse.mica.base.simple.SimpleRuntimeInterface;
+import org.princehouse.mica.base.sugar.GeneratedMetadata;
+import org.princehouse.mica.base.sugar.Sugar;
+import org.princehouse.mica.base.sugar.annotations.GossipRate;
+import org.princehouse.mica.base.sugar.annotations.View;
+import org.princehouse.mica.util.Distribution;
+
+/**
+ * Sugar under many threads at once.
+ * <p>
+ * First use: T threads are released together on a protocol class nobody has used yet (a fresh copy
+ * of Leaf, from its own class loader) and each asks for its rate and view, as the nodes of a
+ * runtime do in their first round. Reported: how many resolutions Sugar did (2 = one view and one
+ * rate, however many threads) and how long until every thread had its answer, with and without
+ * Sugar.warm beforehand, and with the generated metadata vs reflection.
+ * <p>
+ * Steady state: T threads each dispatch to the view and rate of their own 64 leaves, over and over.
+ * <p>
+ * Usage: SugarStressBenchmark [threads ...] (default 1 2 4 8 16)
+ *
+ * @author lonnie
+ */
+public class SugarStressBenchmark {
+
+  private static final int TRIALS = 20;
+
+  @SuppressWarnings("serial")
+  public static class Leaf extends BaseProtocol {
+
+    @View
+    public Distribution<Address> view = new Distribution<Address>();
+
+    @GossipRate
+    public double leafRate() {
+      return 1.5;
+    }
+
+    @Override
+    public void update(Protocol that) {
+    }
+  }
+
+  @SuppressWarnings("serial")
+  public static class OtherLeaf extends Leaf {
+
+    @View
+    public Distribution<Address> select() {
+      return view;
+    }
+  }
+
+  /**
+   * Loads its own copy of Leaf (and, if asked, of Leaf's generated metadata), so that every
+   * instance gives Sugar a class it has never seen
+   */
+  private static class FreshLoader extends ClassLoader {
+
+    private static final String LEAF = Leaf.class.getName();
+
+    private final boolean withMetadata;
+
+    private FreshLoader(boolean withMetadata) {
+      super(SugarStressBenchmark.class.getClassLoader());
+      this.withMetadata = withMetadata;
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+      if (!name.equals(LEAF) && !(withMetadata && name.equals(LEAF + GeneratedMetadata.SUFFIX))) {
+        return super.loadClass(name, resolve);
+      }
+      synchronized (getClassLoadingLock(name)) {
+        Class<?> k = findLoadedClass(name);
+        if (k == null) {
+          InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class");
+          if (in == null) {
+            throw new ClassNotFoundException(name);
+          }
+          try {
+            byte[] bytes = in.readAllBytes();
+            in.close();
+            k = defineClass(name, bytes, 0, bytes.length);
+          } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+          }
+        }
+        return k;
+      }
+    }
+  }
+
+  /**
+   * @return {resolutions per class, microseconds until all threads are done}, averaged over trials
+   */
+  private static double[] firstUse(final int threads, boolean warm, boolean withMetadata)
+      throws Exception {
+    long resolutions = 0;
+    long nanos = 0;
+    for (int trial = 0; trial < TRIALS; trial++) {
+      Class<?> k = new FreshLoader(withMetadata).loadClass(Leaf.class.getName());
+      final Protocol p = (Protocol) k.getDeclaredConstructor().newInstance();
+      long before = Sugar.v().getResolutionCount();
+      if (warm) {
+        Sugar.v().warm(p);
+      }
+
+      final CountDownLatch ready = new CountDownLatch(threads);
+      final CountDownLatch start = new CountDownLatch(1);
+      final CountDownLatch done = new CountDownLatch(threads);
+      for (int i = 0; i < threads; i++) {
+        new Thread() {
+          @Override
+          public void run() {
+            ready.countDown();
+            try {
+              start.await();
+              Benchmark.consume(Sugar.v().executeSugarRate(p));
+              Benchmark.consume(Sugar.v().executeSugarView(p));
+            } catch (InterruptedException e) {
+              throw new RuntimeException(e);
+            } finally {
+              done.countDown();
+            }
+          }
+        }.start();
+      }
+      ready.await();
+      long t0 = System.nanoTime();
+      start.countDown();
+      done.await();
+      nanos += System.nanoTime() - t0;
+      resolutions += Sugar.v().getResolutionCount() - before;
+    }
+    return new double[]{(double) resolutions / TRIALS, nanos / 1000.0 / TRIALS};
+  }
+
+  /**
+   * @return Aggregate dispatches per microsecond
+   */
+  private static double steadyState(int threads, final RuntimeContextManager manager,
+      final MicaRuntime runtime, final Distribution<Address> d) throws InterruptedException {
+    final int rounds = 20000;
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(threads);
+    for (int i = 0; i < threads; i++) {
+      new Thread() {
+        @Override
+        public void run() {
+          List<Leaf> leaves = new ArrayList<Leaf>();
+          for (int j = 0; j < 64; j++) {
+            Leaf leaf = (j % 2 == 0 ? new Leaf() : new OtherLeaf());
+            leaf.view = d;
+            leaves.add(leaf);
+          }
+          // the context manager is per thread
+          manager.setNativeRuntime(runtime);
+          try {
+            start.await();
+            for (int r = 0; r < rounds; r++) {
+              for (Leaf leaf : leaves) {
+                Benchmark.consume(Sugar.v().executeSugarRate(leaf));
+                Benchmark.consume(Sugar.v().executeSugarView(leaf));
+              }
+            }
+          } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+          } finally {
+            manager.clear();
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+    long t0 = System.nanoTime();
+    start.countDown();
+    done.await();
+    long nanos = System.nanoTime() - t0;
+    return (double) threads * rounds * 64 * 2 / (nanos / 1000.0);
+  }
+
+  public static void main(String[] args) throws Exception {
+    int[] threadCounts = {1, 2, 4, 8, 16};
+    if (args.length > 0) {
+      threadCounts = new int[args.length];
+      for (int i = 0; i < args.length; i++) {
+        threadCounts[i] = Integer.parseInt(args[i]);
+      }
+    }
+
+    Benchmark.title(String.format("First use by T threads at once, mean of %d fresh classes: "
+        + "resolutions / us until all done", TRIALS));
+    Benchmark.row("T", "cold, gen", "", "warm, gen", "", "cold, refl", "", "warm, refl", "");
+    // load Sugar, AnnotationInspector, etc.
+    firstUse(2, false, false);
+    firstUse(2, false, true);
+    for (int t : threadCounts) {
+      double[] coldGen = firstUse(t, false, true);
+      double[] warmGen = firstUse(t, true, true);
+      double[] coldRefl = firstUse(t, false, false);
+      double[] warmRefl = firstUse(t, true, false);
+      Benchmark.row(t, coldGen[0], coldGen[1], warmGen[0], warmGen[1], coldRefl[0], coldRefl[1],
+          warmRefl[0], warmRefl[1]);
+    }
+
+    List<Address> view = new ArrayList<Address>();
+    for (int i = 0; i < 8; i++) {
+      view.add(TCPAddress.valueOf(new byte[]{10, 8, 0, (byte) i}, 8000));
+    }
+    Distribution<Address> d = Distribution.uniform(view);
+    SimpleRuntimeInterface rti = new SimpleRuntimeInterface();
+    MicaRuntime runtime = newRuntime();
+    MiCA.Context previous = MiCA.enter(new MiCA.Context(rti, null, null));
+    try {
+      Benchmark.title("Steady state, T threads x 64 leaves, dispatches / us (all threads)");
+      Benchmark.row("T", "dispatch/us", "per thread");
+      steadyState(2, rti.getRuntimeContextManager(), runtime, d);
+      for (int t : threadCounts) {
+        double rate = steadyState(t, rti.getRuntimeContextManager(), runtime, d);
+        Benchmark.row(t, rate, rate / t);
+      }
+    } finally {
+      MiCA.exit(previous);
+    }
+  }
+
+  private static MicaRuntime newRuntime() throws UnknownHostException {
+    return new SimpleRuntime(TCPAddress.valueOf("127.0.0.1:8000"));
+  }
+}
@@ -0,0 +1,268 @@
+package org.princehouse.mica.util.codec;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.princehouse.mica.util.ByteClassLoader;
+
+/**
+ * Generates an ObjectCodec class for each serialized class.
+ * <p>
+ * For a class with fields f0..fn, the generated class is equivalent to
+ *
+ * <pre>
+ * // h(2i) gets fi, h(2i+1) sets it
+ * static final MethodHandle h0 = ..., h1 = ..., ...;
+ *
+ * public void write(Object o, CodecOutput out) {
+ *   out.writeInt((int) h0.invokeExact(o));
+ *   out.writeObject((Object) h2.invokeExact(o));
+ *   ...
+ * }
+ *
+ * public void read(Object o, CodecInput in) {
+ *   h1.invokeExact(o, in.readInt());
+ *   h3.invokeExact(o, in.readObject());
+ *   ...
+ * }
+ * </pre>
+ * <p>
+ * The field getters and setters are method handles in static final fields, which the JIT treats
+ * as constants and inlines, so each field costs about as much as a direct field access, and
+ * primitive fields are never boxed. The handles' types take care of casts.
+ * <p>
+ * The codec class is loaded by its own ByteClassLoader and only refers to Object, MethodHandle,
+ * CodecInput and CodecOutput, so it works for private fields and classes from any loader.
+ *
+ * @author lonnie
+ */
+public class CodecGenerator {
+
+  private static final String OBJECT = Type.getInternalName(Object.class);
+  private static final String OBJECT_DESC = Type.getDescriptor(Object.class);
+  private static final String HANDLE = Type.getInternalName(MethodHandle.class);
+  private static final String HANDLE_DESC = Type.getDescriptor(MethodHandle.class);
+  private static final String OUTPUT = Type.getInternalName(CodecOutput.class);
+  private static final String INPUT = Type.getInternalName(CodecInput.class);
+
+  private static final AtomicInteger counter = new AtomicInteger();
+
+  // handles waiting to be picked up by a generated class's static initializer
+  private static final Map<String, MethodHandle[]> pending = new ConcurrentHashMap<String, MethodHandle[]>();
+
+  /**
+   * Called by generated classes' static initializers
+   *
+   * @param className
+   * @return The getters and setters of the class's fields, alternating
+   */
+  public static MethodHandle[] takeHandles(String className) {
+    return pending.remove(className);
+  }
+
+  /**
+   * @param k
+   * @param fields The fields of k to serialize, in the order they are written
+   * @return A codec for fields; a reflective one if the codec class cannot be generated
+   */
+  public static ObjectCodec generate(Class<?> k, List<Field> fields) {
+    MethodHandle[] handles = new MethodHandle[fields.size() * 2];
+    MethodHandles.Lookup lookup = MethodHandles.lookup();
+    try {
+      for (int i = 0; i < fields.size(); i++) {
+        Field f = fields.get(i);
+        f.setAccessible(true);
+        Class<?> t = erasure(f.getType());
+        handles[2 * i] = lookup.unreflectGetter(f).asType(MethodType.methodType(t, Object.class));
+        handles[2 * i + 1] = lookup.unreflectSetter(f)
+            .asType(MethodType.methodType(void.class, Object.class, t));
+      }
+    } catch (IllegalAccessException | RuntimeException e) {
+      // e.g. fields of JDK classes when the module system denies access
+      return reflective(fields);
+    }
+
+    String name = "org.princehouse.mica.util.codec.generated." + k.getSimpleName() + "Codec"
+        + counter.incrementAndGet();
+    pending.put(name, handles);
+    try {
+      Class<?> c = new ByteClassLoader(CodecGenerator.class.getClassLoader())
+          .classFromBytes(name, generateClass(name.replace('.', '/'), fields));
+      return (ObjectCodec) c.getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException e) {
+      throw new RuntimeException(e);
+    } finally {
+      pending.remove(name);
+    }
+  }
+
+  private static Class<?> erasure(Class<?> t) {
+    return t.isPrimitive() ? t : Object.class;
+  }
+
+  // the CodecOutput/CodecInput method suffix for values of type t
+  private static String suffix(Class<?> t) {
+    if (!t.isPrimitive()) {
+      return "Object";
+    }
+    String n = t.getName();
+    return Character.toUpperCase(n.charAt(0)) + n.substring(1);
+  }
+
+  private static byte[] generateClass(String internalName, List<Field> fields) {
+    ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    cw.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER,
+        internalName, null, OBJECT, new String[]{Type.getInternalName(ObjectCodec.class)});
+
+    for (int i = 0; i < fields.size() * 2; i++) {
+      cw.visitField(Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC | Opcodes.ACC_FINAL, "h" + i,
+          HANDLE_DESC, null, null).visitEnd();
+    }
+
+    // static initializer: h = CodecGenerator.takeHandles(name); h0 = h[0]; ...
+    MethodVisitor mv = cw.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+    mv.visitCode();
+    mv.visitLdcInsn(internalName.replace('/', '.'));
+    mv.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(CodecGenerator.class),
+        "takeHandles", "(Ljava/lang/String;)[" + HANDLE_DESC, false);
+    mv.visitVarInsn(Opcodes.ASTORE, 0);
+    for (int i = 0; i < fields.size() * 2; i++) {
+      mv.visitVarInsn(Opcodes.ALOAD, 0);
+      mv.visitLdcInsn(i);
+      mv.visitInsn(Opcodes.AALOAD);
+      mv.visitFieldInsn(Opcodes.PUTSTATIC, internalName, "h" + i, HANDLE_DESC);
+    }
+    mv.visitInsn(Opcodes.RETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+
+    mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+    mv.visitCode();
+    mv.visitVarInsn(Opcodes.ALOAD, 0);
+    mv.visitMethodInsn(Opcodes.INVOKESPECIAL, OBJECT, "<init>", "()V", false);
+    mv.visitInsn(Opcodes.RETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+
+    mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "write",
+        "(" + OBJECT_DESC + Type.getDescriptor(CodecOutput.class) + ")V", null, null);
+    mv.visitCode();
+    for (int i = 0; i < fields.size(); i++) {
+      Class<?> t = erasure(fields.get(i).getType());
+      String desc = Type.getDescriptor(t);
+      mv.visitVarInsn(Opcodes.ALOAD, 2);
+      mv.visitFieldInsn(Opcodes.GETSTATIC, internalName, "h" + (2 * i), HANDLE_DESC);
+      mv.visitVarInsn(Opcodes.ALOAD, 1);
+      mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, HANDLE, "invokeExact",
+          "(" + OBJECT_DESC + ")" + desc, false);
+      mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, OUTPUT, "write" + suffix(t), "(" + desc + ")V",
+          false);
+    }
+    mv.visitInsn(Opcodes.RETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+
+    mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "read",
+        "(" + OBJECT_DESC + Type.getDescriptor(CodecInput.class) + ")V", null, null);
+    mv.visitCode();
+    for (int i = 0; i < fields.size(); i++) {
+      Class<?> t = erasure(fields.get(i).getType());
+      String desc = Type.getDescriptor(t);
+      mv.visitFieldInsn(Opcodes.GETSTATIC, internalName, "h" + (2 * i + 1), HANDLE_DESC);
+      mv.visitVarInsn(Opcodes.ALOAD, 1);
+      mv.visitVarInsn(Opcodes.ALOAD, 2);
+      mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, INPUT, "read" + suffix(t), "()" + desc, false);
+      mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, HANDLE, "invokeExact",
+          "(" + OBJECT_DESC + desc + ")V", false);
+    }
+    mv.visitInsn(Opcodes.RETURN);
+    mv.visitMaxs(0, 0);
+    mv.visitEnd();
+
+    cw.visitEnd();
+    return cw.toByteArray();
+  }
+
+  /**
+   * Codec that reads and writes fields with reflection, in the same format as generated codecs.
+   * Used when a codec class cannot be generated, and by SerializationBenchmark for comparison.
+   *
+   * @param fields
+   * @return
+   */
+  public static ObjectCodec reflective(final List<Field> fields) {
+    for (Field f : fields) {
+      f.setAccessible(true);
+    }
+    return new ObjectCodec() {
+      @Override
+      public void write(Object o, CodecOutput out) {
+        try {
+          for (Field f : fields) {
+            Class<?> t = f.getType();
+            if (!t.isPrimitive()) {
+              out.writeObject(f.get(o));
+            } else if (t == int.class) {
+              out.writeInt(f.getInt(o));
+            } else if (t == double.class) {
+              out.writeDouble(f.getDouble(o));
+            } else if (t == long.class) {
+              out.writeLong(f.getLong(o));
+            } else if (t == boolean.class) {
+              out.writeBoolean(f.getBoolean(o));
+            } else if (t == float.class) {
+              out.writeFloat(f.getFloat(o));
+            } else if (t == short.class) {
+              out.writeShort(f.getShort(o));
+            } else if (t == byte.class) {
+              out.writeByte(f.getByte(o));
+            } else {
+              out.writeChar(f.getChar(o));
+            }
+          }
+        } catch (IllegalAccessException e) {
+          throw new RuntimeException(e);
+        }
+      }
+
+      @Override
+      public void read(Object o, CodecInput in) {
+        try {
+          for (Field f : fields) {
+            Class<?> t = f.getType();
+            if (!t.isPrimitive()) {
+              f.set(o, in.readObject());
+            } else if (t == int.class) {
+              f.setInt(o, in.readInt());
+            } else if (t == double.class) {
+              f.setDouble(o, in.readDouble());
+            } else if (t == long.class) {
+              f.setLong(o, in.readLong());
+            } else if (t == boolean.class) {
+              f.setBoolean(o, in.readBoolean());
+            } else if (t == float.class) {
+              f.setFloat(o, in.readFloat());
+            } else if (t == short.class) {
+              f.setShort(o, in.readShort());
+            } else if (t == byte.class) {
+              f.setByte(o, in.readByte());
+            } else {
+              f.setChar(o, in.readChar());
+            }
+          }
+        } catch (IllegalAccessException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+  }
+}
@@ -0,0 +1,302 @@
+package org.princehouse.mica.util.codec;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import org.princehouse.mica.base.BaseProtocol;
+import org.princehouse.mica.base.net.tcpip.TCPAddress;
+import org.princehouse.mica.util.Serialization;
+
+/**
+ * Reads an object graph written by CodecOutput
+ *
+ * @author lonnie
+ */
+public class CodecInput {
+
+  private final byte[] buffer;
+  private int position = 0;
+
+  private final List<Object> references = new ArrayList<Object>();
+  private final List<Class<?>> classes = new ArrayList<Class<?>>();
+
+  // given to every protocol instance read, like MarkingObjectInputStream
+  private final Object mark = new Object();
+
+  public CodecInput(byte[] data) {
+    buffer = data;
+  }
+
+  private int get() {
+    if (position >= buffer.length) {
+      throw new RuntimeException("codec input truncated");
+    }
+    return buffer[position++];
+  }
+
+  public byte[] readBytes() {
+    int n = readVarInt();
+    if (n > buffer.length - position) {
+      throw new RuntimeException("codec input truncated");
+    }
+    byte[] b = new byte[n];
+    System.arraycopy(buffer, position, b, 0, n);
+    position += n;
+    return b;
+  }
+
+  public int readVarInt() {
+    int v = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = get();
+      v |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return v;
+      }
+    }
+    throw new RuntimeException("malformed varint");
+  }
+
+  public long readVarLong() {
+    long v = 0;
+    for (int shift = 0; shift < 70; shift += 7) {
+      int b = get();
+      v |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return v;
+      }
+    }
+    throw new RuntimeException("malformed varint");
+  }
+
+  public boolean readBoolean() {
+    return get() != 0;
+  }
+
+  public byte readByte() {
+    return (byte) get();
+  }
+
+  public char readChar() {
+    return (char) readVarInt();
+  }
+
+  public short readShort() {
+    return (short) readInt();
+  }
+
+  public int readInt() {
+    int v = readVarInt();
+    return (v >>> 1) ^ -(v & 1);
+  }
+
+  public long readLong() {
+    long v = readVarLong();
+    return (v >>> 1) ^ -(v & 1);
+  }
+
+  public float readFloat() {
+    int bits = 0;
+    for (int i = 0; i < 4; i++) {
+      bits |= (get() & 0xFF) << (8 * i);
+    }
+    return Float.intBitsToFloat(bits);
+  }
+
+  public double readDouble() {
+    long bits = 0;
+    for (int i = 0; i < 8; i++) {
+      bits |= (long) (get() & 0xFF) << (8 * i);
+    }
+    return Double.longBitsToDouble(bits);
+  }
+
+  public String readString() {
+    return new String(readBytes(), StandardCharsets.UTF_8);
+  }
+
+  private Class<?> readClass() {
+    int i = readVarInt();
+    if (i > 0) {
+      return classes.get(i - 1);
+    }
+    Class<?> k = Codecs.forName(readString());
+    classes.add(k);
+    return k;
+  }
+
+  /**
+   * Read a value written by CodecOutput.writeObject
+   *
+   * @return
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private void stamp(Object o) {
+    if (o instanceof BaseProtocol) {
+      ((BaseProtocol) o).setForeignMark(mark);
+    }
+  }
+
+  public Object readObject() {
+    int tag = get();
+    switch (tag) {
+      case CodecOutput.NULL:
+        return null;
+      case CodecOutput.REF:
+        return references.get(readVarInt());
+      case CodecOutput.STRING:
+        return readString();
+      case CodecOutput.INT:
+        return readInt();
+      case CodecOutput.DOUBLE:
+        return readDouble();
+      case CodecOutput.LONG:
+        return readLong();
+      case CodecOutput.BOOLEAN:
+        return readBoolean();
+      case CodecOutput.FLOAT:
+        return readFloat();
+      case CodecOutput.SHORT:
+        return readShort();
+      case CodecOutput.BYTE:
+        return readByte();
+      case CodecOutput.CHAR:
+        return readChar();
+      case CodecOutput.ENUM:
+        return readClass().getEnumConstants()[readVarInt()];
+      case CodecOutput.ADDRESS:
+        return reference(readAddress());
+      case CodecOutput.PRIMITIVE_ARRAY:
+        return reference(readPrimitiveArray(readClass()));
+      case CodecOutput.OBJECT_ARRAY: {
+        Class<?> component = readClass();
+        Object[] a = (Object[]) Array.newInstance(component, readVarInt());
+        reference(a);
+        for (int i = 0; i < a.length; i++) {
+          a[i] = readObject();
+        }
+        return a;
+      }
+      case CodecOutput.COLLECTION: {
+        @SuppressWarnings("unchecked")
+        Collection<Object> c = (Collection<Object>) Codecs.newDefaultInstance(readClass());
+        reference(c);
+        int n = readVarInt();
+        for (int i = 0; i < n; i++) {
+          c.add(readObject());
+        }
+        return c;
+      }
+      case CodecOutput.MAP: {
+        @SuppressWarnings("unchecked")
+        Map<Object, Object> m = (Map<Object, Object>) Codecs.newDefaultInstance(readClass());
+        reference(m);
+        int n = readVarInt();
+        for (int i = 0; i < n; i++) {
+          Object key = readObject();
+          m.put(key, readObject());
+        }
+        return m;
+      }
+      case CodecOutput.OBJECT: {
+        Class<?> k = readClass();
+        Object o = Codecs.newInstance(k);
+        reference(o);
+        Codecs.codec(k).read(o, this);
+        stamp(o);
+        return o;
+      }
+      case CodecOutput.EXTERNAL: {
+        Externalizable o = (Externalizable) Codecs.newDefaultInstance(readClass());
+        reference(o);
+        try {
+          o.readExternal(new ExternalInput(this));
+        } catch (IOException | ClassNotFoundException e) {
+          throw new RuntimeException(e);
+        }
+        stamp(o);
+        return o;
+      }
+      case CodecOutput.JAVA:
+        // embedded Java serialization holds no references into the rest of the message
+        return reference(Serialization.deserializeJava(readBytes(), mark));
+      default:
+        throw new RuntimeException("unknown codec tag " + tag);
+    }
+  }
+
+  private Object reference(Object o) {
+    references.add(o);
+    return o;
+  }
+
+  private TCPAddress readAddress() {
+    byte[] ip = new byte[get() & 0xFF];
+    for (int i = 0; i < ip.length; i++) {
+      ip[i] = (byte) get();
+    }
+    int port = (get() & 0xFF) << 8;
+    port |= get() & 0xFF;
+    try {
+      return TCPAddress.valueOf(ip, port);
+    } catch (UnknownHostException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private Object readPrimitiveArray(Class<?> k) {
+    if (k == byte[].class) {
+      return readBytes();
+    }
+    int n = readVarInt();
+    if (k == int[].class) {
+      int[] a = new int[n];
+      for (int i = 0; i < n; i++) {
+        a[i] = readInt();
+      }
+      return a;
+    } else if (k == double[].class) {
+      double[] a = new double[n];
+      for (int i = 0; i < n; i++) {
+        a[i] = readDouble();
+      }
+      return a;
+    } else if (k == long[].class) {
+      long[] a = new long[n];
+      for (int i = 0; i < n; i++) {
+        a[i] = readLong();
+      }
+      return a;
+    } else if (k == boolean[].class) {
+      boolean[] a = new boolean[n];
+      for (int i = 0; i < n; i++) {
+        a[i] = readBoolean();
+      }
+      return a;
+    } else if (k == float[].class) {
+      float[] a = new float[n];
+      for (int i = 0; i < n; i++) {
+        a[i] = readFloat();
+      }
+      return a;
+    } else if (k == short[].class) {
+      short[] a = new short[n];
+      for (int i = 0; i < n; i++) {
+        a[i] = readShort();
+      }
+      return a;
+    } else {
+      char[] a = new char[n];
+      for (int i = 0; i < n; i++) {
+        a[i] = readChar();
+      }
+      return a;
+    }
+  }
+}
@@ -0,0 +1,349 @@
+package org.princehouse.mica.util.codec;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import org.princehouse.mica.base.net.tcpip.TCPAddress;
+import org.princehouse.mica.util.Serialization;
+
+/**
+ * Writes an object graph to a byte array in the format read by CodecInput.
+ * <p>
+ * Each object is written once; later occurrences are back-references, so shared and cyclic
+ * references survive. Class names are written once per message. Primitive fields and arrays are
+ * written directly (ints and longs as zig-zag varints), collections as a length followed by their
+ * elements, and TCPAddresses as raw IP bytes and a two-byte port. Objects Codecs cannot generate a
+ * codec for are embedded as Java serialization.
+ *
+ * @author lonnie
+ */
+public class CodecOutput {
+
+  // value tags
+  static final int NULL = 0;
+  static final int REF = 1;
+  static final int OBJECT = 2;
+  static final int COLLECTION = 3;
+  static final int MAP = 4;
+  static final int OBJECT_ARRAY = 5;
+  static final int PRIMITIVE_ARRAY = 6;
+  static final int ADDRESS = 7;
+  static final int ENUM = 8;
+  static final int STRING = 9;
+  static final int BOOLEAN = 10;
+  static final int BYTE = 11;
+  static final int CHAR = 12;
+  static final int SHORT = 13;
+  static final int INT = 14;
+  static final int LONG = 15;
+  static final int FLOAT = 16;
+  static final int DOUBLE = 17;
+  static final int JAVA = 18;
+  static final int EXTERNAL = 19;
+
+  private byte[] buffer;
+  private int position = 0;
+
+  private final IdentityHashMap<Object, Integer> references = new IdentityHashMap<Object, Integer>();
+  private final Map<Class<?>, Integer> classes = new HashMap<Class<?>, Integer>();
+
+  public CodecOutput() {
+    this(256);
+  }
+
+  public CodecOutput(int capacity) {
+    buffer = new byte[capacity];
+  }
+
+  /**
+   * @return The bytes written so far
+   */
+  public byte[] toBytes() {
+    byte[] data = new byte[position];
+    System.arraycopy(buffer, 0, data, 0, position);
+    return data;
+  }
+
+  private void require(int n) {
+    if (position + n > buffer.length) {
+      byte[] b = new byte[Math.max(buffer.length * 2, position + n)];
+      System.arraycopy(buffer, 0, b, 0, position);
+      buffer = b;
+    }
+  }
+
+  private void put(int b) {
+    require(1);
+    buffer[position++] = (byte) b;
+  }
+
+  public void writeBytes(byte[] b) {
+    writeVarInt(b.length);
+    require(b.length);
+    System.arraycopy(b, 0, buffer, position, b.length);
+    position += b.length;
+  }
+
+  /**
+   * Unsigned variable-length int: seven bits per byte, low bits first
+   *
+   * @param v
+   */
+  public void writeVarInt(int v) {
+    require(5);
+    while ((v & ~0x7F) != 0) {
+      buffer[position++] = (byte) ((v & 0x7F) | 0x80);
+      v >>>= 7;
+    }
+    buffer[position++] = (byte) v;
+  }
+
+  public void writeVarLong(long v) {
+    require(10);
+    while ((v & ~0x7FL) != 0) {
+      buffer[position++] = (byte) ((v & 0x7F) | 0x80);
+      v >>>= 7;
+    }
+    buffer[position++] = (byte) v;
+  }
+
+  public void writeBoolean(boolean v) {
+    put(v ? 1 : 0);
+  }
+
+  public void writeByte(byte v) {
+    put(v);
+  }
+
+  public void writeChar(char v) {
+    writeVarInt(v);
+  }
+
+  public void writeShort(short v) {
+    writeInt(v);
+  }
+
+  public void writeInt(int v) {
+    writeVarInt((v << 1) ^ (v >> 31));
+  }
+
+  public void writeLong(long v) {
+    writeVarLong((v << 1) ^ (v >> 63));
+  }
+
+  public void writeFloat(float v) {
+    int bits = Float.floatToRawIntBits(v);
+    require(4);
+    for (int i = 0; i < 4; i++) {
+      buffer[position++] = (byte) (bits >>> (8 * i));
+    }
+  }
+
+  public void writeDouble(double v) {
+    long bits = Double.doubleToRawLongBits(v);
+    require(8);
+    for (int i = 0; i < 8; i++) {
+      buffer[position++] = (byte) (bits >>> (8 * i));
+    }
+  }
+
+  public void writeString(String s) {
+    writeBytes(s.getBytes(StandardCharsets.UTF_8));
+  }
+
+  // class index + 1, or 0 followed by the name the first time the class appears
+  private void writeClass(Class<?> k) {
+    Integer i = classes.get(k);
+    if (i != null) {
+      writeVarInt(i + 1);
+    } else {
+      writeVarInt(0);
+      writeString(k.getName());
+      classes.put(k, classes.size());
+    }
+  }
+
+  /**
+   * Write a value of any type: null, a boxed primitive, a String, or a Serializable object graph
+   *
+   * @param o
+   */
+  public void writeObject(Object o) {
+    if (o == null) {
+      put(NULL);
+      return;
+    }
+    Class<?> k = o.getClass();
+    // immutable values are written in place
+    if (k == String.class) {
+      put(STRING);
+      writeString((String) o);
+      return;
+    } else if (k == Integer.class) {
+      put(INT);
+      writeInt((Integer) o);
+      return;
+    } else if (k == Double.class) {
+      put(DOUBLE);
+      writeDouble((Double) o);
+      return;
+    } else if (k == Long.class) {
+      put(LONG);
+      writeLong((Long) o);
+      return;
+    } else if (k == Boolean.class) {
+      put(BOOLEAN);
+      writeBoolean((Boolean) o);
+      return;
+    } else if (k == Float.class) {
+      put(FLOAT);
+      writeFloat((Float) o);
+      return;
+    } else if (k == Short.class) {
+      put(SHORT);
+      writeShort((Short) o);
+      return;
+    } else if (k == Byte.class) {
+      put(BYTE);
+      writeByte((Byte) o);
+      return;
+    } else if (k == Character.class) {
+      put(CHAR);
+      writeChar((Character) o);
+      return;
+    } else if (o instanceof Enum) {
+      put(ENUM);
+      writeClass(((Enum<?>) o).getDeclaringClass());
+      writeVarInt(((Enum<?>) o).ordinal());
+      return;
+    }
+
+    Integer ref = references.get(o);
+    if (ref != null) {
+      put(REF);
+      writeVarInt(ref);
+      return;
+    }
+    references.put(o, references.size());
+
+    switch (Codecs.kind(k)) {
+      case ADDRESS:
+        put(ADDRESS);
+        writeAddress((TCPAddress) o);
+        break;
+      case PRIMITIVE_ARRAY:
+        put(PRIMITIVE_ARRAY);
+        writeClass(k);
+        writePrimitiveArray(o);
+        break;
+      case OBJECT_ARRAY:
+        put(OBJECT_ARRAY);
+        writeClass(k.getComponentType());
+        Object[] a = (Object[]) o;
+        writeVarInt(a.length);
+        for (Object e : a) {
+          writeObject(e);
+        }
+        break;
+      case COLLECTION:
+        put(COLLECTION);
+        writeClass(k);
+        Collection<?> c = (Collection<?>) o;
+        writeVarInt(c.size());
+        for (Object e : c) {
+          writeObject(e);
+        }
+        break;
+      case MAP:
+        put(MAP);
+        writeClass(k);
+        Map<?, ?> m = (Map<?, ?>) o;
+        writeVarInt(m.size());
+        for (Map.Entry<?, ?> e : m.entrySet()) {
+          writeObject(e.getKey());
+          writeObject(e.getValue());
+        }
+        break;
+      case OBJECT:
+        put(OBJECT);
+        writeClass(k);
+        Codecs.codec(k).write(o, this);
+        break;
+      case EXTERNAL:
+        put(EXTERNAL);
+        writeClass(k);
+        try {
+          ((Externalizable) o).writeExternal(new ExternalOutput(this));
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+        break;
+      default:
+        put(JAVA);
+        writeBytes(Serialization.serializeJava((java.io.Serializable) o));
+    }
+  }
+
+  // TCPAddress.writeCompact's format
+  private void writeAddress(TCPAddress a) {
+    byte[] ip = a.getInetAddressAddress().getAddress();
+    require(ip.length + 3);
+    buffer[position++] = (byte) ip.length;
+    System.arraycopy(ip, 0, buffer, position, ip.length);
+    position += ip.length;
+    buffer[position++] = (byte) (a.getPort() >>> 8);
+    buffer[position++] = (byte) a.getPort();
+  }
+
+  private void writePrimitiveArray(Object o) {
+    if (o instanceof byte[]) {
+      writeBytes((byte[]) o);
+    } else if (o instanceof int[]) {
+      int[] a = (int[]) o;
+      writeVarInt(a.length);
+      for (int v : a) {
+        writeInt(v);
+      }
+    } else if (o instanceof double[]) {
+      double[] a = (double[]) o;
+      writeVarInt(a.length);
+      for (double v : a) {
+        writeDouble(v);
+      }
+    } else if (o instanceof long[]) {
+      long[] a = (long[]) o;
+      writeVarInt(a.length);
+      for (long v : a) {
+        writeLong(v);
+      }
+    } else if (o instanceof boolean[]) {
+      boolean[] a = (boolean[]) o;
+      writeVarInt(a.length);
+      for (boolean v : a) {
+        writeBoolean(v);
+      }
+    } else if (o instanceof float[]) {
+      float[] a = (float[]) o;
+      writeVarInt(a.length);
+      for (float v : a) {
+        writeFloat(v);
+      }
+    } else if (o instanceof short[]) {
+      short[] a = (short[]) o;
+      writeVarInt(a.length);
+      for (short v : a) {
+        writeShort(v);
+      }
+    } else {
+      char[] a = (char[]) o;
+      writeVarInt(a.length);
+      for (char v : a) {
+        writeChar(v);
+      }
+    }
+  }
+}
@@ -0,0 +1,220 @@
+package org.princehouse.mica.util.codec;
+
+import java.io.Externalizable;
+import java.io.NotSerializableException;
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.princehouse.mica.base.net.tcpip.TCPAddress;
+import org.princehouse.mica.util.Functional;
+import org.princehouse.mica.util.SerializableClasses;
+import org.princehouse.mica.util.reflection.ReachableObjectVisitor;
+
+/**
+ * Serializer that writes protocol state with per-class codecs generated at runtime (see
+ * CodecGenerator), selected by "-serializer codec".
+ * <p>
+ * Java serialization describes every class it writes and reflects over every field of every
+ * object. Here each MiCA class gets a generated codec that reads and writes its fields in a fixed
+ * order, and classes are named once per message. Both peers run the same code, so the field order
+ * agrees.
+ * <p>
+ * Externalizable classes write themselves through writeExternal. Classes with other Java
+ * serialization hooks and JDK classes other than the common collections are embedded as Java
+ * serialization, as are collections that are not plain JDK collections or field-less subclasses
+ * of them (Distribution).
+ *
+ * @author lonnie
+ */
+public class Codecs {
+
+  // JDK collections that are rebuilt element by element with their no-arg constructor
+  private static final Set<Class<?>> COLLECTIONS = Functional.set(Functional.list(
+      new Class<?>[]{ArrayList.class, LinkedList.class, ArrayDeque.class, HashSet.class,
+          LinkedHashSet.class, HashMap.class, LinkedHashMap.class}));
+
+  public static byte[] serialize(Serializable obj) {
+    CodecOutput out = new CodecOutput();
+    out.writeObject(obj);
+    return out.toBytes();
+  }
+
+  public static Serializable deserialize(byte[] data) {
+    return (Serializable) new CodecInput(data).readObject();
+  }
+
+  private static final Map<Class<?>, Integer> kinds = new ConcurrentHashMap<Class<?>, Integer>();
+
+  /**
+   * @param k
+   * @return The CodecOutput tag used for instances of k: ADDRESS, PRIMITIVE_ARRAY, OBJECT_ARRAY,
+   * COLLECTION, MAP, OBJECT, EXTERNAL or JAVA
+   */
+  static int kind(Class<?> k) {
+    Integer kind = kinds.get(k);
+    if (kind == null) {
+      kind = classify(k);
+      kinds.put(k, kind);
+    }
+    return kind;
+  }
+
+  private static int classify(Class<?> k) {
+    if (k == TCPAddress.class) {
+      return CodecOutput.ADDRESS;
+    } else if (k.isArray()) {
+      return k.getComponentType().isPrimitive() ? CodecOutput.PRIMITIVE_ARRAY
+          : CodecOutput.OBJECT_ARRAY;
+    } else if (!Serializable.class.isAssignableFrom(k)) {
+      throw new RuntimeException(new NotSerializableException(k.getName()));
+    } else if (Externalizable.class.isAssignableFrom(k) && !SerializableClasses.isJdk(k)) {
+      // before the collection check, so Externalizable maps such as AddressIntMap keep their
+      // own encoding
+      return (Modifier.isPublic(k.getModifiers()) && noArgConstructor(k) != null
+          ? CodecOutput.EXTERNAL : CodecOutput.JAVA);
+    } else if (Collection.class.isAssignableFrom(k) || Map.class.isAssignableFrom(k)) {
+      if (!isPlainCollection(k)) {
+        return CodecOutput.JAVA;
+      }
+      return Collection.class.isAssignableFrom(k) ? CodecOutput.COLLECTION : CodecOutput.MAP;
+    } else if (SerializableClasses.isJdk(k)) {
+      return CodecOutput.JAVA;
+    } else if (SerializableClasses.customizesSerialization(k)) {
+      return CodecOutput.JAVA;
+    } else {
+      return CodecOutput.OBJECT;
+    }
+  }
+
+  // one of COLLECTIONS, or a subclass of one that adds no serialized state
+  private static boolean isPlainCollection(Class<?> k) {
+    Class<?> base = k;
+    while (!SerializableClasses.isJdk(base)) {
+      base = base.getSuperclass();
+    }
+    if (!COLLECTIONS.contains(base)) {
+      return false;
+    }
+    if (base == k) {
+      return true;
+    }
+    return !SerializableClasses.customizesSerialization(k) && serializedFields(k).isEmpty()
+        && noArgConstructor(k) != null;
+  }
+
+  /**
+   * @param k
+   * @return The non-static, non-transient fields of k and its superclasses, superclass fields
+   * first and then by name
+   */
+  static List<Field> serializedFields(Class<?> k) {
+    List<Field> fields = Functional.list();
+    for (Field f : ReachableObjectVisitor.getAllFields(k)) {
+      int m = f.getModifiers();
+      if (!Modifier.isStatic(m) && !Modifier.isTransient(m)) {
+        fields.add(f);
+      }
+    }
+    Collections.sort(fields, new Comparator<Field>() {
+      @Override
+      public int compare(Field a, Field b) {
+        int c = depth(a.getDeclaringClass()) - depth(b.getDeclaringClass());
+        return c != 0 ? c : a.getName().compareTo(b.getName());
+      }
+    });
+    return fields;
+  }
+
+  private static int depth(Class<?> k) {
+    int d = 0;
+    for (; k != null; k = k.getSuperclass()) {
+      d++;
+    }
+    return d;
+  }
+
+  private static final Map<Class<?>, ObjectCodec> codecs = new ConcurrentHashMap<Class<?>, ObjectCodec>();
+
+  /**
+   * @param k
+   * @return The codec for the fields of k, generated on first use
+   */
+  static ObjectCodec codec(Class<?> k) {
+    ObjectCodec codec = codecs.get(k);
+    if (codec == null) {
+      codec = CodecGenerator.generate(k, serializedFields(k));
+      codecs.put(k, codec);
+    }
+    return codec;
+  }
+
+  private static final Map<String, Class<?>> classNames = new ConcurrentHashMap<String, Class<?>>();
+
+  static Class<?> forName(String name) {
+    Class<?> k = classNames.get(name);
+    if (k == null) {
+      try {
+        k = Class.forName(name);
+      } catch (ClassNotFoundException e) {
+        throw new RuntimeException(e);
+      }
+      classNames.put(name, k);
+    }
+    return k;
+  }
+
+  static Object newInstance(Class<?> k) {
+    return SerializableClasses.instantiator(k).newInstance();
+  }
+
+  private static final Map<Class<?>, Constructor<?>> noArgConstructors = new ConcurrentHashMap<Class<?>, Constructor<?>>();
+
+  // collections and Externalizable classes are constructed with their no-arg constructor
+  static Object newDefaultInstance(Class<?> k) {
+    Constructor<?> c = noArgConstructors.get(k);
+    if (c == null) {
+      c = noArgConstructor(k);
+      if (c == null) {
+        throw new RuntimeException("no no-arg constructor for " + k.getName());
+      }
+      noArgConstructors.put(k, c);
+    }
+    return construct(c);
+  }
+
+  private static Constructor<?> noArgConstructor(Class<?> k) {
+    try {
+      Constructor<?> c = k.getDeclaredConstructor();
+      if (!Modifier.isPublic(c.getModifiers()) || !Modifier.isPublic(k.getModifiers())) {
+        c.setAccessible(true);
+      }
+      return c;
+    } catch (NoSuchMethodException e) {
+      return null;
+    }
+  }
+
+  private static Object construct(Constructor<?> c) {
+    try {
+      return c.newInstance();
+    } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+      throw new RuntimeException(e);
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package org.princehouse.mica.util.codec;
+
+import java.io.ObjectInput;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Lets Externalizable classes read themselves from a CodecInput
+ *
+ * @author lonnie
+ */
+class ExternalInput implements ObjectInput {
+
+  private final CodecInput in;
+
+  ExternalInput(CodecInput in) {
+    this.in = in;
+  }
+
+  @Override
+  public Object readObject() {
+    return in.readObject();
+  }
+
+  @Override
+  public int read() {
+    return in.readByte() & 0xFF;
+  }
+
+  @Override
+  public int read(byte[] b) {
+    return read(b, 0, b.length);
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) {
+    readFully(b, off, len);
+    return len;
+  }
+
+  @Override
+  public long skip(long n) {
+    for (long i = 0; i < n; i++) {
+      in.readByte();
+    }
+    return n;
+  }
+
+  @Override
+  public int available() {
+    return 0;
+  }
+
+  @Override
+  public void close() {
+  }
+
+  @Override
+  public void readFully(byte[] b) {
+    readFully(b, 0, b.length);
+  }
+
+  @Override
+  public void readFully(byte[] b, int off, int len) {
+    for (int i = off; i < off + len; i++) {
+      b[i] = in.readByte();
+    }
+  }
+
+  @Override
+  public int skipBytes(int n) {
+    return (int) skip(n);
+  }
+
+  @Override
+  public boolean readBoolean() {
+    return in.readBoolean();
+  }
+
+  @Override
+  public byte readByte() {
+    return in.readByte();
+  }
+
+  @Override
+  public int readUnsignedByte() {
+    return in.readByte() & 0xFF;
+  }
+
+  @Override
+  public short readShort() {
+    return in.readShort();
+  }
+
+  @Override
+  public int readUnsignedShort() {
+    return in.readShort() & 0xFFFF;
+  }
+
+  @Override
+  public char readChar() {
+    return in.readChar();
+  }
+
+  @Override
+  public int readInt() {
+    return in.readInt();
+  }
+
+  @Override
+  public long readLong() {
+    return in.readLong();
+  }
+
+  @Override
+  public float readFloat() {
+    return in.readFloat();
+  }
+
+  @Override
+  public double readDouble() {
+    return in.readDouble();
+  }
+
+  @Override
+  public String readLine() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public String readUTF() {
+    return new String(in.readBytes(), StandardCharsets.UTF_8);
+  }
+}
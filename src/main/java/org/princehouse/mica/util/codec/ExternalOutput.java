@@ -0,0 +1,107 @@
+package org.princehouse.mica.util.codec;
+
+import java.io.ObjectOutput;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Lets Externalizable classes write themselves to a CodecOutput
+ *
+ * @author lonnie
+ */
+class ExternalOutput implements ObjectOutput {
+
+  private final CodecOutput out;
+
+  ExternalOutput(CodecOutput out) {
+    this.out = out;
+  }
+
+  @Override
+  public void writeObject(Object obj) {
+    out.writeObject(obj);
+  }
+
+  @Override
+  public void write(int b) {
+    out.writeByte((byte) b);
+  }
+
+  @Override
+  public void write(byte[] b) {
+    write(b, 0, b.length);
+  }
+
+  @Override
+  public void write(byte[] b, int off, int len) {
+    for (int i = off; i < off + len; i++) {
+      out.writeByte(b[i]);
+    }
+  }
+
+  @Override
+  public void writeBoolean(boolean v) {
+    out.writeBoolean(v);
+  }
+
+  @Override
+  public void writeByte(int v) {
+    out.writeByte((byte) v);
+  }
+
+  @Override
+  public void writeShort(int v) {
+    out.writeShort((short) v);
+  }
+
+  @Override
+  public void writeChar(int v) {
+    out.writeChar((char) v);
+  }
+
+  @Override
+  public void writeInt(int v) {
+    out.writeInt(v);
+  }
+
+  @Override
+  public void writeLong(long v) {
+    out.writeLong(v);
+  }
+
+  @Override
+  public void writeFloat(float v) {
+    out.writeFloat(v);
+  }
+
+  @Override
+  public void writeDouble(double v) {
+    out.writeDouble(v);
+  }
+
+  @Override
+  public void writeBytes(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      out.writeByte((byte) s.charAt(i));
+    }
+  }
+
+  @Override
+  public void writeChars(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      out.writeChar(s.charAt(i));
+    }
+  }
+
+  @Override
+  public void writeUTF(String s) {
+    out.writeBytes(s.getBytes(StandardCharsets.UTF_8));
+  }
+
+  @Override
+  public void flush() {
+  }
+
+  @Override
+  public void close() {
+  }
+}
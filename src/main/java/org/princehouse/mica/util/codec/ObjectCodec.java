@@ -0,0 +1,26 @@
+package org.princehouse.mica.util.codec;
+
+/**
+ * Writes and reads the serialized fields of instances of one class. Implementations are generated
+ * by CodecGenerator.
+ *
+ * @author lonnie
+ */
+public interface ObjectCodec {
+
+  /**
+   * Write the fields of o
+   *
+   * @param o
+   * @param out
+   */
+  public void write(Object o, CodecOutput out);
+
+  /**
+   * Read the fields of o, which has just been instantiated
+   *
+   * @param o
+   * @param in
+   */
+  public void read(Object o, CodecInput in);
+}
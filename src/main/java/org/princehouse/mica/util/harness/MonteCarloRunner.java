@@ -0,0 +1,204 @@
+package org.princehouse.mica.util.harness;
+
+import fj.F;
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import org.princehouse.mica.base.exceptions.InvalidOption;
+import org.princehouse.mica.base.model.MicaOptions;
+import org.princehouse.mica.util.Functional;
+
+/**
+ * Runs many independent simulations (e.g., one per random seed, or one per parameter setting) in
+ * parallel on a ForkJoinPool, and collects a result from each.
+ * <p>
+ * Every run gets its own TestHarness, Simulator, and copy of the options, and binds them only to
+ * the worker thread executing it (see TestHarness.setGlobalContext), so runs do not share mutable
+ * simulation state. Each run logs to its own subdirectory of the base logdir ("run0", "run1", ...).
+ * Protocols that draw from process-wide state (e.g., static Random instances) are not isolated and
+ * may not be reproducible when run in parallel.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * try (MonteCarloRunner runner = new MonteCarloRunner(8)) {
+ *   List&lt;Run&lt;Double&gt;&gt; runs = runner.run(MonteCarloRunner.seeds(options, 0L, 100), factory,
+ *       collector);
+ * }
+ * </pre>
+ * <p>
+ * A runner created with a parallelism level owns its pool; close() shuts the pool down. Runners on
+ * the common pool or on a pool passed in leave it running.
+ *
+ * @author lonnie
+ */
+public class MonteCarloRunner implements AutoCloseable {
+
+  /**
+   * Outcome of a single simulation
+   *
+   * @param <R> Type of the collected result
+   */
+  public static class Run<R> {
+
+    public final int index;
+    public final MicaOptions options;
+    public R result = null;
+    public Throwable error = null;
+    public long elapsedMS = 0L;
+
+    public Run(int index, MicaOptions options) {
+      this.index = index;
+      this.options = options;
+    }
+
+    public boolean failed() {
+      return error != null;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("run %d (seed %d): %s", index, options.seed,
+          (failed() ? error : result));
+    }
+  }
+
+  private final ForkJoinPool pool;
+  // whether close() shuts the pool down
+  private final boolean ownsPool;
+
+  /**
+   * Run simulations on the common ForkJoinPool
+   */
+  public MonteCarloRunner() {
+    this(ForkJoinPool.commonPool(), false);
+  }
+
+  /**
+   * Run simulations on a pool of this runner's own, shut down by close()
+   *
+   * @param parallelism
+   */
+  public MonteCarloRunner(int parallelism) {
+    this(new ForkJoinPool(parallelism), true);
+  }
+
+  /**
+   * Run simulations on pool, which the caller shuts down
+   *
+   * @param pool
+   */
+  public MonteCarloRunner(ForkJoinPool pool) {
+    this(pool, false);
+  }
+
+  private MonteCarloRunner(ForkJoinPool pool, boolean ownsPool) {
+    this.pool = pool;
+    this.ownsPool = ownsPool;
+  }
+
+  public ForkJoinPool getPool() {
+    return pool;
+  }
+
+  /**
+   * Copies of base that differ only in their seeds: firstSeed, firstSeed+1, ...
+   *
+   * @param base
+   * @param firstSeed
+   * @param count
+   * @return
+   */
+  public static List<MicaOptions> seeds(MicaOptions base, long firstSeed, int count) {
+    List<MicaOptions> optionSets = Functional.list();
+    for (int i = 0; i < count; i++) {
+      MicaOptions options = base.copy();
+      options.seed = firstSeed + i;
+      optionSets.add(options);
+    }
+    return optionSets;
+  }
+
+  /**
+   * Create the harness for one run. Override to use a TestHarness subclass.
+   *
+   * @param options Options of the run
+   * @return
+   */
+  protected TestHarness createHarness(MicaOptions options) {
+    return new TestHarness();
+  }
+
+  /**
+   * Run one simulation per element of optionSets, in parallel, and wait for all of them to finish.
+   * A run that throws is recorded in its Run's error field; the other runs are unaffected.
+   *
+   * @param optionSets Options of each run. Runs must be simulations and must set stopAfter.
+   * @param factory    Creates protocol instances. Shared by all runs, so it must be thread-safe.
+   * @param collector  Extracts the result from a finished run's harness (e.g., from getRuntimes())
+   * @return Runs in the same order as optionSets
+   */
+  public <R> List<Run<R>> run(List<MicaOptions> optionSets, final ProtocolInstanceFactory factory,
+      final F<TestHarness, R> collector) {
+    List<Callable<Run<R>>> tasks = Functional.list();
+    int i = 0;
+    for (MicaOptions base : optionSets) {
+      final MicaOptions options = prepareOptions(base, i);
+      final Run<R> run = new Run<R>(i++, options);
+      tasks.add(new Callable<Run<R>>() {
+        @Override
+        public Run<R> call() {
+          long start = System.currentTimeMillis();
+          try {
+            TestHarness harness = createHarness(options);
+            harness.setGlobalContext(false);
+            harness.runMain(options, factory);
+            run.result = collector.f(harness);
+          } catch (Throwable t) {
+            run.error = t;
+          }
+          run.elapsedMS = System.currentTimeMillis() - start;
+          return run;
+        }
+      });
+    }
+
+    List<Run<R>> runs = Functional.list();
+    for (Future<Run<R>> future : pool.invokeAll(tasks)) {
+      try {
+        runs.add(future.get());
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      } catch (ExecutionException e) {
+        throw new RuntimeException(e.getCause());
+      }
+    }
+    return runs;
+  }
+
+  /**
+   * Shut down the pool if this runner created it, once the runs submitted so far finish
+   */
+  @Override
+  public void close() {
+    if (ownsPool) {
+      pool.shutdown();
+    }
+  }
+
+  private MicaOptions prepareOptions(MicaOptions base, int index) {
+    if (!base.implementation.equals("simulation")) {
+      throw new InvalidOption("implementation", base.implementation);
+    }
+    if (base.stopAfter <= 0) {
+      // the simulation would never end
+      throw new InvalidOption("stopAfter", base.stopAfter);
+    }
+    MicaOptions options = base.copy();
+    options.logdir = new File(base.logdir, String.format("run%d", index)).getPath();
+    return options;
+  }
+}
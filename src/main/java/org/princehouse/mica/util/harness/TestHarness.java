@@ -12,7 +12,10 @@ import java.util.List;
 import java.util.Random;
 import java.util.TimerTask;
 import org.princehouse.mica.base.LogFlag;
+import org.princehouse.mica.base.dataflow.DataflowCompiler;
 import org.princehouse.mica.base.exceptions.InvalidOption;
+import org.princehouse.mica.base.merge.MergeCompiler;
+import org.princehouse.mica.base.model.Compiler;
 import org.princehouse.mica.base.model.MiCA;
 import org.princehouse.mica.base.model.MicaOptions;
 import org.princehouse.mica.base.model.MicaRuntime;
@@ -24,9 +27,11 @@ import org.princehouse.mica.base.sim.FakeCompiler;
 import org.princehouse.mica.base.sim.Simulator;
 import org.princehouse.mica.base.simple.SimpleCompiler;
 import org.princehouse.mica.base.simple.SimpleRuntimeInterface;
+import org.princehouse.mica.base.sugar.Sugar;
 import org.princehouse.mica.lib.abstractions.Overlay;
 import org.princehouse.mica.util.Array;
 import org.princehouse.mica.util.Functional;
+import org.princehouse.mica.util.HarnessTimerTask;
 import org.princehouse.mica.util.SinglyLinkedRingGraph;
 
 /**
@@ -41,6 +46,8 @@ import org.princehouse.mica.util.SinglyLinkedRingGraph;
 public class TestHarness implements ProtocolInstanceFactory {
 
   private RuntimeInterface runtimeInterface = null;
+  private MiCA.Context context = null;
+  private boolean globalContext = true;
   public static final String LOG_NAMES = Array.join(", ", LogFlag.values());
   private List<P2<Long, TimerTask>> timers = Functional.list();
 
@@ -82,7 +89,7 @@ public class TestHarness implements ProtocolInstanceFactory {
 
   public TimerTask taskStop() {
     final TestHarness harness = this;
-    return new TimerTask() {
+    return new HarnessTimerTask() {
       @Override
       public void run() {
         harness.stop();
@@ -107,10 +114,12 @@ public class TestHarness implements ProtocolInstanceFactory {
       MicaRuntime rt = runtimeInterface
           .addRuntime(addr, seed, options.roundLength, stagger, lockTimeout);
 
-      MiCA.getRuntimeInterface().getRuntimeContextManager().setNativeRuntime(rt);
+      runtimeInterface.getRuntimeContextManager().setNativeRuntime(rt);
       Protocol pinstance = createProtocolInstance(i++, addr, neighbors);
-      MiCA.getRuntimeInterface().getRuntimeContextManager().clear();
+      runtimeInterface.getRuntimeContextManager().clear();
       rt.setProtocolInstance(pinstance);
+      // resolve annotations now, not concurrently from every node in the first round
+      Sugar.v().warm(pinstance);
     }
   }
 
@@ -137,7 +146,33 @@ public class TestHarness implements ProtocolInstanceFactory {
    */
 
   public List<MicaRuntime> getRuntimes() {
-    return MiCA.getRuntimeInterface().getRuntimes();
+    return runtimeInterface.getRuntimes();
+  }
+
+  public RuntimeInterface getRuntimeInterface() {
+    return runtimeInterface;
+  }
+
+  /**
+   * @return The runtime interface, options, and compiler of this harness's experiment
+   */
+  public MiCA.Context getContext() {
+    return context;
+  }
+
+  public boolean isGlobalContext() {
+    return globalContext;
+  }
+
+  /**
+   * If true (the default), setting options also installs this harness's runtime interface, options,
+   * and compiler as the process-wide MiCA defaults. Set to false to run several harnesses
+   * concurrently in one JVM; each experiment is then only visible from the thread running it.
+   *
+   * @param globalContext
+   */
+  public void setGlobalContext(boolean globalContext) {
+    this.globalContext = globalContext;
   }
 
   private void run() {
@@ -187,8 +222,27 @@ public class TestHarness implements ProtocolInstanceFactory {
   }
 
   public void validateOptions(MicaOptions options) {
-    if (options.serializer.equals("kryo")) {
-      throw new UnsupportedOperationException("kryo serializer no longer supported");
+    if (!options.serializer.equals("java") && !options.serializer.equals("kryo")
+        && !options.serializer.equals("codec")) {
+      throw new InvalidOption("serializer", options.serializer);
+    }
+    if (options.connectionPool && !options.transport.equals("nio")) {
+      // the thread transport handles a single exchange per connection
+      throw new InvalidOption("connectionPool", "requires -transport nio");
+    }
+    if (!options.threads.equals("platform") && !options.threads.equals("virtual")) {
+      throw new InvalidOption("threads", options.threads);
+    }
+    if (!options.responseEncoding.equals("full") && !options.responseEncoding.equals(
+        "writeset")) {
+      throw new InvalidOption("responseEncoding", options.responseEncoding);
+    }
+    if (!options.scheduler.equals("loop") && !options.scheduler.equals("wheel")) {
+      throw new InvalidOption("scheduler", options.scheduler);
+    }
+    if (options.threads.equals("virtual") && !options.transport.equals("nio")) {
+      // the thread transport needs a platform thread per address anyway
+      throw new InvalidOption("threads", "virtual requires -transport nio");
     }
   }
 
@@ -262,27 +316,41 @@ public class TestHarness implements ProtocolInstanceFactory {
     if (runtimeName.equals("simple")) {
       runtimeInterface = new SimpleRuntimeInterface();
     } else if (runtimeName.equals("simulation")) {
-      runtimeInterface = Simulator.v();
+      runtimeInterface = new Simulator();
     } else {
       throw new InvalidOption("implementation", options.implementation);
     }
 
+    Compiler compiler;
     if (options.compiler.equals("default")) {
-      MiCA.setCompiler(runtimeInterface.getDefaultCompiler());
+      compiler = runtimeInterface.getDefaultCompiler();
     } else if (options.compiler.equals("simple")) {
-      MiCA.setCompiler(new SimpleCompiler());
+      compiler = new SimpleCompiler();
     } else if (options.compiler.equals("fake")) {
-      MiCA.setCompiler(new FakeCompiler());
+      compiler = new FakeCompiler();
+    } else if (options.compiler.equals("dataflow")) {
+      compiler = new DataflowCompiler();
+    } else if (options.compiler.equals("merge")) {
+      compiler = new MergeCompiler();
     } else {
       throw new InvalidOption("compiler", options.compiler);
     }
 
+    if (runtimeInterface instanceof Simulator) {
+      Simulator simulator = (Simulator) runtimeInterface;
+      simulator.setOptions(options);
+      simulator.setCompiler(compiler);
+    }
+
     runtimeInterface.reset();
-    MiCA.setRuntimeInterface(runtimeInterface);
-    MiCA.setOptions(options);
+    context = new MiCA.Context(runtimeInterface, options, compiler);
+    if (globalContext) {
+      MiCA.setCompiler(compiler);
+      MiCA.setRuntimeInterface(runtimeInterface);
+      MiCA.setOptions(options);
+    }
   }
 
-  @SuppressWarnings({"unchecked", "rawtypes"})
   public void processOptions() {
     MicaOptions options = getOptions();
     options.mainClassName = this.getClass().getName();
@@ -317,11 +385,6 @@ public class TestHarness implements ProtocolInstanceFactory {
       clearLogdir();
     }
 
-    // logging options
-    LogFlag.setCurrentLogMask(LogFlag.set(LogFlag.getCurrentLogMask(), (List) options.logsEnable));
-    LogFlag
-        .setCurrentLogMask(LogFlag.unset(LogFlag.getCurrentLogMask(), (List) options.logsDisable));
-
     TestHarness.BASE_PORT = options.port;
 
     if (getGraph() == null) {
@@ -355,10 +418,15 @@ public class TestHarness implements ProtocolInstanceFactory {
   public void runMain(MicaOptions options, ProtocolInstanceFactory factory) {
     assert (options != null);
     setOptions(options);
-    setFactory(factory);
-    processOptions();
-    configure();
-    runGraph();
+    MiCA.Context previous = MiCA.enter(context);
+    try {
+      setFactory(factory);
+      processOptions();
+      configure();
+      runGraph();
+    } finally {
+      MiCA.exit(previous);
+    }
   }
 
   /**
@@ -4,17 +4,20 @@ import java.lang.reflect.Field;
 import java.security.AccessController;
 import java.security.PrivilegedActionException;
 import java.security.PrivilegedExceptionAction;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
 import org.princehouse.mica.util.Functional;
 import soot.Modifier;
 
 public abstract class ReachableObjectVisitor {
 
-  private Set<Object> visited = new HashSet<Object>();
+  // by identity: distinct objects that are equals() to each other are each visited
+  private Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
 
   public ReachableObjectVisitor() {
   }
@@ -107,7 +110,8 @@ public abstract class ReachableObjectVisitor {
 
   }
 
-  private static Map<Class<?>, List<Field>> allFieldsCache = Functional.map();
+  private static Map<Class<?>, List<Field>> allFieldsCache =
+      new ConcurrentHashMap<Class<?>, List<Field>>();
 
   /**
    * Get all fields, including private, inherited, and inherited private
@@ -1,20 +1,68 @@
 package org.princehouse.mica.util.reflection;
 
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.function.Function;
 import org.princehouse.mica.base.model.Protocol;
+import org.princehouse.mica.base.sugar.GeneratedMetadata;
 import org.reflections.Reflections;
 
 public class ReflectionUtil {
 
+  /**
+   * Package scanned when there is no protocol index
+   */
+  static final String SCAN_PACKAGE = "org.princehouse.mica";
+
+  /**
+   * Subtypes of iface. For Protocol subtypes, uses the protocol indexes generated by
+   * ProtocolProcessor (see GeneratedMetadata.INDEX) if there are any on the class path, and does not
+   * scan the class path at all; protocols compiled without the processor are then not found.
+   * Otherwise scans org.princehouse.mica with Reflections.
+   *
+   * @param iface
+   * @return
+   */
   public static <SomeType> Set<Class<? extends SomeType>> getImplementations(
       Class<SomeType> iface) {
-    // FIXME currently only searches org.princehouse.mica... needs to extend
-    // to user packages/classloaders too
-    Reflections reflections = new Reflections("org.princehouse.mica");
+    return getImplementations(iface, Reflections::new);
+  }
 
-    Set<Class<? extends SomeType>> subTypes = reflections.getSubTypesOf(iface);
+  /**
+   * Same as getImplementations(iface), scanning with the Reflections built by scanner, if it scans
+   *
+   * @param iface
+   * @param scanner Builds the Reflections scanner for a package name
+   * @return
+   */
+  @SuppressWarnings("unchecked")
+  public static <SomeType> Set<Class<? extends SomeType>> getImplementations(
+      Class<SomeType> iface, Function<String, Reflections> scanner) {
+    ClassLoader loader = iface.getClassLoader();
+    List<String> index = (Protocol.class.isAssignableFrom(iface) && loader != null
+        ? GeneratedMetadata.readIndex(loader) : null);
+    if (index != null) {
+      Set<Class<? extends SomeType>> subTypes = new HashSet<Class<? extends SomeType>>();
+      for (String name : index) {
+        Class<?> k;
+        try {
+          k = Class.forName(name, false, loader);
+        } catch (ClassNotFoundException e) {
+          // stale index entry
+          continue;
+        }
+        if (k != iface && iface.isAssignableFrom(k)) {
+          subTypes.add((Class<? extends SomeType>) k);
+        }
+      }
+      return subTypes;
+    }
 
-    return subTypes;
+    // FIXME currently only searches org.princehouse.mica... needs to extend
+    // to user packages/classloaders too
+    Reflections reflections = scanner.apply(SCAN_PACKAGE);
+    return reflections.getSubTypesOf(iface);
   }
 
   public static Set<Class<? extends Protocol>> getAllProtocolClasses() {
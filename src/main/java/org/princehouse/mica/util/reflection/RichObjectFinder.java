@@ -0,0 +1,262 @@
+package org.princehouse.mica.util.reflection;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Finds every instance of a "rich" type (see RuntimeContextManager.isRichObject) reachable from a
+ * root object, following the same edges as ReachableObjectVisitor: the fields of non-java.*
+ * classes, the elements of object arrays, and the elements of Iterables. Static fields are not
+ * followed.
+ * <p>
+ * Unlike ReachableObjectVisitor, it only follows edges that can lead to a rich object. For each
+ * class it meets, it computes once a plan: the fields whose declared type might hold a rich object,
+ * and whether its elements need to be walked. A field is skipped when its declared type is closed:
+ * a primitive, a final class none of whose fields can reach a rich object (Integer, String,
+ * UUID...), an array of closed types, or a java.* collection or map whose type arguments are
+ * all closed (Set&lt;Integer&gt;, List&lt;String&gt;). Values whose runtime class can reach nothing
+ * (a HashMap, whose contents are not followed) are never pushed. So a graph of protocols that hold
+ * large sets of integers or maps of summaries costs about one step per protocol.
+ * <p>
+ * The visited set is by identity, so protocols that are equals() to each other are all found.
+ *
+ * @author lonnie
+ */
+public class RichObjectFinder {
+
+  private static final Map<Class<?>, RichObjectFinder> finders =
+      new ConcurrentHashMap<Class<?>, RichObjectFinder>();
+
+  /**
+   * @param richType
+   * @return The shared finder for instances of richType
+   */
+  public static RichObjectFinder forType(Class<?> richType) {
+    RichObjectFinder finder = finders.get(richType);
+    if (finder == null) {
+      finder = new RichObjectFinder(richType);
+      RichObjectFinder prior = finders.putIfAbsent(richType, finder);
+      if (prior != null) {
+        finder = prior;
+      }
+    }
+    return finder;
+  }
+
+  /**
+   * What to do with an instance of one runtime class
+   */
+  private static class Plan {
+
+    private static final Field[] NO_FIELDS = new Field[0];
+
+    // an instance of the rich type
+    private boolean rich = false;
+    // fields that might reach a rich object
+    private Field[] fields = NO_FIELDS;
+    // walk the elements of an Iterable / object array
+    private boolean iterable = false;
+    private boolean array = false;
+
+    // nothing rich is reachable from an instance; never pushed
+    private boolean closed() {
+      return !rich && fields.length == 0 && !iterable && !array;
+    }
+  }
+
+  private final Class<?> richType;
+
+  private final Map<Class<?>, Plan> plans = new ConcurrentHashMap<Class<?>, Plan>();
+
+  // declared types that are known to be closed / open
+  private final Map<Type, Boolean> closedTypes = new ConcurrentHashMap<Type, Boolean>();
+
+  private RichObjectFinder(Class<?> richType) {
+    this.richType = richType;
+  }
+
+  public Class<?> getRichType() {
+    return richType;
+  }
+
+  /**
+   * @param root
+   * @return Every unique instance of the rich type reachable from root, root included
+   */
+  public List<Object> find(Object root) {
+    List<Object> found = new ArrayList<Object>();
+    if (root == null) {
+      return found;
+    }
+
+    Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+    Object[] stack = new Object[16];
+    int top = 0;
+    stack[top++] = root;
+
+    while (top > 0) {
+      Object o = stack[--top];
+      stack[top] = null;
+      if (!visited.add(o)) {
+        continue;
+      }
+      Plan plan = plan(o.getClass());
+      if (plan.rich) {
+        found.add(o);
+      }
+
+      for (Field field : plan.fields) {
+        Object child;
+        try {
+          child = field.get(o);
+        } catch (IllegalAccessException e) {
+          throw new RuntimeException(e);
+        }
+        if (child != null && !plan(child.getClass()).closed()) {
+          if (top == stack.length) {
+            stack = Arrays.copyOf(stack, top * 2);
+          }
+          stack[top++] = child;
+        }
+      }
+
+      if (plan.array || plan.iterable) {
+        Iterable<?> elements = (plan.array ? Arrays.asList((Object[]) o)
+            : (Iterable<?>) o);
+        for (Object child : elements) {
+          if (child != null && !plan(child.getClass()).closed()) {
+            if (top == stack.length) {
+              stack = Arrays.copyOf(stack, top * 2);
+            }
+            stack[top++] = child;
+          }
+        }
+      }
+    }
+    return found;
+  }
+
+  private Plan plan(Class<?> klass) {
+    Plan plan = plans.get(klass);
+    if (plan == null) {
+      plan = makePlan(klass);
+      plans.put(klass, plan);
+    }
+    return plan;
+  }
+
+  private Plan makePlan(Class<?> klass) {
+    Plan plan = new Plan();
+    plan.rich = richType.isAssignableFrom(klass);
+    if (klass.isArray()) {
+      plan.array = !isClosed(klass.getComponentType());
+      return plan;
+    }
+    plan.iterable = Iterable.class.isAssignableFrom(klass);
+
+    List<Field> open = new ArrayList<Field>();
+    for (Field field : ReachableObjectVisitor.getAllFields(klass)) {
+      if (Modifier.isStatic(field.getModifiers())) {
+        continue;
+      }
+      if (!isClosed(field.getGenericType())) {
+        open.add(field);
+      }
+    }
+    if (open.size() > 0) {
+      plan.fields = open.toArray(new Field[open.size()]);
+    }
+    return plan;
+  }
+
+  private boolean isClosed(Type t) {
+    Boolean closed = closedTypes.get(t);
+    if (closed == null) {
+      closed = isClosed(t, new HashSet<Type>());
+      closedTypes.put(t, closed);
+    }
+    return closed;
+  }
+
+  /**
+   * Can no value of declared type t reach a rich object?
+   *
+   * @param t
+   * @param inProgress Types being analyzed further up; assumed closed, since a cycle adds nothing
+   *                   that is not reachable some other way
+   * @return
+   */
+  private boolean isClosed(Type t, Set<Type> inProgress) {
+    if (!inProgress.add(t)) {
+      return true;
+    }
+    try {
+      if (t instanceof Class) {
+        Class<?> klass = (Class<?>) t;
+        if (klass.isPrimitive()) {
+          return true;
+        } else if (klass.isArray()) {
+          return isClosed(klass.getComponentType(), inProgress);
+        } else if (richType.isAssignableFrom(klass) || klass.isAssignableFrom(richType)) {
+          return false;
+        } else if (!Modifier.isFinal(klass.getModifiers())
+            || Iterable.class.isAssignableFrom(klass)) {
+          // a subclass, or the elements, could hold anything
+          return false;
+        }
+        for (Field field : ReachableObjectVisitor.getAllFields(klass)) {
+          if (!Modifier.isStatic(field.getModifiers())
+              && !isClosed(field.getGenericType(), inProgress)) {
+            return false;
+          }
+        }
+        return true;
+      } else if (t instanceof ParameterizedType) {
+        ParameterizedType pt = (ParameterizedType) t;
+        Class<?> raw = (Class<?>) pt.getRawType();
+        if (!raw.getName().startsWith("java.")) {
+          // a user class's fields may use its type arguments in any way
+          return isClosed(raw, inProgress) && argumentsClosed(pt, inProgress);
+        }
+        // java.* containers hold nothing but their type arguments
+        return argumentsClosed(pt, inProgress);
+      } else if (t instanceof GenericArrayType) {
+        return isClosed(((GenericArrayType) t).getGenericComponentType(), inProgress);
+      } else if (t instanceof WildcardType) {
+        return allClosed(((WildcardType) t).getUpperBounds(), inProgress);
+      } else if (t instanceof TypeVariable) {
+        return allClosed(((TypeVariable<?>) t).getBounds(), inProgress);
+      }
+      return false;
+    } finally {
+      inProgress.remove(t);
+    }
+  }
+
+  private boolean argumentsClosed(ParameterizedType pt, Set<Type> inProgress) {
+    return allClosed(pt.getActualTypeArguments(), inProgress);
+  }
+
+  private boolean allClosed(Type[] types, Set<Type> inProgress) {
+    for (Type t : types) {
+      if (!isClosed(t, inProgress)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
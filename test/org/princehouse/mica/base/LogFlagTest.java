@@ -0,0 +1,36 @@
+package org.princehouse.mica.base;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.princehouse.mica.base.model.MiCA;
+import org.princehouse.mica.base.model.MicaOptions;
+import org.princehouse.mica.util.Functional;
+
+public class LogFlagTest {
+
+  private static boolean testIn(MicaOptions options, LogFlag flag) {
+    MiCA.Context previous = MiCA.enter(new MiCA.Context(null, options, null));
+    try {
+      return flag.test();
+    } finally {
+      MiCA.exit(previous);
+    }
+  }
+
+  @Test
+  public void testMaskComesFromOptionsInEffect() {
+    MicaOptions quiet = new MicaOptions();
+    quiet.logsDisable = Functional.list("merge");
+    MicaOptions loud = new MicaOptions();
+
+    Assert.assertFalse(testIn(quiet, LogFlag.merge));
+    Assert.assertTrue(testIn(loud, LogFlag.merge));
+    Assert.assertTrue(testIn(quiet, LogFlag.gossip));
+    // copies compute their own mask
+    MicaOptions copy = quiet.copy();
+    copy.logsDisable = Functional.list("gossip");
+    Assert.assertTrue(testIn(copy, LogFlag.merge));
+    Assert.assertFalse(testIn(copy, LogFlag.gossip));
+    Assert.assertFalse(testIn(quiet, LogFlag.merge));
+  }
+}
@@ -0,0 +1,223 @@
+package org.princehouse.mica.base.dataflow;
+
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.princehouse.mica.base.BaseProtocol;
+import org.princehouse.mica.base.dataflow.UpdateAnalysis.AnalysisFailed;
+import org.princehouse.mica.base.exceptions.AbortRound;
+import org.princehouse.mica.base.exceptions.FatalErrorHalt;
+import org.princehouse.mica.base.model.MiCA;
+import org.princehouse.mica.base.model.MicaOptions;
+import org.princehouse.mica.base.model.Protocol;
+import org.princehouse.mica.base.net.tcpip.TCPAddress;
+import org.princehouse.mica.base.simple.SimpleCommunicationPatternAgent;
+import org.princehouse.mica.base.simple.SimpleRuntime;
+import org.princehouse.mica.base.simple.SimpleRuntimeInterface;
+import org.princehouse.mica.base.sugar.annotations.GossipUpdate;
+
+public class UpdateAnalysisTest {
+
+  public static class Counter extends BaseProtocol {
+
+    private static final long serialVersionUID = 1L;
+
+    private int value;
+    private int exchanges;
+    private int unused;
+    private List<Integer> history = new ArrayList<Integer>();
+    private List<Integer> neverTouched = new ArrayList<Integer>();
+
+    @GossipUpdate
+    @Override
+    public void update(Protocol p) {
+      Counter that = (Counter) p;
+      int max = max(value, that.value);
+      if (value < max) {
+        record(max);
+      }
+      that.value = max;
+      exchanges = 0;
+    }
+
+    private int max(int a, int b) {
+      return Math.max(a, b);
+    }
+
+    private void record(int v) {
+      history.add(v);
+      value = v;
+    }
+  }
+
+  // copies the newer of the two buffers into this one, without assigning the field
+  public static class Buffer extends BaseProtocol {
+
+    private static final long serialVersionUID = 1L;
+
+    private int[] data = new int[4];
+    private int version;
+    private String name = "buffer";
+
+    @GossipUpdate
+    @Override
+    public void update(Protocol p) {
+      Buffer that = (Buffer) p;
+      if (that.version > version) {
+        System.arraycopy(that.data, 0, data, 0, data.length);
+        version = that.version;
+      } else if (name.length() > 0) {
+        that.version = Math.max(version, that.version);
+      }
+    }
+  }
+
+  public static class Escapes extends BaseProtocol {
+
+    private static final long serialVersionUID = 1L;
+
+    private Object peer;
+
+    @GossipUpdate
+    @Override
+    public void update(Protocol p) {
+      ((Escapes) p).peer = this;
+    }
+  }
+
+  // two fields refer to the same list; update() only uses one of them
+  public static class Aliased extends BaseProtocol {
+
+    private static final long serialVersionUID = 1L;
+
+    private int n;
+    private List<Integer> known = new ArrayList<Integer>();
+    private List<Integer> alias = known;
+
+    @GossipUpdate
+    @Override
+    public void update(Protocol p) {
+      known.add(((Aliased) p).n);
+    }
+  }
+
+  public static class NotAnnotated extends BaseProtocol {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public void update(Protocol p) {
+    }
+  }
+
+  private static List<String> names(List<Field> fields) {
+    List<String> names = new ArrayList<String>();
+    for (Field f : fields) {
+      names.add(f.getName());
+    }
+    return names;
+  }
+
+  @Test
+  public void testReadsAndWrites() throws AnalysisFailed {
+    UpdateAnalysis analysis = UpdateAnalysis.analyze(Counter.class);
+    Assert.assertEquals(Arrays.asList("history", "value"), names(analysis.getReads()));
+    Assert.assertEquals(Arrays.asList("exchanges", "history", "value"),
+        names(analysis.getWrites()));
+  }
+
+  @Test
+  public void testArraycopyWritesDestination() throws AnalysisFailed {
+    UpdateAnalysis analysis = UpdateAnalysis.analyze(Buffer.class);
+    Assert.assertEquals(Arrays.asList("data", "name", "version"), names(analysis.getReads()));
+    Assert.assertEquals(Arrays.asList("data", "version"), names(analysis.getWrites()));
+  }
+
+  @Test
+  public void testAgentRoundTrip()
+      throws AnalysisFailed, UnknownHostException, FatalErrorHalt, AbortRound {
+    DataflowCommunicationPatternAgent agent = DataflowCommunicationPatternAgent.create(
+        Buffer.class);
+    SimpleRuntimeInterface rti = new SimpleRuntimeInterface();
+    MiCA.Context previous = MiCA.enter(new MiCA.Context(rti, null, null));
+    try {
+      Buffer initiator = new Buffer();
+      Buffer receiver = new Buffer();
+      receiver.data = new int[]{1, 2, 3, 4};
+      receiver.version = 1;
+      SimpleRuntime initiatorRuntime = new SimpleRuntime(TCPAddress.valueOf("127.0.0.1:8000"));
+      initiatorRuntime.setProtocolInstance(initiator);
+      SimpleRuntime receiverRuntime = new SimpleRuntime(TCPAddress.valueOf("127.0.0.1:8001"));
+      receiverRuntime.setProtocolInstance(receiver);
+
+      Serializable m1 = agent.deserialize(agent.serialize(agent.f1(initiatorRuntime)));
+      Serializable m2 = agent.deserialize(agent.serialize(agent.f2(receiverRuntime, m1)));
+      agent.f3(initiatorRuntime, m2);
+
+      Assert.assertSame(initiator, initiatorRuntime.getProtocolInstance());
+      Assert.assertArrayEquals(new int[]{1, 2, 3, 4}, initiator.data);
+      Assert.assertEquals(1, initiator.version);
+      Assert.assertEquals("buffer", initiator.name);
+    } finally {
+      rti.getRuntimeContextManager().clear();
+      MiCA.exit(previous);
+    }
+  }
+
+  @Test
+  public void testAgentKeepsSharedState()
+      throws AnalysisFailed, UnknownHostException, FatalErrorHalt, AbortRound {
+    DataflowCommunicationPatternAgent agent = DataflowCommunicationPatternAgent.create(
+        Aliased.class);
+    Assert.assertEquals(Arrays.asList("known"), names(Arrays.asList(agent.getReturnedFields())));
+    SimpleRuntimeInterface rti = new SimpleRuntimeInterface();
+    MiCA.Context previous = MiCA.enter(new MiCA.Context(rti, new MicaOptions(), null));
+    try {
+      Aliased initiator = new Aliased();
+      Aliased receiver = new Aliased();
+      receiver.n = 7;
+      SimpleRuntime initiatorRuntime = new SimpleRuntime(TCPAddress.valueOf("127.0.0.1:8000"));
+      initiatorRuntime.setProtocolInstance(initiator);
+      SimpleRuntime receiverRuntime = new SimpleRuntime(TCPAddress.valueOf("127.0.0.1:8001"));
+      receiverRuntime.setProtocolInstance(receiver);
+
+      Serializable m1 = agent.deserialize(agent.serialize(agent.f1(initiatorRuntime)));
+      Serializable m2 = agent.deserialize(agent.serialize(agent.f2(receiverRuntime, m1)));
+      agent.f3(initiatorRuntime, m2);
+
+      // the round may have replaced the initiator's instance
+      Aliased result = (Aliased) initiatorRuntime.getProtocolInstance();
+      Assert.assertEquals(Arrays.asList(7), result.known);
+      Assert.assertSame(result.known, result.alias);
+    } finally {
+      rti.getRuntimeContextManager().clear();
+      MiCA.exit(previous);
+    }
+  }
+
+  @Test(expected = AnalysisFailed.class)
+  public void testEscape() throws AnalysisFailed {
+    UpdateAnalysis.analyze(Escapes.class);
+  }
+
+  @Test(expected = AnalysisFailed.class)
+  public void testNotAnnotated() throws AnalysisFailed {
+    UpdateAnalysis.analyze(NotAnnotated.class);
+  }
+
+  @Test
+  public void testCompilerFallback() {
+    Assert.assertTrue(
+        DataflowCompiler.getAgent(Counter.class) instanceof DataflowCommunicationPatternAgent);
+    Assert.assertTrue(
+        DataflowCompiler.getAgent(Escapes.class) instanceof SimpleCommunicationPatternAgent);
+    // cached
+    Assert.assertSame(DataflowCompiler.getAgent(Counter.class),
+        DataflowCompiler.getAgent(Counter.class));
+  }
+}
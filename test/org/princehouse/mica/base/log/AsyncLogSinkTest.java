@@ -0,0 +1,89 @@
+package org.princehouse.mica.base.log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.princehouse.mica.base.model.MicaRuntime.JsonLogEvent;
+
+public class AsyncLogSinkTest {
+
+  // counts encoded events; the first encode waits for release
+  private static class BlockingEncoder implements LogEncoder {
+
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicInteger encoded = new AtomicInteger();
+
+    @Override
+    public void writeHeader(OutputStream out) {
+    }
+
+    @Override
+    public Object capture(int flags, JsonLogEvent event) {
+      return event.event_type;
+    }
+
+    @Override
+    public void encode(Object captured, OutputStream out) throws IOException {
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      encoded.incrementAndGet();
+    }
+  }
+
+  private static JsonLogEvent event(String type) {
+    return new JsonLogEvent(0L, "n0", type, null);
+  }
+
+  private static void awaitWaiting(Thread t) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (t.getState() != Thread.State.WAITING) {
+      Assert.assertTrue(t.getName() + " never blocked", System.currentTimeMillis() < deadline);
+      Thread.sleep(5);
+    }
+  }
+
+  @Test
+  public void testBlockedProducerDropsOnClose() throws Exception {
+    File file = File.createTempFile("mica-async-log", ".log");
+    file.deleteOnExit();
+    final BlockingEncoder encoder = new BlockingEncoder();
+    final AsyncLogSink sink = new AsyncLogSink(file, encoder, 1,
+        AsyncLogSink.OverflowPolicy.block, 1);
+
+    // the writer takes the first event and blocks encoding it; the second fills the ring
+    sink.log(0, event("written-1"));
+    sink.log(0, event("written-2"));
+    Thread producer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        sink.log(0, event("blocked"));
+      }
+    }, "producer");
+    producer.start();
+    awaitWaiting(producer);
+
+    Thread closer = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        sink.close();
+      }
+    }, "closer");
+    closer.start();
+    producer.join(5000);
+    Assert.assertFalse(producer.isAlive());
+    Assert.assertEquals(1, sink.getDropped());
+
+    encoder.release.countDown();
+    closer.join(5000);
+    Assert.assertFalse(closer.isAlive());
+    Assert.assertEquals(2, encoder.encoded.get());
+    sink.flush(); // must not wait for the dropped event
+  }
+}
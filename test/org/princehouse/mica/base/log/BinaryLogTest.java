@@ -0,0 +1,49 @@
+package org.princehouse.mica.base.log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.princehouse.mica.base.model.MicaRuntime.JsonLogEvent;
+import org.princehouse.mica.util.Functional;
+import org.princehouse.mica.util.Logging;
+
+public class BinaryLogTest {
+
+  private static List<JsonLogEvent> events() {
+    List<JsonLogEvent> events = Functional.list();
+    events.add(new JsonLogEvent(1000L, "n0", "mica-runtime-init",
+        Functional.<String, Object>mapFromPairs("round_ms", 5000, "random_seed", 42L)));
+    events.add(new JsonLogEvent(1005L, "n1", "mica-select", "n0"));
+    events.add(new JsonLogEvent(990L, "n0", "mica-gossip", new String[]{"n0", "n1"}));
+    events.add(new JsonLogEvent(990L, "localhost/127.0.0.1:8000", "notable-event-late", null));
+    events.add(new JsonLogEvent(Long.MAX_VALUE, "n\u00e9<&>\"", "mica-rate", 1.5));
+    return events;
+  }
+
+  @Test
+  public void testConvertsToJsonLines() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BinaryLogEncoder encoder = new BinaryLogEncoder();
+    // two segments, as when a log file is reopened and appended to
+    for (int segment = 0; segment < 2; segment++) {
+      encoder.writeHeader(out);
+      for (JsonLogEvent e : events()) {
+        encoder.encode(encoder.capture(7, e), out);
+      }
+    }
+
+    BinaryLogReader reader = new BinaryLogReader(new ByteArrayInputStream(out.toByteArray()));
+    for (int segment = 0; segment < 2; segment++) {
+      for (JsonLogEvent e : events()) {
+        BinaryLogReader.Event decoded = reader.next();
+        Assert.assertNotNull(decoded);
+        Assert.assertEquals(7, decoded.flags);
+        Assert.assertEquals(Logging.getGson().toJson(e), decoded.toJsonLine());
+      }
+    }
+    Assert.assertNull(reader.next());
+  }
+}
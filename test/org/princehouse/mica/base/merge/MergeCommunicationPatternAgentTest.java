@@ -0,0 +1,90 @@
+package org.princehouse.mica.base.merge;
+
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+import org.princehouse.mica.base.BaseProtocol;
+import org.princehouse.mica.base.model.Protocol;
+import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.simple.WriteSet;
+import org.princehouse.mica.lib.abstractions.Merge;
+import org.princehouse.mica.lib.abstractions.MergeSelectionCase;
+import org.princehouse.mica.util.Distribution;
+
+public class MergeCommunicationPatternAgentTest {
+
+  @SuppressWarnings("serial")
+  private static class Leaf extends BaseProtocol {
+
+    private int value;
+    private int[] history = new int[100];
+    private Leaf other;
+
+    private Leaf(int value) {
+      this.value = value;
+    }
+
+    @Override
+    public void update(Protocol that) {
+    }
+  }
+
+  @SuppressWarnings("serial")
+  private static class TestMerge extends Merge {
+
+    private TestMerge(Protocol p1, Protocol p2, MergeSelectionCase c) {
+      super(p1, p2);
+      setSubProtocolGossipCase(c);
+    }
+
+    @Override
+    public Distribution<MergeSelectionCase> decideSelectionCase(Address x) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  @Test
+  public void testOmitsNonGossiping() throws Exception {
+    Leaf a = new Leaf(1);
+    Leaf b = new Leaf(2);
+    TestMerge live = new TestMerge(a, b, MergeSelectionCase.P1);
+    byte[] both = MergeCommunicationPatternAgent.writeRequest(
+        new TestMerge(a, b, MergeSelectionCase.BOTH_P1P2), null);
+    byte[] pruned = MergeCommunicationPatternAgent.writeRequest(live, null);
+    Assert.assertTrue(pruned.length < both.length);
+
+    Object[] state = MergeCommunicationPatternAgent.readRequest(pruned);
+    TestMerge copy = (TestMerge) state[0];
+    Assert.assertEquals(1, ((Leaf) copy.getP1()).value);
+    Assert.assertEquals(0, ((Leaf) copy.getP2()).value);
+    Assert.assertSame(copy.getP2(), ((Object[]) state[2])[0]);
+
+    // the receiver's changes are patched into the live tree; the omitted leaf is kept
+    WriteSet.Snapshot snapshot = WriteSet.snapshot(new Object[]{copy, null},
+        Arrays.asList((Object[]) state[2]));
+    ((Leaf) copy.getP1()).value = 5;
+    WriteSet writeSet = snapshot.diff();
+    Object[] roots = new Object[]{live, null};
+    writeSet.apply(roots);
+    Assert.assertSame(live, roots[0]);
+    Assert.assertSame(a, live.getP1());
+    Assert.assertSame(b, live.getP2());
+    Assert.assertEquals(5, a.value);
+    Assert.assertEquals(2, b.value);
+  }
+
+  @Test
+  public void testSendsReachable() throws Exception {
+    // a gossiping subprotocol that refers to a non-gossiping one gets it in full
+    Leaf a = new Leaf(1);
+    Leaf b = new Leaf(2);
+    a.other = b;
+    Object[] state = MergeCommunicationPatternAgent.readRequest(
+        MergeCommunicationPatternAgent.writeRequest(new TestMerge(a, b, MergeSelectionCase.P1),
+            null));
+    TestMerge copy = (TestMerge) state[0];
+    Assert.assertEquals(2, ((Leaf) copy.getP2()).value);
+    Assert.assertSame(copy.getP2(), ((Leaf) copy.getP1()).other);
+    Assert.assertEquals(0, ((Object[]) state[2]).length);
+  }
+}
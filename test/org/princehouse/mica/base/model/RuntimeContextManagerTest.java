@@ -0,0 +1,148 @@
+package org.princehouse.mica.base.model;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.princehouse.mica.base.BaseProtocol;
+import org.princehouse.mica.base.net.tcpip.TCPAddress;
+import org.princehouse.mica.base.simple.SimpleRuntime;
+import org.princehouse.mica.base.simple.SimpleRuntimeInterface;
+import org.princehouse.mica.lib.abstractions.MergeCorrelated;
+import org.princehouse.mica.util.Serialization;
+
+public class RuntimeContextManagerTest {
+
+  @SuppressWarnings("serial")
+  public static class Leaf extends BaseProtocol {
+
+    public int value;
+
+    @Override
+    public void update(Protocol that) {
+    }
+  }
+
+  // Java-serialized even by Kryo and the codecs; the protocol inside must get the same mark
+  @SuppressWarnings("serial")
+  public static class Hooked extends BaseProtocol {
+
+    public Leaf inner = new Leaf();
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+      out.defaultWriteObject();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+      in.defaultReadObject();
+    }
+
+    @Override
+    public void update(Protocol that) {
+    }
+  }
+
+  private RuntimeContextManager manager;
+  private MiCA.Context previous;
+  private SimpleRuntime runtime;
+  private RuntimeState foreignState;
+
+  @Before
+  public void setUp() throws UnknownHostException {
+    SimpleRuntimeInterface rti = new SimpleRuntimeInterface();
+    manager = rti.getRuntimeContextManager();
+    manager.setOptions(new MicaOptions());
+    previous = MiCA.enter(new MiCA.Context(rti, null, null));
+    runtime = new SimpleRuntime(TCPAddress.valueOf("127.0.0.1:8000"));
+    foreignState = new RuntimeState();
+  }
+
+  @After
+  public void tearDown() {
+    manager.clear();
+    MiCA.exit(previous);
+  }
+
+  private static Protocol tree() {
+    Hooked hooked = new Hooked();
+    return new MergeCorrelated(new MergeCorrelated(new Leaf(), new Leaf()), hooked);
+  }
+
+  private static void protocols(Protocol p, List<Protocol> out) {
+    out.add(p);
+    if (p instanceof MergeCorrelated) {
+      protocols(((MergeCorrelated) p).getP1(), out);
+      protocols(((MergeCorrelated) p).getP2(), out);
+    } else if (p instanceof Hooked) {
+      out.add(((Hooked) p).inner);
+    }
+  }
+
+  private void assertReceivedAreForeign(Protocol received, boolean stamped) {
+    List<Protocol> all = new ArrayList<Protocol>();
+    protocols(received, all);
+    Object mark = ((BaseProtocol) received).getForeignMark();
+    Assert.assertEquals(stamped, mark != null);
+    for (Protocol p : all) {
+      Assert.assertSame(mark, ((BaseProtocol) p).getForeignMark());
+    }
+    Protocol local = new Leaf();
+
+    manager.setNativeRuntime(runtime);
+    manager.setReceivedRuntimeState(received, foreignState);
+    for (Protocol p : all) {
+      Assert.assertSame(p.toString(), foreignState, p.getRuntimeState());
+    }
+    Assert.assertSame(runtime.getRuntimeState(), local.getRuntimeState());
+    manager.clear();
+
+    manager.setNativeRuntime(runtime);
+    for (Protocol p : all) {
+      Assert.assertSame(runtime.getRuntimeState(), p.getRuntimeState());
+    }
+    manager.clear();
+  }
+
+  @Test
+  public void testJava() {
+    assertReceivedAreForeign((Protocol) Serialization
+        .deserializeJava(Serialization.serializeJava((Serializable) tree())), true);
+  }
+
+  @Test
+  public void testKryo() {
+    assertReceivedAreForeign((Protocol) Serialization
+        .deserializeKryo(Serialization.serializeKryo((Serializable) tree())), true);
+  }
+
+  @Test
+  public void testCodec() {
+    assertReceivedAreForeign((Protocol) Serialization
+        .deserializeCodec(Serialization.serializeCodec((Serializable) tree())), true);
+  }
+
+  @Test
+  public void testUnstampedRootIsTraversed() {
+    // not deserialized, as in the simulator's fake compiler
+    assertReceivedAreForeign(tree(), false);
+  }
+
+  @Test
+  public void testDebugLocation() {
+    manager.getOptions().debugContext = true;
+    manager.setNativeRuntime(runtime);
+    try {
+      manager.setNativeRuntime(runtime);
+      Assert.fail();
+    } catch (RuntimeException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().contains("RuntimeContextManagerTest.java"));
+    }
+  }
+}
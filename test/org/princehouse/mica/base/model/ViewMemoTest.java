@@ -0,0 +1,165 @@
+package org.princehouse.mica.base.model;
+
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.princehouse.mica.base.BaseProtocol;
+import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.net.tcpip.TCPAddress;
+import org.princehouse.mica.base.simple.SimpleRuntime;
+import org.princehouse.mica.base.simple.SimpleRuntimeInterface;
+import org.princehouse.mica.base.sugar.annotations.View;
+import org.princehouse.mica.lib.abstractions.MergeCorrelated;
+import org.princehouse.mica.util.Distribution;
+
+public class ViewMemoTest {
+
+  @SuppressWarnings("serial")
+  public static class Leaf extends BaseProtocol {
+
+    public int calls = 0;
+    public Distribution<Address> view;
+
+    public Leaf(Address a) {
+      view = Distribution.singleton(a);
+    }
+
+    @View
+    public Distribution<Address> select() {
+      calls++;
+      return view;
+    }
+
+    @Override
+    public void update(Protocol that) {
+    }
+  }
+
+  // moves to another view in preUpdate, and records the view it sees afterwards
+  @SuppressWarnings("serial")
+  public static class Moving extends Leaf {
+
+    public Distribution<Address> next;
+    public Distribution<Address> seen;
+
+    public Moving(Address a, Address b) {
+      super(a);
+      next = Distribution.singleton(b);
+    }
+
+    @Override
+    public void preUpdate(Address selected) {
+      view = next;
+      seen = getView();
+    }
+  }
+
+  private RuntimeContextManager manager;
+  private MiCA.Context previous;
+  private SimpleRuntime runtime;
+
+  @Before
+  public void setUp() {
+    SimpleRuntimeInterface rti = new SimpleRuntimeInterface();
+    manager = rti.getRuntimeContextManager();
+    previous = MiCA.enter(new MiCA.Context(rti, null, null));
+    try {
+      runtime = new SimpleRuntime(TCPAddress.valueOf("127.0.0.1:8000"));
+    } catch (UnknownHostException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // start an evaluation the way the runtime does
+  private void begin(boolean memoize) {
+    manager.clear();
+    manager.setNativeRuntime(runtime);
+    if (memoize) {
+      manager.memoize();
+    }
+  }
+
+  @After
+  public void tearDown() {
+    manager.clear();
+    MiCA.exit(previous);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Protocol tree(List<Leaf> leaves) {
+    return MergeCorrelated.operator.merge((List<BaseProtocol>) (List<?>) leaves);
+  }
+
+  private static List<Leaf> leaves(int n) throws UnknownHostException {
+    List<Leaf> leaves = new ArrayList<Leaf>();
+    for (int i = 0; i < n; i++) {
+      leaves.add(new Leaf(TCPAddress.valueOf(new byte[]{10, 3, 0, (byte) i}, 8000)));
+    }
+    return leaves;
+  }
+
+  @Test
+  public void testEachViewOncePerEvaluation() throws UnknownHostException {
+    List<Leaf> leaves = leaves(8);
+    Protocol root = tree(leaves);
+
+    begin(false);
+    Distribution<Address> plain = root.getView();
+    Assert.assertTrue(leaves.get(0).calls > 1);
+
+    for (Leaf leaf : leaves) {
+      leaf.calls = 0;
+    }
+    begin(true);
+    Distribution<Address> memoized = root.getView();
+    root.getRate();
+    root.getView();
+    for (Leaf leaf : leaves) {
+      Assert.assertEquals(1, leaf.calls);
+    }
+    Assert.assertEquals(plain, memoized);
+  }
+
+  @Test
+  public void testClearInvalidates() throws UnknownHostException {
+    List<Leaf> leaves = leaves(2);
+    Protocol root = tree(leaves);
+    begin(true);
+    Assert.assertEquals(2, root.getView().size());
+
+    leaves.get(1).view = leaves.get(0).view;
+    begin(true);
+    Assert.assertEquals(1, root.getView().size());
+    Assert.assertEquals(2, leaves.get(1).calls);
+  }
+
+  @Test
+  public void testPreUpdateChangesView() throws UnknownHostException {
+    Address a = TCPAddress.valueOf("10.3.0.1:8000");
+    Address b = TCPAddress.valueOf("10.3.0.2:8000");
+    Moving moving = new Moving(a, b);
+    Protocol root = tree(Arrays.asList(moving, new Leaf(TCPAddress.valueOf("10.3.0.3:8000"))));
+
+    // select
+    begin(true);
+    Assert.assertTrue(root.getView().containsKey(a));
+
+    // preUpdate, as the runtimes run it: the merge asks for moving's view before moving runs
+    begin(false);
+    root.preUpdate(a);
+    Assert.assertEquals(Distribution.singleton(b), moving.seen);
+    begin(true);
+    Assert.assertTrue(root.getView().containsKey(b));
+
+    // why it is not memoized: moving would see the view from before its change
+    moving.view = Distribution.singleton(a);
+    begin(true);
+    root.preUpdate(a);
+    Assert.assertEquals(Distribution.singleton(a), moving.seen);
+  }
+}
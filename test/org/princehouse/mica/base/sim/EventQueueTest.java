@@ -0,0 +1,76 @@
+package org.princehouse.mica.base.sim;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EventQueueTest {
+
+  private static class TestEvent extends SimulatorEvent {
+
+    public int id;
+
+    public TestEvent(int id, long t) {
+      super(null);
+      this.id = id;
+      this.t = t;
+    }
+
+    @Override
+    public void execute(Simulator simulator) {
+    }
+  }
+
+  private static List<Integer> drain(EventQueue q) {
+    List<Integer> ids = new ArrayList<Integer>();
+    SimulatorEvent e;
+    while ((e = q.poll()) != null) {
+      ids.add(((TestEvent) e).id);
+    }
+    return ids;
+  }
+
+  @Test
+  public void testOrderedByTime() {
+    EventQueue q = new EventQueue();
+    Random rng = new Random(0);
+    for (int i = 0; i < 1000; i++) {
+      q.add(new TestEvent(i, rng.nextInt(100)));
+    }
+    long t = Long.MIN_VALUE;
+    SimulatorEvent e;
+    while ((e = q.poll()) != null) {
+      Assert.assertTrue(e.t >= t);
+      t = e.t;
+    }
+  }
+
+  @Test
+  public void testTieBreak() {
+    EventQueue q = new EventQueue();
+    q.add(new TestEvent(1, 10));
+    q.add(new TestEvent(2, 20));
+    q.add(new TestEvent(3, 20)); // after the earlier t=20 event
+    q.add(new TestEvent(4, 10)); // not later than the head: goes to the front
+    q.add(new TestEvent(5, 15));
+    Assert.assertEquals(Arrays.asList(4, 1, 5, 2, 3), drain(q));
+  }
+
+  @Test
+  public void testCancelledEventsSkipped() {
+    EventQueue q = new EventQueue();
+    TestEvent a = new TestEvent(1, 5);
+    TestEvent b = new TestEvent(2, 6);
+    TestEvent c = new TestEvent(3, 7);
+    q.add(a);
+    q.add(b);
+    q.add(c);
+    a.cancel();
+    c.cancel();
+    Assert.assertEquals(Arrays.asList(2), drain(q));
+    Assert.assertTrue(q.isEmpty());
+  }
+}
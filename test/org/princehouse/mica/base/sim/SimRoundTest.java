@@ -0,0 +1,104 @@
+package org.princehouse.mica.base.sim;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.princehouse.mica.base.BaseProtocol;
+import org.princehouse.mica.base.model.MiCA;
+import org.princehouse.mica.base.model.MicaOptions;
+import org.princehouse.mica.base.model.MicaRuntime;
+import org.princehouse.mica.base.model.Protocol;
+import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.sugar.annotations.GossipUpdate;
+import org.princehouse.mica.base.sugar.annotations.View;
+import org.princehouse.mica.lib.abstractions.Overlay;
+import org.princehouse.mica.util.Distribution;
+import org.princehouse.mica.util.harness.ProtocolInstanceFactory;
+import org.princehouse.mica.util.harness.TestHarness;
+
+public class SimRoundTest {
+
+  private static final int UPDATE_MS = 7;
+
+  // records the simulated time of each exchange it initiates; select and update optionally take
+  // wall clock time
+  public static class Clocked extends BaseProtocol {
+
+    private static final long serialVersionUID = 1L;
+
+    @View
+    public Overlay overlay;
+    public long hostDelayMS;
+    public List<Long> clocks = new ArrayList<Long>();
+
+    public Clocked(Overlay overlay, long hostDelayMS) {
+      this.overlay = overlay;
+      this.hostDelayMS = hostDelayMS;
+    }
+
+    @Override
+    public Distribution<Address> getView() {
+      sleep(hostDelayMS);
+      return super.getView();
+    }
+
+    @GossipUpdate
+    @Override
+    public void update(Protocol p) {
+      MicaRuntime rt = MiCA.getRuntimeInterface().getRuntimeContextManager().getNativeRuntime();
+      clocks.add(rt.getRuntimeClock());
+      sleep(hostDelayMS);
+    }
+
+    private static void sleep(long ms) {
+      try {
+        Thread.sleep(ms);
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private List<List<Long>> run(final long hostDelayMS) throws IOException {
+    MicaOptions options = new MicaOptions();
+    options.n = 3;
+    options.stopAfter = 4;
+    options.seed = 11L;
+    options.simUpdateDuration = UPDATE_MS;
+    options.logdir = folder.newFolder().getPath();
+    TestHarness harness = new TestHarness();
+    harness.setGlobalContext(false);
+    harness.runMain(options, new ProtocolInstanceFactory() {
+      @Override
+      public Protocol createProtocolInstance(int nodeId, Address address, Overlay overlay) {
+        return new Clocked(overlay, hostDelayMS);
+      }
+    });
+    List<List<Long>> clocks = new ArrayList<List<Long>>();
+    for (MicaRuntime rt : harness.getRuntimes()) {
+      clocks.add(((Clocked) rt.getProtocolInstance()).clocks);
+    }
+    return clocks;
+  }
+
+  @Test
+  public void testFixedUpdateDurationIgnoresHostTime() throws IOException {
+    List<List<Long>> fast = run(0L);
+    List<List<Long>> slow = run(20L);
+    // select takes no simulated time and update takes UPDATE_MS, however long the host takes
+    Assert.assertEquals(fast, slow);
+
+    int rounds = 0;
+    for (List<Long> node : fast) {
+      rounds += node.size();
+    }
+    Assert.assertTrue(rounds > 0);
+  }
+}
@@ -1,8 +1,14 @@
 package org.princehouse.mica.base.simple;
 
 import java.util.Arrays;
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.Assert;
 import org.junit.Test;
+import org.princehouse.mica.util.HarnessTimerTask;
 
 public class SimpleRuntimeTest {
 
@@ -13,4 +19,50 @@ public class SimpleRuntimeTest {
       Assert.assertEquals(i, roundTrip);
     }
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testCancelledTimerDoesNotRun() throws InterruptedException {
+    SimpleRuntimeInterface rti = new SimpleRuntimeInterface();
+    final AtomicBoolean ran = new AtomicBoolean(false);
+    final CountDownLatch later = new CountDownLatch(1);
+    final AtomicReference<String> thread = new AtomicReference<String>();
+    TimerTask cancelled = new HarnessTimerTask() {
+      @Override
+      public void run() {
+        ran.set(true);
+      }
+    };
+    rti.scheduleTask(50, cancelled);
+    rti.scheduleTask(100, new TimerTask() {
+      @Override
+      public void run() {
+        thread.set(Thread.currentThread().getName());
+        later.countDown();
+      }
+    });
+    Assert.assertTrue(cancelled.cancel());
+    try {
+      Assert.assertTrue(later.await(5, TimeUnit.SECONDS));
+      Assert.assertFalse(ran.get());
+      // harness timers run on the round scheduler's wheel
+      Assert.assertTrue(thread.get(), thread.get().startsWith("mica-round"));
+    } finally {
+      rti.stop();
+    }
+  }
+
+  @Test
+  public void testStopCancelsPendingTimers() throws InterruptedException {
+    SimpleRuntimeInterface rti = new SimpleRuntimeInterface();
+    final AtomicBoolean ran = new AtomicBoolean(false);
+    rti.scheduleTask(100, new TimerTask() {
+      @Override
+      public void run() {
+        ran.set(true);
+      }
+    });
+    rti.stop();
+    Thread.sleep(300);
+    Assert.assertFalse(ran.get());
+  }
+}
@@ -0,0 +1,211 @@
+package org.princehouse.mica.base.simple;
+
+import java.io.IOException;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.net.tcpip.TCPAddress;
+
+public class StateDeltaTest {
+
+  private final Random rng = new Random(0);
+
+  private static Address address(int port) throws UnknownHostException {
+    return TCPAddress.valueOf("127.0.0.1:" + port);
+  }
+
+  private byte[] state(int length) {
+    byte[] b = new byte[length];
+    rng.nextBytes(b);
+    return b;
+  }
+
+  // a small change, as one round of gossip makes
+  private byte[] change(byte[] b) {
+    byte[] c = Arrays.copyOf(b, b.length);
+    c[rng.nextInt(c.length)] ^= 0x5a;
+    return c;
+  }
+
+  /**
+   * One complete exchange; checks that both sides decode what the other sent
+   *
+   * @return The request's wire bytes
+   */
+  private static byte[] exchange(StateDelta initiator, Address receiverAddress,
+      StateDelta receiver, byte[] m1, byte[] m2) throws IOException {
+    byte[] request = initiator.encodeRequest(receiverAddress, m1);
+    StateDelta.Request decoded = receiver.decodeRequest(request);
+    Assert.assertArrayEquals(m1, decoded.getMessage());
+    byte[] response = receiver.encodeResponse(decoded, m2);
+    Assert.assertEquals(StateDelta.DELTA, response[0]);
+    Assert.assertArrayEquals(m2, initiator.decodeResponse(receiverAddress, m1, response));
+    return request;
+  }
+
+  @Test
+  public void testFullThenDelta() throws IOException {
+    Address a = address(8001);
+    Address b = address(8002);
+    StateDelta initiator = new StateDelta(a, 4);
+    StateDelta receiver = new StateDelta(b, 4);
+
+    byte[] m1 = state(2000);
+    byte[] m2 = change(m1);
+    byte[] first = exchange(initiator, b, receiver, m1, m2);
+    Assert.assertEquals(StateDelta.FULL, first[0]);
+    Assert.assertTrue(first.length > m1.length);
+
+    // the initiator adopted m2; its next m1 is diffed against it
+    for (int round = 0; round < 5; round++) {
+      m1 = change(m2);
+      m2 = change(m1);
+      byte[] request = exchange(initiator, b, receiver, m1, m2);
+      Assert.assertEquals(StateDelta.DELTA, request[0]);
+      Assert.assertTrue(request.length < m1.length / 4);
+    }
+  }
+
+  // the receiver's base for the initiator is not the one the initiator diffed against
+  private void checkMismatch(byte[] lostResponse) throws IOException {
+    Address a = address(8001);
+    Address b = address(8002);
+    StateDelta initiator = new StateDelta(a, 4);
+    StateDelta receiver = new StateDelta(b, 4);
+
+    byte[] m1 = state(2000);
+    byte[] m2 = change(m1);
+    exchange(initiator, b, receiver, m1, m2);
+
+    // an exchange whose response never reaches the initiator: the receiver's base moves on
+    byte[] lostRequest = change(m2);
+    receiver.encodeResponse(receiver.decodeRequest(initiator.encodeRequest(b, lostRequest)),
+        lostResponse);
+
+    // the next request is a delta against m2, which the receiver no longer has
+    byte[] m1b = change(m2);
+    byte[] request = initiator.encodeRequest(b, m1b);
+    Assert.assertEquals(StateDelta.DELTA, request[0]);
+    StateDelta.Request decoded = receiver.decodeRequest(request);
+    Assert.assertNull(decoded.getMessage());
+    byte[] needFull = receiver.encodeNeedFull(decoded);
+    Assert.assertEquals(StateDelta.NEED_FULL, needFull[0]);
+    Assert.assertNull(initiator.decodeResponse(b, m1b, needFull));
+
+    // the initiator resends the same m1 in full on the same connection, and the round goes ahead
+    byte[] m2b = change(m1b);
+    byte[] full = exchange(initiator, b, receiver, m1b, m2b);
+    Assert.assertEquals(StateDelta.FULL, full[0]);
+
+    // deltas resume after it
+    byte[] m1c = change(m2b);
+    Assert.assertEquals(StateDelta.DELTA, exchange(initiator, b, receiver, m1c, change(m1c))[0]);
+  }
+
+  @Test
+  public void testChecksumMismatchNeedsFull() throws IOException {
+    // same length as the initiator's base, different bytes
+    checkMismatch(state(2000));
+  }
+
+  @Test
+  public void testLengthMismatchNeedsFull() throws IOException {
+    checkMismatch(state(2100));
+  }
+
+  @Test
+  public void testReceiverRestartNeedsFull() throws IOException {
+    Address a = address(8001);
+    Address b = address(8002);
+    StateDelta initiator = new StateDelta(a, 4);
+    byte[] m1 = state(1000);
+    byte[] m2 = change(m1);
+    exchange(initiator, b, new StateDelta(b, 4), m1, m2);
+
+    StateDelta restarted = new StateDelta(b, 4);
+    byte[] m1b = change(m2);
+    StateDelta.Request decoded = restarted.decodeRequest(initiator.encodeRequest(b, m1b));
+    Assert.assertNull(decoded.getMessage());
+    Assert.assertNull(initiator.decodeResponse(b, m1b, restarted.encodeNeedFull(decoded)));
+    Assert.assertEquals(StateDelta.FULL, exchange(initiator, b, restarted, m1b, change(m1b))[0]);
+  }
+
+  @Test
+  public void testMorePeersThanBasesKeepsEveryRound() throws IOException {
+    // the receiver keeps bases for fewer initiators than gossip with it, so requests keep arriving
+    // against evicted bases; each one is resent in full instead of losing the round
+    Address b = address(8001);
+    StateDelta receiver = new StateDelta(b, 2);
+    StateDelta[] initiators = new StateDelta[4];
+    byte[][] states = new byte[initiators.length][];
+    for (int i = 0; i < initiators.length; i++) {
+      initiators[i] = new StateDelta(address(8002 + i), initiators.length);
+      states[i] = state(500);
+    }
+    int resent = 0;
+    for (int round = 0; round < 3; round++) {
+      for (int i = 0; i < initiators.length; i++) {
+        byte[] m1 = change(states[i]);
+        byte[] m2 = change(m1);
+        StateDelta.Request decoded = receiver.decodeRequest(initiators[i].encodeRequest(b, m1));
+        if (decoded.getMessage() == null) {
+          Assert.assertNull(
+              initiators[i].decodeResponse(b, m1, receiver.encodeNeedFull(decoded)));
+          byte[] again = initiators[i].encodeRequest(b, m1);
+          Assert.assertEquals(StateDelta.FULL, again[0]);
+          decoded = receiver.decodeRequest(again);
+          resent++;
+        }
+        Assert.assertArrayEquals(m1, decoded.getMessage());
+        Assert.assertArrayEquals(m2,
+            initiators[i].decodeResponse(b, m1, receiver.encodeResponse(decoded, m2)));
+        states[i] = m2;
+      }
+    }
+    Assert.assertTrue(resent > 0);
+  }
+
+  @Test
+  public void testLruEviction() throws IOException {
+    Address a = address(8001);
+    Address[] peers = new Address[]{address(8002), address(8003), address(8004)};
+    StateDelta initiator = new StateDelta(a, 2);
+    StateDelta[] receivers = new StateDelta[peers.length];
+    byte[][] states = new byte[peers.length][];
+    for (int i = 0; i < peers.length; i++) {
+      receivers[i] = new StateDelta(peers[i], 2);
+      states[i] = state(500);
+    }
+
+    exchange(initiator, peers[0], receivers[0], states[0], states[0]);
+    exchange(initiator, peers[1], receivers[1], states[1], states[1]);
+    // using peer 0's base makes peer 1's the least recently used
+    Assert.assertEquals(StateDelta.DELTA, initiator.encodeRequest(peers[0], states[0])[0]);
+    exchange(initiator, peers[2], receivers[2], states[2], states[2]);
+
+    Assert.assertEquals(StateDelta.FULL, initiator.encodeRequest(peers[1], states[1])[0]);
+    Assert.assertEquals(StateDelta.DELTA, initiator.encodeRequest(peers[0], states[0])[0]);
+    Assert.assertEquals(StateDelta.DELTA, initiator.encodeRequest(peers[2], states[2])[0]);
+  }
+
+  @Test
+  public void testReceiverLruEviction() throws IOException {
+    Address b = address(8001);
+    StateDelta receiver = new StateDelta(b, 2);
+    StateDelta[] initiators = new StateDelta[3];
+    byte[][] states = new byte[initiators.length][];
+    for (int i = 0; i < initiators.length; i++) {
+      initiators[i] = new StateDelta(address(8002 + i), 2);
+      states[i] = state(500);
+      exchange(initiators[i], b, receiver, states[i], states[i]);
+    }
+    // the receiver kept bases for the last two initiators only
+    Assert.assertNull(
+        receiver.decodeRequest(initiators[0].encodeRequest(b, states[0])).getMessage());
+    Assert.assertArrayEquals(states[2],
+        receiver.decodeRequest(initiators[2].encodeRequest(b, states[2])).getMessage());
+  }
+}
@@ -0,0 +1,80 @@
+package org.princehouse.mica.base.simple;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class WriteSetTest {
+
+  @SuppressWarnings("serial")
+  private static class Child implements Serializable {
+
+    private int value;
+  }
+
+  @SuppressWarnings("serial")
+  private static class State implements Serializable {
+
+    private int count;
+    private String name = "a";
+    private Child child = new Child();
+    private Child alias;
+    private double[] weights = new double[]{1.0, 2.0};
+    private List<Integer> items = new ArrayList<Integer>();
+    private Child[] children = new Child[]{new Child(), new Child()};
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T copy(T o) throws IOException, ClassNotFoundException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(o);
+    out.close();
+    return (T) new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+  }
+
+  @Test
+  public void testApply() throws Exception {
+    State initiator = new State();
+    initiator.items.add(1);
+    State receiverCopy = copy(initiator);
+
+    WriteSet.Snapshot snapshot = WriteSet.snapshot(receiverCopy);
+    receiverCopy.count = 7;
+    receiverCopy.name = "b";
+    receiverCopy.child.value = 3;
+    receiverCopy.alias = receiverCopy.children[1];
+    receiverCopy.weights[1] = 5.0;
+    receiverCopy.items.add(2);
+    receiverCopy.children[0] = new Child();
+    receiverCopy.children[0].value = 9;
+    WriteSet writeSet = copy(snapshot.diff());
+
+    Child child = initiator.child;
+    Object[] roots = new Object[]{initiator};
+    writeSet.apply(roots);
+    Assert.assertSame(initiator, roots[0]);
+    Assert.assertSame(child, initiator.child);
+    Assert.assertEquals(7, initiator.count);
+    Assert.assertEquals("b", initiator.name);
+    Assert.assertEquals(3, initiator.child.value);
+    Assert.assertSame(initiator.children[1], initiator.alias);
+    Assert.assertArrayEquals(new double[]{1.0, 5.0}, initiator.weights, 0.0);
+    Assert.assertEquals(2, initiator.items.size());
+    Assert.assertEquals(9, initiator.children[0].value);
+  }
+
+  @Test
+  public void testUnchanged() {
+    State state = new State();
+    WriteSet.Snapshot snapshot = WriteSet.snapshot(state);
+    Assert.assertEquals(0, snapshot.diff().size());
+  }
+}
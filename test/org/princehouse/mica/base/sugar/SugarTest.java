@@ -0,0 +1,201 @@
+package org.princehouse.mica.base.sugar;
+
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.princehouse.mica.base.BaseProtocol;
+import org.princehouse.mica.base.model.MiCA;
+import org.princehouse.mica.base.model.Protocol;
+import org.princehouse.mica.base.model.RuntimeContextManager;
+import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.net.tcpip.TCPAddress;
+import org.princehouse.mica.base.simple.SimpleRuntime;
+import org.princehouse.mica.base.simple.SimpleRuntimeInterface;
+import org.princehouse.mica.base.sugar.annotations.GossipRate;
+import org.princehouse.mica.base.sugar.annotations.View;
+import org.princehouse.mica.lib.abstractions.MergeCorrelated;
+import org.princehouse.mica.util.Distribution;
+
+public class SugarTest {
+
+  // members of a class that is not accessible from Sugar
+  @SuppressWarnings("serial")
+  private static class PrivateClass extends BaseProtocol {
+
+    @View
+    public Distribution<Address> view;
+
+    @GossipRate
+    public double privateRate() {
+      return 3.0;
+    }
+
+    @Override
+    public void update(Protocol that) {
+    }
+  }
+
+  @SuppressWarnings("serial")
+  public static class ListView extends BaseProtocol {
+
+    public List<Address> neighbors = new ArrayList<Address>();
+
+    @View
+    public List<Address> select() {
+      return neighbors;
+    }
+
+    @Override
+    public void update(Protocol that) {
+    }
+  }
+
+  @SuppressWarnings("serial")
+  public static class BoxedRate extends ListView {
+
+    @GossipRate
+    public Double boxedRate() {
+      return 0.25;
+    }
+  }
+
+  @SuppressWarnings("serial")
+  public static class IntRate extends ListView {
+
+    @GossipRate
+    public int intRate() {
+      return 2;
+    }
+  }
+
+  @SuppressWarnings("serial")
+  public static class Failing extends ListView {
+
+    @GossipRate
+    public double failingRate() {
+      throw new IllegalStateException("rate");
+    }
+  }
+
+  // used only by testConcurrentFirstUse
+  @SuppressWarnings("serial")
+  public static class RaceLeaf extends ListView {
+
+  }
+
+  // used only by testWarm
+  @SuppressWarnings("serial")
+  public static class WarmLeaf extends ListView {
+
+  }
+
+  private RuntimeContextManager manager;
+  private MiCA.Context previous;
+  private Address a;
+  private Address b;
+
+  @Before
+  public void setUp() throws UnknownHostException {
+    SimpleRuntimeInterface rti = new SimpleRuntimeInterface();
+    manager = rti.getRuntimeContextManager();
+    previous = MiCA.enter(new MiCA.Context(rti, null, null));
+    manager.setNativeRuntime(new SimpleRuntime(TCPAddress.valueOf("127.0.0.1:8000")));
+    a = TCPAddress.valueOf("10.7.0.1:8000");
+    b = TCPAddress.valueOf("10.7.0.2:8000");
+  }
+
+  @After
+  public void tearDown() {
+    manager.clear();
+    MiCA.exit(previous);
+  }
+
+  @Test
+  public void testPrivateClass() {
+    PrivateClass p = new PrivateClass();
+    p.view = Distribution.singleton(a);
+    Assert.assertSame(p.view, Sugar.v().executeSugarView(p));
+    Assert.assertEquals(3.0, Sugar.v().executeSugarRate(p), 0);
+  }
+
+  @Test
+  public void testMethodViewAndInheritedRate() {
+    ListView p = new ListView();
+    p.neighbors.add(a);
+    p.neighbors.add(b);
+    Distribution<Address> view = Sugar.v().executeSugarView(p);
+    Assert.assertEquals(0.5, view.get(a), 1e-12);
+    Assert.assertEquals(0.5, view.get(b), 1e-12);
+    Assert.assertEquals(1.0, Sugar.v().executeSugarRate(p), 0);
+  }
+
+  @Test
+  public void testRateReturnTypes() {
+    Assert.assertEquals(0.25, Sugar.v().executeSugarRate(new BoxedRate()), 0);
+    Assert.assertEquals(2.0, Sugar.v().executeSugarRate(new IntRate()), 0);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testExceptionsPassThrough() {
+    Sugar.v().executeSugarRate(new Failing());
+  }
+
+  @Test
+  public void testConcurrentFirstUse() throws InterruptedException {
+    final int threads = 16;
+    final CountDownLatch start = new CountDownLatch(1);
+    final AtomicInteger failures = new AtomicInteger();
+    final RaceLeaf p = new RaceLeaf();
+    p.neighbors.add(a);
+    long before = Sugar.v().getResolutionCount();
+
+    List<Thread> started = new ArrayList<Thread>();
+    for (int i = 0; i < threads; i++) {
+      Thread t = new Thread() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            Sugar.v().executeSugarRate(p);
+            Sugar.v().executeSugarView(p);
+          } catch (Throwable t) {
+            failures.incrementAndGet();
+          }
+        }
+      };
+      t.start();
+      started.add(t);
+    }
+    start.countDown();
+    for (Thread t : started) {
+      t.join();
+    }
+    Assert.assertEquals(0, failures.get());
+    // one view, one rate
+    Assert.assertEquals(2, Sugar.v().getResolutionCount() - before);
+  }
+
+  @Test
+  public void testWarm() {
+    List<BaseProtocol> leaves = new ArrayList<BaseProtocol>();
+    for (int i = 0; i < 3; i++) {
+      WarmLeaf leaf = new WarmLeaf();
+      leaf.neighbors.add(a);
+      leaves.add(leaf);
+    }
+    Protocol root = MergeCorrelated.operator.merge(leaves);
+    // MergeCorrelated and WarmLeaf
+    Assert.assertEquals(2, Sugar.v().warm(root));
+
+    long warmed = Sugar.v().getResolutionCount();
+    Sugar.v().executeSugarView(root);
+    Sugar.v().executeSugarRate(root);
+    Assert.assertEquals(warmed, Sugar.v().getResolutionCount());
+  }
+}
@@ -0,0 +1,205 @@
+package org.princehouse.mica.base.sugar.processor;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.princehouse.mica.base.model.Protocol;
+import org.princehouse.mica.base.sugar.GeneratedMetadata;
+import org.princehouse.mica.base.sugar.ProtocolMetadata;
+
+public class ProtocolProcessorTest {
+
+  private static final String HEADER = "package p;\n"
+      + "import java.util.*;\n"
+      + "import org.princehouse.mica.base.BaseProtocol;\n"
+      + "import org.princehouse.mica.base.model.Protocol;\n"
+      + "import org.princehouse.mica.base.net.model.Address;\n"
+      + "import org.princehouse.mica.base.sugar.annotations.*;\n"
+      + "@SuppressWarnings(\"serial\")\n";
+
+  private File dir;
+  private List<Diagnostic<? extends JavaFileObject>> diagnostics;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("mica-processor").toFile();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    delete(dir);
+  }
+
+  private static void delete(File f) {
+    File[] children = f.listFiles();
+    if (children != null) {
+      for (File c : children) {
+        delete(c);
+      }
+    }
+    f.delete();
+  }
+
+  // compile class p.name with the processor; true if it compiled without errors
+  private boolean compile(String name, String body) throws IOException {
+    File src = new File(dir, "p/" + name + ".java");
+    src.getParentFile().mkdirs();
+    Files.write(src.toPath(), (HEADER + body).getBytes(StandardCharsets.UTF_8));
+
+    JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+    DiagnosticCollector<JavaFileObject> collector = new DiagnosticCollector<JavaFileObject>();
+    StandardJavaFileManager files = javac.getStandardFileManager(collector, null, null);
+    try {
+      List<String> options = Arrays.asList("-d", dir.getPath(), "-classpath",
+          System.getProperty("java.class.path"), "-processor", ProtocolProcessor.class.getName());
+      boolean ok = javac.getTask(null, files, collector, options, null,
+          files.getJavaFileObjects(src)).call();
+      diagnostics = collector.getDiagnostics();
+      return ok;
+    } finally {
+      files.close();
+    }
+  }
+
+  private List<String> messages(Diagnostic.Kind kind) {
+    List<String> messages = new ArrayList<String>();
+    for (Diagnostic<? extends JavaFileObject> d : diagnostics) {
+      if (d.getKind() == kind) {
+        messages.add(d.getMessage(Locale.ROOT));
+      }
+    }
+    return messages;
+  }
+
+  private void assertError(String name, String body, String expected) throws IOException {
+    Assert.assertFalse(compile(name, body));
+    for (String m : messages(Diagnostic.Kind.ERROR)) {
+      if (m.contains(expected)) {
+        return;
+      }
+    }
+    Assert.fail("expected an error containing \"" + expected + "\", got "
+        + messages(Diagnostic.Kind.ERROR));
+  }
+
+  @Test
+  public void testGeneratesDispatchTableAndIndex() throws Exception {
+    Assert.assertTrue(compile("Good", "public class Good extends BaseProtocol {\n"
+        + "  @View public Set<Address> neighbors = new HashSet<Address>();\n"
+        + "  @GossipRate public Integer fast() { return 4; }\n"
+        + "  @GossipUpdate public void update(Protocol that) { }\n"
+        + "}\n"));
+    Assert.assertEquals(new ArrayList<String>(), messages(Diagnostic.Kind.WARNING));
+
+    URLClassLoader loader = new URLClassLoader(new URL[]{dir.toURI().toURL()},
+        getClass().getClassLoader());
+    try {
+      Class<?> k = loader.loadClass("p.Good");
+      ProtocolMetadata m = GeneratedMetadata.forClass(k);
+      Assert.assertNotNull(m);
+      Protocol p = (Protocol) k.getDeclaredConstructor().newInstance();
+      Assert.assertTrue(m.hasView());
+      Assert.assertFalse(m.isUniformRandomView());
+      Assert.assertSame(k.getField("neighbors").get(p), m.view(p));
+      Assert.assertTrue(m.hasRate());
+      Assert.assertEquals(4.0, m.rate(p), 0);
+
+      List<String> index = new ArrayList<String>();
+      for (String line : Files.readAllLines(new File(dir, GeneratedMetadata.INDEX).toPath())) {
+        index.add(line);
+      }
+      Assert.assertEquals(Arrays.asList("p.Good"), index);
+    } finally {
+      loader.close();
+    }
+  }
+
+  @Test
+  public void testInheritedElements() throws Exception {
+    Assert.assertTrue(compile("Child", "public class Child extends Parent {\n"
+        + "  public void update(Protocol that) { }\n"
+        + "}\n"
+        + "abstract class Parent extends BaseProtocol {\n"
+        + "  @View public Address target() { return null; }\n"
+        + "}\n"));
+    URLClassLoader loader = new URLClassLoader(new URL[]{dir.toURI().toURL()},
+        getClass().getClassLoader());
+    try {
+      Class<?> k = loader.loadClass("p.Child");
+      ProtocolMetadata m = GeneratedMetadata.forClass(k);
+      Assert.assertTrue(m.hasView());
+      // BaseProtocol.rate()
+      Assert.assertEquals(1.0, m.rate((Protocol) k.getDeclaredConstructor().newInstance()), 0);
+      Assert.assertNull(GeneratedMetadata.forClass(loader.loadClass("p.Parent")));
+    } finally {
+      loader.close();
+    }
+  }
+
+  @Test
+  public void testUniformRandomMethod() throws IOException {
+    assertError("A", "public class A extends BaseProtocol {\n"
+        + "  @ViewUniformRandom public Set<Address> select() { return null; }\n"
+        + "  public void update(Protocol that) { }\n"
+        + "}\n", "only applies to fields");
+  }
+
+  @Test
+  public void testTwoViews() throws IOException {
+    assertError("B", "public class B extends BaseProtocol {\n"
+        + "  @View public Set<Address> a;\n"
+        + "  @View public Set<Address> b;\n"
+        + "  public void update(Protocol that) { }\n"
+        + "}\n", "More than one view element");
+  }
+
+  @Test
+  public void testBadViewType() throws IOException {
+    assertError("C", "public class C extends BaseProtocol {\n"
+        + "  @View public String view;\n"
+        + "  public void update(Protocol that) { }\n"
+        + "}\n", "cannot make a view from");
+  }
+
+  @Test
+  public void testBadRate() throws IOException {
+    assertError("D", "public class D extends BaseProtocol {\n"
+        + "  @GossipRate public String fast() { return null; }\n"
+        + "  public void update(Protocol that) { }\n"
+        + "}\n", "must return a number");
+  }
+
+  @Test
+  public void testBadUpdate() throws IOException {
+    assertError("E", "public class E extends BaseProtocol {\n"
+        + "  @GossipUpdate public void update(Protocol a, Protocol b) { }\n"
+        + "  public void update(Protocol that) { }\n"
+        + "}\n", "@GossipUpdate must annotate a method with one parameter");
+  }
+
+  @Test
+  public void testNonPublicWarning() throws IOException {
+    Assert.assertTrue(compile("F", "public class F extends BaseProtocol {\n"
+        + "  @View Set<Address> view;\n"
+        + "  public void update(Protocol that) { }\n"
+        + "}\n"));
+    Assert.assertEquals(1, messages(Diagnostic.Kind.WARNING).size());
+  }
+}
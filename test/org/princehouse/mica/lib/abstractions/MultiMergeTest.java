@@ -0,0 +1,261 @@
+package org.princehouse.mica.lib.abstractions;
+
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.princehouse.mica.base.BaseProtocol;
+import org.princehouse.mica.base.model.MiCA;
+import org.princehouse.mica.base.model.Protocol;
+import org.princehouse.mica.base.model.RuntimeContextManager;
+import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.net.tcpip.TCPAddress;
+import org.princehouse.mica.base.simple.SimpleRuntime;
+import org.princehouse.mica.base.simple.SimpleRuntimeInterface;
+import org.princehouse.mica.base.sugar.annotations.GossipRate;
+import org.princehouse.mica.base.sugar.annotations.View;
+import org.princehouse.mica.util.Distribution;
+
+public class MultiMergeTest {
+
+  private static final double EPS = 1e-9;
+  private static final int ADDRESSES = 12;
+  private static final int DRAWS = 40000;
+
+  @SuppressWarnings("serial")
+  public static class Leaf extends BaseProtocol {
+
+    @View
+    public Distribution<Address> view;
+
+    public double rate;
+
+    public Leaf(Distribution<Address> view, double rate) {
+      this.view = view;
+      this.rate = rate;
+    }
+
+    @GossipRate
+    public double rate() {
+      return rate;
+    }
+
+    @Override
+    public void update(Protocol that) {
+    }
+  }
+
+  private RuntimeContextManager manager;
+  private MiCA.Context previous;
+  private SimpleRuntime runtime;
+  private List<Address> addresses;
+
+  @Before
+  public void setUp() throws UnknownHostException {
+    SimpleRuntimeInterface rti = new SimpleRuntimeInterface();
+    manager = rti.getRuntimeContextManager();
+    previous = MiCA.enter(new MiCA.Context(rti, null, null));
+    runtime = new SimpleRuntime(TCPAddress.valueOf("127.0.0.1:8000"));
+    addresses = new ArrayList<Address>();
+    for (int i = 0; i < ADDRESSES; i++) {
+      addresses.add(TCPAddress.valueOf(new byte[]{10, 5, 0, (byte) i}, 8000));
+    }
+  }
+
+  @After
+  public void tearDown() {
+    manager.clear();
+    MiCA.exit(previous);
+  }
+
+  private void begin() {
+    manager.clear();
+    manager.setNativeRuntime(runtime);
+    manager.memoize();
+  }
+
+  // k leaves with random rates and random views over the first few addresses; address 0 is in
+  // every view
+  private List<BaseProtocol> leaves(Random rng, int k) {
+    List<BaseProtocol> leaves = new ArrayList<BaseProtocol>();
+    for (int i = 0; i < k; i++) {
+      Distribution<Address> d = new Distribution<Address>();
+      d.put(addresses.get(0), rng.nextDouble());
+      for (int j = 0; j < 4; j++) {
+        d.put(addresses.get(1 + rng.nextInt(ADDRESSES - 1)), rng.nextDouble());
+      }
+      leaves.add(new Leaf(d.ipnormalize(), 0.1 + rng.nextDouble()));
+    }
+    return leaves;
+  }
+
+  private static void assertSame(Distribution<Address> expected, Distribution<Address> actual) {
+    Assert.assertEquals(expected.keySet(), actual.keySet());
+    for (Address a : expected.keySet()) {
+      Assert.assertEquals(expected.get(a), actual.get(a), EPS);
+    }
+  }
+
+  private void assertMatchesTree(Protocol flat, Protocol tree) {
+    begin();
+    assertSame(tree.getView(), flat.getView());
+    begin();
+    Assert.assertEquals(tree.getRate(), flat.getRate(), EPS);
+  }
+
+  @Test
+  public void testViewAndRateMatchTree() {
+    Random rng = new Random(0L);
+    for (int k = 1; k <= 9; k++) {
+      List<BaseProtocol> leaves = leaves(rng, k);
+      assertMatchesTree(new MultiMergeCorrelated(leaves), MergeCorrelated.operator.merge(leaves));
+      assertMatchesTree(new MultiMergeIndependent(leaves),
+          MergeIndependent.operator.merge(leaves));
+    }
+  }
+
+  // per-subprotocol gossip frequencies for peer x
+  private double[] frequencies(MultiMerge m, Address x, Random rng, boolean exactlyOne) {
+    double[] counts = new double[m.size()];
+    begin();
+    for (int draw = 0; draw < DRAWS; draw++) {
+      int[] chosen = m.decideGossiping(x, rng);
+      if (exactlyOne) {
+        Assert.assertEquals(1, chosen.length);
+      }
+      for (int i : chosen) {
+        counts[i] += 1.0 / DRAWS;
+      }
+    }
+    return counts;
+  }
+
+  @Test
+  public void testCorrelatedParticipation() {
+    Random rng = new Random(1L);
+    List<BaseProtocol> leaves = leaves(rng, 6);
+    MultiMerge m = new MultiMergeCorrelated(leaves);
+    Address x = addresses.get(0);
+
+    double[] q = new double[leaves.size()];
+    double qmax = 0;
+    for (int i = 0; i < q.length; i++) {
+      Leaf leaf = (Leaf) leaves.get(i);
+      q[i] = leaf.rate * leaf.view.get(x);
+      qmax = Math.max(qmax, q[i]);
+    }
+    double[] f = frequencies(m, x, rng, false);
+    for (int i = 0; i < q.length; i++) {
+      Assert.assertEquals(q[i] / qmax, f[i], 0.02);
+    }
+  }
+
+  // marks the leaves of a MergeCorrelated tree that gossip with x, drawing each merge's selection
+  // case as Merge.preUpdate does
+  private void treeGossiping(Protocol p, Address x, Random rng, List<BaseProtocol> leaves,
+      boolean[] gossiping) {
+    if (!(p instanceof Merge)) {
+      gossiping[leaves.indexOf(p)] = true;
+      return;
+    }
+    Merge m = (Merge) p;
+    switch (m.decideSelectionCase(x).sample(rng)) {
+      case P1:
+        treeGossiping(m.getP1(), x, rng, leaves, gossiping);
+        break;
+      case P2:
+        treeGossiping(m.getP2(), x, rng, leaves, gossiping);
+        break;
+      case BOTH_P1P2:
+      case BOTH_P2P1:
+        treeGossiping(m.getP1(), x, rng, leaves, gossiping);
+        treeGossiping(m.getP2(), x, rng, leaves, gossiping);
+        break;
+      default:
+        break;
+    }
+  }
+
+  @Test
+  public void testCorrelatedJointParticipation() {
+    // tree ((0,1),(2,3)) over one address with q = (0.5, 1, 0.5, 1): leaves 0 and 2 each gossip
+    // half the time, independently in the tree and always together in the flat merge
+    Address x = addresses.get(0);
+    double[] rates = {0.5, 1, 0.5, 1};
+    List<BaseProtocol> leaves = new ArrayList<BaseProtocol>();
+    for (double rate : rates) {
+      Distribution<Address> d = new Distribution<Address>();
+      d.put(x, 1.0);
+      leaves.add(new Leaf(d, rate));
+    }
+    Protocol tree = MergeCorrelated.operator.merge(leaves);
+    MultiMerge flat = new MultiMergeCorrelated(leaves);
+
+    Random rng = new Random(4L);
+    double[] treeMarginal = new double[rates.length];
+    double[] flatMarginal = new double[rates.length];
+    double treeBoth = 0;
+    double flatBoth = 0;
+    begin();
+    for (int draw = 0; draw < DRAWS; draw++) {
+      boolean[] t = new boolean[rates.length];
+      treeGossiping(tree, x, rng, leaves, t);
+      boolean[] f = new boolean[rates.length];
+      for (int i : flat.decideGossiping(x, rng)) {
+        f[i] = true;
+      }
+      for (int i = 0; i < rates.length; i++) {
+        treeMarginal[i] += (t[i] ? 1.0 : 0) / DRAWS;
+        flatMarginal[i] += (f[i] ? 1.0 : 0) / DRAWS;
+      }
+      treeBoth += (t[0] && t[2] ? 1.0 : 0) / DRAWS;
+      flatBoth += (f[0] && f[2] ? 1.0 : 0) / DRAWS;
+    }
+
+    // each leaf gossips as often in both
+    for (int i = 0; i < rates.length; i++) {
+      Assert.assertEquals(rates[i], treeMarginal[i], 0.02);
+      Assert.assertEquals(rates[i], flatMarginal[i], 0.02);
+    }
+    // but not with the same partners
+    Assert.assertEquals(0.25, treeBoth, 0.02);
+    Assert.assertEquals(0.5, flatBoth, 0.02);
+  }
+
+  @Test
+  public void testIndependentParticipation() {
+    Random rng = new Random(2L);
+    List<BaseProtocol> leaves = leaves(rng, 6);
+    MultiMerge m = new MultiMergeIndependent(leaves);
+    Address x = addresses.get(0);
+
+    double[] q = new double[leaves.size()];
+    double sum = 0;
+    for (int i = 0; i < q.length; i++) {
+      Leaf leaf = (Leaf) leaves.get(i);
+      q[i] = leaf.rate * leaf.view.get(x);
+      sum += q[i];
+    }
+    double[] f = frequencies(m, x, rng, true);
+    for (int i = 0; i < q.length; i++) {
+      Assert.assertEquals(q[i] / sum, f[i], 0.02);
+    }
+  }
+
+  @Test
+  public void testNullViewChoosesOne() {
+    Random rng = new Random(3L);
+    List<BaseProtocol> leaves = leaves(rng, 4);
+    ((Leaf) leaves.get(2)).view = null;
+    MultiMerge m = new MultiMergeCorrelated(leaves);
+    frequencies(m, addresses.get(0), rng, true);
+
+    // the null view is left out of the composite
+    ((Leaf) leaves.get(2)).rate = 100.0;
+    assertMatchesTree(m, MergeCorrelated.operator.merge(leaves));
+  }
+}
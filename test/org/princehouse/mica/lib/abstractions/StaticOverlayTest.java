@@ -0,0 +1,47 @@
+package org.princehouse.mica.lib.abstractions;
+
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Assert;
+import org.junit.Test;
+import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.net.tcpip.TCPAddress;
+import org.princehouse.mica.util.Distribution;
+import org.princehouse.mica.util.FrozenDistribution;
+
+public class StaticOverlayTest {
+
+  private static List<Address> addresses(int n) throws UnknownHostException {
+    List<Address> view = new ArrayList<Address>();
+    for (int i = 0; i < n; i++) {
+      view.add(TCPAddress.valueOf("127.0.0.1:" + (8000 + i)));
+    }
+    return view;
+  }
+
+  @Test
+  public void testLiveViewIsReread() throws UnknownHostException {
+    List<Address> view = addresses(2);
+    StaticOverlay overlay = new StaticOverlay(view);
+    Assert.assertEquals(2, overlay.getView().size());
+    Assert.assertFalse(overlay.getView() instanceof FrozenDistribution);
+
+    view.add(TCPAddress.valueOf("127.0.0.1:9000"));
+    Distribution<Address> d = overlay.getView();
+    Assert.assertEquals(3, d.size());
+    Assert.assertEquals(1.0 / 3, d.get(TCPAddress.valueOf("127.0.0.1:9000")), 1e-9);
+  }
+
+  @Test
+  public void testImmutableViewIsFrozenOnce() throws UnknownHostException {
+    List<Address> view = addresses(2);
+    StaticOverlay overlay = new StaticOverlay(view, true);
+    Distribution<Address> d = overlay.getView();
+    Assert.assertTrue(d instanceof FrozenDistribution);
+    Assert.assertSame(d, overlay.getView());
+
+    overlay.setView(addresses(3));
+    Assert.assertEquals(3, overlay.getView().size());
+  }
+}
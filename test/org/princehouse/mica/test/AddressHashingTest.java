@@ -5,6 +5,7 @@ import org.junit.Assert;
 import org.junit.Test;
 import org.princehouse.mica.base.net.model.Address;
 import org.princehouse.mica.base.net.tcpip.TCPAddress;
+import org.princehouse.mica.util.Serialization;
 
 public class AddressHashingTest {
 
@@ -24,4 +25,37 @@ public class AddressHashingTest {
     Assert.assertEquals(a.hashCode(), b.hashCode());
   }
 
+  @Test
+  public void testCompactEncoding() throws UnknownHostException {
+    TCPAddress a = TCPAddress.valueOf("127.0.0.1:8002");
+    byte[] java = Serialization.serializeJava(a);
+    TCPAddress b = (TCPAddress) Serialization.deserializeJava(java);
+    Assert.assertEquals(a, b);
+    Assert.assertEquals(a.hashCode(), b.hashCode());
+    Assert.assertEquals(0, a.compareTo(b));
+
+    TCPAddress c = (TCPAddress) Serialization.deserializeKryo(Serialization.serializeKryo(a));
+    Assert.assertEquals(a, c);
+    Assert.assertEquals(a.hashCode(), c.hashCode());
+  }
+
+  @Test
+  public void testHashIgnoresHostName() throws UnknownHostException {
+    Address a = TCPAddress.valueOf("localhost:8002");
+    Address b = TCPAddress.valueOf(new byte[]{127, 0, 0, 1}, 8002);
+    Assert.assertEquals(a, b);
+    Assert.assertEquals(a.hashCode(), b.hashCode());
+    Assert.assertEquals(0, a.compareTo(b));
+  }
+
+  @Test
+  public void testOrder() throws UnknownHostException {
+    Address a = TCPAddress.valueOf("127.0.0.1:999");
+    Address b = TCPAddress.valueOf("127.0.0.1:8000");
+    Address c = TCPAddress.valueOf("127.0.0.2:80");
+    Assert.assertTrue(a.compareTo(b) < 0);
+    Assert.assertTrue(b.compareTo(c) < 0);
+    Assert.assertTrue(c.compareTo(a) > 0);
+  }
+
 }
@@ -0,0 +1,175 @@
+package org.princehouse.mica.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import org.junit.Assert;
+import org.junit.Test;
+import org.princehouse.mica.base.net.ConnectionPool;
+import org.princehouse.mica.base.net.model.AcceptConnectionHandler;
+import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.net.model.Connection;
+import org.princehouse.mica.base.net.model.NotBoundException;
+
+public class ConnectionPoolTest {
+
+  private static class FakeConnection extends Connection {
+
+    private final Address dst;
+    private boolean healthy = true;
+    private boolean closed = false;
+
+    private FakeConnection(Address dst) {
+      this.dst = dst;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return new ByteArrayOutputStream();
+    }
+
+    @Override
+    public void close() {
+      closed = true;
+    }
+
+    @Override
+    public boolean isHealthy() {
+      return healthy && !closed;
+    }
+
+    @Override
+    public Address getSrc() {
+      return null;
+    }
+
+    @Override
+    public Address getDst() {
+      return dst;
+    }
+  }
+
+  // opens FakeConnections
+  @SuppressWarnings("serial")
+  private static class FakeAddress implements Address {
+
+    private final String name;
+    private int opened = 0;
+
+    private FakeAddress(String name) {
+      this.name = name;
+    }
+
+    @Override
+    public void bind(AcceptConnectionHandler h) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void unbind() throws NotBoundException {
+      throw new NotBoundException();
+    }
+
+    @Override
+    public Connection openConnection() {
+      opened++;
+      return new FakeConnection(this);
+    }
+
+    @Override
+    public int compareTo(Address o) {
+      return toString().compareTo(o.toString());
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  @Test
+  public void testReuse() throws IOException {
+    ConnectionPool pool = new ConnectionPool(60000);
+    FakeAddress a = new FakeAddress("a");
+    FakeAddress b = new FakeAddress("b");
+
+    Connection c1 = pool.acquire(a);
+    pool.release(c1);
+    Assert.assertSame(c1, pool.acquire(a));
+    // only idle connections are handed out, and only to their own address
+    Connection c2 = pool.acquire(a);
+    Assert.assertNotSame(c1, c2);
+    Connection c3 = pool.acquire(b);
+    Assert.assertSame(b, c3.getDst());
+
+    Assert.assertEquals(2, a.opened);
+    Assert.assertEquals(1, b.opened);
+    Assert.assertEquals(3, pool.getOpened());
+    Assert.assertEquals(1, pool.getReused());
+
+    pool.release(c1);
+    pool.release(c2);
+    pool.close();
+    Assert.assertTrue(((FakeConnection) c1).closed);
+    Assert.assertTrue(((FakeConnection) c2).closed);
+    Assert.assertTrue(((FakeConnection) c3).closed);
+  }
+
+  @Test
+  public void testIdleEviction() throws IOException, InterruptedException {
+    ConnectionPool pool = new ConnectionPool(20);
+    FakeAddress a = new FakeAddress("a");
+    FakeConnection c1 = (FakeConnection) pool.acquire(a);
+    pool.release(c1);
+    Thread.sleep(100);
+
+    Connection c2 = pool.acquire(a);
+    Assert.assertNotSame(c1, c2);
+    Assert.assertTrue(c1.closed);
+    Assert.assertEquals(0, pool.getReused());
+    Assert.assertEquals(2, a.opened);
+  }
+
+  @Test
+  public void testHealthCheck() throws IOException {
+    ConnectionPool pool = new ConnectionPool(60000);
+    FakeAddress a = new FakeAddress("a");
+    FakeConnection c1 = (FakeConnection) pool.acquire(a);
+    pool.release(c1);
+    // e.g. the peer closed it while it was idle
+    c1.healthy = false;
+
+    Connection c2 = pool.acquire(a);
+    Assert.assertNotSame(c1, c2);
+    Assert.assertTrue(c1.closed);
+    Assert.assertEquals(0, pool.getReused());
+  }
+
+  @Test
+  public void testDiscardAfterError() throws IOException {
+    ConnectionPool pool = new ConnectionPool(60000);
+    FakeAddress a = new FakeAddress("a");
+    FakeConnection c1 = (FakeConnection) pool.acquire(a);
+    pool.discard(c1);
+    Assert.assertTrue(c1.closed);
+
+    Connection c2 = pool.acquire(a);
+    Assert.assertNotSame(c1, c2);
+    Assert.assertEquals(2, a.opened);
+
+    // releasing a discarded connection does not pool it
+    pool.release(c1);
+    pool.release(c2);
+    Assert.assertSame(c2, pool.acquire(a));
+    Connection c3 = pool.acquire(a);
+    Assert.assertNotSame(c1, c3);
+    Assert.assertEquals(3, a.opened);
+  }
+}
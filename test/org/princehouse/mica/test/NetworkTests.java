@@ -1,5 +1,7 @@
 package org.princehouse.mica.test;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
@@ -9,9 +11,13 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import org.junit.Assert;
 import org.junit.Test;
+import org.princehouse.mica.base.model.MiCA;
+import org.princehouse.mica.base.model.MicaOptions;
 import org.princehouse.mica.base.net.model.AcceptConnectionHandler;
 import org.princehouse.mica.base.net.model.Address;
 import org.princehouse.mica.base.net.model.Connection;
+import org.princehouse.mica.base.net.model.NotBoundException;
+import org.princehouse.mica.base.net.tcpip.NioServer;
 import org.princehouse.mica.base.net.tcpip.TCPAddress;
 
 public class NetworkTests {
@@ -69,6 +75,51 @@ public class NetworkTests {
     }
   }
 
+  // The NIO transport hands each length-prefixed frame to the handler
+  @Test
+  public void testNioTCPAddress() throws IOException {
+    AcceptConnectionHandler echo = new AcceptConnectionHandler() {
+      @Override
+      public void acceptConnection(Address recipient, Connection connection) throws IOException {
+        DataInputStream in = new DataInputStream(connection.getInputStream());
+        byte[] frame = new byte[in.readInt()];
+        in.readFully(frame);
+        DataOutputStream out = new DataOutputStream(connection.getOutputStream());
+        out.writeInt(frame.length);
+        out.write(frame);
+      }
+    };
+
+    MicaOptions previous = MiCA.getOptions();
+    MicaOptions options = new MicaOptions();
+    options.transport = "nio";
+    MiCA.setOptions(options);
+    TCPAddress a = new TCPAddress(InetAddress.getByName("localhost"), 8011);
+    try {
+      a.bind(echo);
+      for (String msg : new String[]{"hello world", "", "goodbye"}) {
+        Connection c = a.openConnection();
+        DataOutputStream out = new DataOutputStream(c.getOutputStream());
+        out.writeInt(msg.length());
+        out.write(msg.getBytes());
+        DataInputStream in = new DataInputStream(c.getInputStream());
+        byte[] reply = new byte[in.readInt()];
+        in.readFully(reply);
+        Assert.assertEquals(msg, new String(reply));
+        c.close();
+      }
+    } finally {
+      try {
+        a.unbind();
+      } catch (NotBoundException e) {
+        // bind failed
+      }
+      // the selector loops are only needed by this test
+      NioServer.getServer().stop();
+      MiCA.setOptions(previous);
+    }
+  }
+
   public void subtestConnection(Connection c) throws IOException {
     OutputStream out = c.getOutputStream();
     InputStream in = c.getInputStream();
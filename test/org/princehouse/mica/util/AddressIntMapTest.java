@@ -0,0 +1,59 @@
+package org.princehouse.mica.util;
+
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.net.model.AddressTable;
+import org.princehouse.mica.base.net.tcpip.TCPAddress;
+import org.princehouse.mica.util.codec.Codecs;
+
+public class AddressIntMapTest {
+
+  private static Address address(int i) throws UnknownHostException {
+    return TCPAddress.valueOf(new byte[]{10, 1, (byte) (i >> 8), (byte) i}, 9000 + i);
+  }
+
+  @Test
+  public void testAgainstHashMap() throws UnknownHostException {
+    Random rng = new Random(0L);
+    AddressIntMap map = new AddressIntMap();
+    Map<Address, Integer> expected = new HashMap<Address, Integer>();
+    for (int i = 0; i < 20000; i++) {
+      Address a = address(rng.nextInt(300));
+      int op = rng.nextInt(3);
+      if (op == 0) {
+        Assert.assertEquals(expected.remove(a) != null, map.removeKey(a));
+      } else {
+        map.putInt(a, i);
+        expected.put(a, i);
+      }
+      Assert.assertEquals(expected.size(), map.size());
+    }
+    Assert.assertEquals(expected, map);
+    Assert.assertEquals(-1, map.getInt(address(1000), -1));
+  }
+
+  @Test
+  public void testIdsAreStable() throws UnknownHostException {
+    Address a = address(7);
+    int id = AddressTable.id(a);
+    Assert.assertEquals(id, AddressTable.id(address(7)));
+    Assert.assertEquals(a, AddressTable.address(id));
+    Assert.assertNotEquals(id, AddressTable.id(address(8)));
+  }
+
+  @Test
+  public void testSerialization() throws UnknownHostException {
+    AddressIntMap map = new AddressIntMap();
+    for (int i = 0; i < 10; i++) {
+      map.putInt(address(i), -i);
+    }
+    Assert.assertEquals(map, Serialization.deserializeJava(Serialization.serializeJava(map)));
+    Assert.assertEquals(map, Serialization.deserializeKryo(Serialization.serializeKryo(map)));
+    Assert.assertEquals(map, Codecs.deserialize(Codecs.serialize(map)));
+  }
+}
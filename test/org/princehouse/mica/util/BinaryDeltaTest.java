@@ -0,0 +1,58 @@
+package org.princehouse.mica.util;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BinaryDeltaTest {
+
+  private static byte[] mutate(byte[] base, Random rng) {
+    byte[] target = Arrays.copyOf(base, base.length);
+    // overwrite a few bytes
+    for (int i = 0; i < 10; i++) {
+      target[rng.nextInt(target.length)] ^= 0x5a;
+    }
+    // insert and remove a run
+    byte[] inserted = new byte[37];
+    rng.nextBytes(inserted);
+    int at = rng.nextInt(target.length);
+    byte[] grown = new byte[target.length + inserted.length];
+    System.arraycopy(target, 0, grown, 0, at);
+    System.arraycopy(inserted, 0, grown, at, inserted.length);
+    System.arraycopy(target, at, grown, at + inserted.length, target.length - at);
+    int cut = rng.nextInt(grown.length - 100);
+    byte[] shrunk = new byte[grown.length - 50];
+    System.arraycopy(grown, 0, shrunk, 0, cut);
+    System.arraycopy(grown, cut + 50, shrunk, cut, grown.length - cut - 50);
+    return shrunk;
+  }
+
+  @Test
+  public void testRoundTrip() {
+    Random rng = new Random(0);
+    for (int trial = 0; trial < 50; trial++) {
+      byte[] base = new byte[200 + rng.nextInt(5000)];
+      rng.nextBytes(base);
+      byte[] target = mutate(base, rng);
+      byte[] delta = BinaryDelta.diff(base, target);
+      Assert.assertArrayEquals(target, BinaryDelta.apply(base, delta));
+      // small edits cost a small delta
+      Assert.assertTrue(delta.length < 600);
+    }
+  }
+
+  @Test
+  public void testEdgeCases() {
+    byte[] empty = new byte[0];
+    byte[] small = new byte[]{1, 2, 3};
+    byte[] same = new byte[1000];
+    new Random(1).nextBytes(same);
+    for (byte[][] pair : new byte[][][]{{empty, empty}, {empty, small}, {small, empty},
+        {same, same}, {same, small}, {small, same}}) {
+      byte[] delta = BinaryDelta.diff(pair[0], pair[1]);
+      Assert.assertArrayEquals(pair[1], BinaryDelta.apply(pair[0], delta));
+    }
+    Assert.assertTrue(BinaryDelta.diff(same, same).length < 10);
+  }
+}
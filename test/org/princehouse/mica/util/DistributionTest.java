@@ -0,0 +1,141 @@
+package org.princehouse.mica.util;
+
+import java.io.Serializable;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DistributionTest {
+
+  private static final double EPS = 1e-12;
+
+  private static Distribution<Integer> random(Random rng, int offset, int n) {
+    Distribution<Integer> d = new Distribution<Integer>();
+    for (int i = 0; i < n; i++) {
+      d.put(offset + i, rng.nextDouble());
+    }
+    // non-positive weights are not part of the distribution
+    d.put(-1 - offset, 0.0);
+    return d.ipnormalize();
+  }
+
+  private static void assertSame(Distribution<Integer> expected, Distribution<Integer> actual) {
+    Assert.assertEquals(expected.keySet(), actual.keySet());
+    for (Integer k : expected.keySet()) {
+      Assert.assertEquals(expected.get(k), actual.get(k), EPS);
+    }
+  }
+
+  @Test
+  public void testFusedMatchesComposed() {
+    Random rng = new Random(0L);
+    for (int trial = 0; trial < 50; trial++) {
+      Distribution<Integer> d1 = random(rng, 0, 1 + rng.nextInt(20));
+      Distribution<Integer> d2 = random(rng, rng.nextInt(20), 1 + rng.nextInt(20));
+      double s1 = rng.nextDouble();
+      double s2 = rng.nextDouble();
+
+      assertSame(Distribution.max(d1.scale(s1), d2.scale(s2)).ipnormalize(),
+          Distribution.maxNormalized(d1, s1, d2, s2));
+      Assert.assertEquals(Distribution.max(d1.scale(s1), d2.scale(s2)).magnitude(),
+          Distribution.maxMagnitude(d1, s1, d2, s2), EPS);
+      assertSame(d1.scale(s1).add(d2.scale(s2)), Distribution.weightedSum(d1, s1, d2, s2));
+
+      // and again with array-backed arguments, as in a stack of merges
+      Distribution<Integer> a1 = new ArrayDistribution<Integer>(d1);
+      Distribution<Integer> a2 = new ArrayDistribution<Integer>(d2);
+      assertSame(Distribution.maxNormalized(d1, s1, d2, s2),
+          Distribution.maxNormalized(a1, s1, a2, s2));
+      assertSame(Distribution.maxNormalized(d1, s1, d2, s2),
+          Distribution.maxNormalized(d1, s1, a2, s2));
+      Assert.assertEquals(Distribution.maxMagnitude(d1, s1, d2, s2),
+          Distribution.maxMagnitude(a1, s1, a2, s2), EPS);
+      assertSame(Distribution.weightedSum(d1, s1, d2, s2),
+          Distribution.weightedSum(a1, s1, d2, s2));
+    }
+  }
+
+  @Test
+  public void testArrayDistribution() {
+    Random rng = new Random(3L);
+    Distribution<Integer> d = random(rng, 0, 40);
+    ArrayDistribution<Integer> a = new ArrayDistribution<Integer>(d);
+    assertSame(d, a);
+    Assert.assertEquals(40, a.size());
+    // copy() drops the zero weight
+    Assert.assertEquals(d.copy(), a);
+    Assert.assertEquals(a, d.copy());
+    Assert.assertEquals(0.0, a.get(-1), 0.0);
+    Assert.assertFalse(a.containsKey(-1));
+    Assert.assertEquals(1.0, a.magnitude(), EPS);
+    assertSame(d.scale(0.5), a.scale(0.5));
+
+    // the same weights in a different order sample the same keys in proportion
+    Distribution<Integer> counts = new Distribution<Integer>();
+    int draws = 100000;
+    for (int i = 0; i < draws; i++) {
+      Integer k = a.sample(rng);
+      counts.put(k, counts.get(k) + 1);
+    }
+    for (Integer k : d.keySet()) {
+      Assert.assertEquals(d.get(k), counts.get(k) / draws, 0.01);
+    }
+
+    try {
+      a.put(1, 0.5);
+      Assert.fail();
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    try {
+      a.ipnormalize();
+      Assert.fail();
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Test
+  public void testArrayDistributionSerialization() {
+    Random rng = new Random(4L);
+    Distribution<Integer> a = Distribution.maxNormalized(random(rng, 0, 10), 0.5,
+        random(rng, 5, 10), 0.5);
+    Assert.assertTrue(a instanceof ArrayDistribution);
+
+    Distribution<Integer> java = (Distribution<Integer>) Serialization.deserializeJava(
+        Serialization.serializeJava(a));
+    assertSame(a, java);
+    java.ipnormalize();
+
+    Distribution<Integer> kryo = (Distribution<Integer>) Serialization.deserializeKryo(
+        Serialization.serializeKryo(a));
+    Assert.assertTrue(kryo instanceof ArrayDistribution);
+    assertSame(a, kryo);
+
+    Serializable codec = Serialization.deserializeCodec(Serialization.serializeCodec(a));
+    assertSame(a, (Distribution<Integer>) codec);
+  }
+
+  @Test
+  public void testZeroScale() {
+    Random rng = new Random(1L);
+    Distribution<Integer> d1 = random(rng, 0, 5);
+    Distribution<Integer> d2 = random(rng, 3, 5);
+    assertSame(d2, Distribution.maxNormalized(d1, 0.0, d2, 1.0));
+    Assert.assertNull(Distribution.maxNormalized(d1, 0.0, d2, 0.0));
+    Assert.assertEquals(0.0, Distribution.maxMagnitude(d1, 0.0, null, 1.0), 0.0);
+  }
+
+  @Test
+  public void testSampleSkipsZeroWeights() {
+    Distribution<String> d = new Distribution<String>();
+    d.put("zero", 0.0);
+    d.put("one", 1.0);
+    Random rng = new Random(2L);
+    for (int i = 0; i < 100; i++) {
+      Assert.assertEquals("one", d.sample(rng));
+    }
+    Assert.assertEquals(1, d.keySet().size());
+  }
+}
@@ -0,0 +1,93 @@
+package org.princehouse.mica.util;
+
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FrozenDistributionTest {
+
+  private static Distribution<String> weighted() {
+    Distribution<String> d = new Distribution<String>();
+    d.put("a", 0.5);
+    d.put("b", 0.25);
+    d.put("c", 0.125);
+    d.put("d", 0.125);
+    d.put("zero", 0.0);
+    return d;
+  }
+
+  @Test
+  public void testSampleFrequencies() {
+    FrozenDistribution<String> frozen = weighted().freeze();
+    Random rng = new Random(0L);
+    Distribution<String> counts = new Distribution<String>();
+    int n = 200000;
+    for (int i = 0; i < n; i++) {
+      String s = frozen.sample(rng);
+      counts.put(s, counts.get(s) + 1);
+    }
+    Assert.assertEquals(0.0, counts.get("zero"), 0.0);
+    for (String k : weighted().keySet()) {
+      Assert.assertEquals(weighted().get(k), counts.get(k) / n, 0.01);
+    }
+  }
+
+  @Test
+  public void testUnnormalized() {
+    Distribution<String> d = new Distribution<String>();
+    d.put("a", 3.0);
+    d.put("b", 1.0);
+    FrozenDistribution<String> frozen = d.freeze();
+    Random rng = new Random(1L);
+    int a = 0;
+    for (int i = 0; i < 100000; i++) {
+      if (frozen.sample(rng).equals("a")) {
+        a++;
+      }
+    }
+    Assert.assertEquals(0.75, a / 100000.0, 0.01);
+  }
+
+  @Test
+  public void testEmpty() {
+    Assert.assertNull(new Distribution<String>().freeze().sample(new Random()));
+  }
+
+  @Test
+  public void testImmutable() {
+    FrozenDistribution<String> frozen = weighted().freeze();
+    try {
+      frozen.put("e", 1.0);
+      Assert.fail();
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    try {
+      frozen.ipnormalize();
+      Assert.fail();
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+    // non-destructive operations return mutable copies
+    Distribution<String> scaled = frozen.scale(2.0);
+    scaled.put("e", 1.0);
+    Assert.assertEquals(0.5, frozen.get("a"), 0.0);
+    Assert.assertTrue(frozen.isOne());
+  }
+
+  @Test
+  public void testSerialization() {
+    FrozenDistribution<String> frozen = weighted().freeze();
+    for (Object copy : new Object[]{
+        Serialization.deserializeJava(Serialization.serializeJava(frozen)),
+        Serialization.deserializeKryo(Serialization.serializeKryo(frozen))}) {
+      Assert.assertTrue(copy instanceof FrozenDistribution);
+      Assert.assertEquals(frozen, copy);
+      Random r1 = new Random(2L);
+      Random r2 = new Random(2L);
+      for (int i = 0; i < 100; i++) {
+        Assert.assertEquals(frozen.sample(r1), ((FrozenDistribution<?>) copy).sample(r2));
+      }
+    }
+  }
+}
@@ -0,0 +1,88 @@
+package org.princehouse.mica.util;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.princehouse.mica.base.BaseProtocol;
+import org.princehouse.mica.base.model.Protocol;
+import org.princehouse.mica.base.net.tcpip.TCPAddress;
+
+public class KryoSerializationTest {
+
+  @SuppressWarnings("serial")
+  private static class Node extends BaseProtocol {
+
+    private Node next;
+    private Node peer;
+    private TCPAddress address;
+    private Random random = new Random(7);
+    private List<String> names = Collections.unmodifiableList(Arrays.asList("a", "b"));
+    private Distribution<String> weights = new Distribution<String>();
+
+    // no no-arg constructor
+    private Node(String address) {
+      this.address = new TCPAddress(address);
+    }
+
+    @Override
+    public void update(Protocol that) {
+    }
+  }
+
+  @Test
+  public void testRoundTrip() {
+    Node a = new Node("127.0.0.1:8001");
+    Node b = new Node("127.0.0.1:8002");
+    a.next = b;
+    b.next = a;
+    a.peer = b;
+    a.weights.put("x", 0.5);
+    a.random.nextInt();
+
+    Node copy = (Node) Serialization.deserializeKryo(Serialization.serializeKryo(a));
+    Assert.assertNotSame(a, copy);
+    Assert.assertSame(copy, copy.next.next);
+    Assert.assertSame(copy.next, copy.peer);
+    Assert.assertEquals(a.address, copy.address);
+    Assert.assertEquals(a.random.nextInt(), copy.random.nextInt());
+    Assert.assertEquals(a.names, copy.names);
+    Assert.assertEquals(0.5, copy.weights.get("x"), 0.0);
+  }
+
+  @Test
+  public void testMarksForeignObjects() {
+    Node a = new Node("127.0.0.1:8001");
+    a.next = new Node("127.0.0.1:8002");
+    Node copy = (Node) Serialization.deserializeKryo(Serialization.serializeKryo(a));
+    Assert.assertNotNull(copy.getForeignMark());
+    Assert.assertSame(copy.getForeignMark(), copy.next.getForeignMark());
+    Assert.assertNull(a.getForeignMark());
+    Node again = (Node) Serialization.deserializeKryo(Serialization.serializeKryo(a));
+    Assert.assertNotSame(copy.getForeignMark(), again.getForeignMark());
+  }
+
+  @Test
+  public void testSplitMixRandom() {
+    SplitMixRandom r = new SplitMixRandom(42);
+    r.nextInt();
+    SplitMixRandom java = (SplitMixRandom) Serialization.deserializeJava(
+        Serialization.serializeJava(r));
+    SplitMixRandom kryo = (SplitMixRandom) Serialization.deserializeKryo(
+        Serialization.serializeKryo(r));
+    long next = r.nextLong();
+    Assert.assertEquals(next, java.nextLong());
+    Assert.assertEquals(next, kryo.nextLong());
+    Assert.assertTrue(Serialization.serializeKryo(r).length < 16);
+  }
+
+  @Test
+  public void testSmallerThanJava() {
+    Serializable state = new Node("127.0.0.1:8001");
+    Assert.assertTrue(Serialization.serializeKryo(state).length < Serialization.serializeJava(
+        state).length);
+  }
+}
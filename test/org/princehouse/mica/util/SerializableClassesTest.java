@@ -0,0 +1,55 @@
+package org.princehouse.mica.util;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import org.junit.Assert;
+import org.junit.Test;
+import org.princehouse.mica.base.BaseProtocol;
+import org.princehouse.mica.base.model.Protocol;
+
+public class SerializableClassesTest {
+
+  @SuppressWarnings("serial")
+  public static class Plain extends BaseProtocol {
+
+    @Override
+    public void update(Protocol that) {
+    }
+  }
+
+  @SuppressWarnings("serial")
+  public static class ReadsItself extends Plain {
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+      in.defaultReadObject();
+    }
+  }
+
+  @SuppressWarnings("serial")
+  public static class InheritsHook extends ReadsItself {
+
+  }
+
+  @SuppressWarnings("serial")
+  public static class NoData implements Serializable {
+
+    private void readObjectNoData() throws ObjectStreamException {
+    }
+  }
+
+  @Test
+  public void testBaseProtocolHooksAreExempt() {
+    Assert.assertFalse(SerializableClasses.customizesSerialization(BaseProtocol.class));
+    Assert.assertFalse(SerializableClasses.customizesSerialization(Plain.class));
+  }
+
+  @Test
+  public void testEveryHookCounts() {
+    Assert.assertTrue(SerializableClasses.customizesSerialization(ReadsItself.class));
+    Assert.assertTrue(SerializableClasses.customizesSerialization(InheritsHook.class));
+    Assert.assertTrue(SerializableClasses.customizesSerialization(NoData.class));
+    Assert.assertTrue(SerializableClasses.customizesSerialization(ArrayDistribution.class));
+  }
+}
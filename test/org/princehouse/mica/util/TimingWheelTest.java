@@ -0,0 +1,65 @@
+package org.princehouse.mica.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+  @Test
+  public void testNeverEarly() throws InterruptedException {
+    ExecutorService executor = Executors.newCachedThreadPool();
+    // small wheel, so that some deadlines are several turns away
+    TimingWheel wheel = new TimingWheel(executor, TimeUnit.MILLISECONDS.toNanos(1), 8);
+    final int n = 50;
+    final CountDownLatch done = new CountDownLatch(n);
+    final AtomicLong early = new AtomicLong();
+    for (int i = 0; i < n; i++) {
+      final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(i * 3);
+      wheel.scheduleAt(deadline, new Runnable() {
+        @Override
+        public void run() {
+          if (System.nanoTime() < deadline) {
+            early.incrementAndGet();
+          }
+          done.countDown();
+        }
+      });
+    }
+    Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+    Assert.assertEquals(0L, early.get());
+    Assert.assertEquals(n, wheel.getLateness().count);
+    wheel.stop();
+    executor.shutdown();
+  }
+
+  @Test
+  public void testCancel() throws InterruptedException {
+    ExecutorService executor = Executors.newCachedThreadPool();
+    TimingWheel wheel = new TimingWheel(executor);
+    final AtomicBoolean ran = new AtomicBoolean(false);
+    final CountDownLatch done = new CountDownLatch(1);
+    TimingWheel.Timeout t = wheel.schedule(20, new Runnable() {
+      @Override
+      public void run() {
+        ran.set(true);
+      }
+    });
+    wheel.schedule(40, new Runnable() {
+      @Override
+      public void run() {
+        done.countDown();
+      }
+    });
+    t.cancel();
+    Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+    Assert.assertFalse(ran.get());
+    wheel.stop();
+    executor.shutdown();
+  }
+}
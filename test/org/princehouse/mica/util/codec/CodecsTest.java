@@ -0,0 +1,102 @@
+package org.princehouse.mica.util.codec;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.Assert;
+import org.junit.Test;
+import org.princehouse.mica.base.BaseProtocol;
+import org.princehouse.mica.base.model.Protocol;
+import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.net.tcpip.TCPAddress;
+import org.princehouse.mica.lib.abstractions.MergeSelectionCase;
+import org.princehouse.mica.util.Distribution;
+import org.princehouse.mica.util.Serialization;
+
+public class CodecsTest {
+
+  @SuppressWarnings("serial")
+  private static class Node extends BaseProtocol {
+
+    private final int id;
+    private long stamp = -3L;
+    private double value;
+    private boolean flag;
+    private char letter = 'q';
+    private transient int scratch = 5;
+    private Node next;
+    private Node peer;
+    private TCPAddress address;
+    private int[] counts = new int[]{1, -2, 300000};
+    private Random random = new Random(7);
+    private List<String> names = Collections.unmodifiableList(Arrays.asList("a", "b"));
+    private Distribution<String> weights = new Distribution<String>();
+    private Set<Address> view = new HashSet<Address>();
+    private MergeSelectionCase choice = MergeSelectionCase.P2;
+
+    // no no-arg constructor
+    private Node(int id, String address) {
+      this.id = id;
+      this.address = new TCPAddress(address);
+    }
+
+    @Override
+    public void update(Protocol that) {
+    }
+  }
+
+  @Test
+  public void testRoundTrip() {
+    Node a = new Node(1, "127.0.0.1:8001");
+    Node b = new Node(2, "127.0.0.1:8002");
+    a.next = b;
+    b.next = a;
+    a.peer = b;
+    a.value = 0.25;
+    a.flag = true;
+    a.scratch = 9;
+    a.weights.put("x", 0.5);
+    a.view.add(a.address);
+    a.view.add(b.address);
+    a.random.nextInt();
+
+    Node copy = (Node) Codecs.deserialize(Codecs.serialize(a));
+    Assert.assertNotSame(a, copy);
+    Assert.assertSame(copy, copy.next.next);
+    Assert.assertSame(copy.next, copy.peer);
+    Assert.assertEquals(1, copy.id);
+    Assert.assertEquals(2, copy.next.id);
+    Assert.assertEquals(-3L, copy.stamp);
+    Assert.assertEquals(0.25, copy.value, 0.0);
+    Assert.assertTrue(copy.flag);
+    Assert.assertEquals('q', copy.letter);
+    Assert.assertEquals(0, copy.scratch);
+    Assert.assertArrayEquals(a.counts, copy.counts);
+    Assert.assertEquals(a.random.nextInt(), copy.random.nextInt());
+    Assert.assertEquals(a.names, copy.names);
+    Assert.assertEquals(0.5, copy.weights.get("x"), 0.0);
+    Assert.assertEquals(MergeSelectionCase.P2, copy.choice);
+  }
+
+  @Test
+  public void testAddresses() {
+    Node a = new Node(1, "localhost:8001");
+    a.view.add(a.address);
+    Node copy = (Node) Codecs.deserialize(Codecs.serialize(a));
+    Assert.assertEquals(a.address, copy.address);
+    Assert.assertEquals(a.address.hashCode(), copy.address.hashCode());
+    Assert.assertTrue(copy.view.contains(a.address));
+    // the address is written once
+    Assert.assertSame(copy.address, copy.view.iterator().next());
+  }
+
+  @Test
+  public void testSmallerThanJava() {
+    Serializable state = new Node(1, "127.0.0.1:8001");
+    Assert.assertTrue(Codecs.serialize(state).length < Serialization.serializeJava(state).length);
+  }
+}
@@ -0,0 +1,150 @@
+package org.princehouse.mica.util.harness;
+
+import fj.F;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.princehouse.mica.base.BaseProtocol;
+import org.princehouse.mica.base.model.MicaOptions;
+import org.princehouse.mica.base.model.MicaRuntime;
+import org.princehouse.mica.base.model.Protocol;
+import org.princehouse.mica.base.net.model.Address;
+import org.princehouse.mica.base.sugar.annotations.GossipUpdate;
+import org.princehouse.mica.base.sugar.annotations.View;
+import org.princehouse.mica.lib.abstractions.Overlay;
+import org.princehouse.mica.util.Functional;
+import org.princehouse.mica.util.harness.MonteCarloRunner.Run;
+
+public class MonteCarloRunnerTest {
+
+  // folds the ids of the peers it exchanges with into a hash, so runs agree only if they gossip
+  // with the same peers in the same order
+  public static class Trace extends BaseProtocol {
+
+    private static final long serialVersionUID = 1L;
+
+    @View
+    public Overlay overlay;
+    public int id;
+    public long trace = 0;
+
+    public Trace(Overlay overlay, int id) {
+      this.overlay = overlay;
+      this.id = id;
+    }
+
+    @GossipUpdate
+    @Override
+    public void update(Protocol p) {
+      Trace that = (Trace) p;
+      trace = trace * 31 + that.id;
+      that.trace = that.trace * 31 + id;
+    }
+  }
+
+  private static final ProtocolInstanceFactory factory = new ProtocolInstanceFactory() {
+    @Override
+    public Protocol createProtocolInstance(int nodeId, Address address, Overlay overlay) {
+      return new Trace(overlay, nodeId);
+    }
+  };
+
+  private static final F<TestHarness, List<Long>> traces = new F<TestHarness, List<Long>>() {
+    @Override
+    public List<Long> f(TestHarness harness) {
+      List<Long> traces = new ArrayList<Long>();
+      for (MicaRuntime rt : harness.getRuntimes()) {
+        traces.add(((Trace) rt.getProtocolInstance()).trace);
+      }
+      return traces;
+    }
+  };
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private MicaOptions options() throws IOException {
+    MicaOptions options = new MicaOptions();
+    options.n = 10;
+    options.stopAfter = 5;
+    // simulated time must not depend on how long the host takes
+    options.simUpdateDuration = 0;
+    options.logdir = folder.newFolder("parallel").getPath();
+    return options;
+  }
+
+  @Test
+  public void testParallelMatchesSequential() throws IOException, InterruptedException {
+    List<MicaOptions> optionSets = MonteCarloRunner.seeds(options(), 7L, 2);
+    MonteCarloRunner runner = new MonteCarloRunner(2);
+    List<Run<List<Long>>> runs;
+    try {
+      runs = runner.run(optionSets, factory, traces);
+    } finally {
+      runner.close();
+    }
+    Assert.assertTrue(runner.getPool().isShutdown());
+    Assert.assertTrue(runner.getPool().awaitTermination(10, TimeUnit.SECONDS));
+
+    Assert.assertEquals(2, runs.size());
+    for (int i = 0; i < runs.size(); i++) {
+      Run<List<Long>> run = runs.get(i);
+      Assert.assertNull(run.error);
+      Assert.assertEquals(i, run.index);
+      Assert.assertEquals(7L + i, (long) run.options.seed);
+      Assert.assertTrue(new File(optionSets.get(i).logdir, "run" + i).isDirectory());
+
+      MicaOptions sequential = optionSets.get(i).copy();
+      sequential.logdir = folder.newFolder("sequential" + i).getPath();
+      TestHarness harness = new TestHarness();
+      harness.setGlobalContext(false);
+      harness.runMain(sequential, factory);
+      Assert.assertEquals(traces.f(harness), run.result);
+    }
+    // the seed matters
+    Assert.assertNotEquals(runs.get(0).result, runs.get(1).result);
+  }
+
+  private static String logOf(MicaOptions options) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    for (File f : new File(options.logdir).listFiles()) {
+      sb.append(new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8));
+    }
+    return sb.toString();
+  }
+
+  @Test
+  public void testRunsUseTheirOwnLogFlags() throws IOException {
+    List<MicaOptions> optionSets = MonteCarloRunner.seeds(options(), 7L, 2);
+    optionSets.get(1).logsDisable = Functional.list("gossip");
+    MonteCarloRunner runner = new MonteCarloRunner(2);
+    List<Run<List<Long>>> runs;
+    try {
+      runs = runner.run(optionSets, factory, traces);
+    } finally {
+      runner.close();
+    }
+    for (Run<List<Long>> run : runs) {
+      Assert.assertNull(run.error);
+    }
+    Assert.assertTrue(logOf(runs.get(0).options).contains("mica-gossip"));
+    String quiet = logOf(runs.get(1).options);
+    Assert.assertTrue(quiet.contains("mica-select"));
+    Assert.assertFalse(quiet.contains("mica-gossip"));
+  }
+
+  @Test
+  public void testSharedPoolIsNotShutDown() {
+    MonteCarloRunner runner = new MonteCarloRunner();
+    runner.close();
+    Assert.assertFalse(runner.getPool().isShutdown());
+  }
+}
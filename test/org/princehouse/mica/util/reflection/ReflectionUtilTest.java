@@ -0,0 +1,42 @@
+package org.princehouse.mica.util.reflection;
+
+import java.util.Set;
+import java.util.function.Function;
+import org.junit.Assert;
+import org.junit.Test;
+import org.princehouse.mica.base.BaseProtocol;
+import org.princehouse.mica.base.model.Protocol;
+import org.princehouse.mica.base.sugar.GeneratedMetadata;
+import org.princehouse.mica.example.FindMinSymmetric;
+import org.reflections.Reflections;
+
+public class ReflectionUtilTest {
+
+  private int scans = 0;
+
+  private final Function<String, Reflections> countingScanner = new Function<String, Reflections>() {
+    @Override
+    public Reflections apply(String pkg) {
+      scans++;
+      return new Reflections(pkg);
+    }
+  };
+
+  @Test
+  public void protocolsComeFromTheIndexWithoutScanning() {
+    Assert.assertNotNull("no protocol index on the class path",
+        GeneratedMetadata.readIndex(Protocol.class.getClassLoader()));
+    Set<Class<? extends Protocol>> protocols = ReflectionUtil
+        .getImplementations(Protocol.class, countingScanner);
+    Assert.assertEquals(0, scans);
+    Assert.assertTrue(protocols.contains(BaseProtocol.class));
+    Assert.assertTrue(protocols.contains(FindMinSymmetric.class));
+    Assert.assertFalse(protocols.contains(Protocol.class));
+  }
+
+  @Test
+  public void nonProtocolTypesAreScanned() {
+    ReflectionUtil.getImplementations(Runnable.class, countingScanner);
+    Assert.assertEquals(1, scans);
+  }
+}
@@ -0,0 +1,145 @@
+package org.princehouse.mica.util.reflection;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+import org.princehouse.mica.base.BaseProtocol;
+import org.princehouse.mica.base.model.Protocol;
+import org.princehouse.mica.lib.abstractions.MergeCorrelated;
+
+public class RichObjectFinderTest {
+
+  @SuppressWarnings("serial")
+  public static class Leaf extends BaseProtocol {
+
+    public int value;
+
+    public Leaf(int value) {
+      this.value = value;
+    }
+
+    @Override
+    public void update(Protocol that) {
+    }
+
+    // equal leaves are still distinct protocols
+    @Override
+    public boolean equals(Object o) {
+      return (o instanceof Leaf && ((Leaf) o).value == value);
+    }
+
+    @Override
+    public int hashCode() {
+      return value;
+    }
+  }
+
+  // fails if anything walks its elements
+  @SuppressWarnings("serial")
+  public static class UntouchableList<T> extends ArrayList<T> {
+
+    @Override
+    public Iterator<T> iterator() {
+      throw new AssertionError("walked a list that cannot hold a protocol");
+    }
+  }
+
+  @SuppressWarnings("serial")
+  public static class Holder extends BaseProtocol {
+
+    public static Leaf global = new Leaf(-1);
+
+    public List<Integer> numbers = new UntouchableList<Integer>();
+    public Map<String, Leaf> byName = new HashMap<String, Leaf>();
+    public List<Protocol> children = new ArrayList<Protocol>();
+    public Object anything;
+    public Leaf[] array;
+    public String name = "holder";
+
+    @Override
+    public void update(Protocol that) {
+    }
+  }
+
+  private static RichObjectFinder finder() {
+    return RichObjectFinder.forType(Protocol.class);
+  }
+
+  private static void assertFound(List<Object> expected, List<Object> found) {
+    Assert.assertEquals(expected.size(), found.size());
+    for (Object o : expected) {
+      boolean present = false;
+      for (Object f : found) {
+        present |= (f == o);
+      }
+      Assert.assertTrue(o.toString(), present);
+    }
+  }
+
+  @Test
+  public void testFindsEveryEdgeKind() {
+    Holder h = new Holder();
+    Leaf a = new Leaf(1);
+    Leaf b = new Leaf(1);
+    Leaf c = new Leaf(2);
+    Leaf d = new Leaf(3);
+    h.numbers.add(5);
+    h.byName.put("a", new Leaf(7));
+    h.children.add(a);
+    h.children.add(b);
+    List<Object> wrapped = new ArrayList<Object>();
+    wrapped.add(c);
+    h.anything = wrapped;
+    h.array = new Leaf[]{d, null, a};
+
+    List<Object> expected = new ArrayList<Object>();
+    expected.add(h);
+    expected.add(a);
+    expected.add(b);
+    expected.add(c);
+    expected.add(d);
+    // map contents and static fields are not followed
+    assertFound(expected, finder().find(h));
+  }
+
+  @Test
+  public void testMatchesReachableObjectVisitor() {
+    List<BaseProtocol> leaves = new ArrayList<BaseProtocol>();
+    for (int i = 0; i < 37; i++) {
+      leaves.add(new Leaf(i % 3));
+    }
+    Protocol root = MergeCorrelated.operator.merge(leaves);
+
+    final List<Object> visited = new ArrayList<Object>();
+    new FindReachableObjects<Object>() {
+      @Override
+      public boolean match(Object obj) {
+        return obj instanceof Protocol;
+      }
+
+      @Override
+      public void add(Object obj) {
+        visited.add(obj);
+      }
+    }.analyze(root);
+
+    Assert.assertEquals(37 + 36, visited.size());
+    assertFound(visited, finder().find(root));
+  }
+
+  @Test
+  public void testCycles() {
+    Holder h1 = new Holder();
+    Holder h2 = new Holder();
+    h1.anything = h2;
+    h2.children.add(h1);
+    List<Object> expected = new ArrayList<Object>();
+    expected.add(h1);
+    expected.add(h2);
+    assertFound(expected, finder().find(h1));
+  }
+}